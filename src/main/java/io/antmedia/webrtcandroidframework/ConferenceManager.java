@@ -15,6 +15,10 @@ import org.webrtc.DataChannel;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 import org.webrtc.SurfaceViewRenderer;
+import org.webrtc.VideoCompositor;
+import org.webrtc.audio.AudioLevelMonitor;
+import org.webrtc.audio.PcmRingBuffer;
+import org.webrtc.audio.VoiceActivityDetector;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -31,6 +35,9 @@ import io.antmedia.webrtcandroidframework.apprtc.IDataChannelMessageSender;
 import static io.antmedia.webrtcandroidframework.apprtc.CallActivity.EXTRA_DATA_CHANNEL_ENABLED;
 
 public class ConferenceManager implements AntMediaSignallingEvents, IDataChannelMessageSender {
+    private static final String SPEAKING_STARTED = "SPEAKING_STARTED";
+    private static final String SPEAKING_STOPPED = "SPEAKING_STOPPED";
+
     private final Context context;
     private final Intent intent;
     private final String serverUrl;
@@ -39,8 +46,14 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
     private HashMap<String, WebRTCClient> peers = new HashMap<>();
     private LinkedHashMap<SurfaceViewRenderer, WebRTCClient> playRendererAllocationMap = new LinkedHashMap<>();
     private SurfaceViewRenderer publishViewRenderer;
+    // When set, all played streams are drawn by this compositor instead of the play renderers.
+    private VideoCompositor videoCompositor;
     private final IWebRTCListener webRTCListener;
     private final IDataChannelObserver dataChannelObserver;
+    // Detects when the local participant speaks; see startVoiceActivityDetection().
+    private AudioLevelMonitor localAudioLevelMonitor;
+    private boolean suppressAudioWhileSilent = false;
+    private String activeSpeakerStreamId;
     private WebSocketHandler wsHandler;
     private Handler handler = new Handler();
     private boolean joined = false;
@@ -59,6 +72,34 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
     };
     private boolean playOnlyMode = false;
 
+    // Forwards all data channel events to the application's observer and picks up the speaking
+    // notification events of the other participants on the way.
+    private final IDataChannelObserver speakingEventObserver = new IDataChannelObserver() {
+        @Override
+        public void onBufferedAmountChange(long previousAmount, String dataChannelLabel) {
+            dataChannelObserver.onBufferedAmountChange(previousAmount, dataChannelLabel);
+        }
+
+        @Override
+        public void onStateChange(DataChannel.State state, String dataChannelLabel) {
+            dataChannelObserver.onStateChange(state, dataChannelLabel);
+        }
+
+        @Override
+        public void onMessage(DataChannel.Buffer buffer, String dataChannelLabel) {
+            // Speaking events are only sent from KitKat on, see onLocalSpeakingChanged().
+            if (!buffer.binary && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                handleSpeakingEvent(buffer.data.duplicate());
+            }
+            dataChannelObserver.onMessage(buffer, dataChannelLabel);
+        }
+
+        @Override
+        public void onMessageSent(DataChannel.Buffer buffer, boolean successful) {
+            dataChannelObserver.onMessageSent(buffer, successful);
+        }
+    };
+
 
     public ConferenceManager(Context context, IWebRTCListener webRTCListener, Intent intent, String serverUrl, String roomName, SurfaceViewRenderer publishViewRenderer, ArrayList<SurfaceViewRenderer> playViewRenderers, String streamId, IDataChannelObserver dataChannelObserver) {
         this.context = context;
@@ -81,6 +122,95 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
         initWebSocketHandler();
     }
 
+    /**
+     * Draws all played streams into one surface with the given compositor instead of one
+     * SurfaceViewRenderer per stream. Must be called before joining the conference. The caller
+     * initializes the compositor and releases it after leaving.
+     */
+    public void setVideoCompositor(VideoCompositor videoCompositor) {
+        this.videoCompositor = videoCompositor;
+    }
+
+    /**
+     * Starts detecting when the local participant speaks, on the recorded microphone audio.
+     * Speaking transitions are sent to the other participants as SPEAKING_STARTED and
+     * SPEAKING_STOPPED notification events, which drive their active speaker layout. If
+     * suppressAudioWhileSilent is true, the local audio is only sent while speaking.
+     * Must be called after the stream is published.
+     */
+    public void startVoiceActivityDetection(boolean suppressAudioWhileSilent) {
+        WebRTCClient publishStream = peers.get(streamId);
+        PcmRingBuffer recordedSamples =
+                publishStream != null ? publishStream.getRecordedSamplesRingBuffer() : null;
+        if (recordedSamples == null) {
+            Log.w(this.getClass().getSimpleName(), "It did not joined to the conference room yet ");
+            return;
+        }
+        stopVoiceActivityDetection();
+        this.suppressAudioWhileSilent = suppressAudioWhileSilent;
+        if (suppressAudioWhileSilent) {
+            publishStream.setAudioSendingSuspended(true);
+        }
+        localAudioLevelMonitor = new AudioLevelMonitor("Local", recordedSamples,
+                new VoiceActivityDetector(), new AudioLevelMonitor.Callback() {
+                    @Override
+                    public void onAudioLevel(double smoothedDbfs, double peakDbfs) {
+                    }
+
+                    @Override
+                    public void onSpeakingChanged(boolean speaking) {
+                        handler.post(() -> onLocalSpeakingChanged(speaking));
+                    }
+                }, 0);
+        localAudioLevelMonitor.start();
+    }
+
+    public void stopVoiceActivityDetection() {
+        if (localAudioLevelMonitor == null) {
+            return;
+        }
+        localAudioLevelMonitor.stop();
+        localAudioLevelMonitor = null;
+        WebRTCClient publishStream = peers.get(streamId);
+        if (suppressAudioWhileSilent && publishStream != null) {
+            publishStream.setAudioSendingSuspended(false);
+        }
+        suppressAudioWhileSilent = false;
+    }
+
+    /**
+     * Returns the id of the remote stream that spoke last, or null if nobody has spoken yet.
+     */
+    public String getActiveSpeakerStreamId() {
+        return activeSpeakerStreamId;
+    }
+
+    private void onLocalSpeakingChanged(boolean speaking) {
+        WebRTCClient publishStream = peers.get(streamId);
+        if (localAudioLevelMonitor == null || publishStream == null) {
+            return;
+        }
+        if (suppressAudioWhileSilent) {
+            publishStream.setAudioSendingSuspended(!speaking);
+        }
+        // A muted participant is not announced as speaking.
+        if (publishStream.isAudioOn() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            sendNotificationEvent(speaking ? SPEAKING_STARTED : SPEAKING_STOPPED);
+        }
+    }
+
+    private void onRemoteSpeakingChanged(String speakerStreamId, boolean speaking) {
+        // The last participant who started speaking stays the active speaker until another starts.
+        if (!speaking || speakerStreamId.equals(activeSpeakerStreamId)
+                || !peers.containsKey(speakerStreamId)) {
+            return;
+        }
+        activeSpeakerStreamId = speakerStreamId;
+        if (videoCompositor != null) {
+            videoCompositor.setPrimaryStream(speakerStreamId);
+        }
+    }
+
     public void setPlayOnlyMode(boolean playOnlyMode) {
         this.playOnlyMode = playOnlyMode;
     }
@@ -102,10 +232,15 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
     }
 
     public void leaveFromConference() {
+        stopVoiceActivityDetection();
 
-        for (WebRTCClient peer : peers.values()) {
+        for (Map.Entry<String, WebRTCClient> entry : peers.entrySet()) {
+            WebRTCClient peer = entry.getValue();
             peer.stopStream();
             deallocateRenderer(peer);
+            if (videoCompositor != null) {
+                videoCompositor.removeStream(entry.getKey());
+            }
         }
 
         wsHandler.leaveFromTheConferenceRoom(roomName);
@@ -126,12 +261,14 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
         if (mode == IWebRTCClient.MODE_PUBLISH) {
             webRTCClient.setOpenFrontCamera(openFrontCamera);
             webRTCClient.setVideoRenderers(null, publishViewRenderer);
+        } else if (videoCompositor != null) {
+            webRTCClient.setRemoteVideoSink(videoCompositor.addStream(streamId));
         } else {
             webRTCClient.setVideoRenderers(null, allocateRenderer(webRTCClient));
         }
 
         if (dataChannelObserver != null) {
-            webRTCClient.setDataChannelObserver(dataChannelObserver);
+            webRTCClient.setDataChannelObserver(speakingEventObserver);
         }
 
         webRTCClient.init(serverUrl, streamId, mode, tokenId, intent);
@@ -303,6 +440,15 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
         WebRTCClient peer = peers.remove(streamId);
         if (peer != null) {
             deallocateRenderer(peer);
+            if (videoCompositor != null) {
+                videoCompositor.removeStream(streamId);
+            }
+            if (streamId.equals(activeSpeakerStreamId)) {
+                activeSpeakerStreamId = null;
+                if (videoCompositor != null) {
+                    videoCompositor.setPrimaryStream(null);
+                }
+            }
             peer.stopStream();
             Log.i(ConferenceManager.class.getSimpleName(), "Stream left: " + streamId);
         } else {
@@ -323,7 +469,10 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
 
     @Override
     public void onBitrateMeasurement(String streamId, int targetBitrate, int videoBitrate, int audioBitrate) {
-
+        WebRTCClient peer = peers.get(streamId);
+        if (peer != null) {
+            peer.onBitrateMeasurement(streamId, targetBitrate, videoBitrate, audioBitrate);
+        }
     }
 
     @Override
@@ -342,6 +491,30 @@ public class ConferenceManager implements AntMediaSignallingEvents, IDataChannel
         }
     }
 
+    // Called on the data channel thread; the speaking state is changed on the handler thread.
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    private void handleSpeakingEvent(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        // Cheap check first; most messages are not speaking events.
+        if (!text.contains(SPEAKING_STARTED) && !text.contains(SPEAKING_STOPPED)) {
+            return;
+        }
+        try {
+            JSONObject jsonObject = new JSONObject(text);
+            String eventType = jsonObject.optString("eventType");
+            String eventStreamId = jsonObject.optString("streamId");
+            if (SPEAKING_STARTED.equals(eventType)) {
+                handler.post(() -> onRemoteSpeakingChanged(eventStreamId, true));
+            } else if (SPEAKING_STOPPED.equals(eventType)) {
+                handler.post(() -> onRemoteSpeakingChanged(eventStreamId, false));
+            }
+        } catch (JSONException e) {
+            Log.w(this.getClass().getSimpleName(), "Message is not a notification event: " + text);
+        }
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     private void sendNotificationEvent(String eventType) {
         JSONObject jsonObject = new JSONObject();
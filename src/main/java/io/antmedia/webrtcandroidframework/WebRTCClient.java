@@ -22,6 +22,7 @@ import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Surface;
@@ -43,6 +44,10 @@ import com.serenegiant.usb.widget.UVCCameraTextureView;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
+import org.webrtc.CameraVideoCapturer;
+import org.webrtc.CaptureBufferMetrics;
+import org.webrtc.CapturerSwitcher;
+import org.webrtc.CaptureTimingReport;
 import org.webrtc.DataChannel;
 import org.webrtc.EglBase;
 import org.webrtc.FileVideoCapturer;
@@ -50,30 +55,43 @@ import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RTCStats;
 import org.webrtc.RTCStatsReport;
 import org.webrtc.RendererCommon;
 import org.webrtc.RendererCommon.ScalingType;
 import org.webrtc.ScreenCapturerAndroid;
 import org.webrtc.SessionDescription;
+import org.webrtc.SurfaceTextureCapturer;
 import org.webrtc.SurfaceViewRenderer;
+import org.webrtc.TextureStageTimings;
 import org.webrtc.VideoCapturer;
 import org.webrtc.VideoFileRenderer;
+import org.webrtc.VideoProcessor;
 import org.webrtc.VideoSink;
 import org.webrtc.VideoTrack;
+import org.webrtc.audio.AudioInputBackend;
+import org.webrtc.audio.AudioOutputBackend;
+import org.webrtc.audio.PcmRingBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import io.antmedia.webrtcandroidframework.apprtc.AdaptiveQualityManager;
 import io.antmedia.webrtcandroidframework.apprtc.AppRTCAudioManager;
 import io.antmedia.webrtcandroidframework.apprtc.AppRTCClient;
+import io.antmedia.webrtcandroidframework.apprtc.BandwidthCaptureController;
 import io.antmedia.webrtcandroidframework.apprtc.CallActivity;
 import io.antmedia.webrtcandroidframework.apprtc.IDataChannelMessageSender;
 import io.antmedia.webrtcandroidframework.apprtc.PeerConnectionClient;
+import io.antmedia.webrtcandroidframework.apprtc.QualityGovernor;
+import io.antmedia.webrtcandroidframework.apprtc.UvcDeviceManager;
+import io.antmedia.webrtcandroidframework.apprtc.UvcDeviceStateMachine;
 
 import static io.antmedia.webrtcandroidframework.apprtc.CallActivity.EXTRA_URLPARAMETERS;
 
@@ -85,6 +103,22 @@ import static io.antmedia.webrtcandroidframework.apprtc.CallActivity.EXTRA_URLPA
 public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSignallingEvents, PeerConnectionClient.PeerConnectionEvents, IDataChannelMessageSender, IDataChannelObserver {
     private static final String TAG = "WebRTCClient69";
 
+    /** Video track published next to the main one; see addVideoSource(). */
+    private static class AdditionalVideoSource {
+        final VideoCapturer capturer;
+        final PeerConnectionClient.VideoTrackParameters parameters;
+        @Nullable
+        final SurfaceViewRenderer renderer;
+
+        AdditionalVideoSource(VideoCapturer capturer,
+                PeerConnectionClient.VideoTrackParameters parameters,
+                @Nullable SurfaceViewRenderer renderer) {
+            this.capturer = capturer;
+            this.parameters = parameters;
+            this.renderer = renderer;
+        }
+    }
+
 
     private final CallActivity.ProxyVideoSink remoteProxyRenderer = new CallActivity.ProxyVideoSink();
     private final CallActivity.ProxyVideoSink localProxyVideoSink = new CallActivity.ProxyVideoSink();
@@ -104,6 +138,9 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
     private SurfaceViewRenderer fullscreenRenderer;
     @Nullable
     private VideoFileRenderer videoFileRenderer;
+    // When set, remote video in play mode goes to this sink instead of the fullscreen renderer.
+    @Nullable
+    private VideoSink remoteVideoSink;
     private final List<VideoSink> remoteSinks = new ArrayList<>();
     private Toast logToast;
     private boolean commandLineRun;
@@ -138,6 +175,40 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
     List<PeerConnection.IceServer> iceServers = new ArrayList();
     private boolean videoOn = true;
     private boolean audioOn = true;
+    // Audio sending is paused while true, independent of the user's mute state in |audioOn|.
+    private boolean audioSendingSuspended = false;
+    @Nullable
+    private AudioInputBackend audioInputBackend;
+    @Nullable
+    private AudioOutputBackend audioOutputBackend;
+    private int playoutBufferMaxLatencyMs = 0;
+    @Nullable
+    private VideoProcessor localVideoProcessor;
+    private final List<AdditionalVideoSource> additionalVideoSources = new ArrayList<>();
+    private boolean adaptiveQualityEnabled = false;
+    @Nullable
+    private AdaptiveQualityManager.Events adaptiveQualityEvents;
+    @Nullable
+    private volatile AdaptiveQualityManager adaptiveQualityManager;
+    private boolean bandwidthAdaptationEnabled = false;
+    // Camera the capturer was created for, to look up its supported formats.
+    @Nullable
+    private CameraEnumerator cameraEnumerator;
+    @Nullable
+    private String cameraDeviceName;
+    @Nullable
+    private volatile BandwidthCaptureController bandwidthCaptureController;
+    // Latest limits of the capture format, combined by applyCaptureLimits().
+    private final Object captureLimitsLock = new Object();
+    @Nullable
+    private QualityGovernor.Level governorLevel;
+    @Nullable
+    private BandwidthCaptureController.Rung bandwidthRung;
+    private boolean uvcHotPlugEnabled = false;
+    @Nullable
+    private UvcDeviceStateMachine.Events uvcDeviceEvents;
+    @Nullable
+    private UvcDeviceManager uvcDeviceManager;
     Context applicationContext;
     private List<SurfaceViewRenderer> remoteRendererList = null;
     @Nullable
@@ -267,6 +338,9 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
                 renderer.setEnableHardwareScaler(true);
             }
         }
+        for (AdditionalVideoSource source : additionalVideoSources) {
+            initAdditionalVideoRenderer(source);
+        }
         // Start with local feed in fullscreen and swap it to the pip when the call is connected.
         setSwappedFeeds(true /* isSwappedFeeds */);
 
@@ -358,6 +432,11 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
         // Create peer connection client.
         peerConnectionClient = new PeerConnectionClient(
                 this.context.getApplicationContext(), eglBase, peerConnectionParameters, WebRTCClient.this, WebRTCClient.this);
+        peerConnectionClient.setAudioBackends(audioInputBackend, audioOutputBackend);
+        peerConnectionClient.setPlayoutBufferMaxLatencyMs(playoutBufferMaxLatencyMs);
+        if (localVideoProcessor != null) {
+            peerConnectionClient.setLocalVideoProcessor(localVideoProcessor);
+        }
         PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
         if (loopback) {
             options.networkIgnoreMask = 0;
@@ -374,6 +453,19 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
         }
 
         peerConnectionClient.init(videoCapturer, localProxyVideoSink);
+        for (AdditionalVideoSource source : additionalVideoSources) {
+            peerConnectionClient.addVideoSource(
+                    source.capturer, source.parameters, source.renderer);
+        }
+
+        if (videoCapturer instanceof SurfaceTextureCapturer && fullscreenRenderer != null) {
+            // The UVC camera asks the view for a SurfaceTexture when the preview starts. Hand out
+            // the capture texture so the preview goes straight to WebRTC as texture frames.
+            fullscreenRenderer.setSurfaceTextureCapturer((SurfaceTextureCapturer) videoCapturer);
+        }
+        if (uvcHotPlugEnabled && videoCapturer instanceof SurfaceTextureCapturer) {
+            startUvcDeviceManager((SurfaceTextureCapturer) videoCapturer);
+        }
 
 
         if (peerConnectionParameters.audioCallEnabled) {
@@ -468,7 +560,7 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
     private @Nullable
     VideoCapturer createCameraCapturer(CameraEnumerator enumerator) {
         final String[] deviceNames = enumerator.getDeviceNames();
-
+        cameraEnumerator = enumerator;
 
         if (openFrontCamera) {
             // First, try to find front facing camera
@@ -479,6 +571,7 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
                     VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
 
                     if (videoCapturer != null) {
+                        cameraDeviceName = deviceName;
                         return videoCapturer;
                     }
                 }
@@ -493,6 +586,7 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
                 VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
 
                 if (videoCapturer != null) {
+                    cameraDeviceName = deviceName;
                     return videoCapturer;
                 }
             }
@@ -506,6 +600,7 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
                 VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
 
                 if (videoCapturer != null) {
+                    cameraDeviceName = deviceName;
                     return videoCapturer;
                 }
             }
@@ -527,7 +622,8 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
             public void onStop() {
                 reportError("User revoked permission to capture the screen.");
             }
-        });
+        }, intent.getIntExtra(CallActivity.EXTRA_SCREENCAPTURE_MIN_FPS, 0),
+                ScreenCapturerAndroid.DEFAULT_KEEP_ALIVE_MS);
     }
 
     @Override
@@ -573,8 +669,102 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
     @Override
     public void switchCamera() {
         if (peerConnectionClient != null) {
-            peerConnectionClient.switchCamera();
+            peerConnectionClient.switchCamera(new CameraVideoCapturer.CameraSwitchHandler() {
+                @Override
+                public void onCameraSwitchDone(boolean isFrontCamera) {
+                    handler.post(() -> onCameraSwitched());
+                }
+
+                @Override
+                public void onCameraSwitchError(String errorDescription) {
+                    Log.w(TAG, "Camera switch failed: " + errorDescription);
+                }
+            });
+        }
+    }
+
+    // The camera capturer switched to the next camera of the enumerator; the bandwidth adaptation
+    // must pick its formats from that camera's list.
+    private void onCameraSwitched() {
+        if (cameraEnumerator == null || cameraDeviceName == null) {
+            return;
+        }
+        // Same order as CameraCapturer.switchCamera().
+        String[] deviceNames = cameraEnumerator.getDeviceNames();
+        int index = Arrays.asList(deviceNames).indexOf(cameraDeviceName);
+        if (index < 0 || deviceNames.length < 2) {
+            return;
+        }
+        cameraDeviceName = deviceNames[(index + 1) % deviceNames.length];
+        Log.d(TAG, "Switched camera to " + cameraDeviceName);
+        restartBandwidthAdaptation();
+    }
+
+    /**
+     * Switches the published video to |newCapturer| without renegotiation, e.g. from the built-in
+     * camera to a USB camera. See PeerConnectionClient.switchVideoCapturer(). Bandwidth adaptation
+     * stops, as the formats of |newCapturer| are not known.
+     */
+    public void switchVideoCapturer(final VideoCapturer newCapturer, boolean stopPreviousFirst,
+                                    @Nullable final CapturerSwitcher.SwitchListener listener) {
+        switchVideoCapturer(newCapturer, null, null, stopPreviousFirst, listener);
+    }
+
+    /**
+     * Like switchVideoCapturer() above, for a camera capturer that |enumerator| created for
+     * |deviceName|. Bandwidth adaptation continues with the supported formats of that camera.
+     */
+    public void switchVideoCapturer(final VideoCapturer newCapturer,
+                                    @Nullable CameraEnumerator enumerator,
+                                    @Nullable String deviceName, boolean stopPreviousFirst,
+                                    @Nullable final CapturerSwitcher.SwitchListener listener) {
+        if (peerConnectionClient == null) {
+            Log.e(TAG, "Cannot switch video capturer before the call is started.");
+            return;
         }
+        final VideoCapturer previousCapturer = videoCapturer;
+        final CameraEnumerator previousEnumerator = cameraEnumerator;
+        final String previousDeviceName = cameraDeviceName;
+        if (newCapturer instanceof SurfaceTextureCapturer && fullscreenRenderer != null) {
+            // The UVC camera asks for the SurfaceTexture as soon as it is started.
+            fullscreenRenderer.setSurfaceTextureCapturer((SurfaceTextureCapturer) newCapturer);
+        }
+        videoCapturer = newCapturer;
+        cameraEnumerator = enumerator;
+        cameraDeviceName = deviceName;
+        restartBandwidthAdaptation();
+        peerConnectionClient.switchVideoCapturer(newCapturer, stopPreviousFirst,
+                new CapturerSwitcher.SwitchListener() {
+            @Override
+            public void onSwitchCompleted(long switchLatencyMs, long longestGapMs,
+                                          int repeatedFrames) {
+                Log.i(TAG, "Switched video capturer in " + switchLatencyMs + " ms, longest gap "
+                        + longestGapMs + " ms");
+                if (listener != null) {
+                    listener.onSwitchCompleted(switchLatencyMs, longestGapMs, repeatedFrames);
+                }
+            }
+
+            @Override
+            public void onSwitchFailed(String error) {
+                handler.post(() -> {
+                    if (videoCapturer == newCapturer) {
+                        videoCapturer = previousCapturer;
+                        cameraEnumerator = previousEnumerator;
+                        cameraDeviceName = previousDeviceName;
+                        restartBandwidthAdaptation();
+                        if (previousCapturer instanceof SurfaceTextureCapturer
+                                && fullscreenRenderer != null) {
+                            fullscreenRenderer.setSurfaceTextureCapturer(
+                                    (SurfaceTextureCapturer) previousCapturer);
+                        }
+                    }
+                });
+                if (listener != null) {
+                    listener.onSwitchFailed(error);
+                }
+            }
+        });
     }
 
     @Override
@@ -646,9 +836,147 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
         }
         // Enable statistics callback.
         peerConnectionClient.enableStatsEvents(true, CallActivity.STAT_CALLBACK_PERIOD);
+        if (adaptiveQualityEnabled && peerConnectionParameters.videoCallEnabled
+                && adaptiveQualityManager == null) {
+            startAdaptiveQuality();
+        }
+        if (bandwidthAdaptationEnabled && peerConnectionParameters.videoCallEnabled
+                && bandwidthCaptureController == null) {
+            startBandwidthAdaptation();
+        }
         setSwappedFeeds(false /* isSwappedFeeds */);
     }
 
+    private void startBandwidthAdaptation() {
+        if (cameraEnumerator == null || cameraDeviceName == null) {
+            Log.w(TAG, "Bandwidth adaptation needs a camera capturer");
+            return;
+        }
+        // Same defaults as PeerConnectionClient.
+        int width = peerConnectionParameters.videoWidth;
+        int height = peerConnectionParameters.videoHeight;
+        if (width == 0 || height == 0) {
+            width = 1280;
+            height = 720;
+        }
+        int fps = peerConnectionParameters.videoFps == 0 ? 30 : peerConnectionParameters.videoFps;
+        try {
+            BandwidthCaptureController controller = new BandwidthCaptureController(
+                    cameraEnumerator.getSupportedFormats(cameraDeviceName), width, height, fps);
+            bandwidthCaptureController = controller;
+            Log.d(TAG, "Bandwidth adaptation started with " + controller.getLadder());
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bandwidth adaptation is not possible: " + e.getMessage());
+        }
+    }
+
+    // Rebuilds the ladder of the bandwidth adaptation for the current camera, if it is running.
+    private void restartBandwidthAdaptation() {
+        bandwidthCaptureController = null;
+        synchronized (captureLimitsLock) {
+            bandwidthRung = null;
+        }
+        if (bandwidthAdaptationEnabled && iceConnected
+                && peerConnectionParameters.videoCallEnabled) {
+            startBandwidthAdaptation();
+        }
+    }
+
+    private void applyCaptureRung(@Nullable BandwidthCaptureController.Rung rung) {
+        PeerConnectionClient client = peerConnectionClient;
+        if (rung == null || client == null) {
+            return;
+        }
+        Log.i(TAG, "Capture format for the available bandwidth: " + rung);
+        synchronized (captureLimitsLock) {
+            bandwidthRung = rung;
+            client.changeCameraCaptureFormat(
+                    rung.format.width, rung.format.height, rung.framerate);
+            applyCaptureLimits(client);
+        }
+    }
+
+    // The camera captures in the bandwidth rung; the frames are adapted to the lower of the
+    // governor level and the rung, so the governor caps what the bandwidth allows.
+    private void applyCaptureLimits(PeerConnectionClient client) {
+        synchronized (captureLimitsLock) {
+            final QualityGovernor.Level level = governorLevel;
+            if (level == null) {
+                // Nothing but the camera format limits the frames.
+                return;
+            }
+            final BandwidthCaptureController.Rung rung = bandwidthRung;
+            if (rung != null && (long) rung.format.width * rung.format.height * rung.framerate
+                    < (long) level.width * level.height * level.framerate) {
+                client.changeCaptureFormat(rung.format.width, rung.format.height, rung.framerate);
+            } else {
+                client.changeCaptureFormat(level.width, level.height, level.framerate);
+            }
+        }
+    }
+
+    // Returns the outgoing bitrate the local estimate leaves for video, or -1 if it is unknown.
+    private static int getAvailableVideoBitrate(RTCStatsReport report) {
+        double available = -1;
+        double audioBitrate = 0;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            Map<String, Object> members = stats.getMembers();
+            if ("candidate-pair".equals(stats.getType())
+                    && Boolean.TRUE.equals(members.get("nominated"))
+                    && "succeeded".equals(members.get("state"))
+                    && members.get("availableOutgoingBitrate") instanceof Number) {
+                available = ((Number) members.get("availableOutgoingBitrate")).doubleValue();
+            } else if ("outbound-rtp".equals(stats.getType())
+                    && "audio".equals(members.get("kind"))
+                    && members.get("targetBitrate") instanceof Number) {
+                audioBitrate += ((Number) members.get("targetBitrate")).doubleValue();
+            }
+        }
+        return available < 0 ? -1 : (int) Math.max(available - audioBitrate, 0);
+    }
+
+    private void startAdaptiveQuality() {
+        // Same defaults as PeerConnectionClient.
+        int width = peerConnectionParameters.videoWidth;
+        int height = peerConnectionParameters.videoHeight;
+        if (width == 0 || height == 0) {
+            width = 1280;
+            height = 720;
+        }
+        int fps = peerConnectionParameters.videoFps == 0 ? 30 : peerConnectionParameters.videoFps;
+        QualityGovernor governor = new QualityGovernor(QualityGovernor.createLadder(
+                width, height, fps, peerConnectionParameters.videoMaxBitrate), 0);
+        AdaptiveQualityManager manager =
+                new AdaptiveQualityManager(this.context, peerConnectionClient, governor);
+        manager.setEvents(adaptiveQualityEvents);
+        manager.setCaptureFormatListener(level -> {
+            PeerConnectionClient client = peerConnectionClient;
+            if (client == null) {
+                return;
+            }
+            synchronized (captureLimitsLock) {
+                governorLevel = level;
+                applyCaptureLimits(client);
+            }
+        });
+        adaptiveQualityManager = manager;
+        Log.d(TAG, "Adaptive quality started with " + governor.getLadder());
+    }
+
+    private void startUvcDeviceManager(SurfaceTextureCapturer capturer) {
+        // Same defaults as PeerConnectionClient.
+        int width = peerConnectionParameters.videoWidth;
+        int height = peerConnectionParameters.videoHeight;
+        if (width == 0 || height == 0) {
+            width = 1280;
+            height = 720;
+        }
+        int fps = peerConnectionParameters.videoFps == 0 ? 30 : peerConnectionParameters.videoFps;
+        uvcDeviceManager =
+                new UvcDeviceManager(this.context, capturer, width, height, fps, uvcDeviceEvents);
+        uvcDeviceManager.start();
+    }
+
     // This method is called when the audio manager reports audio device change,
     // e.g. from wired headset to speakerphone.
     private void onAudioManagerDevicesChanged(
@@ -681,7 +1009,28 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
             videoFileRenderer.release();
             // videoFileRenderer = null; Do not make renderer null, we can re-use
         }
+        // The peer connection client disposes the capturers.
+        for (AdditionalVideoSource source : additionalVideoSources) {
+            if (source.renderer != null) {
+                source.renderer.release();
+            }
+        }
+        additionalVideoSources.clear();
 
+        if (adaptiveQualityManager != null) {
+            adaptiveQualityManager.release();
+            adaptiveQualityManager = null;
+        }
+        bandwidthCaptureController = null;
+        synchronized (captureLimitsLock) {
+            governorLevel = null;
+            bandwidthRung = null;
+        }
+        if (uvcDeviceManager != null) {
+            // Before the peer connection client disposes the capturer.
+            uvcDeviceManager.release();
+            uvcDeviceManager = null;
+        }
         if (peerConnectionClient != null) {
             peerConnectionClient.close();
             peerConnectionClient = null;
@@ -755,6 +1104,9 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
                 reportError("Failed to open video file for emulated camera");
                 return null;
             }
+        } else if (this.intent.getBooleanExtra(CallActivity.EXTRA_UVC_TEXTURE_CAPTURE, false)) {
+            Logging.d(TAG, "Creating texture capturer for the UVC camera preview.");
+            return new SurfaceTextureCapturer();
         } else if (screencaptureEnabled) {
             return createScreenCapturer();
         } else if (useCamera2()) {
@@ -767,7 +1119,9 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
             videoCapturer = createCameraCapturer(new Camera2Enumerator(this.context));
         } else {
             Logging.d(TAG, "Creating capturer using camera1 API.");
-            videoCapturer = createCameraCapturer(new Camera1Enumerator(captureToTexture()));
+            videoCapturer = createCameraCapturer(new Camera1Enumerator(captureToTexture(),
+                    this.intent.getIntExtra(CallActivity.EXTRA_CAPTURE_BUFFER_COUNT,
+                            Camera1Enumerator.DEFAULT_CAPTURE_BUFFER_COUNT)));
         }
         if (videoCapturer == null) {
             reportError("Failed to open camera");
@@ -776,12 +1130,118 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
         return videoCapturer;
     }
 
+    /**
+     * Returns the per-stage timings of the UVC texture capture path, or null if the capturer
+     * is not a texture capturer. See {@link CallActivity#EXTRA_UVC_TEXTURE_CAPTURE}.
+     */
+    @Nullable
+    public TextureStageTimings getTextureStageTimings() {
+        if (videoCapturer instanceof SurfaceTextureCapturer) {
+            return ((SurfaceTextureCapturer) videoCapturer).getStageTimings();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the frame interval statistics of the local capturer: the jitter of the frame
+     * arrival times next to the jitter of the frame timestamps. Null if the capturer does not
+     * collect them.
+     */
+    @Nullable
+    public CaptureTimingReport getCaptureTimingReport() {
+        if (videoCapturer instanceof SurfaceTextureCapturer) {
+            return ((SurfaceTextureCapturer) videoCapturer).getCaptureTimingReport();
+        }
+        if (videoCapturer instanceof CameraVideoCapturer) {
+            return ((CameraVideoCapturer) videoCapturer).getCaptureTimingReport();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the metrics of the Camera1 preview buffers, or null if the camera does not capture
+     * to byte buffers. See {@link CallActivity#EXTRA_CAPTURE_BUFFER_COUNT}.
+     */
+    @Nullable
+    public CaptureBufferMetrics getCaptureBufferMetrics() {
+        if (videoCapturer instanceof CameraVideoCapturer) {
+            return ((CameraVideoCapturer) videoCapturer).getCaptureBufferMetrics();
+        }
+        return null;
+    }
+
+    /**
+     * Publishes another video track in the stream, e.g. a USB camera next to the built-in camera.
+     * Each track has its own capture format and bitrate cap. Add sources before the call starts;
+     * see {@link PeerConnectionClient#addVideoSource}. The capturer is disposed when the call
+     * ends.
+     *
+     * @param renderer local preview of the track, may be null. For a {@link SurfaceTextureCapturer}
+     *     of a UVC camera, this is also the view that hands the capture texture to the camera.
+     */
+    public void addVideoSource(VideoCapturer capturer,
+            PeerConnectionClient.VideoTrackParameters parameters,
+            @Nullable SurfaceViewRenderer renderer) {
+        final AdditionalVideoSource source =
+                new AdditionalVideoSource(capturer, parameters, renderer);
+        additionalVideoSources.add(source);
+        if (eglBase != null) {
+            initAdditionalVideoRenderer(source);
+        }
+        if (peerConnectionClient != null) {
+            peerConnectionClient.addVideoSource(capturer, parameters, renderer);
+        }
+    }
+
+    /** Stops and removes a video track added with addVideoSource(). */
+    public void removeVideoSource(String trackId) {
+        for (int i = 0; i < additionalVideoSources.size(); ++i) {
+            final AdditionalVideoSource source = additionalVideoSources.get(i);
+            if (source.parameters.trackId.equals(trackId)) {
+                additionalVideoSources.remove(i);
+                if (source.renderer != null) {
+                    source.renderer.release();
+                }
+                break;
+            }
+        }
+        if (peerConnectionClient != null) {
+            peerConnectionClient.removeVideoSource(trackId);
+        }
+    }
+
+    private void initAdditionalVideoRenderer(AdditionalVideoSource source) {
+        if (source.renderer == null) {
+            return;
+        }
+        source.renderer.init(eglBase.getEglBaseContext(), null);
+        source.renderer.setScalingType(ScalingType.SCALE_ASPECT_FIT);
+        source.renderer.setEnableHardwareScaler(true);
+        if (source.capturer instanceof SurfaceTextureCapturer) {
+            // As for the main capturer, the UVC preview goes straight to WebRTC as texture frames.
+            source.renderer.setSurfaceTextureCapturer((SurfaceTextureCapturer) source.capturer);
+        }
+    }
+
+    /**
+     * Returns the screen capturer, e.g. for its suppressed frame counts, or null if the screen is
+     * not captured. See {@link CallActivity#EXTRA_SCREENCAPTURE_MIN_FPS}.
+     */
+    @Nullable
+    public ScreenCapturerAndroid getScreenCapturer() {
+        if (videoCapturer instanceof ScreenCapturerAndroid) {
+            return (ScreenCapturerAndroid) videoCapturer;
+        }
+        return null;
+    }
+
     public void setSwappedFeeds(boolean isSwappedFeeds) {
         Logging.d(TAG, "setSwappedFeeds: " + isSwappedFeeds);
         if (this.streamMode.equals(MODE_PUBLISH)) {
             localProxyVideoSink.setTarget(fullscreenRenderer);
         } else if (this.streamMode.equals(MODE_PLAY)) {
-            remoteProxyRenderer.setTarget(fullscreenRenderer);
+            remoteProxyRenderer.setTarget(
+                    remoteVideoSink != null ? remoteVideoSink : fullscreenRenderer);
         } else if (this.streamMode.equals(MODE_MULTI_TRACK_PLAY)) {
             for (int i = 0; i < remoteSinks.size(); i++) {
                 ((CallActivity.ProxyVideoSink) remoteSinks.get(i)).setTarget(remoteRendererList.get(i));
@@ -805,6 +1265,84 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
         this.fullscreenRenderer = fullscreenRenderer;
     }
 
+    /**
+     * Replaces the microphone and the speaker with the given audio backends, for example
+     * NullAudioInputBackend for play-only clients or stream backends for headless load testing.
+     * null keeps the device. Must be called before init().
+     */
+    public void setAudioBackends(@Nullable AudioInputBackend audioInputBackend,
+                                 @Nullable AudioOutputBackend audioOutputBackend) {
+        this.audioInputBackend = audioInputBackend;
+        this.audioOutputBackend = audioOutputBackend;
+    }
+
+    /**
+     * Lets the playout buffer start small for low latency and grow with underruns and late audio
+     * writes, up to maxLatencyMs. Only has an effect on Android 7.0 and higher. 0, the default,
+     * keeps the fixed buffer size. Must be called before init().
+     */
+    public void setPlayoutBufferMaxLatencyMs(int maxLatencyMs) {
+        this.playoutBufferMaxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * Passes the local video through |videoProcessor|, for example a
+     * {@link org.webrtc.VideoProcessorChain} that crops, scales or rotates it, before it is
+     * encoded; null removes it.
+     */
+    public void setLocalVideoProcessor(@Nullable VideoProcessor videoProcessor) {
+        this.localVideoProcessor = videoProcessor;
+        if (peerConnectionClient != null) {
+            peerConnectionClient.setLocalVideoProcessor(videoProcessor);
+        }
+    }
+
+    /**
+     * Lets a {@link QualityGovernor} step the capture format and the maximum video bitrate down
+     * and up with CPU use, thermal state, battery level and encoder frame drops, once the call is
+     * connected. |events| receives every telemetry sample, e.g. to record a trace for replaying,
+     * and every change; it can be null. Must be called before init().
+     *
+     * <p>Combines with bandwidth adaptation: the camera captures in the format the bandwidth
+     * allows, and the governor level caps the frames below that.
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled,
+                                          @Nullable AdaptiveQualityManager.Events events) {
+        this.adaptiveQualityEnabled = enabled;
+        this.adaptiveQualityEvents = events;
+    }
+
+    /**
+     * Restarts the camera with the largest of its supported formats that the available bandwidth
+     * can carry, from the server's bitrate measurements and the local outgoing bitrate estimate,
+     * once the call is connected. Only applies to camera capturers. Must be called before init().
+     * Adaptive quality can run at the same time, see setAdaptiveQualityEnabled().
+     */
+    public void setBandwidthAdaptationEnabled(boolean enabled) {
+        this.bandwidthAdaptationEnabled = enabled;
+    }
+
+    /**
+     * Opens USB cameras into the SurfaceTextureCapturer of the local video as they are plugged in,
+     * and reopens them on the same video source when they are plugged in again, so the call
+     * survives unplugging. |events| receives the state changes and the reopen times; it can be
+     * null. Only applies to a SurfaceTextureCapturer, which is not switched away from while the
+     * manager runs. Must be called before init().
+     */
+    public void setUvcHotPlugEnabled(boolean enabled,
+                                     @Nullable UvcDeviceStateMachine.Events events) {
+        this.uvcHotPlugEnabled = enabled;
+        this.uvcDeviceEvents = events;
+    }
+
+    /**
+     * Sets the sink that receives the remote video in play mode, for example a stream of a
+     * {@link org.webrtc.VideoCompositor}. Takes precedence over the fullscreen renderer.
+     */
+    public void setRemoteVideoSink(@Nullable VideoSink remoteVideoSink) {
+        this.remoteVideoSink = remoteVideoSink;
+    }
+
     @Override
     public String getError() {
         return errorString;
@@ -826,10 +1364,40 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
     }
 
     public void enableAudio() {
-        peerConnectionClient.setAudioEnabled(true);
+        peerConnectionClient.setAudioEnabled(!audioSendingSuspended);
         audioOn = true;
     }
 
+    /**
+     * Pauses or resumes sending the local audio, for example while the local participant is
+     * silent, without changing the mute state reported by isAudioOn(). The microphone keeps
+     * recording, so voice activity detection on the recorded audio continues to work.
+     */
+    public void setAudioSendingSuspended(boolean suspended) {
+        audioSendingSuspended = suspended;
+        if (peerConnectionClient != null) {
+            peerConnectionClient.setAudioEnabled(audioOn && !suspended);
+        }
+    }
+
+    /**
+     * Returns the ring buffer with the recorded microphone audio, or null before init().
+     */
+    @Nullable
+    public PcmRingBuffer getRecordedSamplesRingBuffer() {
+        return peerConnectionClient != null
+                ? peerConnectionClient.getRecordedSamplesRingBuffer() : null;
+    }
+
+    /**
+     * Returns the ring buffer with the played out remote audio, or null before init().
+     */
+    @Nullable
+    public PcmRingBuffer getPlayoutSamplesRingBuffer() {
+        return peerConnectionClient != null
+                ? peerConnectionClient.getPlayoutSamplesRingBuffer() : null;
+    }
+
     public boolean isVideoOn() {
         return videoOn;
     }
@@ -918,6 +1486,20 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
 
     @Override
     public void onPeerConnectionStatsReady(RTCStatsReport reports) {
+        AdaptiveQualityManager manager = adaptiveQualityManager;
+        if (manager != null) {
+            manager.onStatsReport(reports);
+        }
+        BandwidthCaptureController controller = bandwidthCaptureController;
+        if (controller != null) {
+            int availableVideoBitrate = getAvailableVideoBitrate(reports);
+            if (availableVideoBitrate >= 0) {
+                synchronized (controller) {
+                    applyCaptureRung(controller.onLocalMeasurement(
+                            SystemClock.elapsedRealtime(), availableVideoBitrate));
+                }
+            }
+        }
         this.handler.post(() -> {
             if (!isError && iceConnected) {
                 //hudFragment.updateEncoderStatistics(reports);
@@ -1093,6 +1675,13 @@ public class WebRTCClient extends Activity implements IWebRTCClient, AntMediaSig
 
     @Override
     public void onBitrateMeasurement(String streamId, int targetBitrate, int videoBitrate, int audioBitrate) {
+        BandwidthCaptureController controller = bandwidthCaptureController;
+        if (controller != null) {
+            synchronized (controller) {
+                applyCaptureRung(controller.onServerMeasurement(
+                        SystemClock.elapsedRealtime(), targetBitrate, audioBitrate));
+            }
+        }
         this.handler.post(() -> {
             if (webRTCListener != null) {
                 webRTCListener.onBitrateMeasurement(streamId, targetBitrate, videoBitrate, audioBitrate);
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+/**
+ * Collects telemetry of the device and the local video encoder, feeds it to a
+ * {@link QualityGovernor} and applies its decisions through
+ * {@link PeerConnectionClient#changeCaptureFormat} and
+ * {@link PeerConnectionClient#setVideoMaxBitrate}. A sample is taken for every stats report, so
+ * stats events must be enabled on the PeerConnectionClient.
+ *
+ * <p>CPU use is only known where {@link CpuMonitor} is supported, and the thermal status from
+ * Android Q on; the governor ignores unknown signals. A {@link CaptureFormatListener} can take
+ * over the format changes, e.g. to combine them with other limits.
+ */
+public class AdaptiveQualityManager {
+  private static final String TAG = "AdaptiveQualityManager";
+
+  /** Called on the thread that delivers stats reports. */
+  public interface Events {
+    /** Called for every sample; its toString() can be recorded as a trace for replaying. */
+    void onTelemetry(QualityGovernor.Telemetry telemetry);
+
+    void onQualityChanged(QualityGovernor.Decision decision);
+  }
+
+  /** Called on the thread that delivers stats reports. */
+  public interface CaptureFormatListener {
+    /** Called with each new level in place of PeerConnectionClient.changeCaptureFormat(). */
+    void onCaptureFormatChanged(QualityGovernor.Level level);
+  }
+
+  private final Context appContext;
+  private final PeerConnectionClient peerConnectionClient;
+  private final QualityGovernor governor;
+  @Nullable
+  private final CpuMonitor cpuMonitor;
+  @Nullable
+  private final PowerManager powerManager;
+  @Nullable
+  private Events events;
+  @Nullable
+  private CaptureFormatListener captureFormatListener;
+
+  // Cumulative counters of the previous report.
+  private long lastFramesCaptured = -1;
+  private long lastFramesEncoded = -1;
+
+  public AdaptiveQualityManager(
+      Context context, PeerConnectionClient peerConnectionClient, QualityGovernor governor) {
+    this.appContext = context.getApplicationContext();
+    this.peerConnectionClient = peerConnectionClient;
+    this.governor = governor;
+    this.cpuMonitor = CpuMonitor.isSupported() ? new CpuMonitor(appContext) : null;
+    this.powerManager = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+  }
+
+  /** Stops the CPU monitor; call when the manager is not fed stats anymore. */
+  public void release() {
+    if (cpuMonitor != null) {
+      cpuMonitor.pause();
+    }
+  }
+
+  public synchronized void setEvents(@Nullable Events events) {
+    this.events = events;
+  }
+
+  /** Sets who changes the capture format; null to call PeerConnectionClient directly. */
+  public synchronized void setCaptureFormatListener(@Nullable CaptureFormatListener listener) {
+    this.captureFormatListener = listener;
+  }
+
+  public QualityGovernor getGovernor() {
+    return governor;
+  }
+
+  /** Takes a sample with the encoder counters of |report| and applies the decision, if any. */
+  public void onStatsReport(RTCStatsReport report) {
+    long framesCaptured = -1;
+    long framesEncoded = -1;
+    for (RTCStats stats : report.getStatsMap().values()) {
+      Object kind = stats.getMembers().get("kind");
+      if (kind == null) {
+        // Older name of the member in outbound-rtp stats.
+        kind = stats.getMembers().get("mediaType");
+      }
+      if (!"video".equals(kind)) {
+        continue;
+      }
+      if ("media-source".equals(stats.getType())) {
+        framesCaptured = getLong(stats, "frames");
+      } else if ("outbound-rtp".equals(stats.getType())) {
+        framesEncoded = getLong(stats, "framesEncoded");
+      }
+    }
+
+    final QualityGovernor.Telemetry telemetry;
+    final Events currentEvents;
+    final CaptureFormatListener currentCaptureFormatListener;
+    final QualityGovernor.Decision decision;
+    synchronized (this) {
+      long capturedDelta = 0;
+      long droppedDelta = 0;
+      if (framesCaptured >= 0 && framesEncoded >= 0 && lastFramesCaptured >= 0
+          && lastFramesEncoded >= 0) {
+        capturedDelta = Math.max(framesCaptured - lastFramesCaptured, 0);
+        droppedDelta = Math.max(capturedDelta - (framesEncoded - lastFramesEncoded), 0);
+      }
+      lastFramesCaptured = framesCaptured;
+      lastFramesEncoded = framesEncoded;
+
+      telemetry = createTelemetry(capturedDelta, droppedDelta);
+      decision = governor.onTelemetry(telemetry);
+      currentEvents = events;
+      currentCaptureFormatListener = captureFormatListener;
+    }
+
+    if (currentEvents != null) {
+      currentEvents.onTelemetry(telemetry);
+    }
+    if (decision == null) {
+      return;
+    }
+    Log.d(TAG, "Quality changed: " + decision + ", telemetry: " + telemetry);
+    final QualityGovernor.Level level = decision.level;
+    if (currentCaptureFormatListener != null) {
+      currentCaptureFormatListener.onCaptureFormatChanged(level);
+    } else {
+      peerConnectionClient.changeCaptureFormat(level.width, level.height, level.framerate);
+    }
+    peerConnectionClient.setVideoMaxBitrate(
+        level.maxBitrateKbps == 0 ? null : level.maxBitrateKbps);
+    if (currentEvents != null) {
+      currentEvents.onQualityChanged(decision);
+    }
+  }
+
+  private QualityGovernor.Telemetry createTelemetry(long framesCaptured, long framesDropped) {
+    int cpuUsage = QualityGovernor.UNKNOWN;
+    int frequencyScale = QualityGovernor.UNKNOWN;
+    if (cpuMonitor != null) {
+      CpuMonitor.CpuStats stats = cpuMonitor.getLastStats();
+      if (stats != null) {
+        cpuUsage = cpuMonitor.getCpuUsageCurrent();
+        frequencyScale = stats.frequencyScalePercent;
+      }
+    }
+
+    int batteryLevel = QualityGovernor.UNKNOWN;
+    boolean charging = false;
+    // Use sticky broadcast with null receiver to read battery state once only.
+    Intent intent = appContext.registerReceiver(
+        null /* receiver */, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (intent != null) {
+      int batteryScale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+      if (batteryScale > 0) {
+        batteryLevel = 100 * intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0) / batteryScale;
+      }
+      int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+      charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+          || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    int thermalStatus = QualityGovernor.UNKNOWN;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+      thermalStatus = powerManager.getCurrentThermalStatus();
+    }
+
+    return new QualityGovernor.Telemetry(SystemClock.elapsedRealtime(), cpuUsage, frequencyScale,
+        batteryLevel, charging, thermalStatus, framesCaptured, framesDropped);
+  }
+
+  private static long getLong(RTCStats stats, String name) {
+    Object value = stats.getMembers().get(name);
+    return value instanceof Number ? ((Number) value).longValue() : -1;
+  }
+}
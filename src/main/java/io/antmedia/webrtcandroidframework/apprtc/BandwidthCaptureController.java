@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the camera capture format that the available bandwidth can carry, so that the camera
+ * delivers frames of the size the encoder will actually send instead of the encoder spending CPU
+ * on frames it downscales or drops.
+ *
+ * <p>The ladder is built from the formats the camera supports, restricted to the configured
+ * format's aspect ratio and size; the smallest size is also offered at half the framerate. Each
+ * rung needs a bitrate proportional to its pixel rate. The available video bitrate is the lower
+ * of the server's measurement (bitrateMeasurement notifications: target bitrate minus audio) and
+ * the local estimate (availableOutgoingBitrate of the active candidate pair), whichever are
+ * recent. Since every change restarts the camera, the controller switches down only after the
+ * bitrate stayed below the rung for DOWN_DELAY_MS.
+ *
+ * <p>Both measurements mostly follow what is being sent, so they rarely show the bitrate the next
+ * rung needs while the current one is sent. Instead the controller tries the next rung once the
+ * bitrate stayed well above what the current rung needs for UP_DELAY_MS. If that rung has to be
+ * left again within PROBE_FAILURE_WINDOW_MS, the wait before the next try doubles, up to
+ * MAX_UP_DELAY_MS; once a rung reached that way holds, it is back to UP_DELAY_MS.
+ *
+ * <p>Has no Android dependencies; all time stamps are passed in. Not thread safe.
+ */
+public class BandwidthCaptureController {
+  // Bits per pixel needed for acceptable real-time video.
+  private static final double BITS_PER_PIXEL = 0.08;
+  private static final int MIN_REQUIRED_BPS = 100000;
+  // The half framerate rung of the smallest size is only added if it is at least this.
+  private static final int MIN_REDUCED_FRAMERATE = 10;
+  // Formats whose aspect ratio differs more than this from the configured one are not used.
+  private static final double ASPECT_RATIO_TOLERANCE = 0.05;
+  // The bitrate must cover this much more than the current rung needs before switching up.
+  private static final double UP_HEADROOM = 1.3;
+  // Switch down when the bitrate falls below this fraction of what the rung needs.
+  private static final double DOWN_THRESHOLD = 0.85;
+  private static final long DOWN_DELAY_MS = 3000;
+  private static final long UP_DELAY_MS = 10000;
+  private static final long MAX_UP_DELAY_MS = 80000;
+  // Leaving a rung within this time after switching up to it counts as a failed try.
+  private static final long PROBE_FAILURE_WINDOW_MS = 15000;
+  private static final long MIN_CHANGE_INTERVAL_MS = 5000;
+  // Measurements older than this are not used.
+  private static final long MEASUREMENT_TIMEOUT_MS = 5000;
+
+  /** One capture format of the ladder. */
+  public static class Rung {
+    public final CaptureFormat format;
+    public final int framerate;
+    public final int requiredBps;
+
+    Rung(CaptureFormat format, int framerate) {
+      this.format = format;
+      this.framerate = framerate;
+      this.requiredBps = Math.max(MIN_REQUIRED_BPS,
+          (int) ((double) format.width * format.height * framerate * BITS_PER_PIXEL));
+    }
+
+    @Override
+    public String toString() {
+      return format.width + "x" + format.height + "@" + framerate + " (" + requiredBps / 1000
+          + "kbps)";
+    }
+  }
+
+  private final List<Rung> ladder;
+  private int rungIndex;
+
+  private int serverBps = -1;
+  private long serverTimeMs;
+  private int localBps = -1;
+  private long localTimeMs;
+
+  private boolean changed;
+  private boolean lastChangeWasUp;
+  private long lastChangeMs;
+  private long upDelayMs = UP_DELAY_MS;
+  private long belowSinceMs = -1;
+  private long aboveSinceMs = -1;
+
+  /**
+   * @param supportedFormats formats from CameraEnumerator.getSupportedFormats()
+   * @param width configured capture width, the largest that is used
+   * @param height configured capture height
+   * @param framerate configured framerate
+   * @throws IllegalArgumentException if no supported format fits the configured one
+   */
+  public BandwidthCaptureController(
+      List<CaptureFormat> supportedFormats, int width, int height, int framerate) {
+    ladder = createLadder(supportedFormats, width, height, framerate);
+    if (ladder.isEmpty()) {
+      throw new IllegalArgumentException("No supported format fits " + width + "x" + height);
+    }
+    rungIndex = 0;
+  }
+
+  static List<Rung> createLadder(
+      List<CaptureFormat> supportedFormats, int width, int height, int framerate) {
+    // Camera formats are landscape.
+    final int maxWidth = Math.max(width, height);
+    final int maxHeight = Math.min(width, height);
+    final double aspectRatio = (double) maxWidth / maxHeight;
+    final List<CaptureFormat> sizes = new ArrayList<>();
+    for (CaptureFormat format : supportedFormats) {
+      if (format.width > maxWidth || format.height > maxHeight
+          || Math.abs((double) format.width / format.height - aspectRatio)
+              > aspectRatio * ASPECT_RATIO_TOLERANCE) {
+        continue;
+      }
+      boolean duplicate = false;
+      for (CaptureFormat size : sizes) {
+        if (size.width == format.width && size.height == format.height) {
+          duplicate = true;
+          break;
+        }
+      }
+      if (!duplicate) {
+        sizes.add(format);
+      }
+    }
+    Collections.sort(sizes, new Comparator<CaptureFormat>() {
+      @Override
+      public int compare(CaptureFormat a, CaptureFormat b) {
+        return b.width * b.height - a.width * a.height;
+      }
+    });
+
+    final List<Rung> ladder = new ArrayList<>();
+    for (CaptureFormat size : sizes) {
+      ladder.add(new Rung(size, Math.min(framerate, size.framerate.max / 1000)));
+    }
+    if (!ladder.isEmpty()) {
+      final Rung smallest = ladder.get(ladder.size() - 1);
+      if (smallest.framerate / 2 >= MIN_REDUCED_FRAMERATE) {
+        ladder.add(new Rung(smallest.format, smallest.framerate / 2));
+      }
+    }
+    return Collections.unmodifiableList(ladder);
+  }
+
+  /**
+   * Sets the server's measurement. Returns the rung to switch to, or null.
+   *
+   * @param targetBps bitrate the server estimates the publisher can send
+   * @param audioBps audio part of the received bitrate
+   */
+  public @Nullable Rung onServerMeasurement(long nowMs, int targetBps, int audioBps) {
+    serverBps = Math.max(targetBps - Math.max(audioBps, 0), 0);
+    serverTimeMs = nowMs;
+    return update(nowMs);
+  }
+
+  /**
+   * Sets the local estimate of the outgoing bitrate available for video. Returns the rung to
+   * switch to, or null.
+   */
+  public @Nullable Rung onLocalMeasurement(long nowMs, int availableBps) {
+    localBps = availableBps;
+    localTimeMs = nowMs;
+    return update(nowMs);
+  }
+
+  public List<Rung> getLadder() {
+    return ladder;
+  }
+
+  public Rung getRung() {
+    return ladder.get(rungIndex);
+  }
+
+  /** Returns how long the bitrate must allow switching up before the next rung is tried. */
+  public long getUpDelayMs() {
+    return upDelayMs;
+  }
+
+  /** Returns the bitrate available for video, or -1 if there is no recent measurement. */
+  public int getAvailableBps(long nowMs) {
+    int available = -1;
+    if (serverBps >= 0 && nowMs - serverTimeMs <= MEASUREMENT_TIMEOUT_MS) {
+      available = serverBps;
+    }
+    if (localBps >= 0 && nowMs - localTimeMs <= MEASUREMENT_TIMEOUT_MS) {
+      available = available < 0 ? localBps : Math.min(available, localBps);
+    }
+    return available;
+  }
+
+  @Nullable
+  private Rung update(long nowMs) {
+    final int availableBps = getAvailableBps(nowMs);
+    if (availableBps < 0) {
+      return null;
+    }
+
+    final Rung current = ladder.get(rungIndex);
+    if (availableBps < current.requiredBps * DOWN_THRESHOLD && rungIndex < ladder.size() - 1) {
+      aboveSinceMs = -1;
+      if (belowSinceMs < 0) {
+        belowSinceMs = nowMs;
+      }
+      if (nowMs - belowSinceMs >= DOWN_DELAY_MS && canChange(nowMs)) {
+        // Skip the rungs the bitrate cannot carry either.
+        int index = rungIndex + 1;
+        while (index < ladder.size() - 1
+            && availableBps < ladder.get(index).requiredBps * DOWN_THRESHOLD) {
+          ++index;
+        }
+        return changeRung(index, nowMs);
+      }
+      return null;
+    }
+    belowSinceMs = -1;
+
+    if (lastChangeWasUp && nowMs - lastChangeMs >= PROBE_FAILURE_WINDOW_MS) {
+      // The rung tried last holds.
+      upDelayMs = UP_DELAY_MS;
+    }
+    if (rungIndex > 0 && availableBps >= current.requiredBps * UP_HEADROOM) {
+      if (aboveSinceMs < 0) {
+        aboveSinceMs = nowMs;
+      }
+      if (nowMs - aboveSinceMs >= upDelayMs && canChange(nowMs)) {
+        return changeRung(rungIndex - 1, nowMs);
+      }
+      return null;
+    }
+    aboveSinceMs = -1;
+    return null;
+  }
+
+  private boolean canChange(long nowMs) {
+    return !changed || nowMs - lastChangeMs >= MIN_CHANGE_INTERVAL_MS;
+  }
+
+  private Rung changeRung(int index, long nowMs) {
+    final boolean isUp = index < rungIndex;
+    if (!isUp && lastChangeWasUp && nowMs - lastChangeMs < PROBE_FAILURE_WINDOW_MS) {
+      upDelayMs = Math.min(2 * upDelayMs, MAX_UP_DELAY_MS);
+    }
+    lastChangeWasUp = isUp;
+    rungIndex = index;
+    changed = true;
+    lastChangeMs = nowMs;
+    belowSinceMs = -1;
+    aboveSinceMs = -1;
+    return ladder.get(index);
+  }
+}
@@ -74,6 +74,9 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
   public static final String EXTRA_LOOPBACK = "org.appspot.apprtc.LOOPBACK";
   public static final String EXTRA_VIDEO_CALL = "org.appspot.apprtc.VIDEO_CALL";
   public static final String EXTRA_SCREENCAPTURE = "org.appspot.apprtc.SCREENCAPTURE";
+  // Minimum framerate of content adaptive screen capture; 0 sends every screen frame.
+  public static final String EXTRA_SCREENCAPTURE_MIN_FPS =
+      "org.appspot.apprtc.SCREENCAPTURE_MIN_FPS";
   public static final String EXTRA_CAMERA2 = "org.appspot.apprtc.CAMERA2";
   public static final String EXTRA_VIDEO_WIDTH = "org.appspot.apprtc.VIDEO_WIDTH";
   public static final String EXTRA_VIDEO_HEIGHT = "org.appspot.apprtc.VIDEO_HEIGHT";
@@ -84,6 +87,8 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
   public static final String EXTRA_VIDEOCODEC = "org.appspot.apprtc.VIDEOCODEC";
   public static final String EXTRA_HWCODEC_ENABLED = "org.appspot.apprtc.HWCODEC";
   public static final String EXTRA_CAPTURETOTEXTURE_ENABLED = "org.appspot.apprtc.CAPTURETOTEXTURE";
+  // Number of Camera1 preview buffers when not capturing to texture.
+  public static final String EXTRA_CAPTURE_BUFFER_COUNT = "org.appspot.apprtc.CAPTURE_BUFFER_COUNT";
   public static final String EXTRA_FLEXFEC_ENABLED = "org.appspot.apprtc.FLEXFEC";
   public static final String EXTRA_AUDIO_BITRATE = "org.appspot.apprtc.AUDIO_BITRATE";
   public static final String EXTRA_AUDIOCODEC = "org.appspot.apprtc.AUDIOCODEC";
@@ -103,6 +108,7 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
   public static final String EXTRA_CMDLINE = "org.appspot.apprtc.CMDLINE";
   public static final String EXTRA_RUNTIME = "org.appspot.apprtc.RUNTIME";
   public static final String EXTRA_VIDEO_FILE_AS_CAMERA = "org.appspot.apprtc.VIDEO_FILE_AS_CAMERA";
+  public static final String EXTRA_UVC_TEXTURE_CAPTURE = "org.appspot.apprtc.UVC_TEXTURE_CAPTURE";
   public static final String EXTRA_SAVE_REMOTE_VIDEO_TO_FILE =
       "org.appspot.apprtc.SAVE_REMOTE_VIDEO_TO_FILE";
   public static final String EXTRA_SAVE_REMOTE_VIDEO_TO_FILE_WIDTH =
@@ -471,7 +477,8 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
       public void onStop() {
         reportError("User revoked permission to capture the screen.");
       }
-    });
+    }, getIntent().getIntExtra(EXTRA_SCREENCAPTURE_MIN_FPS, 0),
+        ScreenCapturerAndroid.DEFAULT_KEEP_ALIVE_MS);
   }
 
   // Activity interfaces
@@ -719,7 +726,9 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
       videoCapturer = createCameraCapturer(new Camera2Enumerator(this));
     } else {
       Logging.d(TAG, "Creating capturer using camera1 API.");
-      videoCapturer = createCameraCapturer(new Camera1Enumerator(captureToTexture()));
+      videoCapturer = createCameraCapturer(new Camera1Enumerator(captureToTexture(),
+          getIntent().getIntExtra(
+              EXTRA_CAPTURE_BUFFER_COUNT, Camera1Enumerator.DEFAULT_CAPTURE_BUFFER_COUNT)));
     }
     if (videoCapturer == null) {
       reportError("Failed to open camera");
@@ -21,14 +21,11 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -69,6 +66,12 @@ import java.util.concurrent.TimeUnit;
  * second, one would need to increase SAMPLE_SAVE_NUMBER and probably use
  * Queue<Integer> to avoid copying overhead.
  *
+ * <p>In addition, the CPU time of this process and of each of its threads is
+ * sampled from /proc/self, relative to the capacity of all CPUs, so that the
+ * load can be attributed to the render, encode and audio threads.  A
+ * {@link Listener} receives every sample.  Files are read through
+ * {@link CpuStatReader}, which keeps them open between samples.
+ *
  * <p>Known problems:
  *   1. Nexus 7 devices running Kitkat have a kernel which often output an
  *      incorrect 'idle' field in /proc/stat.  The value is close to twice the
@@ -82,6 +85,51 @@ class CpuMonitor {
 
   private static final int CPU_STAT_SAMPLE_PERIOD_MS = 2000;
   private static final int CPU_STAT_LOG_PERIOD_MS = 6000;
+  // Number of threads listed in the log.
+  private static final int LOGGED_THREADS = 5;
+
+  /** CPU use of one thread over the last sample period. */
+  public static class ThreadCpuUsage {
+    public final int tid;
+    public final String name;
+    // Percentage of the capacity of all CPUs.
+    public final int cpuPercent;
+
+    ThreadCpuUsage(int tid, String name, int cpuPercent) {
+      this.tid = tid;
+      this.name = name;
+      this.cpuPercent = cpuPercent;
+    }
+
+    @Override
+    public String toString() {
+      return name + "(" + tid + "): " + cpuPercent;
+    }
+  }
+
+  /** One sample of the monitor. All percentages are of the capacity of all CPUs. */
+  public static class CpuStats {
+    public final int systemCpuPercent;
+    public final int totalCpuPercent;
+    public final int frequencyScalePercent;
+    public final int processCpuPercent;
+    // Threads that used any CPU, busiest first.
+    public final List<ThreadCpuUsage> threads;
+
+    CpuStats(int systemCpuPercent, int totalCpuPercent, int frequencyScalePercent,
+        int processCpuPercent, List<ThreadCpuUsage> threads) {
+      this.systemCpuPercent = systemCpuPercent;
+      this.totalCpuPercent = totalCpuPercent;
+      this.frequencyScalePercent = frequencyScalePercent;
+      this.processCpuPercent = processCpuPercent;
+      this.threads = threads;
+    }
+  }
+
+  /** Called on the monitor thread after every successful sample. */
+  public interface Listener {
+    void onCpuStats(CpuStats stats);
+  }
 
   private final Context appContext;
   // User CPU usage at current frequency.
@@ -92,6 +140,16 @@ class CpuMonitor {
   private final MovingAverage totalCpuUsage;
   // CPU frequency in percentage from maximum.
   private final MovingAverage frequencyScale;
+  // CPU usage of this process.
+  private final MovingAverage processCpuUsage;
+  private final CpuStatReader statReader = new CpuStatReader();
+  private final long[] procStatTimes = new long[3];
+  private final Comparator<ThreadCpuUsage> busiestFirst = new Comparator<ThreadCpuUsage>() {
+    @Override
+    public int compare(ThreadCpuUsage a, ThreadCpuUsage b) {
+      return b.cpuPercent - a.cpuPercent;
+    }
+  };
 
   @Nullable
   private ScheduledExecutorService executor;
@@ -101,11 +159,14 @@ class CpuMonitor {
   private int actualCpusPresent;
   private boolean initialized;
   private boolean cpuOveruse;
-  private String[] maxPath;
-  private String[] curPath;
   private double[] curFreqScales;
   @Nullable
   private ProcStat lastProcStat;
+  private long lastProcessTicks = -1;
+  @Nullable
+  private Listener listener;
+  @Nullable
+  private CpuStats lastStats;
 
   private static class ProcStat {
     final long userTime;
@@ -176,6 +237,7 @@ class CpuMonitor {
     systemCpuUsage = new MovingAverage(MOVING_AVERAGE_SAMPLES);
     totalCpuUsage = new MovingAverage(MOVING_AVERAGE_SAMPLES);
     frequencyScale = new MovingAverage(MOVING_AVERAGE_SAMPLES);
+    processCpuUsage = new MovingAverage(MOVING_AVERAGE_SAMPLES);
     lastStatLogTimeMs = SystemClock.elapsedRealtime();
 
     scheduleCpuUtilizationTask();
@@ -187,6 +249,14 @@ class CpuMonitor {
       executor.shutdownNow();
       executor = null;
     }
+    closeFiles();
+  }
+
+  /** Sets a listener that receives every sample, or null to remove it. */
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void setListener(@Nullable Listener listener) {
+    this.listener = listener;
   }
 
   public void resume() {
@@ -223,6 +293,19 @@ class CpuMonitor {
     return doubleToPercent(frequencyScale.getAverage());
   }
 
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized int getProcessCpuUsageAverage() {
+    return doubleToPercent(processCpuUsage.getAverage());
+  }
+
+  /** Returns the last sample, or null if there was none since the last reset. */
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized @Nullable CpuStats getLastStats() {
+    return lastStats;
+  }
+
   private void scheduleCpuUtilizationTask() {
     if (executor != null) {
       executor.shutdownNow();
@@ -241,8 +324,19 @@ class CpuMonitor {
 
   private void cpuUtilizationTask() {
     boolean cpuMonitorAvailable = sampleCpuUtilization();
-    if (cpuMonitorAvailable
-        && SystemClock.elapsedRealtime() - lastStatLogTimeMs >= CPU_STAT_LOG_PERIOD_MS) {
+    if (!cpuMonitorAvailable) {
+      return;
+    }
+    final CpuStats stats;
+    final Listener currentListener;
+    synchronized (this) {
+      stats = lastStats;
+      currentListener = listener;
+    }
+    if (currentListener != null && stats != null) {
+      currentListener.onCpuStats(stats);
+    }
+    if (SystemClock.elapsedRealtime() - lastStatLogTimeMs >= CPU_STAT_LOG_PERIOD_MS) {
       lastStatLogTimeMs = SystemClock.elapsedRealtime();
       String statString = getStatString();
       Log.d(TAG, statString);
@@ -250,31 +344,13 @@ class CpuMonitor {
   }
 
   private void init() {
-    try (FileInputStream fin = new FileInputStream("/sys/devices/system/cpu/present");
-         InputStreamReader streamReader = new InputStreamReader(fin, Charset.forName("UTF-8"));
-         BufferedReader reader = new BufferedReader(streamReader);
-         Scanner scanner = new Scanner(reader).useDelimiter("[-\n]");) {
-      scanner.nextInt(); // Skip leading number 0.
-      cpusPresent = 1 + scanner.nextInt();
-      scanner.close();
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Cannot do CPU stats since /sys/devices/system/cpu/present is missing");
-    } catch (IOException e) {
-      Log.e(TAG, "Error closing file");
-    } catch (Exception e) {
-      Log.e(TAG, "Cannot do CPU stats due to /sys/devices/system/cpu/present parsing problem");
+    cpusPresent = statReader.readCpusPresent();
+    if (cpusPresent == 0) {
+      Log.e(TAG, "Cannot do CPU stats since /sys/devices/system/cpu/present cannot be read");
     }
 
     cpuFreqMax = new long[cpusPresent];
-    maxPath = new String[cpusPresent];
-    curPath = new String[cpusPresent];
     curFreqScales = new double[cpusPresent];
-    for (int i = 0; i < cpusPresent; i++) {
-      cpuFreqMax[i] = 0; // Frequency "not yet determined".
-      curFreqScales[i] = 0;
-      maxPath[i] = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq";
-      curPath[i] = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/scaling_cur_freq";
-    }
 
     lastProcStat = new ProcStat(0, 0, 0);
     resetStat();
@@ -282,11 +358,18 @@ class CpuMonitor {
     initialized = true;
   }
 
+  private synchronized void closeFiles() {
+    statReader.close();
+    lastProcessTicks = -1;
+  }
+
   private synchronized void resetStat() {
     userCpuUsage.reset();
     systemCpuUsage.reset();
     totalCpuUsage.reset();
     frequencyScale.reset();
+    processCpuUsage.reset();
+    lastStats = null;
     lastStatLogTimeMs = SystemClock.elapsedRealtime();
   }
 
@@ -335,18 +418,17 @@ class CpuMonitor {
       curFreqScales[i] = 0;
       if (cpuFreqMax[i] == 0) {
         // We have never found this CPU's max frequency.  Attempt to read it.
-        long cpufreqMax = readFreqFromFile(maxPath[i]);
+        long cpufreqMax = statReader.readMaxFrequency(i);
         if (cpufreqMax > 0) {
           Log.d(TAG, "Core " + i + ". Max frequency: " + cpufreqMax);
           lastSeenMaxFreq = cpufreqMax;
           cpuFreqMax[i] = cpufreqMax;
-          maxPath[i] = null; // Kill path to free its memory.
         }
       } else {
         lastSeenMaxFreq = cpuFreqMax[i]; // A valid, previously read value.
       }
 
-      long cpuFreqCur = readFreqFromFile(curPath[i]);
+      long cpuFreqCur = statReader.readCurrentFrequency(i);
       if (cpuFreqCur == 0 && lastSeenMaxFreq == 0) {
         // No current frequency information for this CPU core - ignore it.
         continue;
@@ -385,10 +467,11 @@ class CpuMonitor {
       currentFrequencyScale = (frequencyScale.getCurrent() + currentFrequencyScale) * 0.5;
     }
 
-    ProcStat procStat = readProcStat();
-    if (procStat == null) {
+    if (!statReader.readSystemTimes(procStatTimes)) {
+      Log.e(TAG, "Cannot read /proc/stat");
       return false;
     }
+    ProcStat procStat = new ProcStat(procStatTimes[0], procStatTimes[1], procStatTimes[2]);
 
     long diffUserTime = procStat.userTime - lastProcStat.userTime;
     long diffSystemTime = procStat.systemTime - lastProcStat.systemTime;
@@ -415,9 +498,38 @@ class CpuMonitor {
     // Save new measurements for next round's deltas.
     lastProcStat = procStat;
 
+    sampleProcessUtilization(allTime);
+    lastStats = new CpuStats(doubleToPercent(currentSystemCpuUsage),
+        doubleToPercent(currentTotalCpuUsage), doubleToPercent(currentFrequencyScale),
+        doubleToPercent(processCpuUsage.getCurrent()), sampleThreadUtilization(allTime));
+
     return true;
   }
 
+  /*
+   * Measure the CPU use of this process in the same clock ticks as /proc/stat,
+   * so that |allTime| (the ticks of all CPUs) is its capacity.
+   */
+  private void sampleProcessUtilization(long allTime) {
+    long processTicks = statReader.readProcessTicks();
+    if (processTicks >= 0 && lastProcessTicks >= 0) {
+      processCpuUsage.addValue(Math.max(processTicks - lastProcessTicks, 0) / (double) allTime);
+    }
+    lastProcessTicks = processTicks;
+  }
+
+  private List<ThreadCpuUsage> sampleThreadUtilization(long allTime) {
+    List<ThreadCpuUsage> usages = new ArrayList<>();
+    for (CpuStatReader.ThreadTicks thread : statReader.readThreadTicks()) {
+      int cpuPercent = doubleToPercent(thread.getDeltaTicks() / (double) allTime);
+      if (cpuPercent > 0) {
+        usages.add(new ThreadCpuUsage(thread.tid, thread.name, cpuPercent));
+      }
+    }
+    Collections.sort(usages, busiestFirst);
+    return Collections.unmodifiableList(usages);
+  }
+
   private int doubleToPercent(double d) {
     return (int) (d * 100 + 0.5);
   }
@@ -440,6 +552,10 @@ class CpuMonitor {
         .append(doubleToPercent(totalCpuUsage.getCurrent()))
         .append("/")
         .append(doubleToPercent(totalCpuUsage.getAverage()))
+        .append(". Process: ")
+        .append(doubleToPercent(processCpuUsage.getCurrent()))
+        .append("/")
+        .append(doubleToPercent(processCpuUsage.getAverage()))
         .append(". Cores: ")
         .append(actualCpusPresent);
     stat.append("( ");
@@ -447,79 +563,13 @@ class CpuMonitor {
       stat.append(doubleToPercent(curFreqScales[i])).append(" ");
     }
     stat.append("). Battery: ").append(getBatteryLevel());
+    if (lastStats != null && !lastStats.threads.isEmpty()) {
+      stat.append(". Threads: ")
+          .append(lastStats.threads.subList(0, Math.min(LOGGED_THREADS, lastStats.threads.size())));
+    }
     if (cpuOveruse) {
       stat.append(". Overuse.");
     }
     return stat.toString();
   }
-
-  /**
-   * Read a single integer value from the named file.  Return the read value
-   * or if an error occurs return 0.
-   */
-  private long readFreqFromFile(String fileName) {
-    long number = 0;
-    try (FileInputStream stream = new FileInputStream(fileName);
-         InputStreamReader streamReader = new InputStreamReader(stream, Charset.forName("UTF-8"));
-         BufferedReader reader = new BufferedReader(streamReader)) {
-      String line = reader.readLine();
-      number = parseLong(line);
-    } catch (FileNotFoundException e) {
-      // CPU core is off, so file with its scaling frequency .../cpufreq/scaling_cur_freq
-      // is not present. This is not an error.
-    } catch (IOException e) {
-      // CPU core is off, so file with its scaling frequency .../cpufreq/scaling_cur_freq
-      // is empty. This is not an error.
-    }
-    return number;
-  }
-
-  private static long parseLong(String value) {
-    long number = 0;
-    try {
-      number = Long.parseLong(value);
-    } catch (NumberFormatException e) {
-      Log.e(TAG, "parseLong error.", e);
-    }
-    return number;
-  }
-
-  /*
-   * Read the current utilization of all CPUs using the cumulative first line
-   * of /proc/stat.
-   */
-  @SuppressWarnings("StringSplitter")
-  private @Nullable ProcStat readProcStat() {
-    long userTime = 0;
-    long systemTime = 0;
-    long idleTime = 0;
-    try (FileInputStream stream = new FileInputStream("/proc/stat");
-         InputStreamReader streamReader = new InputStreamReader(stream, Charset.forName("UTF-8"));
-         BufferedReader reader = new BufferedReader(streamReader)) {
-      // line should contain something like this:
-      // cpu  5093818 271838 3512830 165934119 101374 447076 272086 0 0 0
-      //       user    nice  system     idle   iowait  irq   softirq
-      String line = reader.readLine();
-      String[] lines = line.split("\\s+");
-      int length = lines.length;
-      if (length >= 5) {
-        userTime = parseLong(lines[1]); // user
-        userTime += parseLong(lines[2]); // nice
-        systemTime = parseLong(lines[3]); // system
-        idleTime = parseLong(lines[4]); // idle
-      }
-      if (length >= 8) {
-        userTime += parseLong(lines[5]); // iowait
-        systemTime += parseLong(lines[6]); // irq
-        systemTime += parseLong(lines[7]); // softirq
-      }
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Cannot open /proc/stat for reading", e);
-      return null;
-    } catch (Exception e) {
-      Log.e(TAG, "Problems parsing /proc/stat", e);
-      return null;
-    }
-    return new ProcStat(userTime, systemTime, idleTime);
-  }
 }
@@ -0,0 +1,374 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the CPU counters of /proc and /sys for {@link CpuMonitor}. Files are opened once and
+ * re-read from offset 0 on every sample, and numbers are parsed directly from a reused byte
+ * buffer, so that a sample does not create Strings. The only per-sample allocation is the listing
+ * of /proc/self/task; names are only read for threads that were not seen before.
+ *
+ * <p>Has no Android dependencies. All paths are resolved against a root directory, so that the
+ * parsing can be run against a fixture copy of /proc and /sys. Not thread safe; all methods return
+ * 0, -1 or false instead of throwing when a counter cannot be read.
+ */
+class CpuStatReader {
+  // Large enough for the first line of /proc/stat and any /proc/<pid>/stat.
+  private static final int BUFFER_SIZE = 1024;
+  // Fields after the closing parenthesis of the command name in /proc/<pid>/stat; utime and stime
+  // are fields 14 and 15, counting the pid as field 1.
+  private static final int UTIME_FIELD_AFTER_COMM = 11;
+
+  /** CPU time of one thread of this process. */
+  static class ThreadTicks {
+    final int tid;
+    final String name;
+    // Not a channel: RandomAccessFile is not closed when the sampling thread is interrupted.
+    @Nullable private RandomAccessFile file;
+    private long ticks = -1;
+    private long deltaTicks;
+    private boolean alive;
+
+    ThreadTicks(int tid, String name) {
+      this.tid = tid;
+      this.name = name;
+    }
+
+    /** Returns the clock ticks the thread spent running since the previous sample. */
+    long getDeltaTicks() {
+      return deltaTicks;
+    }
+  }
+
+  private final File root;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int length;
+
+  @Nullable private RandomAccessFile procStatFile;
+  @Nullable private RandomAccessFile selfStatFile;
+  private RandomAccessFile[] curFreqFiles = new RandomAccessFile[0];
+  private final Map<Integer, ThreadTicks> threads = new HashMap<>();
+  private final List<ThreadTicks> aliveThreads = new ArrayList<>();
+  private boolean threadsSampled;
+
+  /** Reads the counters of the running system. */
+  CpuStatReader() {
+    this(new File("/"));
+  }
+
+  /** Reads the counters below |root|, which has the layout of the file system root. */
+  CpuStatReader(File root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the number of CPUs in /sys/devices/system/cpu/present, e.g. 8 for "0-7", or 0 if it
+   * cannot be read. Called once, so the file is not kept open.
+   */
+  int readCpusPresent() {
+    RandomAccessFile file = open("sys/devices/system/cpu/present");
+    if (file == null || !readFile(file)) {
+      close(file);
+      return 0;
+    }
+    close(file);
+    long last = parseNextLong();
+    if (position < length && buffer[position] == '-') {
+      ++position;
+      last = parseNextLong();
+    }
+    return last < 0 ? 0 : (int) last + 1;
+  }
+
+  /**
+   * Returns the maximum frequency of a CPU in kHz, or 0 if the CPU is offline. Read once per CPU,
+   * so the file is not kept open.
+   */
+  long readMaxFrequency(int cpu) {
+    RandomAccessFile file = open("sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq");
+    if (file == null || !readFile(file)) {
+      close(file);
+      return 0;
+    }
+    close(file);
+    return Math.max(parseNextLong(), 0);
+  }
+
+  /**
+   * Returns the current frequency of a CPU in kHz, or 0 if the CPU is offline. The file of an
+   * online CPU is kept open; the files of offline CPUs disappear, so a failed read closes it.
+   */
+  long readCurrentFrequency(int cpu) {
+    if (cpu >= curFreqFiles.length) {
+      RandomAccessFile[] files = new RandomAccessFile[cpu + 1];
+      System.arraycopy(curFreqFiles, 0, files, 0, curFreqFiles.length);
+      curFreqFiles = files;
+    }
+    if (curFreqFiles[cpu] == null) {
+      curFreqFiles[cpu] = open("sys/devices/system/cpu/cpu" + cpu + "/cpufreq/scaling_cur_freq");
+      if (curFreqFiles[cpu] == null) {
+        return 0;
+      }
+    }
+    if (!readFile(curFreqFiles[cpu])) {
+      close(curFreqFiles[cpu]);
+      curFreqFiles[cpu] = null;
+      return 0;
+    }
+    return Math.max(parseNextLong(), 0);
+  }
+
+  /**
+   * Reads the cumulative first line of /proc/stat into |times| as user (user, nice and iowait),
+   * system (system, irq and softirq) and idle clock ticks. Returns false on failure.
+   */
+  boolean readSystemTimes(long[] times) {
+    if (procStatFile == null) {
+      procStatFile = open("proc/stat");
+      if (procStatFile == null) {
+        return false;
+      }
+    }
+    if (!readFile(procStatFile)) {
+      close(procStatFile);
+      procStatFile = null;
+      return false;
+    }
+    // Line should contain something like this:
+    // cpu  5093818 271838 3512830 165934119 101374 447076 272086 0 0 0
+    //       user    nice  system     idle   iowait  irq   softirq
+    if (length < 3 || buffer[0] != 'c' || buffer[1] != 'p' || buffer[2] != 'u') {
+      return false;
+    }
+    position = 3;
+    final long user = parseNextLong();
+    final long nice = parseNextLong();
+    final long system = parseNextLong();
+    final long idle = parseNextLong();
+    if (idle < 0) {
+      return false;
+    }
+    final long iowait = parseNextLong();
+    final long irq = parseNextLong();
+    final long softirq = parseNextLong();
+    times[0] = user + nice + Math.max(iowait, 0);
+    times[1] = system + Math.max(irq, 0) + Math.max(softirq, 0);
+    times[2] = idle;
+    return true;
+  }
+
+  /** Returns the user and system clock ticks of this process, or -1 on failure. */
+  long readProcessTicks() {
+    if (selfStatFile == null) {
+      selfStatFile = open("proc/self/stat");
+      if (selfStatFile == null) {
+        return -1;
+      }
+    }
+    if (!readFile(selfStatFile)) {
+      close(selfStatFile);
+      selfStatFile = null;
+      return -1;
+    }
+    return parseStatTicks();
+  }
+
+  /**
+   * Samples all threads of this process and returns the ones alive now. On the first sample all
+   * deltas are 0; threads that started since the previous sample count all their ticks. The list
+   * and its entries are reused by the next call.
+   */
+  List<ThreadTicks> readThreadTicks() {
+    aliveThreads.clear();
+    final File taskDir = new File(root, "proc/self/task");
+    final String[] tids = taskDir.list();
+    if (tids == null) {
+      return aliveThreads;
+    }
+    for (String tidString : tids) {
+      final int tid;
+      try {
+        tid = Integer.parseInt(tidString);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      ThreadTicks thread = threads.get(tid);
+      if (thread == null) {
+        final RandomAccessFile file = open("proc/self/task/" + tid + "/stat");
+        if (file == null || !readFile(file)) {
+          // The thread exited after the listing.
+          close(file);
+          continue;
+        }
+        thread = new ThreadTicks(tid, parseStatName());
+        thread.file = file;
+        threads.put(tid, thread);
+      } else if (thread.file == null || !readFile(thread.file)) {
+        continue;
+      }
+      final long ticks = parseStatTicks();
+      if (ticks < 0) {
+        continue;
+      }
+      if (thread.ticks >= 0) {
+        thread.deltaTicks = Math.max(ticks - thread.ticks, 0);
+      } else {
+        thread.deltaTicks = threadsSampled ? ticks : 0;
+      }
+      thread.ticks = ticks;
+      thread.alive = true;
+      aliveThreads.add(thread);
+    }
+    threadsSampled = true;
+
+    // Forget the threads that exited.
+    for (Iterator<ThreadTicks> it = threads.values().iterator(); it.hasNext();) {
+      final ThreadTicks thread = it.next();
+      if (!thread.alive) {
+        close(thread.file);
+        it.remove();
+      }
+      thread.alive = false;
+    }
+    return aliveThreads;
+  }
+
+  /** Closes all files; they are reopened by the next read. */
+  void close() {
+    close(procStatFile);
+    procStatFile = null;
+    close(selfStatFile);
+    selfStatFile = null;
+    for (int i = 0; i < curFreqFiles.length; i++) {
+      close(curFreqFiles[i]);
+      curFreqFiles[i] = null;
+    }
+    for (ThreadTicks thread : threads.values()) {
+      close(thread.file);
+    }
+    threads.clear();
+    aliveThreads.clear();
+    threadsSampled = false;
+  }
+
+  @Nullable
+  private RandomAccessFile open(String path) {
+    try {
+      return new RandomAccessFile(new File(root, path), "r");
+    } catch (IOException e) {
+      // Offline CPUs and exited threads have no files. This is not an error.
+      return null;
+    }
+  }
+
+  private static void close(@Nullable RandomAccessFile file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      file.close();
+    } catch (IOException e) {
+      // Nothing to do for a read-only file.
+    }
+  }
+
+  // Reads the start of |file| into the buffer and resets the parse position.
+  private boolean readFile(RandomAccessFile file) {
+    position = 0;
+    length = 0;
+    try {
+      file.seek(0);
+      int read;
+      while (length < buffer.length
+          && (read = file.read(buffer, length, buffer.length - length)) > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return length > 0;
+  }
+
+  // Skips to the next number and parses it. Returns -1 if there is none before the end of line.
+  private long parseNextLong() {
+    while (position < length && buffer[position] == ' ') {
+      ++position;
+    }
+    if (position >= length || buffer[position] < '0' || buffer[position] > '9') {
+      return -1;
+    }
+    long value = 0;
+    while (position < length && buffer[position] >= '0' && buffer[position] <= '9') {
+      value = value * 10 + (buffer[position++] - '0');
+    }
+    return value;
+  }
+
+  // Returns the index of the parenthesis that closes the command name of a stat file. The name
+  // can itself contain parentheses and spaces, so the last one is taken.
+  private int findCommEnd() {
+    for (int i = length - 1; i >= 0; i--) {
+      if (buffer[i] == ')') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Returns utime + stime of the stat file in the buffer, or -1 if it is malformed.
+  private long parseStatTicks() {
+    position = findCommEnd() + 1;
+    if (position == 0) {
+      return -1;
+    }
+    for (int field = 0; field < UTIME_FIELD_AFTER_COMM; field++) {
+      while (position < length && buffer[position] == ' ') {
+        ++position;
+      }
+      while (position < length && buffer[position] != ' ') {
+        ++position;
+      }
+    }
+    final long utime = parseNextLong();
+    final long stime = parseNextLong();
+    return (utime < 0 || stime < 0) ? -1 : utime + stime;
+  }
+
+  // Returns the command name of the stat file in the buffer.
+  private String parseStatName() {
+    final int end = findCommEnd();
+    int start = 0;
+    while (start < length && buffer[start] != '(') {
+      ++start;
+    }
+    if (end <= start) {
+      return "";
+    }
+    // Thread names are ASCII in practice; other bytes are mapped one to one.
+    final char[] name = new char[end - start - 1];
+    for (int i = 0; i < name.length; i++) {
+      name[i] = (char) (buffer[start + 1 + i] & 0xFF);
+    }
+    return new String(name);
+  }
+}
@@ -199,7 +199,9 @@ public class HudFragment extends Fragment {
           .append("/")
           .append(cpuMonitor.getCpuUsageAverage())
           .append(". Freq: ")
-          .append(cpuMonitor.getFrequencyScaleAverage());
+          .append(cpuMonitor.getFrequencyScaleAverage())
+          .append(". App: ")
+          .append(cpuMonitor.getProcessCpuUsageAverage());
     }
     encoderStatView.setText(encoderStat.toString());
   }
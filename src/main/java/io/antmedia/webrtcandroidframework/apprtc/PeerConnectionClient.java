@@ -11,6 +11,8 @@
 package io.antmedia.webrtcandroidframework.apprtc;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
@@ -20,11 +22,16 @@ import androidx.annotation.Nullable;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.CameraVideoCapturer;
+import org.webrtc.CapturerObserver;
+import org.webrtc.CapturerSwitcher;
 import org.webrtc.CandidatePairChangeEvent;
 import org.webrtc.DataChannel;
 import org.webrtc.DefaultVideoDecoderFactory;
 import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.HardwareVideoEncoderFactory;
 import org.webrtc.EglBase;
+import org.webrtc.EncoderCalibrator;
+import org.webrtc.HardwareEncoderRanking;
 import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
 import org.webrtc.MediaConstraints;
@@ -44,19 +51,26 @@ import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
 import org.webrtc.SoftwareVideoDecoderFactory;
 import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.SurfaceTextureCapturer;
 import org.webrtc.SurfaceTextureHelper;
 import org.webrtc.VideoCapturer;
 import org.webrtc.VideoDecoderFactory;
 import org.webrtc.VideoEncoderFactory;
+import org.webrtc.VideoProcessor;
 import org.webrtc.VideoSink;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
+import org.webrtc.YuvConverter;
 import org.webrtc.audio.AudioDeviceModule;
 import org.webrtc.audio.JavaAudioDeviceModule;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordStateCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.PlayoutMetricsListener;
+import org.webrtc.audio.AudioInputBackend;
+import org.webrtc.audio.AudioOutputBackend;
+import org.webrtc.audio.PcmRingBuffer;
 
 import java.io.File;
 import java.io.IOException;
@@ -87,6 +101,7 @@ import io.antmedia.webrtcandroidframework.IDataChannelObserver;
  */
 public class PeerConnectionClient implements IDataChannelMessageSender {
   public static final String VIDEO_TRACK_ID = "ARDAMSv0";
+  private static final String MEDIA_STREAM_ID = "ARDAMS";
   public static final String AUDIO_TRACK_ID = "ARDAMSa0";
   public static final String VIDEO_TRACK_TYPE = "video";
   private static final String TAG = "PCRTCClient";
@@ -112,7 +127,15 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
   private static final int HD_VIDEO_WIDTH = 1280;
   private static final int HD_VIDEO_HEIGHT = 720;
   private static final int BPS_IN_KBPS = 1000;
+  // Two seconds of 48 kHz stereo; rounded up to a power of two by the ring.
+  private static final int RECORDED_SAMPLES_RING_CAPACITY = 2 * 48000 * 2;
   private static final String RTCEVENTLOG_OUTPUT_DIR_NAME = "rtc_event_log";
+  private static final String ENCODER_RANKING_PREFERENCES = "webrtc_encoder_ranking";
+  private static final String ENCODER_RANKING_KEY = "ranking";
+  // Device build and capture format the encoders were last calibrated for.
+  private static final String ENCODER_CALIBRATION_PROFILE_KEY = "calibration_profile";
+  private static final int ENCODER_CALIBRATION_FRAMES = 30;
+  private static final int DEFAULT_CALIBRATION_BITRATE_KBPS = 1000;
 
   // Executor thread is started once in private ctor and is used for all
   // peer connection API calls to ensure new peer connection factory is
@@ -130,6 +153,8 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
   @Nullable
   private PeerConnectionFactory factory;
   @Nullable
+  private HardwareVideoEncoderFactory hardwareEncoderFactory;
+  @Nullable
   private PeerConnection peerConnection;
   @Nullable
   private AudioSource audioSource;
@@ -157,6 +182,14 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
   private SessionDescription localSdp; // either offer or answer SDP
   @Nullable
   private VideoCapturer videoCapturer;
+  // Feeds the video source from the capturer, or from two capturers while switching.
+  @Nullable private CapturerSwitcher capturerSwitcher;
+  // Capturer being switched to, and its capture thread.
+  @Nullable private VideoCapturer pendingVideoCapturer;
+  @Nullable private SurfaceTextureHelper pendingSurfaceTextureHelper;
+  private boolean previousVideoCapturerStopped;
+  // Video tracks published next to the main one; accessed on the executor thread only.
+  private final List<AdditionalVideoSource> additionalVideoSources = new ArrayList<>();
   // enableVideo is set to true if video should be rendered and sent.
   private boolean renderVideo = true;
   @Nullable
@@ -178,6 +211,19 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
   // Implements the WebRtcAudioRecordSamplesReadyCallback interface and writes
   // recorded audio samples to an output file.
   @Nullable private RecordedAudioToFileController saveRecordedAudioToFile;
+  // Receives all recorded audio of the Java audio device module; see
+  // getRecordedSamplesRingBuffer().
+  private final PcmRingBuffer recordedSamplesRingBuffer =
+      new PcmRingBuffer(RECORDED_SAMPLES_RING_CAPACITY);
+  // Receives the mixed remote audio that is played out; see getPlayoutSamplesRingBuffer().
+  private final PcmRingBuffer playoutSamplesRingBuffer =
+      new PcmRingBuffer(RECORDED_SAMPLES_RING_CAPACITY);
+  // Replace the AudioRecord and AudioTrack if set; see setAudioBackends().
+  @Nullable private AudioInputBackend audioInputBackend;
+  @Nullable private AudioOutputBackend audioOutputBackend;
+  // Ceiling of the adaptive playout buffer; 0 keeps the fixed AudioTrack buffer.
+  private int playoutBufferMaxLatencyMs;
+  @Nullable private VideoProcessor localVideoProcessor;
 
   @Nullable
   IDataChannelObserver dataChannelObserver;
@@ -205,6 +251,56 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     }
   };
 
+  /**
+   * Sets the backends the audio device module records from and plays out to instead of the
+   * AudioRecord and AudioTrack; null keeps the device. Must be called before
+   * createPeerConnectionFactory().
+   */
+  public void setAudioBackends(@Nullable AudioInputBackend audioInputBackend,
+      @Nullable AudioOutputBackend audioOutputBackend) {
+    this.audioInputBackend = audioInputBackend;
+    this.audioOutputBackend = audioOutputBackend;
+  }
+
+  /**
+   * Lets the AudioTrack buffer adapt to the playout timing of the device, up to |maxLatencyMs|;
+   * 0, the default, keeps the fixed buffer size. Must be called before
+   * createPeerConnectionFactory().
+   */
+  public void setPlayoutBufferMaxLatencyMs(int maxLatencyMs) {
+    this.playoutBufferMaxLatencyMs = maxLatencyMs;
+  }
+
+  /**
+   * Sets the processor, e.g. a {@link org.webrtc.VideoProcessorChain}, that the local video
+   * frames pass through before they are encoded; null removes it. Can be called at any time.
+   */
+  public void setLocalVideoProcessor(@Nullable VideoProcessor videoProcessor) {
+    executor.execute(() -> {
+      localVideoProcessor = videoProcessor;
+      if (videoSource != null) {
+        videoSource.setVideoProcessor(videoProcessor);
+      }
+    });
+  }
+
+  /**
+   * Returns the ring buffer fed with the microphone audio. Consumers created from it read the
+   * recorded 16-bit PCM on their own threads without affecting the audio thread. Not fed when
+   * OpenSL ES is used.
+   */
+  public PcmRingBuffer getRecordedSamplesRingBuffer() {
+    return recordedSamplesRingBuffer;
+  }
+
+  /**
+   * Returns the ring buffer fed with the audio that is played out, which is the mix of all remote
+   * audio streams. Not fed when OpenSL ES is used.
+   */
+  public PcmRingBuffer getPlayoutSamplesRingBuffer() {
+    return playoutSamplesRingBuffer;
+  }
+
   @Nullable
   public DataChannel getDataChannel() {
     return dataChannel;
@@ -245,6 +341,7 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     executor.execute(() -> {
       createMediaConstraintsInternal();
       createVideoTrack(videoCapturer);
+      createAdditionalVideoTracks();
       createAudioTrack();
     });
   }
@@ -280,6 +377,46 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     }
   }
 
+  /**
+   * Capture format and bitrate cap of a video track added with addVideoSource(). A
+   * maxBitrateKbps of 0 leaves the bitrate to the bandwidth estimation.
+   */
+  public static class VideoTrackParameters {
+    public final String trackId;
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final int maxBitrateKbps;
+
+    public VideoTrackParameters(
+        String trackId, int width, int height, int fps, int maxBitrateKbps) {
+      this.trackId = trackId;
+      this.width = width;
+      this.height = height;
+      this.fps = fps;
+      this.maxBitrateKbps = maxBitrateKbps;
+    }
+  }
+
+  /** Capturer of a video track added with addVideoSource(), with its capture thread and source. */
+  private static class AdditionalVideoSource {
+    final VideoCapturer capturer;
+    final VideoTrackParameters parameters;
+    @Nullable final VideoSink localRender;
+    @Nullable SurfaceTextureHelper surfaceTextureHelper;
+    @Nullable VideoSource videoSource;
+    @Nullable VideoTrack track;
+    @Nullable RtpSender sender;
+    boolean capturerStopped;
+
+    AdditionalVideoSource(VideoCapturer capturer, VideoTrackParameters parameters,
+        @Nullable VideoSink localRender) {
+      this.capturer = capturer;
+      this.parameters = parameters;
+      this.localRender = localRender;
+    }
+  }
+
   /**
    * Peer connection parameters.
    */
@@ -500,7 +637,7 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     if (peerConnectionParameters.saveInputAudioToFile) {
       if (!peerConnectionParameters.useOpenSLES) {
         Log.d(TAG, "Enable recording of microphone input audio to file");
-        saveRecordedAudioToFile = new RecordedAudioToFileController(executor);
+        saveRecordedAudioToFile = new RecordedAudioToFileController();
       } else {
         // TODO(henrika): ensure that the UI reflects that if OpenSL ES is selected,
         // then the "Save inut audio to file" option shall be grayed out.
@@ -520,8 +657,13 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     final VideoDecoderFactory decoderFactory;
 
     if (peerConnectionParameters.videoCodecHwAcceleration) {
-      encoderFactory = new DefaultVideoEncoderFactory(
-          rootEglBase.getEglBaseContext(), true /* enableIntelVp8Encoder */, enableH264HighProfile);
+      final HardwareEncoderRanking encoderRanking =
+          new HardwareEncoderRanking(HardwareEncoderRanking.createSharedPreferencesStorage(
+              getEncoderRankingPreferences(), ENCODER_RANKING_KEY));
+      hardwareEncoderFactory = new HardwareVideoEncoderFactory(rootEglBase.getEglBaseContext(),
+          true /* enableIntelVp8Encoder */, enableH264HighProfile,
+          null /* codecAllowedPredicate */, encoderRanking);
+      encoderFactory = new DefaultVideoEncoderFactory(hardwareEncoderFactory);
       decoderFactory = new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext());
     } else {
       encoderFactory = new SoftwareVideoEncoderFactory();
@@ -614,14 +756,24 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
       }
     };
 
+    // Log playout timing every few seconds to help diagnose choppy audio.
+    PlayoutMetricsListener playoutMetricsListener =
+        metrics -> Log.d(TAG, "Audio playout metrics: " + metrics);
+
     return JavaAudioDeviceModule.builder(appContext)
         .setSamplesReadyCallback(saveRecordedAudioToFile)
+        .setRecordedSamplesRingBuffer(recordedSamplesRingBuffer)
+        .setPlayoutSamplesRingBuffer(playoutSamplesRingBuffer)
         .setUseHardwareAcousticEchoCanceler(!peerConnectionParameters.disableBuiltInAEC)
         .setUseHardwareNoiseSuppressor(!peerConnectionParameters.disableBuiltInNS)
         .setAudioRecordErrorCallback(audioRecordErrorCallback)
         .setAudioTrackErrorCallback(audioTrackErrorCallback)
         .setAudioRecordStateCallback(audioRecordStateCallback)
         .setAudioTrackStateCallback(audioTrackStateCallback)
+        .setPlayoutMetricsListener(playoutMetricsListener)
+        .setPlayoutBufferMaxLatencyMs(playoutBufferMaxLatencyMs)
+        .setAudioInputBackend(audioInputBackend)
+        .setAudioOutputBackend(audioOutputBackend)
         .createAudioDeviceModule();
   }
 
@@ -698,7 +850,7 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     // NOTE: this _must_ happen while |factory| is alive!
     Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
 
-    List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
+    List<String> mediaStreamLabels = Collections.singletonList(MEDIA_STREAM_ID);
     if (isVideoCallEnabled()) {
       peerConnection.addTrack(createVideoTrack(videoCapturer), mediaStreamLabels);
       // We can add the renderers right away because we don't need to wait for an
@@ -715,6 +867,11 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     if (isVideoCallEnabled()) {
       findVideoSender();
     }
+    for (AdditionalVideoSource source : additionalVideoSources) {
+      if (source.track != null) {
+        source.sender = peerConnection.addTrack(source.track, mediaStreamLabels);
+      }
+    }
 
     if (peerConnectionParameters.aecDump) {
       try {
@@ -809,6 +966,15 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
       videoCapturer.dispose();
       videoCapturer = null;
     }
+    disposePendingVideoCapturer();
+    if (capturerSwitcher != null) {
+      capturerSwitcher.dispose();
+      capturerSwitcher = null;
+    }
+    for (AdditionalVideoSource source : additionalVideoSources) {
+      disposeAdditionalVideoSource(source);
+    }
+    additionalVideoSources.clear();
     Log.d(TAG, "Closing video source.");
     if (videoSource != null) {
       videoSource.dispose();
@@ -835,6 +1001,40 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     events.onPeerConnectionClosed();
     PeerConnectionFactory.stopInternalTracingCapture();
     PeerConnectionFactory.shutdownInternalTracer();
+    calibrateEncodersIfNeeded();
+    hardwareEncoderFactory = null;
+  }
+
+  private SharedPreferences getEncoderRankingPreferences() {
+    return appContext.getSharedPreferences(ENCODER_RANKING_PREFERENCES, Context.MODE_PRIVATE);
+  }
+
+  // Calibrates the hardware encoders once per device build and capture format. Runs after a call
+  // on the executor, so it never competes with the encoder of a call; a following call waits for
+  // it. Until then, the encoders keep the platform order.
+  private void calibrateEncodersIfNeeded() {
+    if (hardwareEncoderFactory == null || !peerConnectionParameters.videoCallEnabled
+        || videoWidth == 0 || videoHeight == 0 || videoFps == 0) {
+      return;
+    }
+    final SharedPreferences preferences = getEncoderRankingPreferences();
+    final String profile =
+        Build.FINGERPRINT + "/" + videoWidth + "x" + videoHeight + "@" + videoFps;
+    if (profile.equals(preferences.getString(ENCODER_CALIBRATION_PROFILE_KEY, null))) {
+      return;
+    }
+    final int bitrateKbps = peerConnectionParameters.videoMaxBitrate > 0
+        ? peerConnectionParameters.videoMaxBitrate
+        : DEFAULT_CALIBRATION_BITRATE_KBPS;
+    Log.d(TAG, "Calibrating hardware encoders for " + profile);
+    try {
+      hardwareEncoderFactory.calibrateEncoders(new EncoderCalibrator(videoWidth, videoHeight,
+          videoFps, bitrateKbps * BPS_IN_KBPS, ENCODER_CALIBRATION_FRAMES));
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Encoder calibration failed", e);
+      return;
+    }
+    preferences.edit().putString(ENCODER_CALIBRATION_PROFILE_KEY, profile).apply();
   }
 
   public boolean isHDVideo() {
@@ -904,6 +1104,11 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
               localVideoTrack.setEnabled(renderVideo);
           }
       }
+      for (AdditionalVideoSource source : additionalVideoSources) {
+        if (source.track != null) {
+          source.track.setEnabled(renderVideo);
+        }
+      }
       if (remoteVideoTrack != null) {
         remoteVideoTrack.setEnabled(renderVideo);
       }
@@ -993,6 +1198,15 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
             }
             videoCapturerStopped = true;
         }
+        for (AdditionalVideoSource source : additionalVideoSources) {
+            if (source.track != null && !source.capturerStopped) {
+                try {
+                    source.capturer.stopCapture();
+                } catch (InterruptedException e) {
+                }
+                source.capturerStopped = true;
+            }
+        }
     }
 
   public void startVideoSource() {
@@ -1007,6 +1221,13 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
             videoCapturer.startCapture(videoWidth, videoHeight, videoFps);
             videoCapturerStopped = false;
         }
+        for (AdditionalVideoSource source : additionalVideoSources) {
+            if (source.track != null && source.capturerStopped) {
+                final VideoTrackParameters parameters = source.parameters;
+                source.capturer.startCapture(parameters.width, parameters.height, parameters.fps);
+                source.capturerStopped = false;
+            }
+        }
     }
 
 
@@ -1061,10 +1282,18 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
   @Nullable
   private VideoTrack createVideoTrack(VideoCapturer capturer) {
     if (localVideoTrack == null && capturer != null) {
-      surfaceTextureHelper =
-              SurfaceTextureHelper.create("CaptureThread", rootEglBase.getEglBaseContext());
-      videoSource = factory.createVideoSource(capturer.isScreencast());
-      capturer.initialize(surfaceTextureHelper, appContext, videoSource.getCapturerObserver());
+      final boolean alignInCapturer = isAlignedInCapturer(capturer);
+      surfaceTextureHelper = createSurfaceTextureHelper("CaptureThread", capturer);
+      videoSource = factory.createVideoSource(capturer.isScreencast(), !alignInCapturer);
+      // Cameras, UVC cameras in particular, may deliver more frames than requested; drop them
+      // before they are converted.
+      videoSource.setMaxFramerate(videoFps);
+      if (localVideoProcessor != null) {
+        videoSource.setVideoProcessor(localVideoProcessor);
+      }
+      capturerSwitcher = new CapturerSwitcher(videoSource.getCapturerObserver(), videoFps);
+      capturer.initialize(surfaceTextureHelper, appContext, capturerSwitcher.createInput());
+      setTextureStageTimings(capturer);
       capturer.startCapture(videoWidth, videoHeight, videoFps);
 
       localVideoTrack = factory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
@@ -1074,11 +1303,177 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     return localVideoTrack;
   }
 
+  private void setTextureStageTimings(VideoCapturer capturer) {
+    if (capturer instanceof SurfaceTextureCapturer && hardwareEncoderFactory != null) {
+      // Texture frames are drawn straight onto the encoder input surface; collect the draw and
+      // encode queue timings next to the capture side timings.
+      hardwareEncoderFactory.setTextureStageTimings(
+          ((SurfaceTextureCapturer) capturer).getStageTimings());
+    }
+  }
+
+  // Camera and UVC frames carry the sensor or producer timestamp of the SurfaceTexture, which is
+  // aligned to the rtc clock once, on the capture thread. Camera1 byte buffer frames are stamped
+  // with the rtc clock already, so the video source must not align them again.
+  private static boolean isAlignedInCapturer(VideoCapturer capturer) {
+    return capturer instanceof CameraVideoCapturer || capturer instanceof SurfaceTextureCapturer;
+  }
+
+  // Software encoders read every frame as I420. Read the frames back pipelined on the capture
+  // thread then, instead of in a blocking toI420() per frame on the encoder thread. Screen capture
+  // keeps texture frames, which the screen share filter copies on the GPU.
+  @Nullable
+  private SurfaceTextureHelper createSurfaceTextureHelper(
+      String threadName, VideoCapturer capturer) {
+    final boolean alignInCapturer = isAlignedInCapturer(capturer);
+    if (!peerConnectionParameters.videoCodecHwAcceleration && !capturer.isScreencast()) {
+      return SurfaceTextureHelper.create(threadName, rootEglBase.getEglBaseContext(),
+          alignInCapturer, YuvConverter.ReadbackMode.BALANCED);
+    }
+    return SurfaceTextureHelper.create(
+        threadName, rootEglBase.getEglBaseContext(), alignInCapturer);
+  }
+
+  /**
+   * Publishes another video track in the stream of the main one, e.g. a USB camera next to the
+   * built-in camera. Each track has its own capture thread, so a stalled USB device does not
+   * delay the other cameras, and all capture threads share the EGL context of the encoders.
+   * Capture starts right away if the factory exists. Add sources before the peer connection is
+   * created; a track added later is only sent after renegotiation.
+   *
+   * @param localRender sink for the local preview of the track, may be null
+   */
+  public void addVideoSource(final VideoCapturer capturer, final VideoTrackParameters parameters,
+      @Nullable final VideoSink localRender) {
+    executor.execute(() -> {
+      for (AdditionalVideoSource source : additionalVideoSources) {
+        if (source.parameters.trackId.equals(parameters.trackId)) {
+          Log.e(TAG, "Video track " + parameters.trackId + " exists already.");
+          return;
+        }
+      }
+      final AdditionalVideoSource source =
+          new AdditionalVideoSource(capturer, parameters, localRender);
+      additionalVideoSources.add(source);
+      if (factory == null || isError) {
+        // The track is created with the factory.
+        return;
+      }
+      createAdditionalVideoTrack(source);
+      if (peerConnection != null && source.track != null) {
+        Log.w(TAG, "Video track " + parameters.trackId + " added after the peer connection.");
+        source.sender = peerConnection.addTrack(
+            source.track, Collections.singletonList(MEDIA_STREAM_ID));
+        applyVideoTrackBitrateCap(source);
+      }
+    });
+  }
+
+  /** Stops and removes a video track added with addVideoSource(). */
+  public void removeVideoSource(final String trackId) {
+    executor.execute(() -> {
+      for (int i = 0; i < additionalVideoSources.size(); ++i) {
+        final AdditionalVideoSource source = additionalVideoSources.get(i);
+        if (source.parameters.trackId.equals(trackId)) {
+          additionalVideoSources.remove(i);
+          if (peerConnection != null && source.sender != null) {
+            peerConnection.removeTrack(source.sender);
+          }
+          disposeAdditionalVideoSource(source);
+          return;
+        }
+      }
+      Log.w(TAG, "No video track " + trackId + " to remove.");
+    });
+  }
+
+  private void createAdditionalVideoTracks() {
+    for (AdditionalVideoSource source : additionalVideoSources) {
+      if (source.track == null) {
+        createAdditionalVideoTrack(source);
+      }
+    }
+  }
+
+  private void createAdditionalVideoTrack(AdditionalVideoSource source) {
+    final VideoTrackParameters parameters = source.parameters;
+    final boolean alignInCapturer = isAlignedInCapturer(source.capturer);
+    source.surfaceTextureHelper =
+        createSurfaceTextureHelper("CaptureThread-" + parameters.trackId, source.capturer);
+    if (source.surfaceTextureHelper == null) {
+      Log.e(TAG, "Failed to create the capture thread of video track " + parameters.trackId);
+      return;
+    }
+    source.videoSource =
+        factory.createVideoSource(source.capturer.isScreencast(), !alignInCapturer);
+    // USB cameras in particular may ignore the requested format; cap the frames at the source.
+    source.videoSource.setMaxFramerate(parameters.fps);
+    source.videoSource.adaptOutputFormat(parameters.width, parameters.height, parameters.fps);
+    source.capturer.initialize(
+        source.surfaceTextureHelper, appContext, source.videoSource.getCapturerObserver());
+    source.capturer.startCapture(parameters.width, parameters.height, parameters.fps);
+
+    source.track = factory.createVideoTrack(parameters.trackId, source.videoSource);
+    source.track.setEnabled(renderVideo);
+    if (source.localRender != null) {
+      source.track.addSink(source.localRender);
+    }
+    Log.d(TAG, "Created video track " + parameters.trackId + ": " + parameters.width + "x"
+        + parameters.height + "@" + parameters.fps);
+  }
+
+  private void applyVideoTrackBitrateCaps() {
+    for (AdditionalVideoSource source : additionalVideoSources) {
+      applyVideoTrackBitrateCap(source);
+    }
+  }
+
+  // Applied once the sender has negotiated encodings.
+  private void applyVideoTrackBitrateCap(AdditionalVideoSource source) {
+    if (source.sender == null || source.parameters.maxBitrateKbps <= 0) {
+      return;
+    }
+    final RtpParameters parameters = source.sender.getParameters();
+    if (parameters.encodings.size() == 0) {
+      return;
+    }
+    for (RtpParameters.Encoding encoding : parameters.encodings) {
+      encoding.maxBitrateBps = source.parameters.maxBitrateKbps * BPS_IN_KBPS;
+    }
+    if (!source.sender.setParameters(parameters)) {
+      Log.e(TAG, "RtpSender.setParameters failed for video track " + source.parameters.trackId);
+    }
+  }
+
+  private void disposeAdditionalVideoSource(AdditionalVideoSource source) {
+    if (source.track != null && !source.capturerStopped) {
+      try {
+        source.capturer.stopCapture();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    source.capturer.dispose();
+    if (source.track != null) {
+      source.track.dispose();
+      source.track = null;
+    }
+    if (source.videoSource != null) {
+      source.videoSource.dispose();
+      source.videoSource = null;
+    }
+    if (source.surfaceTextureHelper != null) {
+      source.surfaceTextureHelper.dispose();
+      source.surfaceTextureHelper = null;
+    }
+  }
+
   private void findVideoSender() {
     for (RtpSender sender : peerConnection.getSenders()) {
       if (sender.track() != null) {
         String trackType = sender.track().kind();
-        if (trackType.equals(VIDEO_TRACK_TYPE)) {
+        // Tracks added with addVideoSource() have senders of their own.
+        if (trackType.equals(VIDEO_TRACK_TYPE) && sender.track().id().equals(VIDEO_TRACK_ID)) {
           Log.d(TAG, "Found video sender.");
           localVideoSender = sender;
         }
@@ -1291,29 +1686,211 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
     }
   }
 
-  private void switchCameraInternal() {
+  private void switchCameraInternal(
+      @Nullable CameraVideoCapturer.CameraSwitchHandler switchHandler) {
     if (videoCapturer instanceof CameraVideoCapturer) {
       if (!isVideoCallEnabled() || isError) {
         Log.e(TAG,
             "Failed to switch camera. Video: " + isVideoCallEnabled() + ". Error : " + isError);
+        if (switchHandler != null) {
+          switchHandler.onCameraSwitchError("No video is sent or an error happened.");
+        }
         return; // No video is sent or only one camera is available or error happened.
       }
       Log.d(TAG, "Switch camera");
       CameraVideoCapturer cameraVideoCapturer = (CameraVideoCapturer) videoCapturer;
-      cameraVideoCapturer.switchCamera(null);
+      cameraVideoCapturer.switchCamera(switchHandler);
     } else {
       Log.d(TAG, "Will not switch camera, video caputurer is not a camera");
+      if (switchHandler != null) {
+        switchHandler.onCameraSwitchError("The video capturer is not a camera.");
+      }
     }
   }
 
   public void switchCamera() {
-    executor.execute(this ::switchCameraInternal);
+    switchCamera(null);
+  }
+
+  /**
+   * Switches to the next camera, like switchCamera(), and reports the result to |switchHandler|,
+   * which may be null.
+   */
+  public void switchCamera(@Nullable CameraVideoCapturer.CameraSwitchHandler switchHandler) {
+    executor.execute(() -> switchCameraInternal(switchHandler));
+  }
+
+  /**
+   * Replaces the capturer of the main video track, e.g. the built-in camera by a USB camera, on
+   * the same video source and track, so nothing is renegotiated. The new capturer is started in
+   * the background and takes over on its first frame; until then the previous capturer keeps
+   * sending, or its last frame is repeated. Then the previous capturer is stopped and disposed.
+   * If the switch fails, also if the new capturer sends no frame within the crossover timeout of
+   * CapturerSwitcher, the previous capturer stays, or is started again, and the new one is
+   * disposed.
+   *
+   * @param stopPreviousFirst stop the previous capturer before starting the new one, for devices
+   *     that cannot open both cameras at the same time
+   * @param listener reports the switch latency, called on the executor thread; may be null
+   */
+  public void switchVideoCapturer(final VideoCapturer newCapturer, final boolean stopPreviousFirst,
+      @Nullable final CapturerSwitcher.SwitchListener listener) {
+    executor.execute(() -> switchVideoCapturerInternal(newCapturer, stopPreviousFirst, listener));
+  }
+
+  private void switchVideoCapturerInternal(final VideoCapturer newCapturer,
+      final boolean stopPreviousFirst, @Nullable final CapturerSwitcher.SwitchListener listener) {
+    String error = null;
+    if (!isVideoCallEnabled() || isError || capturerSwitcher == null) {
+      error = "No video is sent.";
+    } else if (videoCapturerStopped) {
+      error = "The video source is stopped.";
+    } else if (pendingVideoCapturer != null) {
+      error = "A switch is in progress.";
+    } else if (isAlignedInCapturer(newCapturer) != isAlignedInCapturer(videoCapturer)) {
+      // The video source aligns the timestamps of all its frames or of none.
+      error = "The capturers stamp their frames differently.";
+    }
+    final SurfaceTextureHelper newHelper = error != null ? null
+        : createSurfaceTextureHelper("CaptureThread", newCapturer);
+    if (error == null && newHelper == null) {
+      error = "Failed to create the capture thread.";
+    }
+    if (error != null) {
+      Log.e(TAG, "Failed to switch video capturer: " + error);
+      newCapturer.dispose();
+      if (listener != null) {
+        listener.onSwitchFailed(error);
+      }
+      return;
+    }
+    Log.d(TAG, "Switch video capturer.");
+    pendingVideoCapturer = newCapturer;
+    pendingSurfaceTextureHelper = newHelper;
+    previousVideoCapturerStopped = false;
+    final CapturerObserver input = capturerSwitcher.createInput();
+    newCapturer.initialize(newHelper, appContext, input);
+    capturerSwitcher.switchTo(input, new CapturerSwitcher.SwitchListener() {
+      @Override
+      public void onSwitchCompleted(
+          final long switchLatencyMs, final long longestGapMs, final int repeatedFrames) {
+        executor.execute(() -> {
+          if (pendingVideoCapturer != newCapturer) {
+            return;
+          }
+          finishVideoCapturerSwitch();
+          if (listener != null) {
+            listener.onSwitchCompleted(switchLatencyMs, longestGapMs, repeatedFrames);
+          }
+        });
+      }
+
+      @Override
+      public void onSwitchFailed(final String error) {
+        executor.execute(() -> {
+          if (pendingVideoCapturer != newCapturer) {
+            return;
+          }
+          Log.e(TAG, "Failed to switch video capturer: " + error);
+          disposePendingVideoCapturer();
+          if (previousVideoCapturerStopped && !videoCapturerStopped) {
+            videoCapturer.startCapture(videoWidth, videoHeight, videoFps);
+          }
+          if (listener != null) {
+            listener.onSwitchFailed(error);
+          }
+        });
+      }
+
+      @Override
+      public void onLastFrameHeld() {
+        if (!stopPreviousFirst) {
+          return;
+        }
+        executor.execute(() -> {
+          if (pendingVideoCapturer != newCapturer) {
+            return;
+          }
+          // The switcher repeats the last frame until the new capturer is up.
+          stopCapturer(videoCapturer);
+          previousVideoCapturerStopped = true;
+          newCapturer.startCapture(videoWidth, videoHeight, videoFps);
+        });
+      }
+    });
+    if (!stopPreviousFirst) {
+      newCapturer.startCapture(videoWidth, videoHeight, videoFps);
+    }
+  }
+
+  private void finishVideoCapturerSwitch() {
+    if (!previousVideoCapturerStopped) {
+      stopCapturer(videoCapturer);
+    }
+    videoCapturer.dispose();
+    surfaceTextureHelper.dispose();
+    videoCapturer = pendingVideoCapturer;
+    surfaceTextureHelper = pendingSurfaceTextureHelper;
+    pendingVideoCapturer = null;
+    pendingSurfaceTextureHelper = null;
+    setTextureStageTimings(videoCapturer);
+    if (videoCapturerStopped) {
+      // The video source was stopped during the switch.
+      stopCapturer(videoCapturer);
+    }
+  }
+
+  private void disposePendingVideoCapturer() {
+    if (pendingVideoCapturer != null) {
+      stopCapturer(pendingVideoCapturer);
+      pendingVideoCapturer.dispose();
+      pendingVideoCapturer = null;
+    }
+    if (pendingSurfaceTextureHelper != null) {
+      pendingSurfaceTextureHelper.dispose();
+      pendingSurfaceTextureHelper = null;
+    }
+  }
+
+  private static void stopCapturer(VideoCapturer capturer) {
+    try {
+      capturer.stopCapture();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   public void changeCaptureFormat(final int width, final int height, final int framerate) {
     executor.execute(() -> changeCaptureFormatInternal(width, height, framerate));
   }
 
+  /**
+   * Restarts the capturer with another format, unlike changeCaptureFormat() which adapts the
+   * captured frames. The format is kept when the video source is stopped and started again.
+   */
+  public void changeCameraCaptureFormat(final int width, final int height, final int framerate) {
+    executor.execute(() -> {
+      if (!isVideoCallEnabled() || isError || videoCapturer == null) {
+        Log.e(TAG, "Failed to change camera capture format. Video: " + isVideoCallEnabled()
+            + ". Error : " + isError);
+        return;
+      }
+      Log.d(TAG, "changeCameraCaptureFormat: " + width + "x" + height + "@" + framerate);
+      videoWidth = width;
+      videoHeight = height;
+      videoFps = framerate;
+      if (videoSource != null) {
+        videoSource.setMaxFramerate(framerate);
+      }
+      if (capturerSwitcher != null) {
+        capturerSwitcher.setFramerate(framerate);
+      }
+      if (!videoCapturerStopped) {
+        videoCapturer.changeCaptureFormat(width, height, framerate);
+      }
+    });
+  }
+
   private void changeCaptureFormatInternal(int width, int height, int framerate) {
     if (!isVideoCallEnabled() || isError || videoCapturer == null) {
       Log.e(TAG,
@@ -1490,6 +2067,7 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
             // and send local ICE candidates.
             Log.d(TAG, "Remote SDP set succesfully");
             drainCandidates();
+            applyVideoTrackBitrateCaps();
           }
         } else {
           // For answering peer connection we set remote SDP and then
@@ -1500,6 +2078,7 @@ public class PeerConnectionClient implements IDataChannelMessageSender {
             Log.d(TAG, "Local SDP set succesfully");
             events.onLocalDescription(localSdp);
             drainCandidates();
+            applyVideoTrackBitrateCaps();
           } else {
             // We've just set remote SDP - do nothing for now -
             // answer will be created soon.
@@ -0,0 +1,366 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides the capture format and maximum bitrate of the local video from device telemetry. The
+ * quality is chosen from a ladder of levels, best first, and moves one level at a time:
+ *
+ * <p>o Down after OVERUSE_SAMPLES consecutive samples with high CPU use, CPU throttling, a
+ *      moderate thermal status or many frames dropped by the encoder.
+ *   o Up after UNDERUSE_SAMPLES consecutive samples with headroom on all signals, and only once
+ *      the last change is older than the up-switch hold time. A step up that is followed by a step
+ *      down within the hold time doubles the hold time, so a device that cannot sustain a level
+ *      stops oscillating around it.
+ *   o A severe or worse thermal status and a low battery cap the best level immediately.
+ *
+ * <p>Has no Android dependencies and keeps no clock of its own: decisions only depend on the
+ * sequence of {@link Telemetry} samples, so a trace recorded on a device (see
+ * {@link Telemetry#toString()} and {@link Telemetry#parse(String)}) can be replayed through
+ * {@link #replay(List)} to reproduce and tune the behavior. Not thread safe.
+ */
+public class QualityGovernor {
+  /** Value of a telemetry signal that is not available on the device. */
+  public static final int UNKNOWN = -1;
+
+  // Thermal status values, same as the PowerManager.THERMAL_STATUS_* constants.
+  public static final int THERMAL_STATUS_NONE = 0;
+  public static final int THERMAL_STATUS_LIGHT = 1;
+  public static final int THERMAL_STATUS_MODERATE = 2;
+  public static final int THERMAL_STATUS_SEVERE = 3;
+  public static final int THERMAL_STATUS_CRITICAL = 4;
+
+  // CPU use at the current frequency, in percent, above which a sample is overuse.
+  private static final int HIGH_CPU_PERCENT = 85;
+  // CPU use below which a sample has headroom.
+  private static final int LOW_CPU_PERCENT = 60;
+  // A busy CPU clocked below this fraction of its maximum frequency is throttled.
+  private static final int THROTTLED_FREQUENCY_PERCENT = 50;
+  private static final int THROTTLED_MIN_CPU_PERCENT = 50;
+  // Encoder drop ratios, in percent of the captured frames.
+  private static final int HIGH_DROP_PERCENT = 10;
+  private static final int LOW_DROP_PERCENT = 2;
+  // Fewer captured frames in a sample do not give a meaningful drop ratio.
+  private static final long MIN_FRAMES_FOR_DROP_RATIO = 10;
+  // Battery levels, when not charging, that cap the quality at the middle and the lowest level.
+  private static final int LOW_BATTERY_PERCENT = 15;
+  private static final int CRITICAL_BATTERY_PERCENT = 5;
+
+  // Lowest bitrate of a generated ladder; less does not give usable video at any size.
+  private static final int MIN_LADDER_BITRATE_KBPS = 100;
+
+  private static final int OVERUSE_SAMPLES = 2;
+  private static final int UNDERUSE_SAMPLES = 5;
+  private static final long MIN_DOWN_INTERVAL_MS = 2000;
+  private static final long INITIAL_UP_HOLD_MS = 10000;
+  private static final long MAX_UP_HOLD_MS = 5 * 60 * 1000;
+
+  /** One step of the quality ladder. */
+  public static class Level {
+    public final int width;
+    public final int height;
+    public final int framerate;
+    // 0 means no limit.
+    public final int maxBitrateKbps;
+
+    public Level(int width, int height, int framerate, int maxBitrateKbps) {
+      this.width = width;
+      this.height = height;
+      this.framerate = framerate;
+      this.maxBitrateKbps = maxBitrateKbps;
+    }
+
+    @Override
+    public String toString() {
+      return width + "x" + height + "@" + framerate + "/"
+          + (maxBitrateKbps == 0 ? "unlimited" : maxBitrateKbps + "kbps");
+    }
+  }
+
+  /** One sample of the device state. Signals that are not available are UNKNOWN. */
+  public static class Telemetry {
+    public final long timestampMs;
+    // CPU use at the current frequency, in percent.
+    public final int cpuUsagePercent;
+    // Current CPU frequency in percent of the maximum.
+    public final int frequencyScalePercent;
+    public final int batteryPercent;
+    public final boolean charging;
+    // One of the THERMAL_STATUS_* values.
+    public final int thermalStatus;
+    // Frames captured and frames of those not encoded since the previous sample.
+    public final long framesCaptured;
+    public final long framesDropped;
+
+    public Telemetry(long timestampMs, int cpuUsagePercent, int frequencyScalePercent,
+        int batteryPercent, boolean charging, int thermalStatus, long framesCaptured,
+        long framesDropped) {
+      this.timestampMs = timestampMs;
+      this.cpuUsagePercent = cpuUsagePercent;
+      this.frequencyScalePercent = frequencyScalePercent;
+      this.batteryPercent = batteryPercent;
+      this.charging = charging;
+      this.thermalStatus = thermalStatus;
+      this.framesCaptured = framesCaptured;
+      this.framesDropped = framesDropped;
+    }
+
+    /**
+     * Parses a line written by {@link #toString()}.
+     *
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    public static Telemetry parse(String line) {
+      final String[] fields = line.trim().split(",");
+      if (fields.length != 8) {
+        throw new IllegalArgumentException("Expected 8 fields: " + line);
+      }
+      try {
+        return new Telemetry(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+            Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), "1".equals(fields[4]),
+            Integer.parseInt(fields[5]), Long.parseLong(fields[6]), Long.parseLong(fields[7]));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed telemetry: " + line, e);
+      }
+    }
+
+    /** Returns the drop ratio in percent, or UNKNOWN if too few frames were captured. */
+    int getDropPercent() {
+      if (framesCaptured < MIN_FRAMES_FOR_DROP_RATIO) {
+        return UNKNOWN;
+      }
+      return (int) (100 * Math.min(framesDropped, framesCaptured) / framesCaptured);
+    }
+
+    /** Returns the sample as one line of comma separated values, for recording traces. */
+    @Override
+    public String toString() {
+      return timestampMs + "," + cpuUsagePercent + "," + frequencyScalePercent + ","
+          + batteryPercent + "," + (charging ? 1 : 0) + "," + thermalStatus + ","
+          + framesCaptured + "," + framesDropped;
+    }
+  }
+
+  /** What triggered a level change. */
+  public enum Reason { CPU_OVERUSE, CPU_THROTTLING, THERMAL, ENCODER_DROPS, LOW_BATTERY, HEADROOM }
+
+  /** A change of the level. */
+  public static class Decision {
+    public final long timestampMs;
+    public final int levelIndex;
+    public final Level level;
+    public final Reason reason;
+
+    Decision(long timestampMs, int levelIndex, Level level, Reason reason) {
+      this.timestampMs = timestampMs;
+      this.levelIndex = levelIndex;
+      this.level = level;
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+      return timestampMs + ": level " + levelIndex + " " + level + " (" + reason + ")";
+    }
+  }
+
+  private final List<Level> ladder;
+  private final int initialLevelIndex;
+
+  private int levelIndex;
+  private int overuseSamples;
+  private int underuseSamples;
+  private boolean changed;
+  private boolean lastChangeWasUp;
+  private long lastChangeMs;
+  private long upHoldMs = INITIAL_UP_HOLD_MS;
+
+  /**
+   * @param ladder levels ordered from the best to the lowest quality
+   * @param initialLevelIndex level to start at
+   */
+  public QualityGovernor(List<Level> ladder, int initialLevelIndex) {
+    if (ladder.isEmpty() || initialLevelIndex < 0 || initialLevelIndex >= ladder.size()) {
+      throw new IllegalArgumentException(
+          "Invalid initial level " + initialLevelIndex + " of " + ladder.size());
+    }
+    this.ladder = Collections.unmodifiableList(new ArrayList<>(ladder));
+    this.initialLevelIndex = initialLevelIndex;
+    this.levelIndex = initialLevelIndex;
+  }
+
+  /**
+   * Creates a ladder that starts at the given format and halves the pixel rate roughly every
+   * level, trading resolution first and framerate below half the resolution. The bitrates of the
+   * lower levels scale with the pixel rate; if |maxBitrateKbps| is 0 they are estimated.
+   */
+  public static List<Level> createLadder(int width, int height, int framerate, int maxBitrateKbps) {
+    final double[] scales = {1.0, 0.75, 0.5, 0.5, 0.375, 0.25};
+    final int[] framerates = {framerate, framerate, framerate, Math.min(framerate, 20),
+        Math.min(framerate, 15), Math.min(framerate, 10)};
+    final double topPixelRate = (double) width * height * framerate;
+    // Roughly 0.1 bits per pixel for real-time video.
+    final double topBitrateKbps =
+        maxBitrateKbps > 0 ? maxBitrateKbps : topPixelRate * 0.1 / 1000;
+    final List<Level> ladder = new ArrayList<>();
+    for (int i = 0; i < scales.length; i++) {
+      // Keep the dimensions even, as required by I420.
+      final int levelWidth = (int) (width * scales[i]) & ~1;
+      final int levelHeight = (int) (height * scales[i]) & ~1;
+      final int bitrateKbps = (i == 0)
+          ? maxBitrateKbps
+          : Math.max(MIN_LADDER_BITRATE_KBPS,
+              (int) (topBitrateKbps * levelWidth * levelHeight * framerates[i] / topPixelRate));
+      ladder.add(new Level(levelWidth, levelHeight, framerates[i], bitrateKbps));
+    }
+    return ladder;
+  }
+
+  /**
+   * Feeds one sample and returns the new level if it changed, or null. Samples must have
+   * non-decreasing time stamps.
+   */
+  public @Nullable Decision onTelemetry(Telemetry telemetry) {
+    final long nowMs = telemetry.timestampMs;
+
+    // Hard caps apply immediately.
+    final int lowestAllowedIndex = getLowestAllowedIndex(telemetry);
+    if (levelIndex < lowestAllowedIndex) {
+      final Reason reason = telemetry.thermalStatus >= THERMAL_STATUS_SEVERE
+          ? Reason.THERMAL : Reason.LOW_BATTERY;
+      return changeLevel(lowestAllowedIndex, nowMs, reason);
+    }
+
+    final Reason overuse = getOveruseReason(telemetry);
+    if (overuse != null) {
+      underuseSamples = 0;
+      if (++overuseSamples >= OVERUSE_SAMPLES && levelIndex < ladder.size() - 1
+          && (!changed || nowMs - lastChangeMs >= MIN_DOWN_INTERVAL_MS)) {
+        if (changed && lastChangeWasUp && nowMs - lastChangeMs < upHoldMs) {
+          // The last step up went too far; wait longer before trying again.
+          upHoldMs = Math.min(2 * upHoldMs, MAX_UP_HOLD_MS);
+        }
+        return changeLevel(levelIndex + 1, nowMs, overuse);
+      }
+      return null;
+    }
+    overuseSamples = 0;
+
+    if (hasHeadroom(telemetry) && levelIndex > lowestAllowedIndex) {
+      if (++underuseSamples >= UNDERUSE_SAMPLES
+          && (!changed || nowMs - lastChangeMs >= upHoldMs)) {
+        return changeLevel(levelIndex - 1, nowMs, Reason.HEADROOM);
+      }
+    } else {
+      underuseSamples = 0;
+    }
+    return null;
+  }
+
+  /** Feeds a trace to this governor and returns the decisions it made. */
+  public List<Decision> replay(List<Telemetry> trace) {
+    final List<Decision> decisions = new ArrayList<>();
+    for (Telemetry telemetry : trace) {
+      final Decision decision = onTelemetry(telemetry);
+      if (decision != null) {
+        decisions.add(decision);
+      }
+    }
+    return decisions;
+  }
+
+  /** Returns to the initial level and forgets all history. */
+  public void reset() {
+    levelIndex = initialLevelIndex;
+    overuseSamples = 0;
+    underuseSamples = 0;
+    changed = false;
+    lastChangeWasUp = false;
+    lastChangeMs = 0;
+    upHoldMs = INITIAL_UP_HOLD_MS;
+  }
+
+  public List<Level> getLadder() {
+    return ladder;
+  }
+
+  public int getLevelIndex() {
+    return levelIndex;
+  }
+
+  public Level getLevel() {
+    return ladder.get(levelIndex);
+  }
+
+  /** Returns the time a level must have held before the governor tries a better one. */
+  public long getUpHoldMs() {
+    return upHoldMs;
+  }
+
+  private int getLowestAllowedIndex(Telemetry telemetry) {
+    final int lowest = ladder.size() - 1;
+    final int middle = ladder.size() / 2;
+    if (telemetry.thermalStatus >= THERMAL_STATUS_CRITICAL) {
+      return lowest;
+    }
+    int index = telemetry.thermalStatus >= THERMAL_STATUS_SEVERE ? middle : 0;
+    if (!telemetry.charging && telemetry.batteryPercent != UNKNOWN) {
+      if (telemetry.batteryPercent <= CRITICAL_BATTERY_PERCENT) {
+        index = lowest;
+      } else if (telemetry.batteryPercent <= LOW_BATTERY_PERCENT) {
+        index = Math.max(index, middle);
+      }
+    }
+    return index;
+  }
+
+  @Nullable
+  private static Reason getOveruseReason(Telemetry telemetry) {
+    if (telemetry.thermalStatus >= THERMAL_STATUS_MODERATE) {
+      return Reason.THERMAL;
+    }
+    if (telemetry.cpuUsagePercent >= HIGH_CPU_PERCENT) {
+      return Reason.CPU_OVERUSE;
+    }
+    if (telemetry.frequencyScalePercent != UNKNOWN
+        && telemetry.frequencyScalePercent < THROTTLED_FREQUENCY_PERCENT
+        && telemetry.cpuUsagePercent >= THROTTLED_MIN_CPU_PERCENT) {
+      return Reason.CPU_THROTTLING;
+    }
+    if (telemetry.getDropPercent() >= HIGH_DROP_PERCENT) {
+      return Reason.ENCODER_DROPS;
+    }
+    return null;
+  }
+
+  // Unknown signals do not prevent a step up; the known ones must all have headroom.
+  private static boolean hasHeadroom(Telemetry telemetry) {
+    return telemetry.thermalStatus <= THERMAL_STATUS_LIGHT
+        && telemetry.cpuUsagePercent < LOW_CPU_PERCENT
+        && telemetry.getDropPercent() < LOW_DROP_PERCENT;
+  }
+
+  private Decision changeLevel(int newIndex, long nowMs, Reason reason) {
+    lastChangeWasUp = newIndex < levelIndex;
+    levelIndex = newIndex;
+    changed = true;
+    lastChangeMs = nowMs;
+    overuseSamples = 0;
+    underuseSamples = 0;
+    return new Decision(nowMs, newIndex, ladder.get(newIndex), reason);
+  }
+}
@@ -12,6 +12,8 @@ package io.antmedia.webrtcandroidframework.apprtc;
 
 import android.media.AudioFormat;
 import android.os.Environment;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -20,35 +22,141 @@ import org.webrtc.audio.JavaAudioDeviceModule;
 import org.webrtc.audio.JavaAudioDeviceModule.SamplesReadyCallback;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implements the AudioRecordSamplesReadyCallback interface and writes
- * recorded raw audio samples to an output file.
+ * recorded raw audio samples to WAV files.
+ *
+ * The audio thread only copies each 10 ms chunk into a pooled buffer and
+ * hands it to a bounded queue; a dedicated writer thread drains it into large
+ * buffered FileChannel writes and returns the buffer to the pool. If the
+ * writer falls behind and the queue is full, chunks are dropped and counted
+ * rather than blocking the audio thread. Recording is split into
+ * segments by size and duration so that it can run for hours; segments can
+ * optionally be stored as 8-bit mu-law to halve their size.
  */
 public class RecordedAudioToFileController implements SamplesReadyCallback {
   private static final String TAG = "RecordedAudioToFile";
+  // Default segment limit. 58348800 bytes corresponds to approximately
+  // 10 minutes of recording in mono at 48kHz.
   private static final long MAX_FILE_SIZE_IN_BYTES = 58348800L;
+  private static final long DEFAULT_MAX_SEGMENT_DURATION_MS = TimeUnit.MINUTES.toMillis(10);
+  // Two seconds of 10 ms chunks.
+  private static final int DEFAULT_QUEUE_CAPACITY = 200;
+  private static final int WRITE_BUFFER_SIZE_BYTES = 256 * 1024;
+  private static final long WRITER_THREAD_JOIN_TIMEOUT_MS = 2000;
+  // After a file cannot be opened, chunks are dropped for this long before the next attempt,
+  // doubling with every failure in a row up to the maximum.
+  private static final long MIN_OPEN_RETRY_DELAY_MS = 1000;
+  private static final long MAX_OPEN_RETRY_DELAY_MS = 60000;
+
+  // Queued by stop() to make the writer thread finish the current segment and exit.
+  private static final Chunk END_OF_STREAM = new Chunk();
+
+  // Copy of the samples of one callback, which are only valid during the callback.
+  private static class Chunk {
+    byte[] data = new byte[0];
+    int length;
+    int sampleRate;
+    int channelCount;
+
+    void copyFrom(JavaAudioDeviceModule.AudioSamples samples) {
+      final byte[] source = samples.getData();
+      if (data.length < source.length) {
+        data = new byte[source.length];
+      }
+      System.arraycopy(source, 0, data, 0, source.length);
+      length = source.length;
+      sampleRate = samples.getSampleRate();
+      channelCount = samples.getChannelCount();
+    }
+  }
+
+  /** Snapshot of the recording statistics. */
+  public static class Stats {
+    public final long bytesWritten;
+    public final int queueDepth;
+    public final int maxQueueDepth;
+    public final long droppedChunks;
+    public final int segmentCount;
+
+    Stats(long bytesWritten, int queueDepth, int maxQueueDepth, long droppedChunks,
+        int segmentCount) {
+      this.bytesWritten = bytesWritten;
+      this.queueDepth = queueDepth;
+      this.maxQueueDepth = maxQueueDepth;
+      this.droppedChunks = droppedChunks;
+      this.segmentCount = segmentCount;
+    }
+
+    @Override
+    public String toString() {
+      return "bytes written: " + bytesWritten + ", queue depth: " + queueDepth + " (max "
+          + maxQueueDepth + "), dropped chunks: " + droppedChunks + ", segments: "
+          + segmentCount;
+    }
+  }
 
   private final Object lock = new Object();
-  private final ExecutorService executor;
+  private final File outputDirectory;
+  private final long maxSegmentBytes;
+  private final long maxSegmentDurationMs;
+  private final boolean compress;
+  private final BlockingQueue<Chunk> queue;
+  // Chunks not in |queue|; one more than the queue holds, for the one being written.
+  private final BlockingQueue<Chunk> freeChunks;
+
+  private volatile boolean isRunning;
+  @Nullable
+  private Thread writerThread;
+  // Writer thread that did not finish within the stop() timeout.
   @Nullable
-  private OutputStream rawAudioFileOutputStream;
-  private boolean isRunning;
-  private long fileSizeInBytes;
+  private Thread stoppedWriterThread;
 
-  public RecordedAudioToFileController(ExecutorService executor) {
+  private final AtomicLong droppedChunks = new AtomicLong();
+  private volatile int maxQueueDepth;
+  // Written by the writer thread only.
+  private volatile long bytesWritten;
+  private volatile int segmentCount;
+
+  public RecordedAudioToFileController() {
+    this(Environment.getExternalStorageDirectory(), MAX_FILE_SIZE_IN_BYTES,
+        DEFAULT_MAX_SEGMENT_DURATION_MS, false /* compress */, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @param outputDirectory directory the WAV segments are written to
+   * @param maxSegmentBytes a new segment is started when a segment reaches this size
+   * @param maxSegmentDurationMs a new segment is started after this much audio
+   * @param compress store samples as 8-bit mu-law instead of 16-bit PCM
+   * @param queueCapacity number of 10 ms chunks buffered for the writer thread
+   */
+  public RecordedAudioToFileController(File outputDirectory, long maxSegmentBytes,
+      long maxSegmentDurationMs, boolean compress, int queueCapacity) {
     Log.d(TAG, "ctor");
-    this.executor = executor;
+    this.outputDirectory = outputDirectory;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.maxSegmentDurationMs = maxSegmentDurationMs;
+    this.compress = compress;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.freeChunks = new ArrayBlockingQueue<>(queueCapacity + 1);
+    for (int i = 0; i < queueCapacity + 1; ++i) {
+      freeChunks.add(new Chunk());
+    }
   }
 
   /**
-   * Should be called on the same executor thread as the one provided at
-   * construction.
+   * Starts the writer thread. Files are opened when the first samples
+   * arrive, since the audio parameters are part of the file name. Fails if
+   * the writer thread of the previous recording has still not finished.
    */
   public boolean start() {
     Log.d(TAG, "start");
@@ -57,29 +165,69 @@ public class RecordedAudioToFileController implements SamplesReadyCallback {
       return false;
     }
     synchronized (lock) {
+      if (writerThread != null) {
+        return true;
+      }
+      if (stoppedWriterThread != null) {
+        try {
+          stoppedWriterThread.join(WRITER_THREAD_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (stoppedWriterThread.isAlive()) {
+          Log.e(TAG, "Writer thread of the previous recording is still running");
+          return false;
+        }
+        stoppedWriterThread = null;
+      }
+      Chunk chunk;
+      while ((chunk = queue.poll()) != null) {
+        freeChunks.offer(chunk);
+      }
+      writerThread = new Thread(this::runWriter, "RecordedAudioWriter");
+      writerThread.start();
       isRunning = true;
     }
     return true;
   }
 
   /**
-   * Should be called on the same executor thread as the one provided at
-   * construction.
+   * Stops accepting samples, lets the writer thread write what is queued
+   * and closes the current segment. Blocks until done or timed out.
    */
   public void stop() {
     Log.d(TAG, "stop");
+    final Thread thread;
     synchronized (lock) {
       isRunning = false;
-      if (rawAudioFileOutputStream != null) {
-        try {
-          rawAudioFileOutputStream.close();
-        } catch (IOException e) {
-          Log.e(TAG, "Failed to close file with saved input audio: " + e);
-        }
-        rawAudioFileOutputStream = null;
+      thread = writerThread;
+      writerThread = null;
+    }
+    if (thread == null) {
+      return;
+    }
+    try {
+      if (queue.offer(END_OF_STREAM, WRITER_THREAD_JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        thread.join(WRITER_THREAD_JOIN_TIMEOUT_MS);
+      } else {
+        thread.interrupt();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      Log.e(TAG, "Writer thread did not finish in time");
+      thread.interrupt();
+      synchronized (lock) {
+        stoppedWriterThread = thread;
       }
-      fileSizeInBytes = 0;
     }
+    Log.d(TAG, "Recording stopped. " + getStats());
+  }
+
+  public Stats getStats() {
+    return new Stats(
+        bytesWritten, queue.size(), maxQueueDepth, droppedChunks.get(), segmentCount);
   }
 
   // Checks if external storage is available for read and write.
@@ -91,23 +239,7 @@ public class RecordedAudioToFileController implements SamplesReadyCallback {
     return false;
   }
 
-  // Utilizes audio parameters to create a file name which contains sufficient
-  // information so that the file can be played using an external file player.
-  // Example: /sdcard/recorded_audio_16bits_48000Hz_mono.pcm.
-  private void openRawAudioOutputFile(int sampleRate, int channelCount) {
-    final String fileName = Environment.getExternalStorageDirectory().getPath() + File.separator
-        + "recorded_audio_16bits_" + String.valueOf(sampleRate) + "Hz"
-        + ((channelCount == 1) ? "_mono" : "_stereo") + ".pcm";
-    final File outputFile = new File(fileName);
-    try {
-      rawAudioFileOutputStream = new FileOutputStream(outputFile);
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Failed to open audio output file: " + e.getMessage());
-    }
-    Log.d(TAG, "Opened file for recording: " + fileName);
-  }
-
-  // Called when new audio samples are ready.
+  // Called on the audio thread when new audio samples are ready. Never blocks.
   @Override
   public void onWebRtcAudioRecordSamplesReady(JavaAudioDeviceModule.AudioSamples samples) {
     // The native audio layer on Android should use 16-bit PCM format.
@@ -115,33 +247,123 @@ public class RecordedAudioToFileController implements SamplesReadyCallback {
       Log.e(TAG, "Invalid audio format");
       return;
     }
-    synchronized (lock) {
-      // Abort early if stop() has been called.
-      if (!isRunning) {
-        return;
-      }
-      // Open a new file for the first callback only since it allows us to add audio parameters to
-      // the file name.
-      if (rawAudioFileOutputStream == null) {
-        openRawAudioOutputFile(samples.getSampleRate(), samples.getChannelCount());
-        fileSizeInBytes = 0;
-      }
+    // Abort early if stop() has been called.
+    if (!isRunning) {
+      return;
     }
-    // Append the recorded 16-bit audio samples to the open output file.
-    executor.execute(() -> {
-      if (rawAudioFileOutputStream != null) {
-        try {
-          // Set a limit on max file size. 58348800 bytes corresponds to
-          // approximately 10 minutes of recording in mono at 48kHz.
-          if (fileSizeInBytes < MAX_FILE_SIZE_IN_BYTES) {
-            // Writes samples.getData().length bytes to output stream.
-            rawAudioFileOutputStream.write(samples.getData());
-            fileSizeInBytes += samples.getData().length;
+    // The samples are reused by the caller, so they are copied into a pooled chunk.
+    final Chunk chunk = freeChunks.poll();
+    if (chunk == null) {
+      droppedChunks.incrementAndGet();
+      return;
+    }
+    chunk.copyFrom(samples);
+    if (!queue.offer(chunk)) {
+      freeChunks.offer(chunk);
+      droppedChunks.incrementAndGet();
+      return;
+    }
+    final int depth = queue.size();
+    if (depth > maxQueueDepth) {
+      maxQueueDepth = depth;
+    }
+  }
+
+  private void runWriter() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    WavFileWriter writer = null;
+    int sampleRate = 0;
+    int channelCount = 0;
+    long maxSegmentDataBytes = 0;
+    long openRetryDelayMs = MIN_OPEN_RETRY_DELAY_MS;
+    long nextOpenTimeMs = 0;
+    try {
+      while (true) {
+        final Chunk chunk = queue.take();
+        if (chunk == END_OF_STREAM) {
+          break;
+        }
+        final boolean formatChanged =
+            chunk.sampleRate != sampleRate || chunk.channelCount != channelCount;
+        if (writer != null && (formatChanged || writer.getFileSizeBytes() >= maxSegmentBytes
+                || writer.getDataBytes() >= maxSegmentDataBytes)) {
+          closeSegment(writer);
+          writer = null;
+        }
+        if (writer == null) {
+          if (SystemClock.elapsedRealtime() < nextOpenTimeMs) {
+            // Backing off after a failed open.
+            freeChunks.offer(chunk);
+            continue;
           }
+          sampleRate = chunk.sampleRate;
+          channelCount = chunk.channelCount;
+          maxSegmentDataBytes = WavFileWriter.getBytesPerSecond(sampleRate, channelCount, compress)
+              * maxSegmentDurationMs / 1000;
+          writer = openSegment(sampleRate, channelCount);
+          if (writer == null) {
+            // Could not open a file; drop chunks for a while before retrying.
+            Log.e(TAG, "Dropping audio for " + openRetryDelayMs + " ms");
+            nextOpenTimeMs = SystemClock.elapsedRealtime() + openRetryDelayMs;
+            openRetryDelayMs = Math.min(openRetryDelayMs * 2, MAX_OPEN_RETRY_DELAY_MS);
+            sampleRate = 0;
+            freeChunks.offer(chunk);
+            continue;
+          }
+          openRetryDelayMs = MIN_OPEN_RETRY_DELAY_MS;
+        }
+        final long sizeBefore = writer.getFileSizeBytes();
+        try {
+          writer.write(chunk.data, 0, chunk.length);
         } catch (IOException e) {
+          // Give up on this segment; the next chunk starts a new one.
           Log.e(TAG, "Failed to write audio to file: " + e.getMessage());
+          closeSegment(writer);
+          writer = null;
+          sampleRate = 0;
+          continue;
+        } finally {
+          freeChunks.offer(chunk);
         }
+        bytesWritten += writer.getFileSizeBytes() - sizeBefore;
+      }
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Writer thread interrupted");
+    } finally {
+      if (writer != null) {
+        closeSegment(writer);
       }
-    });
+    }
+  }
+
+  // Utilizes audio parameters and the start time to create a file name which
+  // contains sufficient information to identify the segment.
+  // Example: /sdcard/recorded_audio_48000Hz_mono_20190101_120000_1.wav.
+  @Nullable
+  private WavFileWriter openSegment(int sampleRate, int channelCount) {
+    final String timestamp =
+        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+    final String fileName = "recorded_audio_" + sampleRate + "Hz"
+        + ((channelCount == 1) ? "_mono" : "_stereo") + (compress ? "_mulaw" : "") + "_"
+        + timestamp + "_" + (segmentCount + 1) + ".wav";
+    final File outputFile = new File(outputDirectory, fileName);
+    try {
+      final WavFileWriter writer = new WavFileWriter(
+          outputFile, sampleRate, channelCount, compress, WRITE_BUFFER_SIZE_BYTES);
+      ++segmentCount;
+      Log.d(TAG, "Opened file for recording: " + outputFile.getPath());
+      return writer;
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to open audio output file: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void closeSegment(WavFileWriter writer) {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to close file with saved input audio: " + e);
+    }
   }
 }
@@ -0,0 +1,425 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.USBMonitor;
+import com.serenegiant.usb.UVCCamera;
+
+import org.webrtc.CapturerObserver;
+import org.webrtc.MjpegVideoCapturer;
+import org.webrtc.SurfaceTextureCapturer;
+import org.webrtc.VideoFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams USB cameras into a {@link SurfaceTextureCapturer} as they are plugged in and out, as
+ * decided by a {@link UvcDeviceStateMachine}. The capturer stays initialized and started on its
+ * video source while no camera is attached, so the video track just pauses and resumes.
+ *
+ * <p>Cameras are opened on a thread of the manager, since opening and starting a camera blocks
+ * for hundreds of milliseconds. A camera whose frames stall for STALL_TIMEOUT_MS is reopened.
+ * Use the manager instead of a UVCCameraHelper for the same capturer.
+ *
+ * <p>A camera streaming MJPEG passes its raw JPEG payloads to a {@link MjpegVideoCapturer}, which
+ * decodes them on its own threads and hands the I420 frames to the capturer. If the UVCCamera
+ * library turns out to deliver decoded pixels instead, the camera previews into the texture of
+ * the capturer like for YUYV.
+ */
+public class UvcDeviceManager implements UvcDeviceStateMachine.Backend {
+  private static final String TAG = "UvcDeviceManager";
+  private static final long STALL_CHECK_INTERVAL_MS = 1000;
+  private static final long STALL_TIMEOUT_MS = 3000;
+  // Format types of the descriptors as reported by UVCCamera.getSupportedSize().
+  private static final int DESCRIPTOR_TYPE_UNCOMPRESSED = 4;
+  private static final int DESCRIPTOR_TYPE_MJPEG = 6;
+  // Bytes per second an isochronous USB 2.0 endpoint carries at most: 3 x 1024 bytes per
+  // microframe. Limits the framerate of YUYV, which has 2 bytes per pixel.
+  private static final int USB2_BYTES_PER_SECOND = 3 * 1024 * 8000;
+  private static final int MAX_FRAMERATE = 30;
+
+  private final SurfaceTextureCapturer capturer;
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final USBMonitor usbMonitor;
+  private final UvcDeviceStateMachine stateMachine;
+  private final MjpegVideoCapturer mjpegCapturer = new MjpegVideoCapturer();
+
+  // Accessed on |handler| only.
+  private final Map<UvcDeviceStateMachine.DeviceId, UsbDevice> devices = new HashMap<>();
+  private final Map<UvcDeviceStateMachine.DeviceId, USBMonitor.UsbControlBlock> controlBlocks =
+      new HashMap<>();
+  @Nullable
+  private UVCCamera camera;
+  @Nullable
+  private String serialNumber;
+  private long lastFrameCount;
+  private long lastFrameTimeMs;
+  @Nullable
+  private UvcDeviceStateMachine.Format streamingFormat;
+  private boolean isDecodingMjpeg;
+  // Set when the frame callback delivered something else than JPEG.
+  private boolean isMjpegPassThroughBroken;
+
+  private final Runnable retryRunnable = new Runnable() {
+    @Override
+    public void run() {
+      stateMachine.onRetry(SystemClock.elapsedRealtime());
+    }
+  };
+
+  private final Runnable stallCheckRunnable = new Runnable() {
+    @Override
+    public void run() {
+      checkStall();
+    }
+  };
+
+  private final Runnable fallBackToTextureRunnable = new Runnable() {
+    @Override
+    public void run() {
+      fallBackToTexture();
+    }
+  };
+
+  // Called on the USB thread of the UVCCamera with the raw payload of each frame.
+  private final IFrameCallback mjpegFrameCallback = new IFrameCallback() {
+    @Override
+    public void onFrame(ByteBuffer frame) {
+      final long timestampNs = System.nanoTime();
+      if (!isJpeg(frame)) {
+        handler.post(fallBackToTextureRunnable);
+        return;
+      }
+      mjpegCapturer.onMjpegFrame(frame, timestampNs);
+    }
+  };
+
+  // Passes the decoded frames on to the capturer, whose video source is already started.
+  private final CapturerObserver mjpegObserver = new CapturerObserver() {
+    @Override
+    public void onCapturerStarted(boolean success) {}
+
+    @Override
+    public void onCapturerStopped() {}
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+      capturer.onFrame(frame);
+    }
+  };
+
+  public UvcDeviceManager(Context context, SurfaceTextureCapturer capturer, int width, int height,
+      int framerate, @Nullable UvcDeviceStateMachine.Events events) {
+    this.capturer = capturer;
+    thread = new HandlerThread(TAG);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    stateMachine = new UvcDeviceStateMachine(this, events, width, height, framerate);
+    usbMonitor = new USBMonitor(context.getApplicationContext(), new DeviceListener());
+    mjpegCapturer.initialize(null /* surfaceTextureHelper */, context.getApplicationContext(),
+        mjpegObserver);
+  }
+
+  /** Starts watching USB devices; an attached camera is opened right away. */
+  public void start() {
+    usbMonitor.register();
+    handler.post(stallCheckRunnable);
+  }
+
+  /** Closes the camera and stops watching USB devices. Call before disposing the capturer. */
+  public void release() {
+    usbMonitor.unregister();
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        handler.removeCallbacks(stallCheckRunnable);
+        stateMachine.stop();
+        mjpegCapturer.dispose();
+        usbMonitor.destroy();
+        thread.quit();
+      }
+    });
+  }
+
+  @Override
+  public void requestPermission(UvcDeviceStateMachine.DeviceId device) {
+    final UsbDevice usbDevice = devices.get(device);
+    if (usbDevice == null || usbMonitor.requestPermission(usbDevice)) {
+      // The device is gone, or asking failed.
+      stateMachine.onPermissionResult(device, false, SystemClock.elapsedRealtime());
+    }
+  }
+
+  @Override
+  public boolean open(UvcDeviceStateMachine.DeviceId device) {
+    final USBMonitor.UsbControlBlock controlBlock = controlBlocks.remove(device);
+    if (controlBlock == null) {
+      return false;
+    }
+    final UVCCamera newCamera = new UVCCamera();
+    try {
+      newCamera.open(controlBlock);
+    } catch (Exception e) {
+      Log.e(TAG, "Failed to open " + device, e);
+      newCamera.destroy();
+      return false;
+    }
+    camera = newCamera;
+    serialNumber = getSerialNumber(devices.get(device));
+    return true;
+  }
+
+  @Override
+  @Nullable
+  public String readSerialNumber() {
+    return serialNumber;
+  }
+
+  @Override
+  public List<UvcDeviceStateMachine.Format> readFormats() {
+    final List<UvcDeviceStateMachine.Format> formats = new ArrayList<>();
+    final String descriptors = camera.getSupportedSize();
+    for (Size size : UVCCamera.getSupportedSize(DESCRIPTOR_TYPE_UNCOMPRESSED, descriptors)) {
+      final int framerate = Math.min(MAX_FRAMERATE,
+          USB2_BYTES_PER_SECOND / Math.max(1, 2 * size.width * size.height));
+      formats.add(new UvcDeviceStateMachine.Format(
+          UvcDeviceStateMachine.FRAME_FORMAT_YUYV, size.width, size.height, framerate));
+    }
+    for (Size size : UVCCamera.getSupportedSize(DESCRIPTOR_TYPE_MJPEG, descriptors)) {
+      formats.add(new UvcDeviceStateMachine.Format(
+          UvcDeviceStateMachine.FRAME_FORMAT_MJPEG, size.width, size.height, 0 /* framerate */));
+    }
+    Log.d(TAG, "Formats: " + formats);
+    return formats;
+  }
+
+  @Override
+  public boolean startStreaming(UvcDeviceStateMachine.Format format) {
+    final boolean isMjpeg = format.frameFormat == UvcDeviceStateMachine.FRAME_FORMAT_MJPEG;
+    try {
+      camera.setPreviewSize(format.width, format.height,
+          isMjpeg ? UVCCamera.FRAME_FORMAT_MJPEG : UVCCamera.FRAME_FORMAT_YUYV);
+    } catch (IllegalArgumentException e) {
+      Log.w(TAG, "Format refused: " + format);
+      return false;
+    }
+    final SurfaceTexture surfaceTexture = capturer.getSurfaceTexture();
+    if (surfaceTexture == null) {
+      Log.w(TAG, "The capturer is not initialized yet.");
+      return false;
+    }
+    streamingFormat = format;
+    if (isMjpeg && !isMjpegPassThroughBroken) {
+      // No preview surface: the frames only go to the decoder.
+      mjpegCapturer.startCapture(format.width, format.height, format.framerate);
+      isDecodingMjpeg = true;
+      camera.setFrameCallback(mjpegFrameCallback, UVCCamera.PIXEL_FORMAT_RAW);
+    } else {
+      startTexturePreview(surfaceTexture, format);
+    }
+    camera.startPreview();
+    lastFrameCount = capturer.getNumCapturedFrames();
+    lastFrameTimeMs = SystemClock.elapsedRealtime();
+    Log.d(TAG, "Streaming " + format + (isDecodingMjpeg ? " through the MJPEG decoder" : ""));
+    return true;
+  }
+
+  private void startTexturePreview(
+      SurfaceTexture surfaceTexture, UvcDeviceStateMachine.Format format) {
+    // The capturer draws its texture at this size.
+    capturer.changeCaptureFormat(format.width, format.height, format.framerate);
+    camera.setPreviewTexture(surfaceTexture);
+  }
+
+  @Override
+  public void close() {
+    if (camera == null) {
+      return;
+    }
+    try {
+      camera.stopPreview();
+    } catch (Exception e) {
+      // The device is gone.
+    }
+    camera.destroy();
+    camera = null;
+    serialNumber = null;
+    streamingFormat = null;
+    stopDecodingMjpeg();
+  }
+
+  private void stopDecodingMjpeg() {
+    if (isDecodingMjpeg) {
+      mjpegCapturer.stopCapture();
+      isDecodingMjpeg = false;
+    }
+  }
+
+  // The frame callback delivers decoded pixels; preview into the texture instead.
+  private void fallBackToTexture() {
+    final SurfaceTexture surfaceTexture = capturer.getSurfaceTexture();
+    if (!isDecodingMjpeg || camera == null || surfaceTexture == null) {
+      return;
+    }
+    Log.w(TAG, "The camera delivers no JPEG frames, previewing into the texture instead.");
+    isMjpegPassThroughBroken = true;
+    camera.stopPreview();
+    camera.setFrameCallback(null, 0 /* pixelFormat */);
+    stopDecodingMjpeg();
+    startTexturePreview(surfaceTexture, streamingFormat);
+    camera.startPreview();
+  }
+
+  @Override
+  public void scheduleRetry(long delayMs) {
+    handler.removeCallbacks(retryRunnable);
+    handler.postDelayed(retryRunnable, delayMs);
+  }
+
+  @Override
+  public void cancelRetry() {
+    handler.removeCallbacks(retryRunnable);
+  }
+
+  private void checkStall() {
+    final long nowMs = SystemClock.elapsedRealtime();
+    final long frameCount = capturer.getNumCapturedFrames();
+    if (stateMachine.getState() != UvcDeviceStateMachine.State.STREAMING
+        || frameCount != lastFrameCount) {
+      lastFrameCount = frameCount;
+      lastFrameTimeMs = nowMs;
+    } else if (nowMs - lastFrameTimeMs >= STALL_TIMEOUT_MS) {
+      Log.w(TAG, "No frames from " + stateMachine.getDevice() + " for " + STALL_TIMEOUT_MS
+          + " ms, reopening.");
+      stateMachine.onDeviceError(nowMs);
+    }
+    handler.postDelayed(stallCheckRunnable, STALL_CHECK_INTERVAL_MS);
+  }
+
+  // Checks for the start of image marker.
+  private static boolean isJpeg(ByteBuffer frame) {
+    final int position = frame.position();
+    return frame.remaining() >= 2 && (frame.get(position) & 0xFF) == 0xFF
+        && (frame.get(position + 1) & 0xFF) == 0xD8;
+  }
+
+  private static boolean isUvcDevice(UsbDevice device) {
+    for (int i = 0; i < device.getInterfaceCount(); ++i) {
+      if (device.getInterface(i).getInterfaceClass() == UsbConstants.USB_CLASS_VIDEO) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static UvcDeviceStateMachine.DeviceId getDeviceId(UsbDevice device) {
+    return new UvcDeviceStateMachine.DeviceId(
+        device.getDeviceName(), device.getVendorId(), device.getProductId());
+  }
+
+  // Throws a SecurityException without the permission from Android Q on, so only called once the
+  // device is open.
+  @Nullable
+  private static String getSerialNumber(@Nullable UsbDevice device) {
+    if (device == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+      return null;
+    }
+    try {
+      return device.getSerialNumber();
+    } catch (SecurityException e) {
+      Log.w(TAG, "Cannot read the serial number of " + device.getDeviceName(), e);
+      return null;
+    }
+  }
+
+  // Called on the thread of the USBMonitor; forwards to the manager thread.
+  private class DeviceListener implements USBMonitor.OnDeviceConnectListener {
+    @Override
+    public void onAttach(final UsbDevice device) {
+      if (!isUvcDevice(device)) {
+        return;
+      }
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          final UvcDeviceStateMachine.DeviceId id = getDeviceId(device);
+          Log.d(TAG, "Attached " + id);
+          devices.put(id, device);
+          stateMachine.onDeviceAttached(id, SystemClock.elapsedRealtime());
+        }
+      });
+    }
+
+    @Override
+    public void onDettach(final UsbDevice device) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          final UvcDeviceStateMachine.DeviceId id = getDeviceId(device);
+          if (devices.remove(id) == null) {
+            return;
+          }
+          Log.d(TAG, "Detached " + id);
+          controlBlocks.remove(id);
+          stateMachine.onDeviceDetached(id, SystemClock.elapsedRealtime());
+        }
+      });
+    }
+
+    @Override
+    public void onConnect(final UsbDevice device, final USBMonitor.UsbControlBlock controlBlock,
+        boolean createNew) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          final UvcDeviceStateMachine.DeviceId id = getDeviceId(device);
+          controlBlocks.put(id, controlBlock);
+          stateMachine.onPermissionResult(id, true, SystemClock.elapsedRealtime());
+        }
+      });
+    }
+
+    @Override
+    public void onDisconnect(UsbDevice device, USBMonitor.UsbControlBlock controlBlock) {
+      // Followed by onDettach().
+    }
+
+    @Override
+    public void onCancel(final UsbDevice device) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          stateMachine.onPermissionResult(
+              getDeviceId(device), false, SystemClock.elapsedRealtime());
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,407 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks USB cameras coming and going and keeps one of them streaming into the capturer of the
+ * local video track, so a camera that is unplugged and plugged in again continues the call on
+ * the same video source without restarting the session.
+ *
+ * <p>The first attached camera is used; when it goes away, the next attached one takes over.
+ * A camera that fails to open or to stream is reopened with exponential backoff, starting with
+ * asking for the permission again. The formats read from the descriptors of a camera are cached
+ * by vendor id, product id and serial number together with the format that streamed, so reopening
+ * a known camera, also after plugging it in again, skips reading the formats and probing formats
+ * that the camera refuses. The serial number is read once the camera is open, since it needs the
+ * permission. A camera that streams in none of its cached formats drops its cache entry, in case
+ * its firmware changed; a camera that fails to open keeps it.
+ *
+ * <p>The device access goes through a {@link Backend}, so the state machine can be driven by a
+ * simulated device. Has no Android dependencies; all time stamps are passed in. Not thread safe.
+ */
+public class UvcDeviceStateMachine {
+  /** UVC frame formats. */
+  public static final int FRAME_FORMAT_YUYV = 0;
+  public static final int FRAME_FORMAT_MJPEG = 1;
+
+  private static final long INITIAL_RETRY_DELAY_MS = 250;
+  private static final long MAX_RETRY_DELAY_MS = 4000;
+  // A camera that failed to open this many times in a row is given up until attached again.
+  private static final int MAX_RETRIES = 8;
+  private static final int MAX_CACHED_DEVICES = 8;
+
+  public enum State {
+    // No camera is attached, or all attached cameras were given up.
+    NO_DEVICE,
+    WAITING_FOR_PERMISSION,
+    OPENING,
+    STREAMING,
+    WAITING_TO_RETRY,
+    STOPPED
+  }
+
+  /**
+   * Identifies an attached camera by its device name, which changes when it is plugged in again,
+   * and its vendor and product ids. Needs no permission to read.
+   */
+  public static class DeviceId {
+    public final String deviceName;
+    public final int vendorId;
+    public final int productId;
+
+    public DeviceId(String deviceName, int vendorId, int productId) {
+      this.deviceName = deviceName;
+      this.vendorId = vendorId;
+      this.productId = productId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof DeviceId)) {
+        return false;
+      }
+      final DeviceId that = (DeviceId) other;
+      return deviceName.equals(that.deviceName) && vendorId == that.vendorId
+          && productId == that.productId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * deviceName.hashCode() + vendorId) + productId;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%04x:%04x ", vendorId, productId) + deviceName;
+    }
+  }
+
+  /** A frame format and size of a camera; framerate is 0 if the descriptors do not tell. */
+  public static class Format {
+    public final int frameFormat;
+    public final int width;
+    public final int height;
+    public final int framerate;
+
+    public Format(int frameFormat, int width, int height, int framerate) {
+      this.frameFormat = frameFormat;
+      this.width = width;
+      this.height = height;
+      this.framerate = framerate;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Format)) {
+        return false;
+      }
+      final Format that = (Format) other;
+      return frameFormat == that.frameFormat && width == that.width && height == that.height
+          && framerate == that.framerate;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((frameFormat * 31 + width) * 31 + height) * 31 + framerate;
+    }
+
+    @Override
+    public String toString() {
+      return (frameFormat == FRAME_FORMAT_MJPEG ? "MJPEG " : "YUYV ") + width + "x" + height
+          + (framerate > 0 ? "@" + framerate : "");
+    }
+  }
+
+  /** Device access; called on the thread of the state machine. */
+  public interface Backend {
+    /** Asks for the permission to open |device|; answered by onPermissionResult(). */
+    void requestPermission(DeviceId device);
+
+    /** Opens |device|; returns false if it cannot be opened. */
+    boolean open(DeviceId device);
+
+    /** Returns the serial number of the open device, or null if it has none or it is unreadable. */
+    @Nullable
+    String readSerialNumber();
+
+    /** Reads the formats of the open device from its descriptors. */
+    List<Format> readFormats();
+
+    /** Starts streaming the open device in |format|; returns false if the device refuses. */
+    boolean startStreaming(Format format);
+
+    /** Stops streaming and closes the open device, if any. The device may be gone already. */
+    void close();
+
+    /** Calls onRetry() after |delayMs|, replacing a pending call. */
+    void scheduleRetry(long delayMs);
+
+    void cancelRetry();
+  }
+
+  /** Called on the thread of the state machine. */
+  public interface Events {
+    void onStateChanged(State state, @Nullable DeviceId device);
+
+    /**
+     * |device| streams in |format|. |openTimeMs| is the time from attaching or from the failure
+     * that caused the reopen; |formatsCached| tells whether reading the formats was skipped.
+     */
+    void onStreaming(DeviceId device, Format format, long openTimeMs, boolean formatsCached);
+  }
+
+  private static class CachedFormats {
+    final List<Format> formats;
+    // Format the camera streamed in last, tried first.
+    @Nullable
+    Format lastFormat;
+
+    CachedFormats(List<Format> formats) {
+      this.formats = formats;
+    }
+  }
+
+  private final Backend backend;
+  @Nullable
+  private final Events events;
+  private final int requestedWidth;
+  private final int requestedHeight;
+  private final int requestedFramerate;
+
+  // Attached cameras in the order they were attached, without the ones given up.
+  private final LinkedHashSet<DeviceId> attachedDevices = new LinkedHashSet<>();
+  // Keyed by getCacheKey().
+  private final Map<String, CachedFormats> formatCache =
+      new LinkedHashMap<String, CachedFormats>(16, 0.75f, true /* accessOrder */) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFormats> eldest) {
+          return size() > MAX_CACHED_DEVICES;
+        }
+      };
+
+  private State state = State.NO_DEVICE;
+  @Nullable
+  private DeviceId device;
+  private int retries;
+  private long openStartMs;
+
+  public UvcDeviceStateMachine(Backend backend, @Nullable Events events, int requestedWidth,
+      int requestedHeight, int requestedFramerate) {
+    this.backend = backend;
+    this.events = events;
+    this.requestedWidth = requestedWidth;
+    this.requestedHeight = requestedHeight;
+    this.requestedFramerate = requestedFramerate;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /** Returns the camera in use, or null if there is none. */
+  @Nullable
+  public DeviceId getDevice() {
+    return device;
+  }
+
+  /** Returns whether the formats of the camera with these ids are cached. */
+  public boolean hasCachedFormats(int vendorId, int productId, @Nullable String serialNumber) {
+    return formatCache.containsKey(getCacheKey(vendorId, productId, serialNumber));
+  }
+
+  public void onDeviceAttached(DeviceId attached, long nowMs) {
+    if (state == State.STOPPED || !attachedDevices.add(attached)) {
+      return;
+    }
+    if (state == State.NO_DEVICE) {
+      useDevice(attached, nowMs);
+    }
+  }
+
+  public void onDeviceDetached(DeviceId detached, long nowMs) {
+    attachedDevices.remove(detached);
+    if (state == State.STOPPED || !detached.equals(device)) {
+      return;
+    }
+    backend.cancelRetry();
+    backend.close();
+    useNextDevice(nowMs);
+  }
+
+  public void onPermissionResult(DeviceId granted, boolean isGranted, long nowMs) {
+    if (state != State.WAITING_FOR_PERMISSION || !granted.equals(device)) {
+      return;
+    }
+    if (!isGranted) {
+      // Do not ask again until the camera is attached again.
+      attachedDevices.remove(granted);
+      useNextDevice(nowMs);
+      return;
+    }
+    openDevice(nowMs);
+  }
+
+  /** The camera stopped streaming, e.g. its frames stalled; it is reopened. */
+  public void onDeviceError(long nowMs) {
+    if (state != State.STREAMING) {
+      return;
+    }
+    backend.close();
+    retries = 0;
+    openStartMs = nowMs;
+    scheduleRetry();
+  }
+
+  public void onRetry(long nowMs) {
+    if (state != State.WAITING_TO_RETRY) {
+      return;
+    }
+    setState(State.WAITING_FOR_PERMISSION);
+    backend.requestPermission(device);
+  }
+
+  /** Closes the camera; the state machine ignores all further events. */
+  public void stop() {
+    if (state == State.STOPPED) {
+      return;
+    }
+    backend.cancelRetry();
+    backend.close();
+    device = null;
+    setState(State.STOPPED);
+  }
+
+  private void useDevice(DeviceId next, long nowMs) {
+    device = next;
+    retries = 0;
+    openStartMs = nowMs;
+    setState(State.WAITING_FOR_PERMISSION);
+    backend.requestPermission(next);
+  }
+
+  private void useNextDevice(long nowMs) {
+    if (attachedDevices.isEmpty()) {
+      device = null;
+      setState(State.NO_DEVICE);
+    } else {
+      useDevice(attachedDevices.iterator().next(), nowMs);
+    }
+  }
+
+  private void openDevice(long nowMs) {
+    setState(State.OPENING);
+    if (!backend.open(device)) {
+      onOpenFailed(nowMs);
+      return;
+    }
+    // Cameras without a readable serial number share the entry of their model.
+    final String cacheKey =
+        getCacheKey(device.vendorId, device.productId, backend.readSerialNumber());
+    CachedFormats cached = formatCache.get(cacheKey);
+    final boolean formatsCached = cached != null;
+    if (cached == null) {
+      final List<Format> formats = backend.readFormats();
+      if (formats.isEmpty()) {
+        backend.close();
+        onOpenFailed(nowMs);
+        return;
+      }
+      cached = new CachedFormats(new ArrayList<>(formats));
+      formatCache.put(cacheKey, cached);
+    }
+    for (Format format : getCandidates(cached)) {
+      if (backend.startStreaming(format)) {
+        cached.lastFormat = format;
+        retries = 0;
+        setState(State.STREAMING);
+        if (events != null) {
+          events.onStreaming(device, format, nowMs - openStartMs, formatsCached);
+        }
+        return;
+      }
+    }
+    // None of the formats streams; read them again next time.
+    formatCache.remove(cacheKey);
+    backend.close();
+    onOpenFailed(nowMs);
+  }
+
+  private void onOpenFailed(long nowMs) {
+    if (++retries > MAX_RETRIES) {
+      attachedDevices.remove(device);
+      useNextDevice(nowMs);
+      return;
+    }
+    scheduleRetry();
+  }
+
+  private void scheduleRetry() {
+    final long delayMs =
+        Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << Math.min(retries, 16));
+    setState(State.WAITING_TO_RETRY);
+    backend.scheduleRetry(delayMs);
+  }
+
+  private static String getCacheKey(int vendorId, int productId, @Nullable String serialNumber) {
+    return String.format("%04x:%04x:", vendorId, productId)
+        + (serialNumber == null ? "" : serialNumber);
+  }
+
+  // The format that streamed last, then the others from the closest to the requested size.
+  private List<Format> getCandidates(CachedFormats cached) {
+    final List<Format> candidates = new ArrayList<>(cached.formats);
+    Collections.sort(candidates, new Comparator<Format>() {
+      @Override
+      public int compare(Format lhs, Format rhs) {
+        return Integer.compare(getPenalty(lhs), getPenalty(rhs));
+      }
+    });
+    if (cached.lastFormat != null && candidates.remove(cached.lastFormat)) {
+      candidates.add(0, cached.lastFormat);
+    }
+    return candidates;
+  }
+
+  // Sizes below the requested one cost more than larger ones, which are scaled down. A format
+  // known to be too slow comes after all others of its size, and MJPEG after YUYV, which needs
+  // no decoding.
+  private int getPenalty(Format format) {
+    final int requestedPixels = requestedWidth * requestedHeight;
+    final int pixels = format.width * format.height;
+    int penalty = pixels < requestedPixels ? 4 * (requestedPixels - pixels)
+                                           : pixels - requestedPixels;
+    penalty *= 4;
+    if (format.framerate > 0 && format.framerate < requestedFramerate) {
+      penalty += 2;
+    }
+    if (format.frameFormat == FRAME_FORMAT_MJPEG) {
+      penalty += 1;
+    }
+    return penalty;
+  }
+
+  private void setState(State newState) {
+    state = newState;
+    if (events != null) {
+      events.onStateChanged(newState, device);
+    }
+  }
+}
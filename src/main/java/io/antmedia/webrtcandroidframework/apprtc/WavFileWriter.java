@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes 16-bit little endian PCM to a WAV file through a FileChannel with a large write buffer.
+ * The sample data is either stored as is or compressed 2:1 to G.711 mu-law, which every WAV player
+ * can decode. The sizes in the header are filled in by close(). Not thread safe.
+ *
+ * <p>Mu-law files have the extended 18-byte format chunk and the fact chunk with the number of
+ * sample frames that non-PCM WAV files require.
+ */
+class WavFileWriter {
+  private static final int PCM_HEADER_SIZE_BYTES = 44;
+  // RIFF header, 18-byte fmt chunk with cbSize, fact chunk and data chunk header.
+  private static final int MULAW_HEADER_SIZE_BYTES = 12 + 8 + 18 + 8 + 4 + 8;
+  private static final short FORMAT_PCM = 1;
+  private static final short FORMAT_MULAW = 7;
+  private static final int MULAW_BIAS = 0x84;
+  private static final int MULAW_CLIP = 32635;
+
+  private final FileOutputStream outputStream;
+  private final FileChannel channel;
+  private final ByteBuffer writeBuffer;
+  private final int sampleRate;
+  private final int channelCount;
+  private final boolean compress;
+  private final int headerSizeBytes;
+  private long dataBytes;
+
+  WavFileWriter(File file, int sampleRate, int channelCount, boolean compress,
+      int writeBufferSizeBytes) throws IOException {
+    this.sampleRate = sampleRate;
+    this.channelCount = channelCount;
+    this.compress = compress;
+    headerSizeBytes = compress ? MULAW_HEADER_SIZE_BYTES : PCM_HEADER_SIZE_BYTES;
+    outputStream = new FileOutputStream(file);
+    channel = outputStream.getChannel();
+    writeBuffer = ByteBuffer.allocateDirect(writeBufferSizeBytes).order(ByteOrder.LITTLE_ENDIAN);
+    // Placeholder, rewritten with the final sizes on close.
+    writeHeader(0);
+  }
+
+  /** Returns the number of bytes one second of audio takes in the file. */
+  static int getBytesPerSecond(int sampleRate, int channelCount, boolean compress) {
+    return sampleRate * channelCount * (compress ? 1 : 2);
+  }
+
+  /** Appends |length| bytes of 16-bit little endian PCM starting at |offset|. */
+  void write(byte[] pcm, int offset, int length) throws IOException {
+    if (!compress) {
+      while (length > 0) {
+        if (!writeBuffer.hasRemaining()) {
+          flush();
+        }
+        final int count = Math.min(length, writeBuffer.remaining());
+        writeBuffer.put(pcm, offset, count);
+        offset += count;
+        length -= count;
+        dataBytes += count;
+      }
+      return;
+    }
+    for (int i = offset; i + 1 < offset + length; i += 2) {
+      if (!writeBuffer.hasRemaining()) {
+        flush();
+      }
+      final int sample = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+      writeBuffer.put(linearToMulaw(sample));
+      ++dataBytes;
+    }
+  }
+
+  /** Returns the size of the file, including data still in the write buffer. */
+  long getFileSizeBytes() {
+    return headerSizeBytes + dataBytes;
+  }
+
+  long getDataBytes() {
+    return dataBytes;
+  }
+
+  /** Flushes the write buffer, fills in the header sizes and closes the file. */
+  void close() throws IOException {
+    try {
+      flush();
+      writeHeader(dataBytes);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining()) {
+      channel.write(writeBuffer);
+    }
+    writeBuffer.clear();
+  }
+
+  private void writeHeader(long dataSize) throws IOException {
+    final int bytesPerSample = compress ? 1 : 2;
+    final ByteBuffer header = ByteBuffer.allocate(headerSizeBytes).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[] {'R', 'I', 'F', 'F'});
+    header.putInt((int) (headerSizeBytes - 8 + dataSize));
+    header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+    header.putInt(compress ? 18 : 16);
+    header.putShort(compress ? FORMAT_MULAW : FORMAT_PCM);
+    header.putShort((short) channelCount);
+    header.putInt(sampleRate);
+    header.putInt(sampleRate * channelCount * bytesPerSample);
+    header.putShort((short) (channelCount * bytesPerSample));
+    header.putShort((short) (bytesPerSample * 8));
+    if (compress) {
+      // cbSize: no extra format bytes.
+      header.putShort((short) 0);
+      header.put(new byte[] {'f', 'a', 'c', 't'});
+      header.putInt(4);
+      header.putInt((int) (dataSize / channelCount));
+    }
+    header.put(new byte[] {'d', 'a', 't', 'a'});
+    header.putInt((int) dataSize);
+    header.flip();
+    long position = 0;
+    while (header.hasRemaining()) {
+      position += channel.write(header, position);
+    }
+    if (channel.position() < headerSizeBytes) {
+      channel.position(headerSizeBytes);
+    }
+  }
+
+  // G.711 mu-law encoding of a 16-bit sample.
+  static byte linearToMulaw(int sample) {
+    final int sign = (sample >> 8) & 0x80;
+    if (sign != 0) {
+      sample = -sample;
+    }
+    sample = Math.min(sample, MULAW_CLIP) + MULAW_BIAS;
+    int exponent = 7;
+    for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) {
+      --exponent;
+    }
+    final int mantissa = (sample >> (exponent + 3)) & 0x0f;
+    return (byte) ~(sign | (exponent << 4) | mantissa);
+  }
+}
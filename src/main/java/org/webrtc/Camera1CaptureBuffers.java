@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The ring of preview buffers of a Camera1 byte buffer capture session. Buffers are queued to the
+ * camera, handed out in preview callbacks and queued again when the last reference to their frame
+ * is released. Keeps track of how long each buffer was held, by whom, and how long the camera
+ * was left without a buffer; see {@link CaptureBufferMetrics}. Apart from
+ * {@link #createReleaseCallback}, all methods must be called on the camera thread.
+ */
+class Camera1CaptureBuffers {
+  private static final String TAG = "Camera1CaptureBuffers";
+
+  /** Receives the buffers for the camera, e.g. Camera.addCallbackBuffer(). */
+  interface BufferQueue {
+    void queueBuffer(byte[] buffer);
+  }
+
+  /** Posts a task to the camera thread. */
+  interface CameraThread {
+    void post(Runnable task);
+  }
+
+  private final BufferQueue bufferQueue;
+  private final CameraThread cameraThread;
+  private final CaptureBufferMetrics metrics;
+  // Time each buffer held by a frame was handed out.
+  private final Map<byte[], Long> heldSinceNs = new IdentityHashMap<>();
+  private int queuedBuffers;
+  private long starvedSinceNs = -1;
+  private boolean stopped;
+
+  Camera1CaptureBuffers(BufferQueue bufferQueue, CameraThread cameraThread, int bufferCount,
+      long frameIntervalNs) {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("At least one capture buffer is needed.");
+    }
+    this.bufferQueue = bufferQueue;
+    this.cameraThread = cameraThread;
+    this.metrics = new CaptureBufferMetrics(bufferCount, frameIntervalNs);
+  }
+
+  // TODO(titovartem) make correct fix during webrtc:9175
+  @SuppressWarnings("ByteBufferBackingArray")
+  void allocate(int frameSize) {
+    for (int i = 0; i < metrics.getBufferCount(); ++i) {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize);
+      bufferQueue.queueBuffer(buffer.array());
+      ++queuedBuffers;
+    }
+  }
+
+  CaptureBufferMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** Called when the camera delivers |data| in a preview callback. */
+  void onBufferFilled(byte[] data, long nowNs) {
+    --queuedBuffers;
+    heldSinceNs.put(data, nowNs);
+    metrics.onFrameCaptured(queuedBuffers);
+    if (queuedBuffers <= 0 && starvedSinceNs < 0) {
+      starvedSinceNs = nowNs;
+    }
+  }
+
+  /**
+   * Returns the release callback of the frame that wraps |data|. It records the releasing thread
+   * and time and returns the buffer to the camera on the camera thread.
+   */
+  Runnable createReleaseCallback(final byte[] data) {
+    return () -> {
+      final String holder = Thread.currentThread().getName();
+      final long releaseTimeNs = System.nanoTime();
+      cameraThread.post(() -> onBufferReleased(data, holder, releaseTimeNs));
+    };
+  }
+
+  /** Stops returning buffers to the camera. */
+  void stop() {
+    stopped = true;
+    heldSinceNs.clear();
+    Logging.d(TAG, "Capture buffers: " + metrics);
+  }
+
+  private void onBufferReleased(byte[] data, String holder, long releaseTimeNs) {
+    if (stopped) {
+      return;
+    }
+    final Long filledNs = heldSinceNs.remove(data);
+    if (filledNs != null) {
+      metrics.onBufferReleased(holder, releaseTimeNs - filledNs);
+    }
+    if (starvedSinceNs >= 0) {
+      metrics.onBufferWait(releaseTimeNs - starvedSinceNs);
+      starvedSinceNs = -1;
+    }
+    ++queuedBuffers;
+    bufferQueue.queueBuffer(data);
+  }
+}
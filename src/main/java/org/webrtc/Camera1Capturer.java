@@ -15,12 +15,29 @@ import androidx.annotation.Nullable;
 
 public class Camera1Capturer extends CameraCapturer {
   private final boolean captureToTexture;
+  private final int captureBufferCount;
 
   public Camera1Capturer(
       String cameraName, CameraEventsHandler eventsHandler, boolean captureToTexture) {
-    super(cameraName, eventsHandler, new Camera1Enumerator(captureToTexture));
+    this(cameraName, eventsHandler, captureToTexture,
+        Camera1Enumerator.DEFAULT_CAPTURE_BUFFER_COUNT);
+  }
+
+  /**
+   * @param captureBufferCount number of preview buffers when not capturing to texture. Frames
+   *     hold their buffer until released, so consumers that keep frames longer than about
+   *     captureBufferCount - 1 frame intervals make the camera drop frames.
+   */
+  public Camera1Capturer(String cameraName, CameraEventsHandler eventsHandler,
+      boolean captureToTexture, int captureBufferCount) {
+    super(cameraName, eventsHandler,
+        new Camera1Enumerator(captureToTexture, captureBufferCount));
 
+    if (captureBufferCount < 1) {
+      throw new IllegalArgumentException("captureBufferCount must be at least 1.");
+    }
     this.captureToTexture = captureToTexture;
+    this.captureBufferCount = captureBufferCount;
   }
 
   @Override
@@ -30,6 +47,6 @@ public class Camera1Capturer extends CameraCapturer {
       int framerate) {
     Camera1Session.create(createSessionCallback, events, captureToTexture, applicationContext,
         surfaceTextureHelper, Camera1Enumerator.getCameraIndex(cameraName), width, height,
-        framerate);
+        framerate, captureBufferCount);
   }
 }
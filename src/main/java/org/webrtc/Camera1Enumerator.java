@@ -19,19 +19,31 @@ import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
 @SuppressWarnings("deprecation")
 public class Camera1Enumerator implements CameraEnumerator {
   private final static String TAG = "Camera1Enumerator";
+  /** Number of preview buffers of byte buffer capture unless configured otherwise. */
+  public static final int DEFAULT_CAPTURE_BUFFER_COUNT = 3;
   // Each entry contains the supported formats for corresponding camera index. The formats for all
   // cameras are enumerated on the first call to getSupportedFormats(), and cached for future
   // reference.
   private static List<List<CaptureFormat>> cachedSupportedFormats;
 
   private final boolean captureToTexture;
+  private final int captureBufferCount;
 
   public Camera1Enumerator() {
     this(true /* captureToTexture */);
   }
 
   public Camera1Enumerator(boolean captureToTexture) {
+    this(captureToTexture, DEFAULT_CAPTURE_BUFFER_COUNT);
+  }
+
+  /**
+   * See {@link Camera1Capturer#Camera1Capturer(String, CameraVideoCapturer.CameraEventsHandler,
+   * boolean, int)}.
+   */
+  public Camera1Enumerator(boolean captureToTexture, int captureBufferCount) {
     this.captureToTexture = captureToTexture;
+    this.captureBufferCount = captureBufferCount;
   }
 
   // Returns device names that can be used to create a new VideoCapturerAndroid.
@@ -71,7 +83,7 @@ public class Camera1Enumerator implements CameraEnumerator {
   @Override
   public CameraVideoCapturer createCapturer(
       String deviceName, CameraVideoCapturer.CameraEventsHandler eventsHandler) {
-    return new Camera1Capturer(deviceName, eventsHandler, captureToTexture);
+    return new Camera1Capturer(deviceName, eventsHandler, captureToTexture, captureBufferCount);
   }
 
   private static @Nullable android.hardware.Camera.CameraInfo getCameraInfo(int index) {
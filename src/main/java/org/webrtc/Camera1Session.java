@@ -13,11 +13,9 @@ package org.webrtc;
 import android.content.Context;
 import android.graphics.Matrix;
 import android.os.Handler;
-import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import android.view.Surface;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
@@ -25,7 +23,6 @@ import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
 @SuppressWarnings("deprecation")
 class Camera1Session implements CameraSession {
   private static final String TAG = "Camera1Session";
-  private static final int NUMBER_OF_CAPTURE_BUFFERS = 3;
 
   private static final Histogram camera1StartTimeMsHistogram =
       Histogram.createCounts("WebRTC.Android.Camera1.StartTimeMs", 1, 10000, 50);
@@ -45,18 +42,19 @@ class Camera1Session implements CameraSession {
   private final android.hardware.Camera camera;
   private final android.hardware.Camera.CameraInfo info;
   private final CaptureFormat captureFormat;
+  private final DisplayOrientationTracker orientationTracker;
+  // Null when capturing to texture.
+  @Nullable private final Camera1CaptureBuffers captureBuffers;
   // Used only for stats. Only used on the camera thread.
   private final long constructionTimeNs; // Construction time of this class.
 
   private SessionState state;
   private boolean firstFrameReported;
 
-  // TODO(titovartem) make correct fix during webrtc:9175
-  @SuppressWarnings("ByteBufferBackingArray")
   public static void create(final CreateSessionCallback callback, final Events events,
       final boolean captureToTexture, final Context applicationContext,
       final SurfaceTextureHelper surfaceTextureHelper, final int cameraId, final int width,
-      final int height, final int framerate) {
+      final int height, final int framerate, final int captureBufferCount) {
     final long constructionTimeNs = System.nanoTime();
     Logging.d(TAG, "Open camera " + cameraId);
     events.onCameraOpening();
@@ -98,19 +96,22 @@ class Camera1Session implements CameraSession {
       return;
     }
 
+    Camera1CaptureBuffers captureBuffers = null;
     if (!captureToTexture) {
-      final int frameSize = captureFormat.frameSize();
-      for (int i = 0; i < NUMBER_OF_CAPTURE_BUFFERS; ++i) {
-        final ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize);
-        camera.addCallbackBuffer(buffer.array());
-      }
+      final long frameIntervalNs =
+          TimeUnit.SECONDS.toNanos(1) * 1000 / Math.max(captureFormat.framerate.max, 1000);
+      final Handler cameraThreadHandler = new Handler();
+      captureBuffers = new Camera1CaptureBuffers(camera::addCallbackBuffer,
+          cameraThreadHandler::post, captureBufferCount, frameIntervalNs);
+      captureBuffers.allocate(captureFormat.frameSize());
     }
 
     // Calculate orientation manually and send it as CVO insted.
     camera.setDisplayOrientation(0 /* degrees */);
 
     callback.onDone(new Camera1Session(events, captureToTexture, applicationContext,
-        surfaceTextureHelper, cameraId, camera, info, captureFormat, constructionTimeNs));
+        surfaceTextureHelper, cameraId, camera, info, captureFormat, captureBuffers,
+        constructionTimeNs));
   }
 
   private static void updateCameraParameters(android.hardware.Camera camera,
@@ -160,7 +161,7 @@ class Camera1Session implements CameraSession {
   private Camera1Session(Events events, boolean captureToTexture, Context applicationContext,
       SurfaceTextureHelper surfaceTextureHelper, int cameraId, android.hardware.Camera camera,
       android.hardware.Camera.CameraInfo info, CaptureFormat captureFormat,
-      long constructionTimeNs) {
+      @Nullable Camera1CaptureBuffers captureBuffers, long constructionTimeNs) {
     Logging.d(TAG, "Create new camera1 session on camera " + cameraId);
 
     this.cameraThreadHandler = new Handler();
@@ -172,7 +173,10 @@ class Camera1Session implements CameraSession {
     this.camera = camera;
     this.info = info;
     this.captureFormat = captureFormat;
+    this.captureBuffers = captureBuffers;
     this.constructionTimeNs = constructionTimeNs;
+    this.orientationTracker =
+        new DisplayOrientationTracker(applicationContext, cameraThreadHandler);
 
     surfaceTextureHelper.setTextureSize(captureFormat.width, captureFormat.height);
 
@@ -196,6 +200,7 @@ class Camera1Session implements CameraSession {
     checkIsOnCameraThread();
 
     state = SessionState.RUNNING;
+    orientationTracker.start();
 
     camera.setErrorCallback(new android.hardware.Camera.ErrorCallback() {
       @Override
@@ -238,6 +243,10 @@ class Camera1Session implements CameraSession {
     }
 
     state = SessionState.STOPPED;
+    orientationTracker.stop();
+    if (captureBuffers != null) {
+      captureBuffers.stop();
+    }
     surfaceTextureHelper.stopListening();
     // Note: stopPreview or other driver code might deadlock. Deadlock in
     // android.hardware.Camera._stopPreview(Native Method) has been observed on
@@ -293,7 +302,10 @@ class Camera1Session implements CameraSession {
           return;
         }
 
-        final long captureTimeNs = TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime());
+        // Preview callbacks carry no sensor timestamp. Stamp the frame with the rtc clock in
+        // nanoseconds; elapsedRealtime() has only millisecond resolution, which added up to 1 ms
+        // of jitter to every frame interval.
+        final long captureTimeNs = TimestampAligner.getRtcTimeNanos();
 
         if (!firstFrameReported) {
           final int startTimeMs =
@@ -302,12 +314,9 @@ class Camera1Session implements CameraSession {
           firstFrameReported = true;
         }
 
-        VideoFrame.Buffer frameBuffer = new NV21Buffer(
-            data, captureFormat.width, captureFormat.height, () -> cameraThreadHandler.post(() -> {
-              if (state == SessionState.RUNNING) {
-                camera.addCallbackBuffer(data);
-              }
-            }));
+        captureBuffers.onBufferFilled(data, System.nanoTime());
+        VideoFrame.Buffer frameBuffer = new NV21Buffer(data, captureFormat.width,
+            captureFormat.height, captureBuffers.createReleaseCallback(data));
         final VideoFrame frame = new VideoFrame(frameBuffer, getFrameOrientation(), captureTimeNs);
         events.onFrameCaptured(Camera1Session.this, frame);
         frame.release();
@@ -315,8 +324,14 @@ class Camera1Session implements CameraSession {
     });
   }
 
+  @Override
+  @Nullable
+  public CaptureBufferMetrics getCaptureBufferMetrics() {
+    return captureBuffers == null ? null : captureBuffers.getMetrics();
+  }
+
   private int getFrameOrientation() {
-    int rotation = CameraSession.getDeviceOrientation(applicationContext);
+    int rotation = orientationTracker.getOrientation();
     if (info.facing == android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK) {
       rotation = 360 - rotation;
     }
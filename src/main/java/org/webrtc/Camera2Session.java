@@ -55,6 +55,7 @@ class Camera2Session implements CameraSession {
   private final int width;
   private final int height;
   private final int framerate;
+  private final DisplayOrientationTracker orientationTracker;
 
   // Initialized at start
   private CameraCharacteristics cameraCharacteristics;
@@ -295,6 +296,9 @@ class Camera2Session implements CameraSession {
     this.width = width;
     this.height = height;
     this.framerate = framerate;
+    this.orientationTracker =
+        new DisplayOrientationTracker(applicationContext, cameraThreadHandler);
+    orientationTracker.start();
 
     start();
   }
@@ -376,6 +380,7 @@ class Camera2Session implements CameraSession {
     Logging.d(TAG, "Stop internal");
     checkIsOnCameraThread();
 
+    orientationTracker.stop();
     surfaceTextureHelper.stopListening();
 
     if (captureSession != null) {
@@ -409,7 +414,7 @@ class Camera2Session implements CameraSession {
   }
 
   private int getFrameOrientation() {
-    int rotation = CameraSession.getDeviceOrientation(applicationContext);
+    int rotation = orientationTracker.getOrientation();
     if (!isCameraFrontFacing) {
       rotation = 360 - rotation;
     }
@@ -45,7 +45,9 @@ abstract class CameraCapturer implements CameraVideoCapturer {
             capturerObserver.onCapturerStarted(true /* success */);
             sessionOpening = false;
             currentSession = session;
-            cameraStatistics = new CameraStatistics(surfaceHelper, eventsHandler);
+            cameraStatistics =
+                new CameraStatistics(surfaceHelper, eventsHandler, captureTimingReport);
+            cameraStatistics.setCaptureBufferMetrics(session.getCaptureBufferMetrics());
             firstFrameObserved = false;
             stateLock.notifyAll();
 
@@ -160,7 +162,7 @@ abstract class CameraCapturer implements CameraVideoCapturer {
           eventsHandler.onFirstFrameAvailable();
           firstFrameObserved = true;
         }
-        cameraStatistics.addFrame();
+        cameraStatistics.addFrame(frame.getTimestampNs());
         capturerObserver.onFrameCaptured(frame);
       }
     }
@@ -193,6 +195,8 @@ abstract class CameraCapturer implements CameraVideoCapturer {
   // Valid from onDone call until stopCapture, otherwise null.
   @Nullable private CameraStatistics cameraStatistics; /* guarded by stateLock */
   private boolean firstFrameObserved; /* guarded by stateLock */
+  // Frame intervals since startCapture, kept across camera switches.
+  private final CaptureTimingReport captureTimingReport = new CaptureTimingReport();
 
   public CameraCapturer(String cameraName, @Nullable CameraEventsHandler eventsHandler,
       CameraEnumerator cameraEnumerator) {
@@ -256,6 +260,7 @@ abstract class CameraCapturer implements CameraVideoCapturer {
       this.height = height;
       this.framerate = framerate;
 
+      captureTimingReport.reset();
       sessionOpening = true;
       openAttemptsRemaining = MAX_OPEN_CAMERA_ATTEMPTS;
       createSessionInternal(0);
@@ -291,6 +296,7 @@ abstract class CameraCapturer implements CameraVideoCapturer {
 
       if (currentSession != null) {
         Logging.d(TAG, "Stop capture: Nulling session");
+        Logging.d(TAG, "Capture timing: " + captureTimingReport);
         cameraStatistics.release();
         cameraStatistics = null;
         final CameraSession oldSession = currentSession;
@@ -336,6 +342,19 @@ abstract class CameraCapturer implements CameraVideoCapturer {
     });
   }
 
+  @Override
+  public CaptureTimingReport getCaptureTimingReport() {
+    return captureTimingReport;
+  }
+
+  @Override
+  @Nullable
+  public CaptureBufferMetrics getCaptureBufferMetrics() {
+    synchronized (stateLock) {
+      return cameraStatistics == null ? null : cameraStatistics.getCaptureBufferMetrics();
+    }
+  }
+
   @Override
   public boolean isScreencast() {
     return false;
@@ -14,6 +14,7 @@ import android.content.Context;
 import android.graphics.Matrix;
 import android.view.WindowManager;
 import android.view.Surface;
+import androidx.annotation.Nullable;
 
 interface CameraSession {
   enum FailureType { ERROR, DISCONNECTED }
@@ -39,6 +40,12 @@ interface CameraSession {
    */
   void stop();
 
+  /** Returns the metrics of the capture buffers, or null if the session does not use any. */
+  @Nullable
+  default CaptureBufferMetrics getCaptureBufferMetrics() {
+    return null;
+  }
+
   static int getDeviceOrientation(Context context) {
     final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
     switch (wm.getDefaultDisplay().getRotation()) {
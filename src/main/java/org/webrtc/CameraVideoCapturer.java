@@ -96,6 +96,25 @@ public interface CameraVideoCapturer extends VideoCapturer {
     throw new UnsupportedOperationException("Deprecated and not implemented.");
   }
 
+  /**
+   * Returns the frame interval statistics of the current capture, or null if the capturer does
+   * not collect them. This function can be called from any thread.
+   */
+  @Nullable
+  default CaptureTimingReport getCaptureTimingReport() {
+    return null;
+  }
+
+  /**
+   * Returns the metrics of the capture buffers of the current session, or null if there is no
+   * session or it does not use capture buffers, e.g. when capturing to texture. This function can
+   * be called from any thread.
+   */
+  @Nullable
+  default CaptureBufferMetrics getCaptureBufferMetrics() {
+    return null;
+  }
+
   /**
    * Helper class to log framerate and detect if the camera freezes. It will run periodic callbacks
    * on the SurfaceTextureHelper thread passed in the ctor, and should only be operated from that
@@ -108,6 +127,9 @@ public interface CameraVideoCapturer extends VideoCapturer {
 
     private final SurfaceTextureHelper surfaceTextureHelper;
     private final CameraEventsHandler eventsHandler;
+    @Nullable private final CaptureTimingReport timingReport;
+    @Nullable private volatile CaptureBufferMetrics bufferMetrics;
+    private long lastStarvationCount;
     private int frameCount;
     private int freezePeriodCount;
     // Camera observer - monitors camera framerate. Observer is executed on camera thread.
@@ -116,6 +138,19 @@ public interface CameraVideoCapturer extends VideoCapturer {
       public void run() {
         final int cameraFps = Math.round(frameCount * 1000.0f / CAMERA_OBSERVER_PERIOD_MS);
         Logging.d(TAG, "Camera fps: " + cameraFps + ".");
+        if (timingReport != null) {
+          Logging.d(TAG, "Capture timing: " + timingReport);
+        }
+        final CaptureBufferMetrics metrics = bufferMetrics;
+        if (metrics != null) {
+          final long starvationCount = metrics.getStarvationCount();
+          if (starvationCount > lastStarvationCount) {
+            Logging.w(TAG, "Camera starved of capture buffers: " + metrics);
+          } else {
+            Logging.d(TAG, "Capture buffers: " + metrics);
+          }
+          lastStarvationCount = starvationCount;
+        }
         if (frameCount == 0) {
           ++freezePeriodCount;
           if (CAMERA_OBSERVER_PERIOD_MS * freezePeriodCount >= CAMERA_FREEZE_REPORT_TIMOUT_MS
@@ -139,11 +174,18 @@ public interface CameraVideoCapturer extends VideoCapturer {
 
     public CameraStatistics(
         SurfaceTextureHelper surfaceTextureHelper, CameraEventsHandler eventsHandler) {
+      this(surfaceTextureHelper, eventsHandler, null /* timingReport */);
+    }
+
+    /** Frames added with a timestamp are also recorded in |timingReport|. */
+    public CameraStatistics(SurfaceTextureHelper surfaceTextureHelper,
+        CameraEventsHandler eventsHandler, @Nullable CaptureTimingReport timingReport) {
       if (surfaceTextureHelper == null) {
         throw new IllegalArgumentException("SurfaceTextureHelper is null");
       }
       this.surfaceTextureHelper = surfaceTextureHelper;
       this.eventsHandler = eventsHandler;
+      this.timingReport = timingReport;
       this.frameCount = 0;
       this.freezePeriodCount = 0;
       surfaceTextureHelper.getHandler().postDelayed(cameraObserver, CAMERA_OBSERVER_PERIOD_MS);
@@ -160,6 +202,23 @@ public interface CameraVideoCapturer extends VideoCapturer {
       ++frameCount;
     }
 
+    public void addFrame(long timestampNs) {
+      addFrame();
+      if (timingReport != null) {
+        timingReport.addFrame(System.nanoTime(), timestampNs);
+      }
+    }
+
+    /** Sets the capture buffer metrics of the session, logged along with the framerate. */
+    public void setCaptureBufferMetrics(@Nullable CaptureBufferMetrics bufferMetrics) {
+      this.bufferMetrics = bufferMetrics;
+    }
+
+    @Nullable
+    public CaptureBufferMetrics getCaptureBufferMetrics() {
+      return bufferMetrics;
+    }
+
     public void release() {
       surfaceTextureHelper.getHandler().removeCallbacks(cameraObserver);
     }
@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of the preview buffers of a Camera1 byte buffer capture session. A buffer is held from
+ * the preview callback until the last reference to its frame is released; the holder is the
+ * thread that released it, i.e. the consumer that kept the frame longest. While every buffer is
+ * held the camera has nowhere to write and drops frames; such starvation is counted once it lasts
+ * longer than a frame interval. Thread safe.
+ */
+public class CaptureBufferMetrics {
+  // Holders beyond this are counted under OTHER_HOLDER.
+  private static final int MAX_HOLDERS = 16;
+  private static final String OTHER_HOLDER = "other";
+
+  /** Hold times of the buffers released by one thread. */
+  public static class Holder {
+    public final String name;
+    private long count;
+    private long totalHoldNs;
+    private long maxHoldNs;
+
+    Holder(String name) {
+      this.name = name;
+    }
+
+    Holder(Holder other) {
+      this.name = other.name;
+      this.count = other.count;
+      this.totalHoldNs = other.totalHoldNs;
+      this.maxHoldNs = other.maxHoldNs;
+    }
+
+    void add(long holdNs) {
+      ++count;
+      totalHoldNs += holdNs;
+      maxHoldNs = Math.max(maxHoldNs, holdNs);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanHoldTimeMs() {
+      return count == 0 ? 0 : totalHoldNs / count / 1000000;
+    }
+
+    public long getMaxHoldTimeMs() {
+      return maxHoldNs / 1000000;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": n=" + count + " mean=" + getMeanHoldTimeMs() + "ms max="
+          + getMaxHoldTimeMs() + "ms";
+    }
+  }
+
+  private final int bufferCount;
+  private final long frameIntervalNs;
+  private final Map<String, Holder> holders = new HashMap<>();
+  private final Holder allHolders = new Holder("all");
+  private long framesCaptured;
+  private int minQueuedBuffers;
+  private long starvationCount;
+  private long starvationNs;
+  private long maxStarvationNs;
+  private long framesDropped;
+
+  CaptureBufferMetrics(int bufferCount, long frameIntervalNs) {
+    this.bufferCount = bufferCount;
+    this.frameIntervalNs = frameIntervalNs;
+    this.minQueuedBuffers = bufferCount;
+  }
+
+  synchronized void onFrameCaptured(int queuedBuffers) {
+    ++framesCaptured;
+    minQueuedBuffers = Math.min(minQueuedBuffers, queuedBuffers);
+  }
+
+  synchronized void onBufferReleased(String holderName, long holdNs) {
+    allHolders.add(holdNs);
+    Holder holder = holders.get(holderName);
+    if (holder == null) {
+      if (holders.size() >= MAX_HOLDERS) {
+        holderName = OTHER_HOLDER;
+        holder = holders.get(holderName);
+      }
+      if (holder == null) {
+        holder = new Holder(holderName);
+        holders.put(holderName, holder);
+      }
+    }
+    holder.add(holdNs);
+  }
+
+  /** |waitNs| is the time from taking the last queued buffer until a buffer was returned. */
+  synchronized void onBufferWait(long waitNs) {
+    // The camera only needs the next buffer one frame interval after it filled the last one.
+    final long starvedNs = waitNs - frameIntervalNs;
+    if (starvedNs <= 0) {
+      return;
+    }
+    ++starvationCount;
+    starvationNs += starvedNs;
+    maxStarvationNs = Math.max(maxStarvationNs, starvedNs);
+    framesDropped += (starvedNs + frameIntervalNs - 1) / frameIntervalNs;
+  }
+
+  public int getBufferCount() {
+    return bufferCount;
+  }
+
+  public synchronized long getFramesCaptured() {
+    return framesCaptured;
+  }
+
+  /** Returns the fewest buffers that were left with the camera after a preview callback. */
+  public synchronized int getMinQueuedBuffers() {
+    return minQueuedBuffers;
+  }
+
+  public synchronized long getStarvationCount() {
+    return starvationCount;
+  }
+
+  /** Returns the total time the camera waited for a returned buffer. */
+  public synchronized long getStarvationTimeMs() {
+    return starvationNs / 1000000;
+  }
+
+  public synchronized long getMaxStarvationTimeMs() {
+    return maxStarvationNs / 1000000;
+  }
+
+  /** Returns the number of frames the camera is estimated to have dropped while starved. */
+  public synchronized long getEstimatedFramesDropped() {
+    return framesDropped;
+  }
+
+  public synchronized long getMeanHoldTimeMs() {
+    return allHolders.getMeanHoldTimeMs();
+  }
+
+  public synchronized long getMaxHoldTimeMs() {
+    return allHolders.getMaxHoldTimeMs();
+  }
+
+  /** Returns copies of the per holder hold times, longest maximum hold time first. */
+  public synchronized List<Holder> getHolders() {
+    final List<Holder> copies = new ArrayList<>(holders.size());
+    for (Holder holder : holders.values()) {
+      copies.add(new Holder(holder));
+    }
+    Collections.sort(copies, (a, b) -> Long.compare(b.maxHoldNs, a.maxHoldNs));
+    return copies;
+  }
+
+  @Override
+  public String toString() {
+    final List<Holder> sortedHolders = getHolders();
+    synchronized (this) {
+      return "buffers=" + bufferCount + " frames=" + framesCaptured
+          + " minQueued=" + minQueuedBuffers + " starvations=" + starvationCount
+          + " starvedMs=" + getStarvationTimeMs() + " maxStarvedMs=" + getMaxStarvationTimeMs()
+          + " dropped~" + framesDropped + " hold: [" + allHolders + "] holders: " + sortedHolders;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Frame interval statistics of a capturer, measured on two clocks: the time a frame arrived in
+ * the capturer callback, which is what frames used to be stamped with, and the timestamp the frame
+ * carries. The difference between their jitter is the scheduling jitter that the timestamps keep
+ * out of A/V sync. Gaps longer than MAX_INTERVAL_NS, e.g. while the camera is switched, are not
+ * counted. Thread safe.
+ */
+public class CaptureTimingReport {
+  private static final long MAX_INTERVAL_NS = 500L * 1000 * 1000;
+
+  /** Mean and deviation of the intervals between consecutive frames on one clock. */
+  public static class IntervalStats {
+    private long count;
+    private double meanNs;
+    // Sum of squared differences from the mean, for the running variance.
+    private double m2;
+    private long maxNs;
+    private long lastNs = -1;
+
+    void add(long timeNs) {
+      final long previousNs = lastNs;
+      lastNs = timeNs;
+      if (previousNs < 0) {
+        return;
+      }
+      final long intervalNs = timeNs - previousNs;
+      if (intervalNs <= 0 || intervalNs > MAX_INTERVAL_NS) {
+        return;
+      }
+      ++count;
+      final double delta = intervalNs - meanNs;
+      meanNs += delta / count;
+      m2 += delta * (intervalNs - meanNs);
+      maxNs = Math.max(maxNs, intervalNs);
+    }
+
+    void reset() {
+      count = 0;
+      meanNs = 0;
+      m2 = 0;
+      maxNs = 0;
+      lastNs = -1;
+    }
+
+    void copyFrom(IntervalStats other) {
+      count = other.count;
+      meanNs = other.meanNs;
+      m2 = other.m2;
+      maxNs = other.maxNs;
+      lastNs = other.lastNs;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanUs() {
+      return Math.round(meanNs / 1000);
+    }
+
+    /** Returns the standard deviation of the intervals, i.e. the frame interval jitter. */
+    public long getJitterUs() {
+      return count < 2 ? 0 : Math.round(Math.sqrt(m2 / (count - 1)) / 1000);
+    }
+
+    public long getMaxUs() {
+      return maxNs / 1000;
+    }
+
+    @Override
+    public String toString() {
+      return "n=" + count + " mean=" + getMeanUs() + "us jitter=" + getJitterUs() + "us max="
+          + getMaxUs() + "us";
+    }
+  }
+
+  private final IntervalStats arrivalIntervals = new IntervalStats();
+  private final IntervalStats timestampIntervals = new IntervalStats();
+
+  /**
+   * @param arrivalNs System.nanoTime() when the frame reached the capturer callback
+   * @param timestampNs timestamp of the frame
+   */
+  public synchronized void addFrame(long arrivalNs, long timestampNs) {
+    arrivalIntervals.add(arrivalNs);
+    timestampIntervals.add(timestampNs);
+  }
+
+  public synchronized void reset() {
+    arrivalIntervals.reset();
+    timestampIntervals.reset();
+  }
+
+  /** Returns a copy of the intervals of the callback arrival times. */
+  public synchronized IntervalStats getArrivalIntervals() {
+    final IntervalStats copy = new IntervalStats();
+    copy.copyFrom(arrivalIntervals);
+    return copy;
+  }
+
+  /** Returns a copy of the intervals of the frame timestamps. */
+  public synchronized IntervalStats getTimestampIntervals() {
+    final IntervalStats copy = new IntervalStats();
+    copy.copyFrom(timestampIntervals);
+    return copy;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "arrival: [" + arrivalIntervals + "], timestamp: [" + timestampIntervals + "]";
+  }
+}
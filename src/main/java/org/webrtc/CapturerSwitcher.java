@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds one CapturerObserver, usually that of a {@link VideoSource}, from several capturers, of
+ * which one is active at a time. This switches e.g. between a USB camera and a built-in camera on
+ * the same source and track, so nothing is renegotiated.
+ *
+ * <p>Each capturer is initialized with an input from {@link #createInput}. After
+ * {@link #switchTo}, the new capturer is started in the background while the active one keeps
+ * sending. The first frame of the new capturer is the crossover: from then on only its frames
+ * are passed on, and the previous capturer can be stopped. While switching, the last frame is
+ * kept as an I420 copy and repeated if the active capturer stops sending, e.g. because it has to
+ * be closed before the new camera can be opened. So the receiver never sees a freeze of more than
+ * about a frame interval. The timestamps of the new capturer are rebased to continue those of the
+ * sent frames, so they never go back, whatever clock the new capturer uses.
+ *
+ * <p>Frames of all inputs and the repeated frames are passed on under a lock, so the observer
+ * sees them one at a time, but not on a single thread.
+ */
+public class CapturerSwitcher {
+  private static final String TAG = "CapturerSwitcher";
+  // Time after switchTo() to wait for a frame of the active capturer to hold.
+  private static final long LAST_FRAME_TIMEOUT_MS = 500;
+  // Time after switchTo() for the new capturer to send its first frame; some USB cameras take a
+  // few seconds to open.
+  private static final long CROSSOVER_TIMEOUT_MS = 5000;
+
+  /** Called on the capture thread of the new capturer. */
+  public interface SwitchListener {
+    /**
+     * The first frame of the new capturer was sent.
+     *
+     * @param switchLatencyMs time from switchTo() to the first frame of the new capturer
+     * @param longestGapMs longest time between two sent frames during the switch
+     * @param repeatedFrames number of frames repeated to fill the gap
+     */
+    void onSwitchCompleted(long switchLatencyMs, long longestGapMs, int repeatedFrames);
+
+    /**
+     * The new capturer failed to start, or sent no frame within CROSSOVER_TIMEOUT_MS of
+     * switchTo(); the active capturer stays active. After a timeout this is called on the
+     * switcher's thread and frames of the new capturer are dropped.
+     */
+    void onSwitchFailed(String error);
+
+    /**
+     * A copy of the last frame of the active capturer is held, so the active capturer can be
+     * stopped before the new one sends frames. Called once per switch, on the capture thread of
+     * the active capturer. If that sends no frame within LAST_FRAME_TIMEOUT_MS of switchTo(),
+     * e.g. because it has stalled, this is called on the switcher's thread instead, and the last
+     * frame sent before the switch, if any, is not repeated.
+     */
+    default void onLastFrameHeld() {}
+  }
+
+  private class Input implements CapturerObserver {
+    // Added to the timestamps of the frames of this input; synchronized on |lock|.
+    private long timestampOffsetNs;
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+      onInputStarted(this, success);
+    }
+
+    @Override
+    public void onCapturerStopped() {
+      onInputStopped(this);
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+      onInputFrame(this, frame);
+    }
+  }
+
+  private final CapturerObserver sourceObserver;
+  private final HandlerThread repeatThread;
+  private final Handler repeatHandler;
+  private final Runnable repeatFrameRunnable = new Runnable() {
+    @Override
+    public void run() {
+      repeatLastFrame();
+    }
+  };
+  private final Runnable lastFrameTimeoutRunnable = new Runnable() {
+    @Override
+    public void run() {
+      onLastFrameTimeout();
+    }
+  };
+  private final Runnable crossoverTimeoutRunnable = new Runnable() {
+    @Override
+    public void run() {
+      onCrossoverTimeout();
+    }
+  };
+
+  private final Object lock = new Object();
+  // All below synchronized on |lock|.
+  private long frameIntervalNs;
+  @Nullable private Input activeInput;
+  @Nullable private Input pendingInput;
+  @Nullable private SwitchListener switchListener;
+  private long switchStartNs;
+  private long lastSentNs;
+  private long lastTimestampNs = Long.MIN_VALUE;
+  private long longestGapNs;
+  private int repeatedFrames;
+  // Copy of the last sent frame while switching.
+  @Nullable private VideoFrame.I420Buffer lastFrameCopy;
+  private int lastFrameRotation;
+  private boolean isLastFrameHeld;
+  private boolean isLastSentRepeated;
+  private boolean isDisposed;
+
+  /** @param framerate framerate of the capturers, at which frames are repeated while switching */
+  public CapturerSwitcher(CapturerObserver sourceObserver, int framerate) {
+    this.sourceObserver = sourceObserver;
+    setFramerate(framerate);
+    repeatThread = new HandlerThread(TAG);
+    repeatThread.start();
+    repeatHandler = new Handler(repeatThread.getLooper());
+  }
+
+  public void setFramerate(int framerate) {
+    if (framerate <= 0) {
+      throw new IllegalArgumentException("Framerate must be positive: " + framerate);
+    }
+    synchronized (lock) {
+      frameIntervalNs = TimeUnit.SECONDS.toNanos(1) / framerate;
+    }
+  }
+
+  /**
+   * Returns an observer to initialize a capturer with. The first input is active right away, the
+   * others once switched to. Frames of other inputs are dropped.
+   */
+  public CapturerObserver createInput() {
+    final Input input = new Input();
+    synchronized (lock) {
+      if (activeInput == null) {
+        activeInput = input;
+      }
+    }
+    return input;
+  }
+
+  /**
+   * Switches to |input| on its first frame. Start its capturer after this call. A switch in
+   * progress is replaced.
+   */
+  public void switchTo(CapturerObserver input, @Nullable SwitchListener listener) {
+    if (!(input instanceof Input)) {
+      throw new IllegalArgumentException("Input must come from createInput().");
+    }
+    synchronized (lock) {
+      if (isDisposed) {
+        return;
+      }
+      if (input == activeInput) {
+        Logging.w(TAG, "Already switched to this input.");
+        return;
+      }
+      Logging.d(TAG, "Switching capturer.");
+      pendingInput = (Input) input;
+      switchListener = listener;
+      switchStartNs = System.nanoTime();
+      longestGapNs = 0;
+      repeatedFrames = 0;
+      isLastFrameHeld = false;
+      repeatHandler.removeCallbacks(repeatFrameRunnable);
+      repeatHandler.removeCallbacks(lastFrameTimeoutRunnable);
+      repeatHandler.removeCallbacks(crossoverTimeoutRunnable);
+      repeatHandler.postDelayed(
+          repeatFrameRunnable, TimeUnit.NANOSECONDS.toMillis(frameIntervalNs));
+      repeatHandler.postDelayed(lastFrameTimeoutRunnable, LAST_FRAME_TIMEOUT_MS);
+      repeatHandler.postDelayed(crossoverTimeoutRunnable, CROSSOVER_TIMEOUT_MS);
+    }
+  }
+
+  public boolean isSwitching() {
+    synchronized (lock) {
+      return pendingInput != null;
+    }
+  }
+
+  /** Stops repeating frames and the repeat thread. Frames are no longer passed on. */
+  public void dispose() {
+    synchronized (lock) {
+      isDisposed = true;
+      pendingInput = null;
+      activeInput = null;
+      releaseLastFrameCopyLocked();
+    }
+    repeatHandler.removeCallbacks(repeatFrameRunnable);
+    repeatHandler.removeCallbacks(lastFrameTimeoutRunnable);
+    repeatHandler.removeCallbacks(crossoverTimeoutRunnable);
+    repeatThread.quit();
+  }
+
+  private void onInputStarted(Input input, boolean success) {
+    final SwitchListener failedListener;
+    synchronized (lock) {
+      if (input == activeInput && pendingInput == null) {
+        sourceObserver.onCapturerStarted(success);
+        return;
+      }
+      if (input != pendingInput || success) {
+        // The source is live already.
+        return;
+      }
+      Logging.e(TAG, "The new capturer failed to start.");
+      failedListener = switchListener;
+      endSwitchLocked();
+    }
+    if (failedListener != null) {
+      failedListener.onSwitchFailed("The new capturer failed to start.");
+    }
+  }
+
+  private void onInputStopped(Input input) {
+    synchronized (lock) {
+      // The previous capturer is stopped during the switch; the source stays live.
+      if (input == activeInput && pendingInput == null) {
+        sourceObserver.onCapturerStopped();
+      }
+    }
+  }
+
+  private void onInputFrame(Input input, VideoFrame frame) {
+    final SwitchListener completedListener;
+    final long latencyMs;
+    final long gapMs;
+    final int repeated;
+    synchronized (lock) {
+      if (isDisposed) {
+        return;
+      }
+      if (input == pendingInput) {
+        // Crossover: continue the timestamps of the sent frames, including repeated ones, as if
+        // the new capturer's clock had been running all along.
+        input.timestampOffsetNs = lastSentNs == 0 ? 0
+            : lastTimestampNs + Math.max(1, System.nanoTime() - lastSentNs)
+                - frame.getTimestampNs();
+        activeInput = input;
+        sendInputFrameLocked(input, frame);
+        completedListener = switchListener;
+        latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - switchStartNs);
+        gapMs = TimeUnit.NANOSECONDS.toMillis(longestGapNs);
+        repeated = repeatedFrames;
+        endSwitchLocked();
+        Logging.d(TAG, "Switched capturer in " + latencyMs + " ms, longest gap " + gapMs
+            + " ms, " + repeated + " frames repeated.");
+      } else {
+        if (input != activeInput) {
+          return;
+        }
+        sendInputFrameLocked(input, frame);
+        if (pendingInput == null) {
+          return;
+        }
+        completedListener = null;
+        latencyMs = 0;
+        gapMs = 0;
+        repeated = 0;
+      }
+    }
+    if (completedListener != null) {
+      completedListener.onSwitchCompleted(latencyMs, gapMs, repeated);
+      return;
+    }
+    // Switching: keep a copy of the frame to repeat. For texture frames this converts on the
+    // capture thread, which owns the texture.
+    final VideoFrame.I420Buffer copy = frame.getBuffer().toI420();
+    final SwitchListener heldListener;
+    synchronized (lock) {
+      if (pendingInput == null || activeInput != input) {
+        copy.release();
+        return;
+      }
+      releaseLastFrameCopyLocked();
+      lastFrameCopy = copy;
+      lastFrameRotation = frame.getRotation();
+      heldListener = isLastFrameHeld ? null : switchListener;
+      isLastFrameHeld = true;
+    }
+    if (heldListener != null) {
+      heldListener.onLastFrameHeld();
+    }
+  }
+
+  private void onLastFrameTimeout() {
+    final SwitchListener heldListener;
+    synchronized (lock) {
+      if (pendingInput == null || isDisposed || isLastFrameHeld) {
+        return;
+      }
+      Logging.w(TAG, "The active capturer sent no frame to hold.");
+      isLastFrameHeld = true;
+      heldListener = switchListener;
+    }
+    if (heldListener != null) {
+      heldListener.onLastFrameHeld();
+    }
+  }
+
+  private void onCrossoverTimeout() {
+    final SwitchListener failedListener;
+    synchronized (lock) {
+      if (pendingInput == null || isDisposed) {
+        return;
+      }
+      Logging.e(TAG, "The new capturer sent no frame.");
+      failedListener = switchListener;
+      endSwitchLocked();
+    }
+    if (failedListener != null) {
+      failedListener.onSwitchFailed(
+          "The new capturer sent no frame within " + CROSSOVER_TIMEOUT_MS + " ms.");
+    }
+  }
+
+  private void repeatLastFrame() {
+    synchronized (lock) {
+      if (pendingInput == null || isDisposed) {
+        return;
+      }
+      // Start repeating once a frame is a quarter interval late, so frames of a capturer that
+      // still sends are not duplicated, then repeat at the framerate.
+      long repeatAfterNs =
+          isLastSentRepeated ? frameIntervalNs : frameIntervalNs + frameIntervalNs / 4;
+      long nowNs = System.nanoTime();
+      if (lastFrameCopy != null && nowNs - lastSentNs >= repeatAfterNs) {
+        lastFrameCopy.retain();
+        // Continue the capture clock of the last sent frame.
+        final VideoFrame frame = new VideoFrame(
+            lastFrameCopy, lastFrameRotation, lastTimestampNs + (nowNs - lastSentNs));
+        sendFrameLocked(frame);
+        frame.release();
+        isLastSentRepeated = true;
+        ++repeatedFrames;
+        repeatAfterNs = frameIntervalNs;
+      }
+      final long delayNs = repeatAfterNs - Math.min(repeatAfterNs, nowNs - lastSentNs);
+      repeatHandler.postDelayed(
+          repeatFrameRunnable, Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNs)));
+    }
+  }
+
+  private void sendInputFrameLocked(Input input, VideoFrame frame) {
+    if (input.timestampOffsetNs == 0) {
+      sendFrameLocked(frame);
+      return;
+    }
+    frame.getBuffer().retain();
+    final VideoFrame rebasedFrame = new VideoFrame(frame.getBuffer(), frame.getRotation(),
+        frame.getTimestampNs() + input.timestampOffsetNs);
+    sendFrameLocked(rebasedFrame);
+    rebasedFrame.release();
+  }
+
+  private void sendFrameLocked(VideoFrame frame) {
+    final long nowNs = System.nanoTime();
+    isLastSentRepeated = false;
+    if (pendingInput != null && lastSentNs != 0) {
+      longestGapNs = Math.max(longestGapNs, nowNs - lastSentNs);
+    }
+    lastSentNs = nowNs;
+    lastTimestampNs = frame.getTimestampNs();
+    sourceObserver.onFrameCaptured(frame);
+  }
+
+  private void endSwitchLocked() {
+    pendingInput = null;
+    switchListener = null;
+    repeatHandler.removeCallbacks(repeatFrameRunnable);
+    repeatHandler.removeCallbacks(lastFrameTimeoutRunnable);
+    repeatHandler.removeCallbacks(crossoverTimeoutRunnable);
+    releaseLastFrameCopyLocked();
+  }
+
+  private void releaseLastFrameCopyLocked() {
+    if (lastFrameCopy != null) {
+      lastFrameCopy.release();
+      lastFrameCopy = null;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which incoming frames a {@link VideoCompositor} accepts and when it composites. Each
+ * stream has its own frame rate limit, derived from its tile in the layout; frames of invisible
+ * tiles are always dropped. Compositing happens when at least one stream has a new frame, at most
+ * at the composite frame rate. Times are passed in by the caller, so this class has no clock or
+ * Android dependencies. It is not thread safe.
+ */
+class CompositorFrameScheduler {
+  private static class StreamState {
+    // Minimum duration between accepted frames, or Long.MAX_VALUE to drop all frames.
+    long minFramePeriodNs;
+    long nextFrameTimeNs;
+    long droppedFrames;
+    long acceptedFrames;
+  }
+
+  private final long minCompositePeriodNs;
+  private final List<StreamState> streams = new ArrayList<>();
+  private boolean hasNewFrame;
+  private long nextCompositeTimeNs;
+
+  CompositorFrameScheduler(float maxCompositeFps) {
+    this.minCompositePeriodNs = periodNs(maxCompositeFps);
+  }
+
+  void addStream() {
+    streams.add(new StreamState());
+  }
+
+  void removeStream(int streamIndex) {
+    streams.remove(streamIndex);
+  }
+
+  int getStreamCount() {
+    return streams.size();
+  }
+
+  /**
+   * Sets the frame rate limits from a layout: |primaryFps| for the primary tile, |thumbnailFps|
+   * for the other visible tiles, nothing for invisible ones.
+   */
+  void applyLayout(List<CompositorLayout.Tile> tiles, float primaryFps, float thumbnailFps) {
+    for (CompositorLayout.Tile tile : tiles) {
+      final float fps = !tile.visible ? 0 : (tile.primary ? primaryFps : thumbnailFps);
+      setMaxFps(tile.streamIndex, fps);
+    }
+  }
+
+  /** Limits the frame rate of a stream. 0 drops all frames, infinity disables the limit. */
+  void setMaxFps(int streamIndex, float fps) {
+    final StreamState stream = streams.get(streamIndex);
+    stream.minFramePeriodNs = fps <= 0 ? Long.MAX_VALUE : periodNs(fps);
+  }
+
+  /**
+   * Called when a frame of the stream arrives. Returns true if the frame should be kept for the
+   * next composite, false if it should be dropped.
+   */
+  boolean onFrame(int streamIndex, long currentTimeNs) {
+    final StreamState stream = streams.get(streamIndex);
+    if (stream.minFramePeriodNs == Long.MAX_VALUE || currentTimeNs < stream.nextFrameTimeNs) {
+      ++stream.droppedFrames;
+      return false;
+    }
+    // The time for the next frame should always be in the future.
+    stream.nextFrameTimeNs =
+        Math.max(stream.nextFrameTimeNs + stream.minFramePeriodNs, currentTimeNs);
+    ++stream.acceptedFrames;
+    hasNewFrame = true;
+    return true;
+  }
+
+  /** Forces a composite without a new frame, e.g. after a layout or surface change. */
+  void invalidate() {
+    hasNewFrame = true;
+  }
+
+  /**
+   * Returns how long to wait before compositing: 0 if a composite is due now, Long.MAX_VALUE if
+   * there is nothing new to draw.
+   */
+  long getCompositeDelayNs(long currentTimeNs) {
+    if (!hasNewFrame) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, nextCompositeTimeNs - currentTimeNs);
+  }
+
+  /** Called after compositing. */
+  void onComposited(long currentTimeNs) {
+    hasNewFrame = false;
+    nextCompositeTimeNs = Math.max(nextCompositeTimeNs + minCompositePeriodNs, currentTimeNs);
+  }
+
+  long getDroppedFrames(int streamIndex) {
+    return streams.get(streamIndex).droppedFrames;
+  }
+
+  long getAcceptedFrames(int streamIndex) {
+    return streams.get(streamIndex).acceptedFrames;
+  }
+
+  private static long periodNs(float fps) {
+    return Float.isInfinite(fps) ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+  }
+}
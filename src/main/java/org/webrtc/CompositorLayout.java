@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes where each stream is drawn by a {@link VideoCompositor}. Coordinates have their origin
+ * in the top left corner of the surface. This class has no Android or GL dependencies.
+ */
+public class CompositorLayout {
+  /** Arrangement of the tiles. */
+  public enum Mode {
+    /** All streams in an equally sized grid. */
+    GRID,
+    /** The primary stream on top, the others in a row of thumbnails below it. */
+    ACTIVE_SPEAKER,
+    /** The primary stream fills the surface, the others are stacked on top in the bottom right. */
+    PIP
+  }
+
+  /** Position of one stream. Invisible tiles are not drawn and their frames can be dropped. */
+  public static class Tile {
+    public final int streamIndex;
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+    public final boolean primary;
+    public final boolean visible;
+
+    Tile(int streamIndex, int x, int y, int width, int height, boolean primary, boolean visible) {
+      this.streamIndex = streamIndex;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.primary = primary;
+      this.visible = visible;
+    }
+
+    static Tile hidden(int streamIndex) {
+      return new Tile(streamIndex, 0, 0, 0, 0, false /* primary */, false /* visible */);
+    }
+
+    boolean contains(Tile other) {
+      return x <= other.x && y <= other.y && x + width >= other.x + other.width
+          && y + height >= other.y + other.height;
+    }
+
+    @Override
+    public String toString() {
+      return "Tile " + streamIndex + (visible ? "" : " hidden") + (primary ? " primary" : "") + " ["
+          + x + ", " + y + ", " + width + "x" + height + "]";
+    }
+  }
+
+  // Fraction of the surface height used by the primary stream in ACTIVE_SPEAKER mode.
+  private static final float ACTIVE_SPEAKER_HEIGHT_FRACTION = 0.75f;
+  // Size of the PIP thumbnails relative to the surface.
+  private static final float PIP_SIZE_FRACTION = 0.25f;
+
+  private final Mode mode;
+  private final int gapPx;
+  private final int maxGridTiles;
+  private final int minTileSizePx;
+
+  /**
+   * @param mode arrangement of the tiles
+   * @param gapPx space between tiles
+   * @param maxGridTiles streams beyond this count are hidden in GRID mode
+   * @param minTileSizePx thumbnails are hidden rather than made narrower or lower than this
+   */
+  public CompositorLayout(Mode mode, int gapPx, int maxGridTiles, int minTileSizePx) {
+    this.mode = mode;
+    this.gapPx = gapPx;
+    this.maxGridTiles = maxGridTiles;
+    this.minTileSizePx = minTileSizePx;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns one tile per stream, in drawing order; tiles later in the list are drawn on top. A
+   * tile is invisible if it does not fit on the surface or is completely covered by a tile drawn
+   * after it.
+   *
+   * @param primaryIndex index of the active speaker, ignored in GRID mode
+   */
+  public List<Tile> compute(
+      int surfaceWidth, int surfaceHeight, int streamCount, int primaryIndex) {
+    final List<Tile> tiles = new ArrayList<>(streamCount);
+    if (streamCount <= 0) {
+      return tiles;
+    }
+    if (primaryIndex < 0 || primaryIndex >= streamCount) {
+      primaryIndex = 0;
+    }
+    switch (mode) {
+      case GRID:
+        computeGrid(surfaceWidth, surfaceHeight, streamCount, tiles);
+        break;
+      case ACTIVE_SPEAKER:
+        computeActiveSpeaker(surfaceWidth, surfaceHeight, streamCount, primaryIndex, tiles);
+        break;
+      case PIP:
+        computePip(surfaceWidth, surfaceHeight, streamCount, primaryIndex, tiles);
+        break;
+    }
+    return hideOccludedTiles(surfaceWidth, surfaceHeight, tiles);
+  }
+
+  private void computeGrid(int surfaceWidth, int surfaceHeight, int streamCount, List<Tile> out) {
+    final int shownCount = Math.min(streamCount, Math.max(1, maxGridTiles));
+    final int columns = (int) Math.ceil(Math.sqrt(shownCount));
+    final int rows = (shownCount + columns - 1) / columns;
+    final int tileWidth = (surfaceWidth - gapPx * (columns - 1)) / columns;
+    final int tileHeight = (surfaceHeight - gapPx * (rows - 1)) / rows;
+    for (int i = 0; i < streamCount; ++i) {
+      if (i >= shownCount) {
+        out.add(Tile.hidden(i));
+        continue;
+      }
+      final int column = i % columns;
+      final int row = i / columns;
+      out.add(new Tile(i, column * (tileWidth + gapPx), row * (tileHeight + gapPx), tileWidth,
+          tileHeight, false /* primary */, true /* visible */));
+    }
+  }
+
+  private void computeActiveSpeaker(int surfaceWidth, int surfaceHeight, int streamCount,
+      int primaryIndex, List<Tile> out) {
+    final int thumbnailCount = streamCount - 1;
+    final int primaryHeight = thumbnailCount == 0
+        ? surfaceHeight
+        : (int) (surfaceHeight * ACTIVE_SPEAKER_HEIGHT_FRACTION);
+    final int stripY = primaryHeight + gapPx;
+    final int stripHeight = surfaceHeight - stripY;
+    // Show as many thumbnails as fit at the minimum width.
+    final int maxThumbnails =
+        Math.max(0, (surfaceWidth + gapPx) / Math.max(1, minTileSizePx + gapPx));
+    final int shownThumbnails =
+        stripHeight < minTileSizePx ? 0 : Math.min(thumbnailCount, maxThumbnails);
+    final int thumbnailWidth = shownThumbnails == 0
+        ? 0
+        : (surfaceWidth - gapPx * (shownThumbnails - 1)) / shownThumbnails;
+
+    int thumbnail = 0;
+    for (int i = 0; i < streamCount; ++i) {
+      if (i == primaryIndex) {
+        out.add(new Tile(
+            i, 0, 0, surfaceWidth, primaryHeight, true /* primary */, true /* visible */));
+      } else if (thumbnail < shownThumbnails) {
+        out.add(new Tile(i, thumbnail * (thumbnailWidth + gapPx), stripY, thumbnailWidth,
+            stripHeight, false /* primary */, true /* visible */));
+        ++thumbnail;
+      } else {
+        out.add(Tile.hidden(i));
+      }
+    }
+  }
+
+  private void computePip(int surfaceWidth, int surfaceHeight, int streamCount, int primaryIndex,
+      List<Tile> out) {
+    final int pipWidth = (int) (surfaceWidth * PIP_SIZE_FRACTION);
+    final int pipHeight = (int) (surfaceHeight * PIP_SIZE_FRACTION);
+    final boolean pipsShown = pipWidth >= minTileSizePx && pipHeight >= minTileSizePx;
+    // The primary stream is drawn first so that the thumbnails are on top of it.
+    out.add(new Tile(primaryIndex, 0, 0, surfaceWidth, surfaceHeight, true /* primary */,
+        true /* visible */));
+    int pipY = surfaceHeight - gapPx - pipHeight;
+    for (int i = 0; i < streamCount; ++i) {
+      if (i == primaryIndex) {
+        continue;
+      }
+      if (!pipsShown || pipY < gapPx) {
+        out.add(Tile.hidden(i));
+        continue;
+      }
+      out.add(new Tile(i, surfaceWidth - gapPx - pipWidth, pipY, pipWidth, pipHeight,
+          false /* primary */, true /* visible */));
+      pipY -= pipHeight + gapPx;
+    }
+  }
+
+  private static List<Tile> hideOccludedTiles(
+      int surfaceWidth, int surfaceHeight, List<Tile> tiles) {
+    final List<Tile> result = new ArrayList<>(tiles.size());
+    for (int i = 0; i < tiles.size(); ++i) {
+      final Tile tile = tiles.get(i);
+      boolean visible = tile.visible && tile.width > 0 && tile.height > 0 && tile.x < surfaceWidth
+          && tile.y < surfaceHeight && tile.x + tile.width > 0 && tile.y + tile.height > 0;
+      for (int j = i + 1; visible && j < tiles.size(); ++j) {
+        final Tile above = tiles.get(j);
+        if (above.visible && above.contains(tile)) {
+          visible = false;
+        }
+      }
+      result.add(visible ? tile : Tile.hidden(tile.streamIndex));
+    }
+    return result;
+  }
+}
@@ -28,7 +28,7 @@ public class DefaultVideoEncoderFactory implements VideoEncoderFactory {
   }
 
   /** Create encoder factory using explicit hardware encoder factory. */
-  DefaultVideoEncoderFactory(VideoEncoderFactory hardwareVideoEncoderFactory) {
+  public DefaultVideoEncoderFactory(VideoEncoderFactory hardwareVideoEncoderFactory) {
     this.hardwareVideoEncoderFactory = hardwareVideoEncoderFactory;
   }
 
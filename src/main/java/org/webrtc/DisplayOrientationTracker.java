@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.view.Display;
+
+/**
+ * Caches the rotation of the default display, as returned by
+ * {@link CameraSession#getDeviceOrientation}, and updates it from display change events. Camera
+ * sessions read it for every frame, which would otherwise query the WindowManager per frame.
+ * Display events also cover 180 degree rotations, which do not cause a configuration change.
+ */
+class DisplayOrientationTracker {
+  private static final String TAG = "DisplayOrientationTracker";
+
+  private final Context applicationContext;
+  private final Handler handler;
+  private final DisplayManager displayManager;
+  private volatile int orientation;
+  private boolean started;
+
+  private final DisplayManager.DisplayListener displayListener =
+      new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {}
+
+        @Override
+        public void onDisplayRemoved(int displayId) {}
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+          if (displayId == Display.DEFAULT_DISPLAY) {
+            update();
+          }
+        }
+      };
+
+  /** Display events are delivered on |handler|. */
+  DisplayOrientationTracker(Context applicationContext, Handler handler) {
+    this.applicationContext = applicationContext;
+    this.handler = handler;
+    this.displayManager =
+        (DisplayManager) applicationContext.getSystemService(Context.DISPLAY_SERVICE);
+  }
+
+  void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    displayManager.registerDisplayListener(displayListener, handler);
+    update();
+  }
+
+  void stop() {
+    if (!started) {
+      return;
+    }
+    started = false;
+    displayManager.unregisterDisplayListener(displayListener);
+  }
+
+  /** Returns the display rotation in degrees. */
+  int getOrientation() {
+    return orientation;
+  }
+
+  private void update() {
+    final int newOrientation = CameraSession.getDeviceOrientation(applicationContext);
+    if (newOrientation != orientation) {
+      Logging.d(TAG, "Display orientation: " + newOrientation);
+      orientation = newOrientation;
+    }
+  }
+}
@@ -37,6 +37,15 @@ public class EglRenderer implements VideoSink {
 
   public interface FrameListener { void onFrame(Bitmap frame); }
 
+  /** Continuous frame callback that receives pooled RGBA frames. */
+  public interface RgbaFrameListener {
+    /**
+     * Called on the render thread. The listener owns |frame| and must call release() on it once it
+     * is done, which may be on another thread. Until then the frame is not reused.
+     */
+    void onFrame(RgbaFrame frame);
+  }
+
   /** Callback for clients to be notified about errors encountered during rendering. */
   public static interface ErrorCallback {
     /** Called if GLES20.GL_OUT_OF_MEMORY is encountered during rendering. */
@@ -58,6 +67,42 @@ public class EglRenderer implements VideoSink {
     }
   }
 
+  private static class RgbaFrameListenerAndParams {
+    public final RgbaFrameListener listener;
+    public final float scale;
+    public final RgbaFramePool framePool;
+    // Minimum duration between delivered frames, or 0 if the listener is not rate limited.
+    public final long minFramePeriodNs;
+    // Time for when the next frame may be delivered.
+    public long nextFrameTimeNs;
+    // Frames not delivered since the last delivered frame.
+    public int skippedFrames;
+
+    public RgbaFrameListenerAndParams(
+        RgbaFrameListener listener, float scale, float maxFps, int poolSize, boolean createBitmap) {
+      this.listener = listener;
+      this.scale = scale;
+      this.framePool = new RgbaFramePool(poolSize, createBitmap);
+      this.minFramePeriodNs = maxFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxFps) : 0;
+    }
+
+    /** Returns true if the rate limit allows a frame at |currentTimeNs|. */
+    public boolean isFrameDue(long currentTimeNs) {
+      return minFramePeriodNs <= 0 || currentTimeNs >= nextFrameTimeNs;
+    }
+
+    /**
+     * Starts the next rate limit period. Only called for delivered frames, so a frame skipped for
+     * lack of a pooled frame does not use up its slot.
+     */
+    public void onFrameDelivered(long currentTimeNs) {
+      if (minFramePeriodNs > 0) {
+        // The time for the next frame should always be in the future.
+        nextFrameTimeNs = Math.max(nextFrameTimeNs + minFramePeriodNs, currentTimeNs);
+      }
+    }
+  }
+
   private class EglSurfaceCreation implements Runnable {
     private Object surface;
 
@@ -117,6 +162,7 @@ public class EglRenderer implements VideoSink {
   @Nullable private Handler renderThreadHandler;
 
   private final ArrayList<FrameListenerAndParams> frameListeners = new ArrayList<>();
+  private final ArrayList<RgbaFrameListenerAndParams> rgbaFrameListeners = new ArrayList<>();
 
   private volatile ErrorCallback errorCallback;
 
@@ -167,6 +213,9 @@ public class EglRenderer implements VideoSink {
   // Used for bitmap capturing.
   private final GlTextureFrameBuffer bitmapTextureFramebuffer =
       new GlTextureFrameBuffer(GLES20.GL_RGBA);
+  // Readback buffer for FrameListeners, reused across frames and grown as needed. Only accessed
+  // from the render thread.
+  @Nullable private ByteBuffer bitmapBuffer;
 
   private final Runnable logStatisticsRunnable = new Runnable() {
     @Override
@@ -304,6 +353,11 @@ public class EglRenderer implements VideoSink {
           eglBase = null;
         }
         frameListeners.clear();
+        for (RgbaFrameListenerAndParams listenerAndParams : rgbaFrameListeners) {
+          listenerAndParams.framePool.dispose();
+        }
+        rgbaFrameListeners.clear();
+        bitmapBuffer = null;
         eglCleanupBarrier.countDown();
       });
       final Looper renderLooper = renderThreadHandler.getLooper();
@@ -493,6 +547,55 @@ public class EglRenderer implements VideoSink {
     ThreadUtils.awaitUninterruptibly(latch);
   }
 
+  /**
+   * Register a listener that receives every frame as RGBA pixels until it is removed. Unlike
+   * FrameListener, the pixels are read into a pool of |poolSize| reusable frames. A frame is
+   * skipped for this listener if it arrives sooner than 1 / |maxFps| after the previously
+   * delivered one, or if the listener still holds all pooled frames; RgbaFrame.getSkippedFrames()
+   * reports how many frames were skipped.
+   *
+   * @param listener     The callback to be invoked on the render thread.
+   * @param scale        The scale of the delivered frames relative to the rotated video frame.
+   * @param maxFps       Maximum delivery rate, or 0 to deliver every frame.
+   * @param poolSize     Maximum number of frames the listener may hold at the same time.
+   * @param createBitmap Whether to also copy the pixels into a pooled Bitmap.
+   */
+  public void addRgbaFrameListener(final RgbaFrameListener listener, final float scale,
+      final float maxFps, final int poolSize, final boolean createBitmap) {
+    final RgbaFrameListenerAndParams listenerAndParams =
+        new RgbaFrameListenerAndParams(listener, scale, maxFps, poolSize, createBitmap);
+    postToRenderThread(() -> rgbaFrameListeners.add(listenerAndParams));
+  }
+
+  /**
+   * Remove a listener added with addRgbaFrameListener. It is ensured that the listener won't be
+   * called after this method returns. Frames it still holds remain valid until released.
+   */
+  public void removeRgbaFrameListener(final RgbaFrameListener listener) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    synchronized (handlerLock) {
+      if (renderThreadHandler == null) {
+        return;
+      }
+      if (Thread.currentThread() == renderThreadHandler.getLooper().getThread()) {
+        throw new RuntimeException(
+            "removeRgbaFrameListener must not be called on the render thread.");
+      }
+      postToRenderThread(() -> {
+        latch.countDown();
+        final Iterator<RgbaFrameListenerAndParams> iter = rgbaFrameListeners.iterator();
+        while (iter.hasNext()) {
+          final RgbaFrameListenerAndParams listenerAndParams = iter.next();
+          if (listenerAndParams.listener == listener) {
+            listenerAndParams.framePool.dispose();
+            iter.remove();
+          }
+        }
+      });
+    }
+    ThreadUtils.awaitUninterruptibly(latch);
+  }
+
   /** Can be set in order to be notified about errors encountered during rendering. */
   public void setErrorCallback(ErrorCallback errorCallback) {
     this.errorCallback = errorCallback;
@@ -696,7 +799,7 @@ public class EglRenderer implements VideoSink {
   }
 
   private void notifyCallbacks(VideoFrame frame, boolean wasRendered) {
-    if (frameListeners.isEmpty())
+    if (frameListeners.isEmpty() && rgbaFrameListeners.isEmpty())
       return;
 
     drawMatrix.reset();
@@ -721,29 +824,73 @@ public class EglRenderer implements VideoSink {
         continue;
       }
 
-      bitmapTextureFramebuffer.setSize(scaledWidth, scaledHeight);
-
-      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, bitmapTextureFramebuffer.getFrameBufferId());
-      GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-          GLES20.GL_TEXTURE_2D, bitmapTextureFramebuffer.getTextureId(), 0);
-
-      GLES20.glClearColor(0 /* red */, 0 /* green */, 0 /* blue */, 0 /* alpha */);
-      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-      frameDrawer.drawFrame(frame, listenerAndParams.drawer, drawMatrix, 0 /* viewportX */,
-          0 /* viewportY */, scaledWidth, scaledHeight);
-
-      final ByteBuffer bitmapBuffer = ByteBuffer.allocateDirect(scaledWidth * scaledHeight * 4);
-      GLES20.glViewport(0, 0, scaledWidth, scaledHeight);
-      GLES20.glReadPixels(
-          0, 0, scaledWidth, scaledHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, bitmapBuffer);
-
-      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-      GlUtil.checkNoGLES2Error("EglRenderer.notifyCallbacks");
+      final int size = scaledWidth * scaledHeight * 4;
+      if (bitmapBuffer == null || bitmapBuffer.capacity() < size) {
+        bitmapBuffer = ByteBuffer.allocateDirect(size);
+      }
+      bitmapBuffer.clear();
+      bitmapBuffer.limit(size);
+      readPixels(frame, listenerAndParams.drawer, scaledWidth, scaledHeight, bitmapBuffer);
 
       final Bitmap bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
       bitmap.copyPixelsFromBuffer(bitmapBuffer);
       listenerAndParams.listener.onFrame(bitmap);
     }
+
+    final long currentTimeNs = System.nanoTime();
+    for (RgbaFrameListenerAndParams listenerAndParams : rgbaFrameListeners) {
+      if (!listenerAndParams.isFrameDue(currentTimeNs)) {
+        ++listenerAndParams.skippedFrames;
+        continue;
+      }
+      final int scaledWidth = (int) (listenerAndParams.scale * frame.getRotatedWidth());
+      final int scaledHeight = (int) (listenerAndParams.scale * frame.getRotatedHeight());
+      if (scaledWidth == 0 || scaledHeight == 0) {
+        continue;
+      }
+      final RgbaFrame rgbaFrame = listenerAndParams.framePool.acquire(scaledWidth, scaledHeight);
+      if (rgbaFrame == null) {
+        logD("Skipping RGBA frame - listener holds all pooled frames.");
+        ++listenerAndParams.skippedFrames;
+        continue;
+      }
+
+      final ByteBuffer buffer = rgbaFrame.getBuffer();
+      buffer.clear();
+      readPixels(frame, drawer, scaledWidth, scaledHeight, buffer);
+      final Bitmap bitmap = rgbaFrame.getBitmap();
+      if (bitmap != null) {
+        bitmap.copyPixelsFromBuffer(buffer);
+        buffer.rewind();
+      }
+      rgbaFrame.setFrameInfo(frame.getTimestampNs(), listenerAndParams.skippedFrames);
+      listenerAndParams.skippedFrames = 0;
+      listenerAndParams.onFrameDelivered(currentTimeNs);
+      listenerAndParams.listener.onFrame(rgbaFrame);
+    }
+  }
+
+  // Draws |frame| with the current |drawMatrix| into |bitmapTextureFramebuffer| and reads the
+  // result into |buffer|.
+  private void readPixels(VideoFrame frame, RendererCommon.GlDrawer frameDrawerParam,
+      int scaledWidth, int scaledHeight, ByteBuffer buffer) {
+    bitmapTextureFramebuffer.setSize(scaledWidth, scaledHeight);
+
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, bitmapTextureFramebuffer.getFrameBufferId());
+    GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+        GLES20.GL_TEXTURE_2D, bitmapTextureFramebuffer.getTextureId(), 0);
+
+    GLES20.glClearColor(0 /* red */, 0 /* green */, 0 /* blue */, 0 /* alpha */);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    frameDrawer.drawFrame(frame, frameDrawerParam, drawMatrix, 0 /* viewportX */,
+        0 /* viewportY */, scaledWidth, scaledHeight);
+
+    GLES20.glViewport(0, 0, scaledWidth, scaledHeight);
+    GLES20.glReadPixels(
+        0, 0, scaledWidth, scaledHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
+
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    GlUtil.checkNoGLES2Error("EglRenderer.notifyCallbacks");
   }
 
   private String averageTimeAsString(long sumTimeNs, int count) {
@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.SystemClock;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how well a hardware encoder performs on this device by encoding a short synthetic
+ * sequence in byte buffer mode. The encoder is driven through a {@link MediaCodecWrapperFactory}
+ * and time is read from a {@link Clock}, so the calibration can run against a fake codec on a
+ * fake clock in tests.
+ */
+public class EncoderCalibrator {
+  private static final String TAG = "EncoderCalibrator";
+
+  // Bitrate modes - should be in sync with OMX_VIDEO_CONTROLRATETYPE defined in OMX_Video.h.
+  private static final int VIDEO_ControlRateConstant = 2;
+  private static final String KEY_BITRATE_MODE = "bitrate-mode";
+
+  private static final int DEQUEUE_TIMEOUT_US = 10000;
+  // The calibration ends when the codec neither takes input nor produces output for this long,
+  // which also bounds the wait for the remaining output after the last input frame.
+  private static final long STALL_TIMEOUT_MS = 1000;
+
+  /** Monotonic time source. */
+  interface Clock {
+    long elapsedRealtimeMs();
+  }
+
+  /** Outcome of a calibration run. */
+  public static class Result {
+    public final String codecName;
+    public final VideoCodecType codecType;
+    public final boolean succeeded;
+    // Encoded frames per second divided by the target frame rate.
+    public final double throughputRatio;
+    // 1 when the output bitrate matches the target, going down to 0 at 100% deviation.
+    public final double bitrateAccuracy;
+
+    Result(String codecName, VideoCodecType codecType, boolean succeeded, double throughputRatio,
+        double bitrateAccuracy) {
+      this.codecName = codecName;
+      this.codecType = codecType;
+      this.succeeded = succeeded;
+      this.throughputRatio = throughputRatio;
+      this.bitrateAccuracy = bitrateAccuracy;
+    }
+
+    static Result failed(String codecName, VideoCodecType codecType) {
+      return new Result(codecName, codecType, false, 0, 0);
+    }
+
+    @Override
+    public String toString() {
+      return codecType + "/" + codecName + (succeeded ? "" : " FAILED")
+          + " throughput: " + throughputRatio + " bitrate accuracy: " + bitrateAccuracy;
+    }
+  }
+
+  private final MediaCodecWrapperFactory mediaCodecWrapperFactory;
+  private final Clock clock;
+  private final int width;
+  private final int height;
+  private final int framerate;
+  private final int bitrateBps;
+  private final int frameCount;
+
+  /**
+   * @param width width of the calibration frames, should match the expected capture resolution
+   * @param height height of the calibration frames
+   * @param framerate target frame rate; throughput is measured relative to it
+   * @param bitrateBps target bitrate; bitrate accuracy is measured relative to it
+   * @param frameCount number of frames to encode
+   */
+  public EncoderCalibrator(
+      int width, int height, int framerate, int bitrateBps, int frameCount) {
+    this(new MediaCodecWrapperFactoryImpl(), new Clock() {
+      @Override
+      public long elapsedRealtimeMs() {
+        return SystemClock.elapsedRealtime();
+      }
+    }, width, height, framerate, bitrateBps, frameCount);
+  }
+
+  EncoderCalibrator(MediaCodecWrapperFactory mediaCodecWrapperFactory, Clock clock, int width,
+      int height, int framerate, int bitrateBps, int frameCount) {
+    this.mediaCodecWrapperFactory = mediaCodecWrapperFactory;
+    this.clock = clock;
+    this.width = width;
+    this.height = height;
+    this.framerate = framerate;
+    this.bitrateBps = bitrateBps;
+    this.frameCount = frameCount;
+  }
+
+  /**
+   * Runs the calibration. Blocks for roughly |frameCount| frame encode times and must not be called
+   * on a thread that is rendering or encoding.
+   */
+  public Result calibrate(String codecName, VideoCodecType codecType, int yuvColorFormat) {
+    MediaCodecWrapper codec;
+    try {
+      codec = mediaCodecWrapperFactory.createByCodecName(codecName);
+    } catch (IOException | IllegalArgumentException e) {
+      Logging.e(TAG, "Cannot create media encoder " + codecName);
+      return Result.failed(codecName, codecType);
+    }
+
+    try {
+      codec.configure(createFormat(codecType, yuvColorFormat), null /* surface */,
+          null /* crypto */, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      codec.start();
+      return runCalibration(codec, codecName, codecType);
+    } catch (IllegalStateException e) {
+      Logging.e(TAG, "Calibration of " + codecName + " failed", e);
+      return Result.failed(codecName, codecType);
+    } finally {
+      try {
+        codec.stop();
+      } catch (Exception e) {
+        Logging.e(TAG, "Media encoder stop failed", e);
+      }
+      codec.release();
+    }
+  }
+
+  // Overridden in JVM tests, where MediaFormat is a stub.
+  MediaFormat createFormat(VideoCodecType codecType, int yuvColorFormat) {
+    MediaFormat format = MediaFormat.createVideoFormat(codecType.mimeType(), width, height);
+    format.setInteger(MediaFormat.KEY_BIT_RATE, bitrateBps);
+    format.setInteger(KEY_BITRATE_MODE, VIDEO_ControlRateConstant);
+    format.setInteger(MediaFormat.KEY_COLOR_FORMAT, yuvColorFormat);
+    format.setInteger(MediaFormat.KEY_FRAME_RATE, framerate);
+    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+    return format;
+  }
+
+  private Result runCalibration(
+      MediaCodecWrapper codec, String codecName, VideoCodecType codecType) {
+    final int frameSize = width * height * 3 / 2;
+    final long frameIntervalUs = TimeUnit.SECONDS.toMicros(1) / framerate;
+    final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    final ByteBuffer[] inputBuffers = codec.getInputBuffers();
+
+    int queuedFrames = 0;
+    int encodedFrames = 0;
+    long encodedBytes = 0;
+    final long startTimeMs = clock.elapsedRealtimeMs();
+    long lastProgressMs = startTimeMs;
+
+    while (encodedFrames < frameCount
+        && clock.elapsedRealtimeMs() - lastProgressMs < STALL_TIMEOUT_MS) {
+      if (queuedFrames < frameCount) {
+        int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+        if (inputIndex >= 0) {
+          fillSyntheticFrame(inputBuffers[inputIndex], queuedFrames, frameSize);
+          codec.queueInputBuffer(
+              inputIndex, 0 /* offset */, frameSize, queuedFrames * frameIntervalUs, 0 /* flags */);
+          ++queuedFrames;
+          lastProgressMs = clock.elapsedRealtimeMs();
+        }
+      }
+
+      // Only the output sizes are needed, so the output buffers themselves are never read.
+      final long outputTimeoutUs = queuedFrames < frameCount ? 0 : DEQUEUE_TIMEOUT_US;
+      int outputIndex = codec.dequeueOutputBuffer(info, outputTimeoutUs);
+      if (outputIndex >= 0) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+          ++encodedFrames;
+          encodedBytes += info.size;
+        }
+        codec.releaseOutputBuffer(outputIndex, false /* render */);
+        lastProgressMs = clock.elapsedRealtimeMs();
+      }
+    }
+
+    final long elapsedMs = Math.max(1, clock.elapsedRealtimeMs() - startTimeMs);
+    if (encodedFrames == 0) {
+      Logging.e(TAG, codecName + " produced no output during calibration");
+      return Result.failed(codecName, codecType);
+    }
+
+    final double encodedFps = encodedFrames * 1000.0 / elapsedMs;
+    // Bitrate is derived from the content duration, not the wall clock time, so that a fast
+    // encoder is not credited with a low bitrate.
+    final double outputBitrateBps = encodedBytes * 8.0 * framerate / encodedFrames;
+    final double bitrateError = Math.abs(outputBitrateBps - bitrateBps) / bitrateBps;
+    Logging.d(TAG,
+        codecName + " encoded " + encodedFrames + "/" + frameCount + " frames in " + elapsedMs
+            + " ms. Output bitrate: " + (int) outputBitrateBps + " bps.");
+    return new Result(codecName, codecType, true, encodedFps / framerate,
+        1.0 - Math.min(1.0, bitrateError));
+  }
+
+  // Fills the frame with a diagonal gradient that moves every frame, so that the encoder has to
+  // spend bits on both intra and inter prediction. Chroma is left flat.
+  private void fillSyntheticFrame(ByteBuffer buffer, int frameIndex, int frameSize) {
+    buffer.clear();
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        buffer.put((byte) (x + y + frameIndex * 4));
+      }
+    }
+    while (buffer.position() < frameSize) {
+      buffer.put((byte) 128);
+    }
+    buffer.flip();
+  }
+}
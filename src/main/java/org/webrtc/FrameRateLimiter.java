@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Decimates captured frames to a maximum framerate by their timestamps. Output frames are kept on
+ * a grid of the target interval rather than spaced at least one interval apart, so that e.g. 30
+ * fps input limited to 20 fps yields 20 fps instead of 15 fps, and timestamp jitter of up to a
+ * quarter of the target interval does not cause extra drops. The grid is restarted after gaps and
+ * when timestamps jump backwards. Thread safe.
+ */
+class FrameRateLimiter {
+  private long intervalNs; // 0 if not limited.
+  private long nextFrameNs = -1;
+  private long framesDropped;
+
+  /** Limits the output to |maxFps| frames per second; 0 disables the limit. */
+  synchronized void setMaxFramerate(int maxFps) {
+    if (maxFps < 0) {
+      throw new IllegalArgumentException("maxFps must not be negative: " + maxFps);
+    }
+    intervalNs = maxFps == 0 ? 0 : 1000000000L / maxFps;
+    nextFrameNs = -1;
+  }
+
+  /** Restarts the grid, e.g. when the capturer restarts. */
+  synchronized void reset() {
+    nextFrameNs = -1;
+  }
+
+  /** Returns true if the frame with |timestampNs| should be passed on. */
+  synchronized boolean shouldPassFrame(long timestampNs) {
+    if (intervalNs == 0) {
+      return true;
+    }
+    if (nextFrameNs >= 0 && timestampNs < nextFrameNs - intervalNs / 4) {
+      // Too early, unless the timestamps jumped backwards.
+      if (timestampNs >= nextFrameNs - 2 * intervalNs) {
+        ++framesDropped;
+        return false;
+      }
+      nextFrameNs = -1;
+    }
+    if (nextFrameNs < 0 || timestampNs - nextFrameNs >= intervalNs) {
+      // First frame or the input fell more than an interval behind the grid: restart it here.
+      nextFrameNs = timestampNs;
+    }
+    nextFrameNs += intervalNs;
+    return true;
+  }
+
+  synchronized long getFramesDropped() {
+    return framesDropped;
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranks the hardware encoders available on this device. Encoders are scored by an on-device
+ * calibration run (see {@link EncoderCalibrator}) and demoted at runtime when they repeatedly fail
+ * or exceed the encode latency budget. Demoted encoders are skipped by
+ * {@link HardwareVideoEncoderFactory}, which makes WebRTC fall back to the next candidate or to the
+ * software encoder. Scores and demotions are persisted through a {@link Storage}.
+ *
+ * <p>A demotion expires after demotionExpiryMs, so an encoder that failed in one session, e.g.
+ * under memory pressure or before a driver update, is tried again in a later session; if it still
+ * fails it is demoted again. A new calibration result clears a demotion right away.
+ *
+ * <p>This class is thread safe. Encoded frames are reported under the lock of their encoder's
+ * entry only, so the encoders of concurrent calls do not contend.
+ */
+public class HardwareEncoderRanking {
+  private static final String TAG = "HardwareEncoderRanking";
+
+  private static final int DEFAULT_MAX_CONSECUTIVE_ERRORS = 3;
+  private static final int DEFAULT_MAX_SLOW_FRAMES = 30;
+  private static final int DEFAULT_LATENCY_BUDGET_MS = 200;
+  private static final long DEFAULT_DEMOTION_EXPIRY_MS = TimeUnit.DAYS.toMillis(1);
+
+  // Weights of the calibration results in the final score.
+  private static final double THROUGHPUT_WEIGHT = 0.6;
+  private static final double BITRATE_ACCURACY_WEIGHT = 0.4;
+
+  // Score assumed for encoders that were never calibrated. Calibrated encoders that keep up with
+  // the target frame rate and hit the target bitrate score higher than this.
+  private static final double UNCALIBRATED_SCORE = 0.5;
+
+  /** Wall clock, since demotion times are persisted across reboots. */
+  interface Clock {
+    long currentTimeMillis();
+  }
+
+  /** Persistent storage for the ranking. */
+  public interface Storage {
+    /** Returns the previously saved ranking, or null if nothing has been saved. */
+    @Nullable String load();
+
+    void save(String serializedRanking);
+  }
+
+  /** Storage that keeps the ranking in memory only. */
+  public static class InMemoryStorage implements Storage {
+    @Nullable private String serializedRanking;
+
+    @Override
+    @Nullable
+    public synchronized String load() {
+      return serializedRanking;
+    }
+
+    @Override
+    public synchronized void save(String serializedRanking) {
+      this.serializedRanking = serializedRanking;
+    }
+  }
+
+  /** Creates a storage that keeps the ranking under the given key in shared preferences. */
+  public static Storage createSharedPreferencesStorage(
+      final SharedPreferences preferences, final String key) {
+    return new Storage() {
+      @Override
+      @Nullable
+      public String load() {
+        return preferences.getString(key, null);
+      }
+
+      @Override
+      public void save(String serializedRanking) {
+        preferences.edit().putString(key, serializedRanking).apply();
+      }
+    };
+  }
+
+  /** Calibration and runtime state of a single encoder. */
+  public static class Entry {
+    public final String codecName;
+    public final VideoCodecType codecType;
+    // Calibration score in the range [0, 1], or a negative value if not calibrated.
+    private double score = -1;
+    private boolean demoted;
+    // Wall clock time of the demotion.
+    private long demotedAtMs;
+    private int consecutiveErrors;
+    private int consecutiveSlowFrames;
+
+    Entry(String codecName, VideoCodecType codecType) {
+      this.codecName = codecName;
+      this.codecType = codecType;
+    }
+
+    public synchronized double getScore() {
+      return score;
+    }
+
+    public synchronized boolean isCalibrated() {
+      return score >= 0;
+    }
+
+    public synchronized boolean isDemoted() {
+      return demoted;
+    }
+
+    synchronized double getEffectiveScore() {
+      return score >= 0 ? score : UNCALIBRATED_SCORE;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return codecType + "/" + codecName + " score: " + score + " demoted: " + demoted;
+    }
+  }
+
+  private final Storage storage;
+  private final int maxConsecutiveErrors;
+  private final int maxSlowFrames;
+  private final long latencyBudgetMs;
+  private final long demotionExpiryMs;
+  private final Clock clock;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  // Serializes saving, so an older snapshot never overwrites a newer one.
+  private final Object saveLock = new Object();
+
+  public HardwareEncoderRanking(Storage storage) {
+    this(storage, DEFAULT_MAX_CONSECUTIVE_ERRORS, DEFAULT_MAX_SLOW_FRAMES,
+        DEFAULT_LATENCY_BUDGET_MS, DEFAULT_DEMOTION_EXPIRY_MS);
+  }
+
+  /**
+   * @param storage where scores and demotions are persisted
+   * @param maxConsecutiveErrors number of consecutive encode errors that demotes an encoder
+   * @param maxSlowFrames number of consecutive frames over the latency budget that demotes an
+   *     encoder
+   * @param latencyBudgetMs maximum time between queueing a frame and receiving its output
+   * @param demotionExpiryMs time after which a demoted encoder is tried again
+   */
+  public HardwareEncoderRanking(Storage storage, int maxConsecutiveErrors, int maxSlowFrames,
+      long latencyBudgetMs, long demotionExpiryMs) {
+    this(storage, maxConsecutiveErrors, maxSlowFrames, latencyBudgetMs, demotionExpiryMs,
+        new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return System.currentTimeMillis();
+          }
+        });
+  }
+
+  HardwareEncoderRanking(Storage storage, int maxConsecutiveErrors, int maxSlowFrames,
+      long latencyBudgetMs, long demotionExpiryMs, Clock clock) {
+    this.storage = storage;
+    this.maxConsecutiveErrors = maxConsecutiveErrors;
+    this.maxSlowFrames = maxSlowFrames;
+    this.latencyBudgetMs = latencyBudgetMs;
+    this.demotionExpiryMs = demotionExpiryMs;
+    this.clock = clock;
+    load();
+  }
+
+  /**
+   * Returns the best candidate that has not been demoted, or null if all of them are. Candidates
+   * with equal scores keep their relative order, so uncalibrated devices keep the platform order.
+   */
+  @Nullable
+  public String selectEncoder(VideoCodecType type, List<String> candidateNames) {
+    String best = null;
+    double bestScore = -1;
+    boolean expired = false;
+    final long nowMs = clock.currentTimeMillis();
+    for (String name : candidateNames) {
+      Entry entry = getOrCreateEntry(name, type);
+      synchronized (entry) {
+        if (entry.demoted && nowMs - entry.demotedAtMs >= demotionExpiryMs) {
+          Logging.d(TAG, "Demotion of " + type + " encoder " + name + " expired.");
+          entry.demoted = false;
+          expired = true;
+        }
+        if (entry.demoted) {
+          continue;
+        }
+      }
+      if (entry.getEffectiveScore() > bestScore) {
+        best = name;
+        bestScore = entry.getEffectiveScore();
+      }
+    }
+    if (expired) {
+      save();
+    }
+    if (best == null && !candidateNames.isEmpty()) {
+      Logging.w(TAG, "All " + type + " hardware encoders are demoted.");
+    }
+    return best;
+  }
+
+  /** Stores the outcome of a calibration run. Failed calibrations demote the encoder. */
+  public void reportCalibration(EncoderCalibrator.Result result) {
+    Logging.d(TAG, "Calibration result: " + result);
+    Entry entry = getOrCreateEntry(result.codecName, result.codecType);
+    synchronized (entry) {
+      if (result.succeeded) {
+        entry.score = computeScore(result.throughputRatio, result.bitrateAccuracy);
+        // A fresh calibration gives previously demoted encoders another chance.
+        entry.demoted = false;
+      } else {
+        entry.score = 0;
+        entry.demoted = true;
+        entry.demotedAtMs = clock.currentTimeMillis();
+      }
+    }
+    save();
+  }
+
+  /** Called when an encoder fails to initialize or to encode a frame. */
+  public void reportError(String codecName, VideoCodecType type) {
+    Entry entry = getOrCreateEntry(codecName, type);
+    final int errors;
+    synchronized (entry) {
+      errors = ++entry.consecutiveErrors;
+      if (entry.demoted || errors < maxConsecutiveErrors) {
+        return;
+      }
+      demoteLocked(entry);
+    }
+    Logging.w(TAG, "Demoting " + type + " encoder " + codecName + ": " + errors
+        + " consecutive errors");
+    save();
+  }
+
+  /** Called for every encoded frame with the time it spent inside the encoder. */
+  public void reportEncodedFrame(String codecName, VideoCodecType type, long latencyMs) {
+    Entry entry = getOrCreateEntry(codecName, type);
+    final int slowFrames;
+    synchronized (entry) {
+      entry.consecutiveErrors = 0;
+      if (latencyMs > latencyBudgetMs) {
+        ++entry.consecutiveSlowFrames;
+      } else {
+        entry.consecutiveSlowFrames = 0;
+      }
+      slowFrames = entry.consecutiveSlowFrames;
+      if (entry.demoted || slowFrames < maxSlowFrames) {
+        return;
+      }
+      demoteLocked(entry);
+    }
+    Logging.w(TAG, "Demoting " + type + " encoder " + codecName + ": " + slowFrames
+        + " frames over the latency budget");
+    save();
+  }
+
+  /** Clears all scores and demotions. */
+  public void reset() {
+    entries.clear();
+    save();
+  }
+
+  /** Returns a snapshot of the current ranking. */
+  public List<Entry> getEntries() {
+    return new ArrayList<>(entries.values());
+  }
+
+  static double computeScore(double throughputRatio, double bitrateAccuracy) {
+    return THROUGHPUT_WEIGHT * clamp(throughputRatio) + BITRATE_ACCURACY_WEIGHT
+        * clamp(bitrateAccuracy);
+  }
+
+  private static double clamp(double value) {
+    return Math.max(0, Math.min(1, value));
+  }
+
+  private static String getKey(String codecName, VideoCodecType type) {
+    return type.name() + "/" + codecName;
+  }
+
+  private Entry getOrCreateEntry(String codecName, VideoCodecType type) {
+    String key = getKey(codecName, type);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(codecName, type);
+      Entry existing = entries.putIfAbsent(key, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+    return entry;
+  }
+
+  // Must be called with |entry| locked.
+  private void demoteLocked(Entry entry) {
+    entry.demoted = true;
+    entry.demotedAtMs = clock.currentTimeMillis();
+    entry.consecutiveErrors = 0;
+    entry.consecutiveSlowFrames = 0;
+  }
+
+  // Serialized as one "type/name;score;demoted;demotedAtMs" line per encoder.
+  private void save() {
+    synchronized (saveLock) {
+      StringBuilder sb = new StringBuilder();
+      for (Entry entry : entries.values()) {
+        synchronized (entry) {
+          sb.append(getKey(entry.codecName, entry.codecType))
+              .append(';')
+              .append(entry.score)
+              .append(';')
+              .append(entry.demoted)
+              .append(';')
+              .append(entry.demotedAtMs)
+              .append('\n');
+        }
+      }
+      storage.save(sb.toString());
+    }
+  }
+
+  private void load() {
+    String serializedRanking = storage.load();
+    if (serializedRanking == null) {
+      return;
+    }
+    for (String line : serializedRanking.split("\n")) {
+      String[] fields = line.split(";");
+      int separator = fields[0].indexOf('/');
+      // Rankings saved before demotions expired have no demotion time; they expire from now on.
+      if ((fields.length != 3 && fields.length != 4) || separator < 0) {
+        continue;
+      }
+      try {
+        VideoCodecType type = VideoCodecType.valueOf(fields[0].substring(0, separator));
+        Entry entry = getOrCreateEntry(fields[0].substring(separator + 1), type);
+        synchronized (entry) {
+          entry.score = Double.parseDouble(fields[1]);
+          entry.demoted = Boolean.parseBoolean(fields[2]);
+          entry.demotedAtMs =
+              fields.length == 4 ? Long.parseLong(fields[3]) : clock.currentTimeMillis();
+        }
+      } catch (IllegalArgumentException e) {
+        Logging.w(TAG, "Ignoring malformed ranking entry: " + line);
+      }
+    }
+  }
+}
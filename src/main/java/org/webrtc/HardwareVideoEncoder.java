@@ -124,6 +124,13 @@ class HardwareVideoEncoder implements VideoEncoder {
   // A queue of EncodedImage.Builders that correspond to frames in the codec.  These builders are
   // pre-populated with all the information that can't be sent through MediaCodec.
   private final BlockingDeque<EncodedImage.Builder> outputBuilders = new LinkedBlockingDeque<>();
+  // Times at which the frames in |outputBuilders| were queued, used to measure encode latency.
+  // Kept in sync with |outputBuilders|.
+  private final BlockingDeque<Long> queueTimesNs = new LinkedBlockingDeque<>();
+  // Receives encode errors and latencies. May be null.
+  @Nullable private final HardwareEncoderRanking encoderRanking;
+  // Receives texture draw and encode queue durations. May be null.
+  @Nullable private volatile TextureStageTimings stageTimings;
 
   private final ThreadChecker encodeThreadChecker = new ThreadChecker();
   private final ThreadChecker outputThreadChecker = new ThreadChecker();
@@ -185,6 +192,20 @@ class HardwareVideoEncoder implements VideoEncoder {
       VideoCodecType codecType, Integer surfaceColorFormat, Integer yuvColorFormat,
       Map<String, String> params, int keyFrameIntervalSec, int forceKeyFrameIntervalMs,
       BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext) {
+    this(mediaCodecWrapperFactory, codecName, codecType, surfaceColorFormat, yuvColorFormat, params,
+        keyFrameIntervalSec, forceKeyFrameIntervalMs, bitrateAdjuster, sharedContext,
+        /* encoderRanking= */ null);
+  }
+
+  /**
+   * Creates a new HardwareVideoEncoder that reports encode errors and per-frame encode latency to
+   * the given ranking, so that misbehaving encoders are demoted.
+   */
+  public HardwareVideoEncoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
+      VideoCodecType codecType, Integer surfaceColorFormat, Integer yuvColorFormat,
+      Map<String, String> params, int keyFrameIntervalSec, int forceKeyFrameIntervalMs,
+      BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext,
+      @Nullable HardwareEncoderRanking encoderRanking) {
     this.mediaCodecWrapperFactory = mediaCodecWrapperFactory;
     this.codecName = codecName;
     this.codecType = codecType;
@@ -196,6 +217,7 @@ class HardwareVideoEncoder implements VideoEncoder {
     this.forcedKeyFrameNs = TimeUnit.MILLISECONDS.toNanos(forceKeyFrameIntervalMs);
     this.bitrateAdjuster = bitrateAdjuster;
     this.sharedContext = sharedContext;
+    this.encoderRanking = encoderRanking;
 
     // Allow construction on a different thread.
     encodeThreadChecker.detachThread();
@@ -231,6 +253,7 @@ class HardwareVideoEncoder implements VideoEncoder {
       codec = mediaCodecWrapperFactory.createByCodecName(codecName);
     } catch (IOException | IllegalArgumentException e) {
       Logging.e(TAG, "Cannot create media encoder " + codecName);
+      reportError();
       return VideoCodecStatus.FALLBACK_SOFTWARE;
     }
 
@@ -274,6 +297,7 @@ class HardwareVideoEncoder implements VideoEncoder {
     } catch (IllegalStateException e) {
       Logging.e(TAG, "initEncodeInternal failed", e);
       release();
+      reportError();
       return VideoCodecStatus.FALLBACK_SOFTWARE;
     }
 
@@ -318,6 +342,7 @@ class HardwareVideoEncoder implements VideoEncoder {
       textureInputSurface = null;
     }
     outputBuilders.clear();
+    queueTimesNs.clear();
 
     codec = null;
     outputBuffers = null;
@@ -377,6 +402,7 @@ class HardwareVideoEncoder implements VideoEncoder {
                                        .setEncodedHeight(videoFrame.getBuffer().getHeight())
                                        .setRotation(videoFrame.getRotation());
     outputBuilders.offer(builder);
+    queueTimesNs.offer(System.nanoTime());
 
     final VideoCodecStatus returnValue;
     if (useSurfaceMode) {
@@ -389,6 +415,10 @@ class HardwareVideoEncoder implements VideoEncoder {
     if (returnValue != VideoCodecStatus.OK) {
       // Keep the output builders in sync with buffers in the codec.
       outputBuilders.pollLast();
+      queueTimesNs.pollLast();
+      if (returnValue == VideoCodecStatus.ERROR) {
+        reportError();
+      }
     }
 
     return returnValue;
@@ -396,6 +426,7 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   private VideoCodecStatus encodeTextureBuffer(VideoFrame videoFrame) {
     encodeThreadChecker.checkIsOnValidThread();
+    final long drawStartNs = System.nanoTime();
     try {
       // TODO(perkj): glClear() shouldn't be necessary since every pixel is covered anyway,
       // but it's a workaround for bug webrtc:5147.
@@ -409,6 +440,10 @@ class HardwareVideoEncoder implements VideoEncoder {
       Logging.e(TAG, "encodeTexture failed", e);
       return VideoCodecStatus.ERROR;
     }
+    final TextureStageTimings stageTimings = this.stageTimings;
+    if (stageTimings != null) {
+      stageTimings.report(TextureStageTimings.Stage.DRAW, System.nanoTime() - drawStartNs);
+    }
     return VideoCodecStatus.OK;
   }
 
@@ -585,6 +620,10 @@ class HardwareVideoEncoder implements VideoEncoder {
 
         outputBuffersBusyCount.increment();
         EncodedImage.Builder builder = outputBuilders.poll();
+        Long queueTimeNs = queueTimesNs.poll();
+        if (queueTimeNs != null) {
+          reportEncodeLatency(System.nanoTime() - queueTimeNs);
+        }
         EncodedImage encodedImage = builder
                                         .setBuffer(frameBuffer,
                                             () -> {
@@ -637,6 +676,29 @@ class HardwareVideoEncoder implements VideoEncoder {
     }
   }
 
+  /** Sets the timings that texture draw and encode queue durations are reported to. */
+  void setStageTimings(@Nullable TextureStageTimings stageTimings) {
+    this.stageTimings = stageTimings;
+  }
+
+  private void reportEncodeLatency(long latencyNs) {
+    outputThreadChecker.checkIsOnValidThread();
+    if (encoderRanking != null) {
+      encoderRanking.reportEncodedFrame(
+          codecName, codecType, TimeUnit.NANOSECONDS.toMillis(latencyNs));
+    }
+    final TextureStageTimings stageTimings = this.stageTimings;
+    if (stageTimings != null) {
+      stageTimings.report(TextureStageTimings.Stage.ENCODE_QUEUE, latencyNs);
+    }
+  }
+
+  private void reportError() {
+    if (encoderRanking != null) {
+      encoderRanking.reportError(codecName, codecType);
+    }
+  }
+
   private boolean canUseSurface() {
     return sharedContext != null && surfaceColorFormat != null;
   }
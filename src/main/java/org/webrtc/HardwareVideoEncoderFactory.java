@@ -43,6 +43,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   private final boolean enableIntelVp8Encoder;
   private final boolean enableH264HighProfile;
   @Nullable private final Predicate<MediaCodecInfo> codecAllowedPredicate;
+  @Nullable private final HardwareEncoderRanking encoderRanking;
+  @Nullable private volatile TextureStageTimings textureStageTimings;
 
   /**
    * Creates a HardwareVideoEncoderFactory that supports surface texture encoding.
@@ -70,6 +72,27 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
    */
   public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
       boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+    this(sharedContext, enableIntelVp8Encoder, enableH264HighProfile, codecAllowedPredicate,
+        /* encoderRanking= */ null);
+  }
+
+  /**
+   * Creates a HardwareVideoEncoderFactory that supports surface texture encoding.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param enableIntelVp8Encoder true if Intel's VP8 encoder enabled.
+   * @param enableH264HighProfile true if H264 High Profile enabled.
+   * @param codecAllowedPredicate optional predicate to filter codecs. All codecs are allowed
+   *                              when predicate is not provided.
+   * @param encoderRanking optional ranking used to choose between several supported encoders of
+   *                       the same type. Encoders report errors and latency to it, and demoted
+   *                       encoders are not used. The first supported encoder is used when ranking
+   *                       is not provided.
+   */
+  public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
+      boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      @Nullable HardwareEncoderRanking encoderRanking) {
     // Texture mode requires EglBase14.
     if (sharedContext instanceof EglBase14.Context) {
       this.sharedContext = (EglBase14.Context) sharedContext;
@@ -80,6 +103,7 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     this.enableIntelVp8Encoder = enableIntelVp8Encoder;
     this.enableH264HighProfile = enableH264HighProfile;
     this.codecAllowedPredicate = codecAllowedPredicate;
+    this.encoderRanking = encoderRanking;
   }
 
   @Deprecated
@@ -123,10 +147,20 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
       }
     }
 
-    return new HardwareVideoEncoder(new MediaCodecWrapperFactoryImpl(), codecName, type,
-        surfaceColorFormat, yuvColorFormat, input.params, getKeyFrameIntervalSec(type),
-        getForcedKeyFrameIntervalMs(type, codecName), createBitrateAdjuster(type, codecName),
-        sharedContext);
+    HardwareVideoEncoder encoder = new HardwareVideoEncoder(new MediaCodecWrapperFactoryImpl(),
+        codecName, type, surfaceColorFormat, yuvColorFormat, input.params,
+        getKeyFrameIntervalSec(type), getForcedKeyFrameIntervalMs(type, codecName),
+        createBitrateAdjuster(type, codecName), sharedContext, encoderRanking);
+    encoder.setStageTimings(textureStageTimings);
+    return encoder;
+  }
+
+  /**
+   * Sets the timings that encoders created afterwards report their texture draw and encode queue
+   * durations to. See {@link SurfaceTextureCapturer#getStageTimings}.
+   */
+  public void setTextureStageTimings(@Nullable TextureStageTimings textureStageTimings) {
+    this.textureStageTimings = textureStageTimings;
   }
 
   @Override
@@ -159,7 +193,55 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return supportedCodecInfos.toArray(new VideoCodecInfo[supportedCodecInfos.size()]);
   }
 
+  /**
+   * Runs an encoder calibration for every supported hardware encoder and stores the results in
+   * the encoder ranking. This blocks for several seconds and should be called on a background
+   * thread, ideally once per device and capture resolution.
+   */
+  public void calibrateEncoders(EncoderCalibrator calibrator) {
+    if (encoderRanking == null) {
+      throw new IllegalStateException("Calibration requires an encoder ranking.");
+    }
+    // HW encoding is not supported below Android Kitkat.
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return;
+    }
+    for (VideoCodecType type :
+        new VideoCodecType[] {VideoCodecType.VP8, VideoCodecType.VP9, VideoCodecType.H264}) {
+      for (MediaCodecInfo info : findCodecsForType(type)) {
+        Integer yuvColorFormat = MediaCodecUtils.selectColorFormat(
+            MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getCapabilitiesForType(type.mimeType()));
+        encoderRanking.reportCalibration(
+            calibrator.calibrate(info.getName(), type, yuvColorFormat));
+      }
+    }
+  }
+
   private @Nullable MediaCodecInfo findCodecForType(VideoCodecType type) {
+    List<MediaCodecInfo> candidates = findCodecsForType(type);
+    if (candidates.isEmpty()) {
+      return null; // No support for this type.
+    }
+    if (encoderRanking == null) {
+      return candidates.get(0);
+    }
+
+    List<String> candidateNames = new ArrayList<>();
+    for (MediaCodecInfo info : candidates) {
+      candidateNames.add(info.getName());
+    }
+    String selectedName = encoderRanking.selectEncoder(type, candidateNames);
+    for (MediaCodecInfo info : candidates) {
+      if (info.getName().equals(selectedName)) {
+        return info;
+      }
+    }
+    return null; // All encoders for this type are demoted.
+  }
+
+  // Returns all supported encoders for the given type, in platform order.
+  private List<MediaCodecInfo> findCodecsForType(VideoCodecType type) {
+    List<MediaCodecInfo> codecs = new ArrayList<>();
     for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
       MediaCodecInfo info = null;
       try {
@@ -173,10 +255,10 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
       }
 
       if (isSupportedCodec(info, type)) {
-        return info;
+        codecs.add(info);
       }
     }
-    return null; // No support for this type.
+    return codecs;
   }
 
   // Returns true if the given MediaCodecInfo indicates a supported encoder for the given type.
@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of tightly packed {@link JavaI420Buffer}s. Released buffers return their memory to the
+ * pool, so steady state processing does not allocate pixel memory. Each acquire() still creates
+ * the JavaI420Buffer object itself, with its plane views and reference count. Memory is pooled by
+ * size, so a rotated buffer reuses the memory of an unrotated one. At most maxBuffersPerSize
+ * buffers of a size are kept; beyond that buffers are allocated and freed as usual, which is
+ * counted as a miss. When more than MAX_SIZES sizes are in use, e.g. after resolution changes,
+ * the pool starts over. Buffers may be released on any thread.
+ */
+public class I420BufferPool {
+  private static final int MAX_SIZES = 4;
+
+  // Memory of one size and the number of buffers of that size the pool keeps.
+  private static class SizeClass {
+    final int size;
+    final ArrayDeque<PooledMemory> free = new ArrayDeque<>();
+    int count;
+
+    SizeClass(int size) {
+      this.size = size;
+    }
+  }
+
+  // Pooled memory. Keeps the plane views of the last buffer that used it, which are reused if the
+  // next buffer has the same plane sizes, and is the release callback of its buffers.
+  private class PooledMemory implements Runnable {
+    final ByteBuffer memory;
+    final SizeClass sizeClass;
+    final int generation;
+    int lumaSize = -1;
+    ByteBuffer dataY;
+    ByteBuffer dataU;
+    ByteBuffer dataV;
+
+    PooledMemory(ByteBuffer memory, SizeClass sizeClass, int generation) {
+      this.memory = memory;
+      this.sizeClass = sizeClass;
+      this.generation = generation;
+    }
+
+    void slice(int lumaSize, int chromaSize) {
+      if (lumaSize == this.lumaSize) {
+        return;
+      }
+      this.lumaSize = lumaSize;
+      dataY = I420BufferPool.slice(memory, 0, lumaSize);
+      dataU = I420BufferPool.slice(memory, lumaSize, chromaSize);
+      dataV = I420BufferPool.slice(memory, lumaSize + chromaSize, chromaSize);
+    }
+
+    @Override
+    public void run() {
+      recycle(this);
+    }
+  }
+
+  private final int maxBuffersPerSize;
+  // At most MAX_SIZES entries, searched linearly.
+  private final List<SizeClass> sizeClasses = new ArrayList<>(MAX_SIZES);
+  private long misses;
+  private long allocations;
+  // Incremented when the pool starts over; buffers of older generations are not pooled again.
+  private int generation;
+  private boolean isDisposed;
+
+  public I420BufferPool(int maxBuffersPerSize) {
+    if (maxBuffersPerSize < 1) {
+      throw new IllegalArgumentException(
+          "Pool size must be positive, but was " + maxBuffersPerSize);
+    }
+    this.maxBuffersPerSize = maxBuffersPerSize;
+  }
+
+  /** Returns a buffer for an image of the given dimensions. Its contents are undefined. */
+  public JavaI420Buffer acquire(int width, int height) {
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    final int lumaSize = width * height;
+    final int chromaSize = chromaWidth * chromaHeight;
+    final int size = lumaSize + 2 * chromaSize;
+
+    PooledMemory pooledMemory = null;
+    synchronized (this) {
+      if (!isDisposed) {
+        SizeClass sizeClass = getSizeClass(size);
+        if (sizeClass == null) {
+          if (sizeClasses.size() >= MAX_SIZES) {
+            clear();
+          }
+          sizeClass = new SizeClass(size);
+          sizeClasses.add(sizeClass);
+        }
+        pooledMemory = sizeClass.free.poll();
+        if (pooledMemory == null) {
+          if (sizeClass.count < maxBuffersPerSize) {
+            ++sizeClass.count;
+            ++allocations;
+            pooledMemory =
+                new PooledMemory(ByteBuffer.allocateDirect(size), sizeClass, generation);
+          } else {
+            ++misses;
+          }
+        }
+      }
+      if (pooledMemory == null) {
+        ++allocations;
+      }
+    }
+
+    if (pooledMemory == null) {
+      final ByteBuffer memory = ByteBuffer.allocateDirect(size);
+      return JavaI420Buffer.wrap(width, height, slice(memory, 0, lumaSize), width,
+          slice(memory, lumaSize, chromaSize), chromaWidth,
+          slice(memory, lumaSize + chromaSize, chromaSize), chromaWidth, null);
+    }
+    pooledMemory.slice(lumaSize, chromaSize);
+    return JavaI420Buffer.wrap(width, height, pooledMemory.dataY, width, pooledMemory.dataU,
+        chromaWidth, pooledMemory.dataV, chromaWidth, pooledMemory);
+  }
+
+  /** Returns the number of buffers that were allocated because the pool was exhausted. */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /** Returns the number of times memory was allocated, pooled or not. */
+  synchronized long getAllocationCount() {
+    return allocations;
+  }
+
+  /** Frees the pooled memory. Buffers in use are freed when they are released. */
+  public synchronized void dispose() {
+    isDisposed = true;
+    clear();
+  }
+
+  private synchronized void clear() {
+    ++generation;
+    sizeClasses.clear();
+  }
+
+  @Nullable
+  private synchronized SizeClass getSizeClass(int size) {
+    for (int i = 0; i < sizeClasses.size(); ++i) {
+      if (sizeClasses.get(i).size == size) {
+        return sizeClasses.get(i);
+      }
+    }
+    return null;
+  }
+
+  private synchronized void recycle(PooledMemory pooledMemory) {
+    if (isDisposed || pooledMemory.generation != generation) {
+      return;
+    }
+    pooledMemory.sizeClass.free.add(pooledMemory);
+  }
+
+  private static ByteBuffer slice(ByteBuffer memory, int offset, int length) {
+    final ByteBuffer duplicate = memory.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+}
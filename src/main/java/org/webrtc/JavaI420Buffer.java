@@ -193,6 +193,18 @@ public class JavaI420Buffer implements VideoFrame.I420Buffer {
     return newBuffer;
   }
 
+  /**
+   * Crops |buffer| and scales the cropped area into |dst|, which must be of the scaled size.
+   * Unlike cropAndScaleI420() above, this always copies and does not allocate.
+   */
+  static void cropAndScaleI420(I420Buffer buffer, int cropX, int cropY, int cropWidth,
+      int cropHeight, I420Buffer dst) {
+    nativeCropAndScaleI420(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
+        buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV(), cropX, cropY, cropWidth,
+        cropHeight, dst.getDataY(), dst.getStrideY(), dst.getDataU(), dst.getStrideU(),
+        dst.getDataV(), dst.getStrideV(), dst.getWidth(), dst.getHeight());
+  }
+
   private static native void nativeCropAndScaleI420(ByteBuffer srcY, int srcStrideY,
       ByteBuffer srcU, int srcStrideU, ByteBuffer srcV, int srcStrideV, int cropX, int cropY,
       int cropWidth, int cropHeight, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU,
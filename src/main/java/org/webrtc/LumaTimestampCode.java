@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Machine readable code of a frame counter and a capture time, drawn as a grid of black and
+ * white blocks into the luma plane of an I420 frame. The grid of COLUMNS x ROWS blocks starts one
+ * block from the top left corner. The block size is a fraction of the frame width, so the code is
+ * still found after the frame was scaled, and large enough to survive lossy encoding.
+ *
+ * <p>The 96 bits are, most significant bit first: a 16 bit sync word, the 24 bit frame counter,
+ * the 48 bit capture time in milliseconds and a CRC-8 of the counter and the time. The detector
+ * takes its black and white levels from the sync word.
+ */
+class LumaTimestampCode {
+  static final int COLUMNS = 16;
+  static final int ROWS = 6;
+  // The block size is the frame width divided by this.
+  private static final int WIDTH_PER_BLOCK = 48;
+  private static final double MIN_BLOCK_SIZE = 2;
+
+  private static final int SYNC_BITS = 16;
+  private static final int SYNC_WORD = 0xB2CD;
+  private static final int COUNTER_BITS = 24;
+  private static final int TIME_BITS = 48;
+  private static final int CRC_BITS = 8;
+
+  static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+  static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+  private static final byte BLACK = 16;
+  private static final byte WHITE = (byte) 235;
+  private static final byte NEUTRAL_CHROMA = (byte) 128;
+  // Minimum difference of the white and black sync blocks for the code to be read.
+  private static final int MIN_CONTRAST = 48;
+
+  /** Returns the block size for frames of |width| x |height|, or 0 if the code does not fit. */
+  static double getBlockSize(int width, int height) {
+    final double blockSize = Math.max(MIN_BLOCK_SIZE, (double) width / WIDTH_PER_BLOCK);
+    if ((COLUMNS + 2) * blockSize > width || (ROWS + 2) * blockSize > height) {
+      return 0;
+    }
+    return blockSize;
+  }
+
+  /** Returns the first pixel of block |index| of a row or column, counting the margin block. */
+  private static int getBlockStart(double blockSize, int index) {
+    return (int) Math.round((1 + index) * blockSize);
+  }
+
+  /** Draws the code into |buffer|. Returns false if the frame is too small. */
+  static boolean write(VideoFrame.I420Buffer buffer, long frameCounter, long timeMs) {
+    final double blockSize = getBlockSize(buffer.getWidth(), buffer.getHeight());
+    if (blockSize == 0) {
+      return false;
+    }
+    final long counter = frameCounter & COUNTER_MASK;
+    final long time = timeMs & TIME_MASK;
+    final int crc = crc8(counter, time);
+
+    final ByteBuffer dataY = buffer.getDataY();
+    final int strideY = buffer.getStrideY();
+    for (int bit = 0; bit < COLUMNS * ROWS; ++bit) {
+      final boolean value = getBit(counter, time, crc, bit);
+      final int x0 = getBlockStart(blockSize, bit % COLUMNS);
+      final int x1 = getBlockStart(blockSize, bit % COLUMNS + 1);
+      final int y0 = getBlockStart(blockSize, bit / COLUMNS);
+      final int y1 = getBlockStart(blockSize, bit / COLUMNS + 1);
+      for (int y = y0; y < y1; ++y) {
+        final int row = y * strideY;
+        for (int x = x0; x < x1; ++x) {
+          dataY.put(row + x, value ? WHITE : BLACK);
+        }
+      }
+    }
+
+    // Neutral chroma keeps the blocks gray, so color bleeding does not shift the luma.
+    final int chromaX0 = getBlockStart(blockSize, 0) / 2;
+    final int chromaY0 = getBlockStart(blockSize, 0) / 2;
+    final int chromaX1 = (getBlockStart(blockSize, COLUMNS) + 1) / 2;
+    final int chromaY1 = (getBlockStart(blockSize, ROWS) + 1) / 2;
+    fill(buffer.getDataU(), buffer.getStrideU(), chromaX0, chromaY0, chromaX1, chromaY1);
+    fill(buffer.getDataV(), buffer.getStrideV(), chromaX0, chromaY0, chromaX1, chromaY1);
+    return true;
+  }
+
+  /**
+   * Reads the code from |buffer| into |result|: the frame counter and the capture time. Returns
+   * false if the frame carries no valid code.
+   */
+  static boolean read(VideoFrame.I420Buffer buffer, long[] result) {
+    final double blockSize = getBlockSize(buffer.getWidth(), buffer.getHeight());
+    if (blockSize == 0) {
+      return false;
+    }
+    final ByteBuffer dataY = buffer.getDataY();
+    final int strideY = buffer.getStrideY();
+
+    // Levels of the white and black blocks of the sync word.
+    int whiteSum = 0;
+    int whiteCount = 0;
+    int blackSum = 0;
+    int blackCount = 0;
+    for (int bit = 0; bit < SYNC_BITS; ++bit) {
+      final int level = readBlock(dataY, strideY, blockSize, bit);
+      if (((SYNC_WORD >> (SYNC_BITS - 1 - bit)) & 1) != 0) {
+        whiteSum += level;
+        ++whiteCount;
+      } else {
+        blackSum += level;
+        ++blackCount;
+      }
+    }
+    final int white = whiteSum / whiteCount;
+    final int black = blackSum / blackCount;
+    if (white - black < MIN_CONTRAST) {
+      return false;
+    }
+    final int threshold = (white + black) / 2;
+
+    long bits0 = 0; // Sync word and counter.
+    long bits1 = 0; // Time and CRC.
+    for (int bit = 0; bit < COLUMNS * ROWS; ++bit) {
+      final long value = readBlock(dataY, strideY, blockSize, bit) > threshold ? 1 : 0;
+      if (bit < SYNC_BITS + COUNTER_BITS) {
+        bits0 = (bits0 << 1) | value;
+      } else {
+        bits1 = (bits1 << 1) | value;
+      }
+    }
+    if ((bits0 >>> COUNTER_BITS) != SYNC_WORD) {
+      return false;
+    }
+    final long counter = bits0 & COUNTER_MASK;
+    final long time = bits1 >>> CRC_BITS;
+    if ((int) (bits1 & 0xFF) != crc8(counter, time)) {
+      return false;
+    }
+    result[0] = counter;
+    result[1] = time;
+    return true;
+  }
+
+  private static boolean getBit(long counter, long time, int crc, int bit) {
+    if (bit < SYNC_BITS) {
+      return ((SYNC_WORD >> (SYNC_BITS - 1 - bit)) & 1) != 0;
+    }
+    bit -= SYNC_BITS;
+    if (bit < COUNTER_BITS) {
+      return ((counter >> (COUNTER_BITS - 1 - bit)) & 1) != 0;
+    }
+    bit -= COUNTER_BITS;
+    if (bit < TIME_BITS) {
+      return ((time >> (TIME_BITS - 1 - bit)) & 1) != 0;
+    }
+    bit -= TIME_BITS;
+    return ((crc >> (CRC_BITS - 1 - bit)) & 1) != 0;
+  }
+
+  /** Returns the mean luma of the inner half of the block of |bit|. */
+  private static int readBlock(ByteBuffer dataY, int strideY, double blockSize, int bit) {
+    final double inset = blockSize / 4;
+    final int x0 = (int) Math.round((1 + bit % COLUMNS) * blockSize + inset);
+    final int y0 = (int) Math.round((1 + bit / COLUMNS) * blockSize + inset);
+    final int size = Math.max(1, (int) Math.round(blockSize - 2 * inset));
+    int sum = 0;
+    for (int y = y0; y < y0 + size; ++y) {
+      final int row = y * strideY;
+      for (int x = x0; x < x0 + size; ++x) {
+        sum += dataY.get(row + x) & 0xFF;
+      }
+    }
+    return sum / (size * size);
+  }
+
+  private static void fill(ByteBuffer plane, int stride, int x0, int y0, int x1, int y1) {
+    for (int y = y0; y < y1; ++y) {
+      final int row = y * stride;
+      for (int x = x0; x < x1; ++x) {
+        plane.put(row + x, NEUTRAL_CHROMA);
+      }
+    }
+  }
+
+  /** CRC-8 with polynomial 0x07 of the 3 counter bytes and the 6 time bytes. */
+  private static int crc8(long counter, long time) {
+    int crc = 0;
+    for (int i = COUNTER_BITS / 8 - 1; i >= 0; --i) {
+      crc = crc8Byte(crc, (int) (counter >> (8 * i)));
+    }
+    for (int i = TIME_BITS / 8 - 1; i >= 0; --i) {
+      crc = crc8Byte(crc, (int) (time >> (8 * i)));
+    }
+    return crc;
+  }
+
+  private static int crc8Byte(int crc, int value) {
+    crc ^= value & 0xFF;
+    for (int i = 0; i < 8; ++i) {
+      crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+    }
+    return crc;
+  }
+}
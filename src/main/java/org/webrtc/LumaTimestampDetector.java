@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Sink for decoded frames that reads the code burned in by {@link LumaTimestampStamper} and
+ * reports the end to end latency, from capture on the sender to decoding here, and the frames
+ * lost in between, from gaps in the frame counter. Frames are passed on to an optional next
+ * sink, e.g. the renderer.
+ *
+ * <p>I420 frames are read in place without allocating. Texture frames, e.g. from hardware
+ * decoders, are converted to I420 first, so use a software decoder where conversions matter.
+ */
+public class LumaTimestampDetector implements VideoSink {
+  private static final String TAG = "LumaTimestampDetector";
+
+  /** Called on the decoding thread for every frame with a code. */
+  public interface Listener {
+    void onFrameDetected(long frameCounter, long captureTimeMs, long latencyMs, long framesLost);
+  }
+
+  @Nullable private final VideoSink next;
+  @Nullable private volatile Listener listener;
+  // Only used on the decoding thread.
+  private final long[] code = new long[2];
+
+  private long framesReceived;
+  private long framesDetected;
+  private long framesLost;
+  private long framesDuplicated;
+  private long framesOutOfOrder;
+  private long lastFrameCounter = -1;
+  private long lastLatencyMs;
+  private long latencySumMs;
+  private long minLatencyMs = Long.MAX_VALUE;
+  private long maxLatencyMs = Long.MIN_VALUE;
+
+  public LumaTimestampDetector(@Nullable VideoSink next) {
+    this.next = next;
+  }
+
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void onFrame(VideoFrame frame) {
+    final long nowMs = System.currentTimeMillis();
+    final VideoFrame.Buffer buffer = frame.getBuffer();
+    final VideoFrame.I420Buffer i420Buffer;
+    if (buffer instanceof VideoFrame.I420Buffer) {
+      buffer.retain();
+      i420Buffer = (VideoFrame.I420Buffer) buffer;
+    } else {
+      i420Buffer = buffer.toI420();
+    }
+    final boolean detected = LumaTimestampCode.read(i420Buffer, code);
+    i420Buffer.release();
+
+    if (detected) {
+      onCode(code[0], code[1], nowMs);
+    } else {
+      synchronized (this) {
+        ++framesReceived;
+      }
+    }
+    if (next != null) {
+      next.onFrame(frame);
+    }
+  }
+
+  private void onCode(long frameCounter, long captureTimeMs, long nowMs) {
+    final long latencyMs = nowMs - captureTimeMs;
+    final long lost;
+    synchronized (this) {
+      ++framesReceived;
+      ++framesDetected;
+      long gap = 1;
+      if (lastFrameCounter >= 0) {
+        gap = (frameCounter - lastFrameCounter) & LumaTimestampCode.COUNTER_MASK;
+      }
+      if (gap == 0) {
+        // The same frame again, e.g. repeated by the decoder.
+        ++framesDuplicated;
+        return;
+      }
+      if (gap > LumaTimestampCode.COUNTER_MASK / 2) {
+        ++framesOutOfOrder;
+        return;
+      }
+      lost = gap - 1;
+      framesLost += lost;
+      lastFrameCounter = frameCounter;
+      lastLatencyMs = latencyMs;
+      latencySumMs += latencyMs;
+      minLatencyMs = Math.min(minLatencyMs, latencyMs);
+      maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+    }
+    if (lost > 0) {
+      Logging.d(TAG, lost + " frames lost before frame " + frameCounter);
+    }
+    final Listener currentListener = listener;
+    if (currentListener != null) {
+      currentListener.onFrameDetected(frameCounter, captureTimeMs, latencyMs, lost);
+    }
+  }
+
+  public synchronized long getFramesReceived() {
+    return framesReceived;
+  }
+
+  /** Returns the number of frames with a valid code, including duplicates. */
+  public synchronized long getFramesDetected() {
+    return framesDetected;
+  }
+
+  public synchronized long getFramesLost() {
+    return framesLost;
+  }
+
+  public synchronized long getFramesDuplicated() {
+    return framesDuplicated;
+  }
+
+  public synchronized long getFramesOutOfOrder() {
+    return framesOutOfOrder;
+  }
+
+  public synchronized long getLastLatencyMs() {
+    return lastLatencyMs;
+  }
+
+  /** Returns the mean latency of the frames in order, or 0 if there were none. */
+  public synchronized long getMeanLatencyMs() {
+    final long inOrder = framesDetected - framesDuplicated - framesOutOfOrder;
+    return inOrder == 0 ? 0 : latencySumMs / inOrder;
+  }
+
+  public synchronized long getMinLatencyMs() {
+    return minLatencyMs == Long.MAX_VALUE ? 0 : minLatencyMs;
+  }
+
+  public synchronized long getMaxLatencyMs() {
+    return maxLatencyMs == Long.MIN_VALUE ? 0 : maxLatencyMs;
+  }
+
+  /** Clears the statistics; the next frame with a code is not compared to earlier ones. */
+  public synchronized void reset() {
+    framesReceived = 0;
+    framesDetected = 0;
+    framesLost = 0;
+    framesDuplicated = 0;
+    framesOutOfOrder = 0;
+    lastFrameCounter = -1;
+    lastLatencyMs = 0;
+    latencySumMs = 0;
+    minLatencyMs = Long.MAX_VALUE;
+    maxLatencyMs = Long.MIN_VALUE;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "frames=" + framesReceived + " detected=" + framesDetected + " lost=" + framesLost
+        + " duplicated=" + framesDuplicated + " outOfOrder=" + framesOutOfOrder + " latency: last="
+        + lastLatencyMs + "ms mean=" + getMeanLatencyMs() + "ms min=" + getMinLatencyMs()
+        + "ms max=" + getMaxLatencyMs() + "ms";
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Stage of a {@link VideoProcessorChain} that burns a frame counter and the capture wall clock
+ * time into the top left corner of every frame, for {@link LumaTimestampDetector} to read at the
+ * receiver. Sender and receiver clocks must be synchronized, e.g. by NTP, for the latency to be
+ * glass to glass.
+ *
+ * <p>The input planes may not be writable: they can belong to the capturer, e.g. when an earlier
+ * crop without scaling wraps them. So the stage copies each frame into a buffer of the chain's
+ * pool and draws the code into the copy.
+ *
+ * <p>For automated tests, stamp the frames of a {@link FileVideoCapturer}:
+ *
+ * <pre>
+ * VideoProcessorChain chain =
+ *     new VideoProcessorChain.Builder().addStage(new LumaTimestampStamper()).build();
+ * </pre>
+ */
+public class LumaTimestampStamper implements VideoProcessorChain.Stage {
+  private static final String TAG = "LumaTimestampStamper";
+
+  private volatile long frameCounter;
+  private boolean tooSmallLogged;
+
+  @Override
+  public VideoProcessorChain.BufferType getBufferType() {
+    return VideoProcessorChain.BufferType.I420;
+  }
+
+  @Override
+  public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+    final VideoFrame.I420Buffer input = (VideoFrame.I420Buffer) frame.getBuffer();
+    final JavaI420Buffer output = pool.acquire(input.getWidth(), input.getHeight());
+    YuvHelper.I420Copy(input.getDataY(), input.getStrideY(), input.getDataU(), input.getStrideU(),
+        input.getDataV(), input.getStrideV(), output.getDataY(), output.getStrideY(),
+        output.getDataU(), output.getStrideU(), output.getDataV(), output.getStrideV(),
+        input.getWidth(), input.getHeight());
+    stamp(output);
+    return new VideoFrame(output, frame.getRotation(), frame.getTimestampNs());
+  }
+
+  /**
+   * Draws the next frame counter and the current time into |buffer| in place. |buffer| must be
+   * writable and must not share its planes with frames that are used elsewhere.
+   */
+  public void stamp(VideoFrame.I420Buffer buffer) {
+    if (!LumaTimestampCode.write(buffer, frameCounter, System.currentTimeMillis())) {
+      if (!tooSmallLogged) {
+        Logging.w(
+            TAG, "Frame too small for the code: " + buffer.getWidth() + "x" + buffer.getHeight());
+        tooSmallLogged = true;
+      }
+      return;
+    }
+    ++frameCounter;
+  }
+
+  /** Returns the number of frames stamped. */
+  public long getFrameCount() {
+    return frameCounter;
+  }
+}
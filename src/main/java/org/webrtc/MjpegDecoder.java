@@ -0,0 +1,712 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes baseline JPEG frames of USB cameras to I420. JPEG is coded in YCbCr already, so the
+ * planes are decoded as they are and only the chroma is resampled to 4:2:0, which for the usual
+ * 4:2:2 of cameras means averaging row pairs; no color conversion takes place. Frames without
+ * Huffman tables, as MJPEG cameras send them, are decoded with the standard tables. Restart
+ * intervals are supported; progressive and arithmetic coded frames are not.
+ *
+ * <p>The planes are kept between frames, so steady state decoding does not allocate. Has no
+ * Android dependencies. Not thread safe; use one decoder per thread.
+ */
+class MjpegDecoder {
+  private static final int[] ZIGZAG = {
+      0, 1, 8, 16, 9, 2, 3, 10,
+      17, 24, 32, 25, 18, 11, 4, 5,
+      12, 19, 26, 33, 40, 48, 41, 34,
+      27, 20, 13, 6, 7, 14, 21, 28,
+      35, 42, 49, 56, 57, 50, 43, 36,
+      29, 22, 15, 23, 30, 37, 44, 51,
+      58, 59, 52, 45, 38, 31, 39, 46,
+      53, 60, 61, 54, 47, 55, 62, 63};
+
+  // Standard Huffman tables of ITU T.81 annex K.3.
+  private static final int[] DC_LUMA_COUNTS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+  private static final int[] DC_CHROMA_COUNTS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+  private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+  private static final int[] AC_LUMA_COUNTS =
+      {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+  private static final int[] AC_LUMA_VALUES = {
+      0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61,
+      0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52,
+      0xd1, 0xf0, 0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25,
+      0x26, 0x27, 0x28, 0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45,
+      0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64,
+      0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83,
+      0x84, 0x85, 0x86, 0x87, 0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99,
+      0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+      0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3,
+      0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8,
+      0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+  private static final int[] AC_CHROMA_COUNTS =
+      {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+  private static final int[] AC_CHROMA_VALUES = {
+      0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61,
+      0x71, 0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33,
+      0x52, 0xf0, 0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18,
+      0x19, 0x1a, 0x26, 0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44,
+      0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63,
+      0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a,
+      0x82, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97,
+      0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+      0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca,
+      0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7,
+      0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+
+  // Integer IDCT of the IJG "islow" kind: 13 bit constants, 2 extra bits between the passes.
+  private static final int CONST_BITS = 13;
+  private static final int PASS1_BITS = 2;
+  private static final int FIX_0_298631336 = 2446;
+  private static final int FIX_0_390180644 = 3196;
+  private static final int FIX_0_541196100 = 4433;
+  private static final int FIX_0_765366865 = 6270;
+  private static final int FIX_0_899976223 = 7373;
+  private static final int FIX_1_175875602 = 9633;
+  private static final int FIX_1_501321110 = 12299;
+  private static final int FIX_1_847759065 = 15137;
+  private static final int FIX_1_961570560 = 16069;
+  private static final int FIX_2_053119869 = 16819;
+  private static final int FIX_2_562915447 = 20995;
+  private static final int FIX_3_072711026 = 25172;
+
+  private static final int MAX_COMPONENTS = 3;
+  private static final int HUFFMAN_LOOKUP_BITS = 9;
+
+  private static class HuffmanTable {
+    // Code length and symbol of codes of up to HUFFMAN_LOOKUP_BITS bits, indexed by the next
+    // bits; a length of 0 means the code is longer.
+    final byte[] lookupLengths = new byte[1 << HUFFMAN_LOOKUP_BITS];
+    final byte[] lookupValues = new byte[1 << HUFFMAN_LOOKUP_BITS];
+    // Largest code of each length, -1 if there is none, and the offset of its symbols.
+    final int[] maxCodes = new int[17];
+    final int[] valueOffsets = new int[17];
+    final int[] values = new int[256];
+
+    boolean build(int[] counts, int[] symbols) {
+      Arrays.fill(lookupLengths, (byte) 0);
+      int code = 0;
+      int index = 0;
+      for (int length = 1; length <= 16; ++length) {
+        valueOffsets[length] = index - code;
+        final int count = counts[length - 1];
+        if (index + count > values.length || code + count > (1 << length)) {
+          return false;
+        }
+        for (int i = 0; i < count; ++i) {
+          final int value = symbols[index];
+          values[index++] = value;
+          if (length <= HUFFMAN_LOOKUP_BITS) {
+            final int shift = HUFFMAN_LOOKUP_BITS - length;
+            for (int j = code << shift; j < (code + 1) << shift; ++j) {
+              lookupLengths[j] = (byte) length;
+              lookupValues[j] = (byte) value;
+            }
+          }
+          ++code;
+        }
+        maxCodes[length] = count == 0 ? -1 : code - 1;
+        code <<= 1;
+      }
+      return true;
+    }
+  }
+
+  private static class Component {
+    int id;
+    int horizontalSampling;
+    int verticalSampling;
+    int quantizationTable;
+    int dcTable;
+    int acTable;
+    int dcPrediction;
+    // Decoded samples, in whole blocks.
+    byte[] plane = new byte[0];
+    int planeStride;
+  }
+
+  private final HuffmanTable[] dcTables = new HuffmanTable[4];
+  private final HuffmanTable[] acTables = new HuffmanTable[4];
+  private final int[][] quantizationTables = new int[4][64];
+  private final Component[] components = new Component[MAX_COMPONENTS];
+  private final int[] block = new int[64];
+  private final int[] idctWorkspace = new int[64];
+  private final int[] tableCounts = new int[16];
+  private final int[] tableSymbols = new int[256];
+  private byte[] rowBuffer = new byte[0];
+
+  private int width;
+  private int height;
+  private int componentCount;
+  private int maxHorizontalSampling;
+  private int maxVerticalSampling;
+  private int restartInterval;
+
+  // Entropy coded data.
+  private byte[] data;
+  private int length;
+  private int position;
+  private int bitBuffer;
+  private int bitCount;
+  private int paddingBits;
+  private boolean isAtMarker;
+
+  MjpegDecoder() {
+    for (int i = 0; i < 4; ++i) {
+      dcTables[i] = new HuffmanTable();
+      acTables[i] = new HuffmanTable();
+    }
+    for (int i = 0; i < MAX_COMPONENTS; ++i) {
+      components[i] = new Component();
+    }
+  }
+
+  /** Width of the last decoded frame. */
+  int getWidth() {
+    return width;
+  }
+
+  /** Height of the last decoded frame. */
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Decodes the JPEG frame in the first |length| bytes of |data|. Returns false if it is not a
+   * supported JPEG frame or if it is truncated or corrupt; USB cameras send such frames now and
+   * then. Use {@link #writeI420} to get the decoded frame.
+   */
+  boolean decode(byte[] data, int length) {
+    this.data = data;
+    this.length = length;
+    try {
+      return decodeFrame();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // Segment lengths that run past the end of the data.
+      return false;
+    } finally {
+      this.data = null;
+    }
+  }
+
+  /** Writes the last decoded frame into I420 planes of getWidth() x getHeight(). */
+  void writeI420(ByteBuffer dataY, int strideY, ByteBuffer dataU, int strideU, ByteBuffer dataV,
+      int strideV) {
+    final Component luma = components[0];
+    final ByteBuffer rowY = dataY.duplicate();
+    for (int y = 0; y < height; ++y) {
+      rowY.position(y * strideY);
+      rowY.put(luma.plane, y * luma.planeStride, width);
+    }
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    if (componentCount == 1) {
+      fillPlane(dataU, strideU, chromaWidth, chromaHeight);
+      fillPlane(dataV, strideV, chromaWidth, chromaHeight);
+      return;
+    }
+    writeChroma(components[1], dataU, strideU, chromaWidth, chromaHeight);
+    writeChroma(components[2], dataV, strideV, chromaWidth, chromaHeight);
+  }
+
+  private boolean decodeFrame() {
+    if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+      return false;
+    }
+    // MJPEG frames leave out the Huffman tables.
+    dcTables[0].build(DC_LUMA_COUNTS, DC_VALUES);
+    dcTables[1].build(DC_CHROMA_COUNTS, DC_VALUES);
+    acTables[0].build(AC_LUMA_COUNTS, AC_LUMA_VALUES);
+    acTables[1].build(AC_CHROMA_COUNTS, AC_CHROMA_VALUES);
+    restartInterval = 0;
+    componentCount = 0;
+
+    int offset = 2;
+    while (offset + 4 <= length) {
+      if ((data[offset] & 0xFF) != 0xFF) {
+        return false;
+      }
+      final int marker = data[offset + 1] & 0xFF;
+      if (marker == 0xFF) {
+        // Fill byte.
+        ++offset;
+        continue;
+      }
+      final int segmentLength = readShort(offset + 2);
+      final int segment = offset + 4;
+      final int segmentEnd = offset + 2 + segmentLength;
+      if (segmentLength < 2 || segmentEnd > length) {
+        return false;
+      }
+      switch (marker) {
+        case 0xC0: // Baseline.
+        case 0xC1: // Extended sequential, Huffman coded.
+          if (!readFrameHeader(segment)) {
+            return false;
+          }
+          break;
+        case 0xC4:
+          if (!readHuffmanTables(segment, segmentEnd)) {
+            return false;
+          }
+          break;
+        case 0xDB:
+          if (!readQuantizationTables(segment, segmentEnd)) {
+            return false;
+          }
+          break;
+        case 0xDD:
+          restartInterval = readShort(segment);
+          break;
+        case 0xDA:
+          return componentCount > 0 && readScanHeader(segment) && decodeScan(segmentEnd);
+        case 0xD9:
+          return false;
+        default:
+          if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8
+              && marker != 0xCC) {
+            // Progressive, lossless or arithmetic coded.
+            return false;
+          }
+          // Application data and comments.
+          break;
+      }
+      offset = segmentEnd;
+    }
+    return false;
+  }
+
+  private boolean readFrameHeader(int offset) {
+    final int precision = data[offset] & 0xFF;
+    height = readShort(offset + 1);
+    width = readShort(offset + 3);
+    componentCount = data[offset + 5] & 0xFF;
+    if (precision != 8 || width == 0 || height == 0
+        || (componentCount != 1 && componentCount != 3)) {
+      componentCount = 0;
+      return false;
+    }
+    maxHorizontalSampling = 1;
+    maxVerticalSampling = 1;
+    for (int i = 0; i < componentCount; ++i) {
+      final Component component = components[i];
+      final int sampling = data[offset + 6 + 3 * i + 1] & 0xFF;
+      component.id = data[offset + 6 + 3 * i] & 0xFF;
+      component.horizontalSampling = componentCount == 1 ? 1 : sampling >> 4;
+      component.verticalSampling = componentCount == 1 ? 1 : sampling & 0xF;
+      component.quantizationTable = data[offset + 6 + 3 * i + 2] & 0x3;
+      if (component.horizontalSampling < 1 || component.horizontalSampling > 4
+          || component.verticalSampling < 1 || component.verticalSampling > 4) {
+        componentCount = 0;
+        return false;
+      }
+      maxHorizontalSampling = Math.max(maxHorizontalSampling, component.horizontalSampling);
+      maxVerticalSampling = Math.max(maxVerticalSampling, component.verticalSampling);
+    }
+    final int mcuColumns = divideRoundUp(width, 8 * maxHorizontalSampling);
+    final int mcuRows = divideRoundUp(height, 8 * maxVerticalSampling);
+    for (int i = 0; i < componentCount; ++i) {
+      final Component component = components[i];
+      component.planeStride = mcuColumns * component.horizontalSampling * 8;
+      final int planeSize = component.planeStride * mcuRows * component.verticalSampling * 8;
+      if (component.plane.length < planeSize) {
+        component.plane = new byte[planeSize];
+      }
+    }
+    return true;
+  }
+
+  private boolean readHuffmanTables(int offset, int end) {
+    while (offset < end) {
+      final int tableClass = (data[offset] & 0xFF) >> 4;
+      final int tableId = data[offset] & 0xF;
+      if (tableClass > 1 || tableId > 3) {
+        return false;
+      }
+      int symbolCount = 0;
+      for (int i = 0; i < 16; ++i) {
+        tableCounts[i] = data[offset + 1 + i] & 0xFF;
+        symbolCount += tableCounts[i];
+      }
+      if (symbolCount > 256 || offset + 17 + symbolCount > end) {
+        return false;
+      }
+      for (int i = 0; i < symbolCount; ++i) {
+        tableSymbols[i] = data[offset + 17 + i] & 0xFF;
+      }
+      final HuffmanTable table = tableClass == 0 ? dcTables[tableId] : acTables[tableId];
+      if (!table.build(tableCounts, tableSymbols)) {
+        return false;
+      }
+      offset += 17 + symbolCount;
+    }
+    return true;
+  }
+
+  private boolean readQuantizationTables(int offset, int end) {
+    while (offset < end) {
+      final int precision = (data[offset] & 0xFF) >> 4;
+      final int tableId = data[offset] & 0xF;
+      if (tableId > 3) {
+        return false;
+      }
+      final int[] table = quantizationTables[tableId];
+      for (int i = 0; i < 64; ++i) {
+        table[i] = precision == 0 ? data[offset + 1 + i] & 0xFF : readShort(offset + 1 + 2 * i);
+      }
+      offset += 1 + (precision == 0 ? 64 : 128);
+    }
+    return true;
+  }
+
+  private boolean readScanHeader(int offset) {
+    final int scanComponents = data[offset] & 0xFF;
+    // Only single scan frames: all components interleaved in the scan.
+    if (scanComponents != componentCount) {
+      return false;
+    }
+    for (int i = 0; i < scanComponents; ++i) {
+      final int id = data[offset + 1 + 2 * i] & 0xFF;
+      final int tables = data[offset + 2 + 2 * i] & 0xFF;
+      final Component component = components[i];
+      if (component.id != id) {
+        return false;
+      }
+      component.dcTable = (tables >> 4) & 0x3;
+      component.acTable = tables & 0x3;
+    }
+    return true;
+  }
+
+  private boolean decodeScan(int offset) {
+    position = offset;
+    resetBits();
+    // A corrupt frame may have left coefficients behind.
+    Arrays.fill(block, 0);
+    for (int i = 0; i < componentCount; ++i) {
+      components[i].dcPrediction = 0;
+    }
+    final int mcuColumns = divideRoundUp(width, 8 * maxHorizontalSampling);
+    final int mcuRows = divideRoundUp(height, 8 * maxVerticalSampling);
+    final int mcuCount = mcuColumns * mcuRows;
+    for (int mcu = 0; mcu < mcuCount; ++mcu) {
+      if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0 && !restart()) {
+        return false;
+      }
+      final int mcuX = mcu % mcuColumns;
+      final int mcuY = mcu / mcuColumns;
+      for (int i = 0; i < componentCount; ++i) {
+        final Component component = components[i];
+        final int[] quantization = quantizationTables[component.quantizationTable];
+        final HuffmanTable dcTable = dcTables[component.dcTable];
+        final HuffmanTable acTable = acTables[component.acTable];
+        for (int v = 0; v < component.verticalSampling; ++v) {
+          for (int h = 0; h < component.horizontalSampling; ++h) {
+            final int lastIndex = decodeBlock(component, dcTable, acTable, quantization);
+            if (lastIndex < 0) {
+              return false;
+            }
+            final int x = (mcuX * component.horizontalSampling + h) * 8;
+            final int y = (mcuY * component.verticalSampling + v) * 8;
+            idct(lastIndex, component.plane, y * component.planeStride + x,
+                component.planeStride);
+            // Only the coefficients up to the last one were written.
+            for (int k = 0; k <= lastIndex; ++k) {
+              block[ZIGZAG[k]] = 0;
+            }
+          }
+        }
+      }
+    }
+    return !hasReadPadding();
+  }
+
+  /**
+   * Decodes the coefficients of a block into |block|, dequantized and in natural order. Returns
+   * the zigzag index of the last coefficient, or -1 if the data is corrupt.
+   */
+  private int decodeBlock(
+      Component component, HuffmanTable dcTable, HuffmanTable acTable, int[] quantization) {
+    final int dcBits = decodeHuffman(dcTable);
+    if (dcBits < 0 || dcBits > 11) {
+      return -1;
+    }
+    if (dcBits > 0) {
+      component.dcPrediction += extend(readBits(dcBits), dcBits);
+    }
+    block[0] = component.dcPrediction * quantization[0];
+    int lastIndex = 0;
+    for (int k = 1; k < 64; ++k) {
+      final int symbol = decodeHuffman(acTable);
+      if (symbol < 0) {
+        return -1;
+      }
+      final int run = symbol >> 4;
+      final int bits = symbol & 0xF;
+      if (bits == 0) {
+        if (run != 15) {
+          // End of block.
+          break;
+        }
+        k += 15;
+        continue;
+      }
+      k += run;
+      if (k > 63) {
+        return -1;
+      }
+      block[ZIGZAG[k]] = extend(readBits(bits), bits) * quantization[k];
+      lastIndex = k;
+    }
+    return lastIndex;
+  }
+
+  private int decodeHuffman(HuffmanTable table) {
+    fillBits();
+    final int lookup = bitBuffer >>> (32 - HUFFMAN_LOOKUP_BITS);
+    final int lookupLength = table.lookupLengths[lookup];
+    if (lookupLength > 0) {
+      skipBits(lookupLength);
+      return table.lookupValues[lookup] & 0xFF;
+    }
+    int code = lookup;
+    int codeLength = HUFFMAN_LOOKUP_BITS;
+    skipBits(HUFFMAN_LOOKUP_BITS);
+    while (true) {
+      code = (code << 1) | readBits(1);
+      ++codeLength;
+      if (codeLength > 16) {
+        return -1;
+      }
+      if (code <= table.maxCodes[codeLength]) {
+        return table.values[code + table.valueOffsets[codeLength]];
+      }
+    }
+  }
+
+  private int readBits(int count) {
+    fillBits();
+    final int value = bitBuffer >>> (32 - count);
+    skipBits(count);
+    return value;
+  }
+
+  private void skipBits(int count) {
+    bitBuffer <<= count;
+    bitCount -= count;
+  }
+
+  // Keeps at least 25 bits in the buffer. Past the end of the entropy coded data, which ends at
+  // a marker, zeros are fed.
+  private void fillBits() {
+    while (bitCount <= 24) {
+      int value = 0;
+      if (!isAtMarker && position < length) {
+        value = data[position] & 0xFF;
+        if (value != 0xFF) {
+          ++position;
+        } else if (position + 1 < length && data[position + 1] == 0) {
+          // Stuffed zero byte.
+          position += 2;
+        } else {
+          isAtMarker = true;
+          value = 0;
+          paddingBits += 8;
+        }
+      } else {
+        paddingBits += 8;
+      }
+      bitBuffer |= value << (24 - bitCount);
+      bitCount += 8;
+    }
+  }
+
+  private void resetBits() {
+    bitBuffer = 0;
+    bitCount = 0;
+    paddingBits = 0;
+    isAtMarker = false;
+  }
+
+  // Returns true if bits past the end of the entropy coded data were decoded.
+  private boolean hasReadPadding() {
+    return paddingBits > bitCount;
+  }
+
+  private boolean restart() {
+    if (hasReadPadding()) {
+      return false;
+    }
+    resetBits();
+    // Find the RSTn marker; the data before it belongs to no block.
+    while (position + 1 < length) {
+      if ((data[position] & 0xFF) == 0xFF) {
+        final int marker = data[position + 1] & 0xFF;
+        if (marker >= 0xD0 && marker <= 0xD7) {
+          position += 2;
+          for (int i = 0; i < componentCount; ++i) {
+            components[i].dcPrediction = 0;
+          }
+          return true;
+        }
+        if (marker != 0 && marker != 0xFF) {
+          return false;
+        }
+      }
+      ++position;
+    }
+    return false;
+  }
+
+  private void idct(int lastIndex, byte[] out, int offset, int stride) {
+    if (lastIndex == 0) {
+      // Only the DC coefficient: a flat block.
+      final byte value = clamp(((block[0] + 4) >> 3) + 128);
+      for (int y = 0; y < 8; ++y) {
+        Arrays.fill(out, offset + y * stride, offset + y * stride + 8, value);
+      }
+      return;
+    }
+    final int[] workspace = idctWorkspace;
+    // Columns.
+    for (int column = 0; column < 8; ++column) {
+      final int in0 = block[column];
+      final int in1 = block[8 + column];
+      final int in2 = block[16 + column];
+      final int in3 = block[24 + column];
+      final int in4 = block[32 + column];
+      final int in5 = block[40 + column];
+      final int in6 = block[48 + column];
+      final int in7 = block[56 + column];
+      if ((in1 | in2 | in3 | in4 | in5 | in6 | in7) == 0) {
+        final int dc = in0 << PASS1_BITS;
+        for (int row = 0; row < 8; ++row) {
+          workspace[row * 8 + column] = dc;
+        }
+        continue;
+      }
+      idct1d(in0, in1, in2, in3, in4, in5, in6, in7, workspace, column, 8,
+          CONST_BITS - PASS1_BITS, 0);
+    }
+    // Rows, with the level shift.
+    for (int row = 0; row < 8; ++row) {
+      final int base = row * 8;
+      idct1d(workspace[base], workspace[base + 1], workspace[base + 2], workspace[base + 3],
+          workspace[base + 4], workspace[base + 5], workspace[base + 6], workspace[base + 7],
+          workspace, base, 1, CONST_BITS + PASS1_BITS + 3, 128);
+      final int rowOffset = offset + row * stride;
+      for (int i = 0; i < 8; ++i) {
+        out[rowOffset + i] = clamp(workspace[base + i]);
+      }
+    }
+  }
+
+  // One dimensional IDCT of in0..in7 into out[offset + i * step], descaled by |shift| bits.
+  // Reads all inputs before writing, so |out| may hold the inputs.
+  private static void idct1d(int in0, int in1, int in2, int in3, int in4, int in5, int in6,
+      int in7, int[] out, int offset, int step, int shift, int level) {
+    // Even part.
+    int z1 = (in2 + in6) * FIX_0_541196100;
+    final int tmp2 = z1 - in6 * FIX_1_847759065;
+    final int tmp3 = z1 + in2 * FIX_0_765366865;
+    final int tmp0 = (in0 + in4) << CONST_BITS;
+    final int tmp1 = (in0 - in4) << CONST_BITS;
+    final int tmp10 = tmp0 + tmp3;
+    final int tmp13 = tmp0 - tmp3;
+    final int tmp11 = tmp1 + tmp2;
+    final int tmp12 = tmp1 - tmp2;
+
+    // Odd part.
+    z1 = in7 + in1;
+    int z2 = in5 + in3;
+    int z3 = in7 + in3;
+    int z4 = in5 + in1;
+    final int z5 = (z3 + z4) * FIX_1_175875602;
+    int odd0 = in7 * FIX_0_298631336;
+    int odd1 = in5 * FIX_2_053119869;
+    int odd2 = in3 * FIX_3_072711026;
+    int odd3 = in1 * FIX_1_501321110;
+    z1 *= -FIX_0_899976223;
+    z2 *= -FIX_2_562915447;
+    z3 = z3 * -FIX_1_961570560 + z5;
+    z4 = z4 * -FIX_0_390180644 + z5;
+    odd0 += z1 + z3;
+    odd1 += z2 + z4;
+    odd2 += z2 + z3;
+    odd3 += z1 + z4;
+
+    final int round = (1 << (shift - 1)) + (level << shift);
+    out[offset] = (tmp10 + odd3 + round) >> shift;
+    out[offset + 7 * step] = (tmp10 - odd3 + round) >> shift;
+    out[offset + step] = (tmp11 + odd2 + round) >> shift;
+    out[offset + 6 * step] = (tmp11 - odd2 + round) >> shift;
+    out[offset + 2 * step] = (tmp12 + odd1 + round) >> shift;
+    out[offset + 5 * step] = (tmp12 - odd1 + round) >> shift;
+    out[offset + 3 * step] = (tmp13 + odd0 + round) >> shift;
+    out[offset + 4 * step] = (tmp13 - odd0 + round) >> shift;
+  }
+
+  // Resamples a chroma plane to the I420 chroma size; cameras send 4:2:2 mostly, then 4:2:0.
+  private void writeChroma(
+      Component component, ByteBuffer out, int stride, int chromaWidth, int chromaHeight) {
+    // Ratio of the component resolution to the I420 chroma resolution, times 2.
+    final int scaleX = 4 * component.horizontalSampling / maxHorizontalSampling;
+    final int scaleY = 4 * component.verticalSampling / maxVerticalSampling;
+    final byte[] plane = component.plane;
+    final int planeStride = component.planeStride;
+    final ByteBuffer row = out.duplicate();
+    if (rowBuffer.length < chromaWidth) {
+      rowBuffer = new byte[chromaWidth];
+    }
+    for (int y = 0; y < chromaHeight; ++y) {
+      // The component rows that cover output row y.
+      final int row0 = (y * scaleY / 2) * planeStride;
+      final int row1 = scaleY >= 4 ? row0 + planeStride : row0;
+      for (int x = 0; x < chromaWidth; ++x) {
+        final int column0 = x * scaleX / 2;
+        final int column1 = scaleX >= 4 ? column0 + 1 : column0;
+        rowBuffer[x] = (byte) (((plane[row0 + column0] & 0xFF) + (plane[row0 + column1] & 0xFF)
+            + (plane[row1 + column0] & 0xFF) + (plane[row1 + column1] & 0xFF) + 2) >> 2);
+      }
+      row.position(y * stride);
+      row.put(rowBuffer, 0, chromaWidth);
+    }
+  }
+
+  private static void fillPlane(ByteBuffer plane, int stride, int width, int height) {
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        plane.put(y * stride + x, (byte) 128);
+      }
+    }
+  }
+
+  private int readShort(int offset) {
+    return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+  }
+
+  private static int extend(int value, int bits) {
+    return value < (1 << (bits - 1)) ? value - (1 << bits) + 1 : value;
+  }
+
+  private static byte clamp(int value) {
+    return (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+  }
+
+  private static int divideRoundUp(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+
+/**
+ * An implementation of VideoCapturer for producers of MJPEG frames, such as USB cameras streaming
+ * MJPEG at resolutions that YUYV cannot carry over USB 2.0. The producer passes each JPEG payload
+ * to {@link #onMjpegFrame}, which copies it and returns. The frames are decoded to I420 on a
+ * decode stage of its own, so a slow decode never blocks the USB transfer thread.
+ *
+ * <p>The decode stage has one thread per worker. Frames go to the workers in turn, so with two
+ * workers consecutive frames are decoded in parallel on two cores, and a framerate that one core
+ * cannot keep up with still gets through. A frame that arrives while all workers are busy is
+ * dropped, so the delay stays at one decode. Decoded frames are passed on in the order they
+ * arrived, in buffers of an {@link I420BufferPool}, on the worker threads but one at a time.
+ *
+ * <p>Frames keep the timestamp passed by the producer, so the decode time does not affect A/V
+ * sync.
+ */
+public class MjpegVideoCapturer implements VideoCapturer {
+  private static final String TAG = "MjpegVideoCapturer";
+  private static final int MAX_DECODE_THREADS = 2;
+  // Decoded frames held by the encoder and the frames in the decode stage.
+  private static final int POOL_BUFFERS_PER_SIZE = 3 + MAX_DECODE_THREADS;
+
+  private class DecodeWorker implements Runnable {
+    final MjpegDecoder decoder = new MjpegDecoder();
+    final HandlerThread thread;
+    final Handler handler;
+    // Written under |lock| while idle, read on |thread| while busy.
+    byte[] payload = new byte[0];
+    int payloadLength;
+    long timestampNs;
+    long sequence;
+    boolean isBusy;
+
+    DecodeWorker(int index) {
+      thread = new HandlerThread(TAG + index);
+      thread.start();
+      handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public void run() {
+      final long startNs = System.nanoTime();
+      VideoFrame frame = null;
+      if (decoder.decode(payload, payloadLength)) {
+        final JavaI420Buffer buffer =
+            bufferPool.acquire(decoder.getWidth(), decoder.getHeight());
+        decoder.writeI420(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
+            buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV());
+        frame = new VideoFrame(buffer, 0 /* rotation */, timestampNs);
+      }
+      onFrameDecoded(this, sequence, frame, System.nanoTime() - startNs);
+    }
+  }
+
+  private final int decodeThreads;
+  private final I420BufferPool bufferPool = new I420BufferPool(POOL_BUFFERS_PER_SIZE);
+  private final CaptureTimingReport captureTimingReport = new CaptureTimingReport();
+
+  @Nullable private CapturerObserver capturerObserver;
+  private boolean isDisposed;
+
+  private final Object lock = new Object();
+  // All below synchronized on |lock|.
+  @Nullable private DecodeWorker[] workers;
+  private int nextWorker;
+  private long nextSequence;
+  private long nextDeliverySequence;
+  // Decoded frames waiting for an earlier frame; null values stand for corrupt frames.
+  private final TreeMap<Long, VideoFrame> decodedFrames = new TreeMap<>();
+  private long numDecodedFrames;
+  private long numDroppedFrames;
+  private long numCorruptFrames;
+  private long totalDecodeTimeNs;
+
+  /** Decodes on up to two threads, depending on the number of cores. */
+  public MjpegVideoCapturer() {
+    this(Math.min(MAX_DECODE_THREADS, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /** @param decodeThreads number of frames decoded in parallel, 1 or 2 */
+  public MjpegVideoCapturer(int decodeThreads) {
+    if (decodeThreads < 1 || decodeThreads > MAX_DECODE_THREADS) {
+      throw new IllegalArgumentException("Unsupported number of decode threads: " + decodeThreads);
+    }
+    this.decodeThreads = decodeThreads;
+  }
+
+  private void checkNotDisposed() {
+    if (isDisposed) {
+      throw new RuntimeException("capturer is disposed.");
+    }
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void initialize(@Nullable final SurfaceTextureHelper surfaceTextureHelper,
+      final Context applicationContext, final CapturerObserver capturerObserver) {
+    checkNotDisposed();
+
+    if (capturerObserver == null) {
+      throw new RuntimeException("capturerObserver not set.");
+    }
+    this.capturerObserver = capturerObserver;
+  }
+
+  /** The frame size is that of the decoded frames; the framerate is that of the producer. */
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void startCapture(
+      final int ignoredWidth, final int ignoredHeight, final int ignoredFramerate) {
+    checkNotDisposed();
+    synchronized (lock) {
+      if (workers != null) {
+        return;
+      }
+      Logging.d(TAG, "startCapture with " + decodeThreads + " decode threads.");
+      workers = new DecodeWorker[decodeThreads];
+      for (int i = 0; i < decodeThreads; ++i) {
+        workers[i] = new DecodeWorker(i);
+      }
+      nextWorker = 0;
+      nextSequence = 0;
+      nextDeliverySequence = 0;
+      captureTimingReport.reset();
+    }
+    capturerObserver.onCapturerStarted(true);
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void stopCapture() {
+    checkNotDisposed();
+    final DecodeWorker[] stoppedWorkers;
+    synchronized (lock) {
+      if (workers == null) {
+        return;
+      }
+      stoppedWorkers = workers;
+      workers = null;
+      releaseDecodedFramesLocked();
+    }
+    // Wait for decodes in progress; their frames are dropped.
+    for (final DecodeWorker worker : stoppedWorkers) {
+      ThreadUtils.invokeAtFrontUninterruptibly(worker.handler, new Runnable() {
+        @Override
+        public void run() {
+          worker.thread.quit();
+        }
+      });
+    }
+    capturerObserver.onCapturerStopped();
+    Logging.d(TAG, "stopCapture done. " + getStatsString());
+    Logging.d(TAG, "Capture timing: " + captureTimingReport);
+  }
+
+  @Override
+  public void changeCaptureFormat(
+      final int ignoredWidth, final int ignoredHeight, final int ignoredFramerate) {
+    // The format is decided by the producer.
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void dispose() {
+    if (isDisposed) {
+      return;
+    }
+    stopCapture();
+    bufferPool.dispose();
+    isDisposed = true;
+  }
+
+  @Override
+  public boolean isScreencast() {
+    return false;
+  }
+
+  /**
+   * Queues the JPEG frame in |data|, from its position to its limit, for decoding. Returns false
+   * if it is dropped because capture is stopped or all decode threads are busy. |data| is copied,
+   * so it may be reused when this returns.
+   *
+   * @param timestampNs capture time on the clock of System.nanoTime(), ideally when the first
+   *     byte of the frame arrived
+   */
+  public boolean onMjpegFrame(ByteBuffer data, long timestampNs) {
+    synchronized (lock) {
+      final DecodeWorker worker = takeIdleWorkerLocked();
+      if (worker == null) {
+        return false;
+      }
+      final int length = data.remaining();
+      if (worker.payload.length < length) {
+        worker.payload = new byte[length];
+      }
+      data.duplicate().get(worker.payload, 0, length);
+      queueLocked(worker, length, timestampNs);
+      return true;
+    }
+  }
+
+  /** Like {@link #onMjpegFrame(ByteBuffer, long)}, for the first |length| bytes of |data|. */
+  public boolean onMjpegFrame(byte[] data, int length, long timestampNs) {
+    synchronized (lock) {
+      final DecodeWorker worker = takeIdleWorkerLocked();
+      if (worker == null) {
+        return false;
+      }
+      if (worker.payload.length < length) {
+        worker.payload = new byte[length];
+      }
+      System.arraycopy(data, 0, worker.payload, 0, length);
+      queueLocked(worker, length, timestampNs);
+      return true;
+    }
+  }
+
+  public long getNumDecodedFrames() {
+    synchronized (lock) {
+      return numDecodedFrames;
+    }
+  }
+
+  /** Frames dropped because all decode threads were busy. */
+  public long getNumDroppedFrames() {
+    synchronized (lock) {
+      return numDroppedFrames;
+    }
+  }
+
+  /** Frames that were truncated, corrupt or not baseline JPEG. */
+  public long getNumCorruptFrames() {
+    synchronized (lock) {
+      return numCorruptFrames;
+    }
+  }
+
+  /** Average time to decode a frame on one thread, in milliseconds. */
+  public double getAverageDecodeTimeMs() {
+    synchronized (lock) {
+      final long frames = numDecodedFrames + numCorruptFrames;
+      return frames == 0 ? 0 : totalDecodeTimeNs / 1e6 / frames;
+    }
+  }
+
+  /** Returns the frame interval statistics of the decoded frames since the last startCapture. */
+  public CaptureTimingReport getCaptureTimingReport() {
+    return captureTimingReport;
+  }
+
+  // The next worker in turn, or any idle one if it is busy; marks it busy.
+  @Nullable
+  private DecodeWorker takeIdleWorkerLocked() {
+    if (workers == null) {
+      return null;
+    }
+    for (int i = 0; i < workers.length; ++i) {
+      final DecodeWorker worker = workers[(nextWorker + i) % workers.length];
+      if (!worker.isBusy) {
+        nextWorker = (nextWorker + i + 1) % workers.length;
+        worker.isBusy = true;
+        return worker;
+      }
+    }
+    ++numDroppedFrames;
+    return null;
+  }
+
+  private void queueLocked(DecodeWorker worker, int length, long timestampNs) {
+    worker.payloadLength = length;
+    worker.timestampNs = timestampNs;
+    worker.sequence = nextSequence++;
+    worker.handler.post(worker);
+  }
+
+  // Called on the worker thread. |frame| is null if the frame could not be decoded.
+  private void onFrameDecoded(
+      DecodeWorker worker, long sequence, @Nullable VideoFrame frame, long decodeTimeNs) {
+    synchronized (lock) {
+      worker.isBusy = false;
+      totalDecodeTimeNs += decodeTimeNs;
+      if (frame == null) {
+        ++numCorruptFrames;
+      } else {
+        ++numDecodedFrames;
+      }
+      if (workers == null) {
+        // Stopped.
+        if (frame != null) {
+          frame.release();
+        }
+        return;
+      }
+      decodedFrames.put(sequence, frame);
+      // Pass on the frames that are next in order. The observer is called under the lock, so
+      // frames decoded on different threads reach it one at a time.
+      while (!decodedFrames.isEmpty() && decodedFrames.firstKey() == nextDeliverySequence) {
+        final VideoFrame next = decodedFrames.pollFirstEntry().getValue();
+        ++nextDeliverySequence;
+        if (next != null) {
+          captureTimingReport.addFrame(System.nanoTime(), next.getTimestampNs());
+          capturerObserver.onFrameCaptured(next);
+          next.release();
+        }
+      }
+    }
+  }
+
+  private void releaseDecodedFramesLocked() {
+    for (VideoFrame frame : decodedFrames.values()) {
+      if (frame != null) {
+        frame.release();
+      }
+    }
+    decodedFrames.clear();
+  }
+
+  private String getStatsString() {
+    synchronized (lock) {
+      return "Decoded " + numDecodedFrames + " frames in "
+          + String.format("%.1f", getAverageDecodeTimeMs()) + " ms on average, dropped "
+          + numDroppedFrames + ", corrupt " + numCorruptFrames + ", pool misses "
+          + bufferPool.getMissCount() + ".";
+    }
+  }
+}
@@ -64,6 +64,14 @@ public class NV21Buffer implements VideoFrame.Buffer {
     return newBuffer;
   }
 
+  /** Crops and scales into |dst|, which must be of the scaled size, without allocating. */
+  void cropAndScale(
+      int cropX, int cropY, int cropWidth, int cropHeight, VideoFrame.I420Buffer dst) {
+    nativeCropAndScale(cropX, cropY, cropWidth, cropHeight, dst.getWidth(), dst.getHeight(), data,
+        width, height, dst.getDataY(), dst.getStrideY(), dst.getDataU(), dst.getStrideU(),
+        dst.getDataV(), dst.getStrideV());
+  }
+
   private static native void nativeCropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
       int scaleWidth, int scaleHeight, byte[] src, int srcWidth, int srcHeight, ByteBuffer dstY,
       int dstStrideY, ByteBuffer dstU, int dstStrideU, ByteBuffer dstV, int dstStrideV);
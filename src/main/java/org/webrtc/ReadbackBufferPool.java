@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct ByteBuffers of a single size. Buffers of another size are dropped on release, so
+ * the pool adapts when the frame size changes. Buffers may be released on any thread.
+ */
+class ReadbackBufferPool {
+  private final int maxPooledBuffers;
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+  private int bufferCapacity;
+  private int allocationCount;
+
+  ReadbackBufferPool(int maxPooledBuffers) {
+    this.maxPooledBuffers = maxPooledBuffers;
+  }
+
+  /** Returns a cleared buffer of exactly |capacity| bytes. */
+  synchronized ByteBuffer acquire(int capacity) {
+    if (capacity != bufferCapacity) {
+      freeBuffers.clear();
+      bufferCapacity = capacity;
+    }
+    ByteBuffer buffer = freeBuffers.poll();
+    if (buffer == null) {
+      ++allocationCount;
+      buffer = ByteBuffer.allocateDirect(capacity);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  synchronized void release(ByteBuffer buffer) {
+    if (buffer.capacity() == bufferCapacity && freeBuffers.size() < maxPooledBuffers) {
+      freeBuffers.add(buffer);
+    }
+  }
+
+  synchronized int getFreeCount() {
+    return freeBuffers.size();
+  }
+
+  /** Returns the number of buffers allocated since construction. */
+  synchronized int getAllocationCount() {
+    return allocationCount;
+  }
+
+  synchronized void clear() {
+    freeBuffers.clear();
+  }
+}
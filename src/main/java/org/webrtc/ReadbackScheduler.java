@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Slot rotation for pipelined GPU readback. Frames are rendered into a ring of |depth| slots and
+ * each slot is read back |depth - 1| frames later, so that the GPU has finished writing it by the
+ * time the CPU maps it. A depth of 1 reads back every frame immediately. This class contains no GL
+ * calls and is not thread safe; it is used from the GL thread only.
+ */
+class ReadbackScheduler {
+  private final int depth;
+  // Slot that the next frame is rendered into.
+  private int writeSlot;
+  // Number of slots that have been rendered into but not read back yet.
+  private int pendingCount;
+
+  ReadbackScheduler(int depth) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("Readback depth must be positive, but was " + depth);
+    }
+    this.depth = depth;
+  }
+
+  int getDepth() {
+    return depth;
+  }
+
+  int getPendingCount() {
+    return pendingCount;
+  }
+
+  /**
+   * Claims the slot for a new frame. All slots being pending means that a previous frame was
+   * submitted without polling, which is a usage error.
+   */
+  int submit() {
+    if (pendingCount == depth) {
+      throw new IllegalStateException("All " + depth + " readback slots are pending.");
+    }
+    final int slot = writeSlot;
+    writeSlot = (writeSlot + 1) % depth;
+    ++pendingCount;
+    return slot;
+  }
+
+  /**
+   * Returns the slot that should be read back now, or -1 while the pipeline is still filling. Call
+   * once after every submit().
+   */
+  int poll() {
+    if (pendingCount < depth) {
+      return -1;
+    }
+    return takeOldest();
+  }
+
+  /** Returns the oldest pending slot regardless of fill level, or -1 if nothing is pending. */
+  int flush() {
+    if (pendingCount == 0) {
+      return -1;
+    }
+    return takeOldest();
+  }
+
+  /** Drops all pending slots without reading them back. */
+  void reset() {
+    writeSlot = 0;
+    pendingCount = 0;
+  }
+
+  private int takeOldest() {
+    final int slot = (writeSlot - pendingCount + depth) % depth;
+    --pendingCount;
+    return slot;
+  }
+}
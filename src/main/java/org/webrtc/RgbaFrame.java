@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * A video frame read back as RGBA pixels, delivered to an {@link EglRenderer.RgbaFrameListener}.
+ * The pixel memory belongs to a pool and is reused for a later frame once {@link #release} has
+ * been called, so the frame must not be accessed after that.
+ */
+public class RgbaFrame {
+  private final RgbaFramePool pool;
+  private final int width;
+  private final int height;
+  private final ByteBuffer buffer;
+  @Nullable private final Bitmap bitmap;
+  private long timestampNs;
+  private int skippedFrames;
+  // Set while the frame is held by the listener. Guarded by the lock of |pool|.
+  boolean isInUse;
+
+  RgbaFrame(RgbaFramePool pool, int width, int height, @Nullable Bitmap bitmap) {
+    this.pool = pool;
+    this.width = width;
+    this.height = height;
+    this.buffer = ByteBuffer.allocateDirect(width * height * 4);
+    this.bitmap = bitmap;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the pixels as tightly packed RGBA rows, top row first. The buffer is read-only from the
+   * point of view of the listener; its position and limit may be changed.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Returns a Bitmap with the same pixels, or null if the listener was registered without Bitmap
+   * creation. The Bitmap is reused like the buffer and must not be recycled by the listener.
+   */
+  @Nullable
+  public Bitmap getBitmap() {
+    return bitmap;
+  }
+
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  /**
+   * Returns the number of frames that were not delivered to the listener since the previous
+   * delivered frame, either because of its rate limit or because all pooled frames were still held
+   * by the listener.
+   */
+  public int getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /**
+   * Returns the frame to its pool. May be called on any thread, once per delivered frame; a second
+   * call throws IllegalStateException.
+   */
+  public void release() {
+    pool.release(this);
+  }
+
+  void setFrameInfo(long timestampNs, int skippedFrames) {
+    this.timestampNs = timestampNs;
+    this.skippedFrames = skippedFrames;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+
+/**
+ * Fixed size pool of {@link RgbaFrame}s of one resolution. When every frame is held by the
+ * listener, acquire() returns null and the caller skips the frame, so a slow listener throttles
+ * capture instead of causing allocations. Frames may be released on any thread.
+ */
+class RgbaFramePool {
+  private final int maxFrames;
+  private final boolean createBitmap;
+  private final ArrayDeque<RgbaFrame> freeFrames = new ArrayDeque<>();
+  private int width;
+  private int height;
+  // Number of frames of the current resolution, free or held by the listener.
+  private int frameCount;
+  private boolean isDisposed;
+
+  RgbaFramePool(int maxFrames, boolean createBitmap) {
+    if (maxFrames < 1) {
+      throw new IllegalArgumentException("Pool size must be positive, but was " + maxFrames);
+    }
+    this.maxFrames = maxFrames;
+    this.createBitmap = createBitmap;
+  }
+
+  /** Returns a free frame of the given size, or null if all frames are in use. */
+  @Nullable
+  synchronized RgbaFrame acquire(int width, int height) {
+    if (width != this.width || height != this.height) {
+      recycleFreeFrames();
+      this.width = width;
+      this.height = height;
+      frameCount = 0;
+    }
+    RgbaFrame frame = freeFrames.poll();
+    if (frame == null && frameCount < maxFrames) {
+      ++frameCount;
+      final Bitmap bitmap =
+          createBitmap ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+      frame = new RgbaFrame(this, width, height, bitmap);
+    }
+    if (frame != null) {
+      frame.isInUse = true;
+    }
+    return frame;
+  }
+
+  synchronized void release(RgbaFrame frame) {
+    // A frame released twice would be handed out to two users at once.
+    if (!frame.isInUse) {
+      throw new IllegalStateException("RgbaFrame released more than once.");
+    }
+    frame.isInUse = false;
+    if (isDisposed || frame.getWidth() != width || frame.getHeight() != height) {
+      recycle(frame);
+      return;
+    }
+    freeFrames.add(frame);
+  }
+
+  /** Frees the pooled frames. Frames held by the listener are freed when they are released. */
+  synchronized void dispose() {
+    isDisposed = true;
+    recycleFreeFrames();
+  }
+
+  private void recycleFreeFrames() {
+    for (RgbaFrame frame : freeFrames) {
+      recycle(frame);
+    }
+    freeFrames.clear();
+  }
+
+  private static void recycle(RgbaFrame frame) {
+    final Bitmap bitmap = frame.getBitmap();
+    if (bitmap != null) {
+      bitmap.recycle();
+    }
+  }
+}
@@ -32,6 +32,11 @@ import android.view.Surface;
  * the native code returns the buffer to the  {@code SurfaceTextureHelper} to be used for new
  * frames. At any time, at most one frame is being processed.
  *
+ * <p>For screen sharing in e.g. remote support, construct the capturer with a minimum framerate to
+ * make it content adaptive. Frames of a static screen are then suppressed, except for a keepalive
+ * frame per keepalive interval, and the framerate rises from the minimum to the framerate of
+ * startCapture() with the amount of motion on the screen.
+ *
  * @note This class is only supported on Android Lollipop and above.
  */
 @TargetApi(21)
@@ -40,9 +45,15 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
       DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC | DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
   // DPI for VirtualDisplay, does not seem to matter for us.
   private static final int VIRTUAL_DISPLAY_DPI = 400;
+  private static final String TAG = "ScreenCapturerAndroid";
+
+  /** Keepalive interval of content adaptive capture if none is given. */
+  public static final int DEFAULT_KEEP_ALIVE_MS = 1000;
 
   private final Intent mediaProjectionPermissionResultData;
   private final MediaProjection.Callback mediaProjectionCallback;
+  private final int minFramerate;
+  private final int keepAliveMs;
 
   private int width;
   private int height;
@@ -53,6 +64,8 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Nullable private MediaProjection mediaProjection;
   private boolean isDisposed;
   @Nullable private MediaProjectionManager mediaProjectionManager;
+  // Created in startCapture() if content adaptive. Kept after stopCapture() for its statistics.
+  @Nullable private volatile ScreenShareFrameFilter frameFilter;
 
   /**
    * Constructs a new Screen Capturer.
@@ -65,8 +78,26 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   **/
   public ScreenCapturerAndroid(Intent mediaProjectionPermissionResultData,
       MediaProjection.Callback mediaProjectionCallback) {
+    this(mediaProjectionPermissionResultData, mediaProjectionCallback, 0 /* minFramerate */,
+        0 /* keepAliveMs */);
+  }
+
+  /**
+   * Constructs a content adaptive Screen Capturer.
+   *
+   * @param minFramerate framerate of small changes, e.g. typing; 0 passes on every frame
+   * @param keepAliveMs interval of keepalive frames while the screen is static, 0 to disable them
+   */
+  public ScreenCapturerAndroid(Intent mediaProjectionPermissionResultData,
+      MediaProjection.Callback mediaProjectionCallback, int minFramerate, int keepAliveMs) {
+    if (minFramerate < 0 || keepAliveMs < 0) {
+      throw new IllegalArgumentException(
+          "Invalid minFramerate " + minFramerate + " or keepAliveMs " + keepAliveMs);
+    }
     this.mediaProjectionPermissionResultData = mediaProjectionPermissionResultData;
     this.mediaProjectionCallback = mediaProjectionCallback;
+    this.minFramerate = minFramerate;
+    this.keepAliveMs = keepAliveMs;
   }
 
   private void checkNotDisposed() {
@@ -99,8 +130,7 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Override
   // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
   @SuppressWarnings("NoSynchronizedMethodCheck")
-  public synchronized void startCapture(
-      final int width, final int height, final int ignoredFramerate) {
+  public synchronized void startCapture(final int width, final int height, final int framerate) {
     checkNotDisposed();
 
     this.width = width;
@@ -113,6 +143,10 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
     mediaProjection.registerCallback(mediaProjectionCallback, surfaceTextureHelper.getHandler());
 
     createVirtualDisplay();
+    if (minFramerate > 0) {
+      frameFilter = new ScreenShareFrameFilter(surfaceTextureHelper.getHandler(),
+          capturerObserver, minFramerate, framerate, keepAliveMs);
+    }
     capturerObserver.onCapturerStarted(true);
     surfaceTextureHelper.startListening(ScreenCapturerAndroid.this);
   }
@@ -125,6 +159,14 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
     ThreadUtils.invokeAtFrontUninterruptibly(surfaceTextureHelper.getHandler(), new Runnable() {
       @Override
       public void run() {
+        if (frameFilter != null) {
+          frameFilter.release();
+          Logging.d(TAG,
+              "Content adaptive capture stopped. Frames sent: " + frameFilter.getFramesSent()
+                  + ", suppressed: " + frameFilter.getFramesSuppressed()
+                  + ", keepalive: " + frameFilter.getKeepAliveFramesSent()
+                  + ", suppressed bytes: " + frameFilter.getSuppressedBytes());
+        }
         surfaceTextureHelper.stopListening();
         capturerObserver.onCapturerStopped();
 
@@ -154,18 +196,20 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   /**
    * Changes output video format. This method can be used to scale the output
    * video, or to change orientation when the captured screen is rotated for example.
+   * The virtual display is resized rather than recreated.
    *
    * @param width new output video width
    * @param height new output video height
-   * @param ignoredFramerate ignored
+   * @param framerate new maximum framerate of content adaptive capture, otherwise ignored
    */
   @Override
   // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
   @SuppressWarnings("NoSynchronizedMethodCheck")
   public synchronized void changeCaptureFormat(
-      final int width, final int height, final int ignoredFramerate) {
+      final int width, final int height, final int framerate) {
     checkNotDisposed();
 
+    final boolean sizeChanged = width != this.width || height != this.height;
     this.width = width;
     this.height = height;
 
@@ -174,14 +218,19 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
       return;
     }
 
-    // Create a new virtual display on the surfaceTextureHelper thread to avoid interference
+    // Resize the virtual display on the surfaceTextureHelper thread to avoid interference
     // with frame processing, which happens on the same thread (we serialize events by running
     // them on the same thread).
     ThreadUtils.invokeAtFrontUninterruptibly(surfaceTextureHelper.getHandler(), new Runnable() {
       @Override
       public void run() {
-        virtualDisplay.release();
-        createVirtualDisplay();
+        if (frameFilter != null) {
+          frameFilter.setMaxFramerate(framerate);
+        }
+        if (sizeChanged) {
+          surfaceTextureHelper.setTextureSize(width, height);
+          virtualDisplay.resize(width, height, VIRTUAL_DISPLAY_DPI);
+        }
       }
     });
   }
@@ -197,7 +246,11 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   @Override
   public void onFrame(VideoFrame frame) {
     numCapturedFrames++;
-    capturerObserver.onFrameCaptured(frame);
+    if (frameFilter != null) {
+      frameFilter.onFrame(frame);
+    } else {
+      capturerObserver.onFrameCaptured(frame);
+    }
   }
 
   @Override
@@ -208,4 +261,32 @@ public class ScreenCapturerAndroid implements VideoCapturer, VideoSink {
   public long getNumCapturedFrames() {
     return numCapturedFrames;
   }
+
+  /** Returns the number of frames sent in the last content adaptive capture, with keepalives. */
+  public long getNumSentFrames() {
+    final ScreenShareFrameFilter filter = frameFilter;
+    return filter == null ? numCapturedFrames : filter.getFramesSent();
+  }
+
+  /** Returns the number of unchanged frames suppressed in the last content adaptive capture. */
+  public long getNumSuppressedFrames() {
+    final ScreenShareFrameFilter filter = frameFilter;
+    return filter == null ? 0 : filter.getFramesSuppressed();
+  }
+
+  /** Returns the number of keepalive frames sent in the last content adaptive capture. */
+  public long getNumKeepAliveFrames() {
+    final ScreenShareFrameFilter filter = frameFilter;
+    return filter == null ? 0 : filter.getKeepAliveFramesSent();
+  }
+
+  /**
+   * Returns the I420 size of the frames suppressed in the last content adaptive capture, i.e. the
+   * raw video the encoder did not have to process. The saving in encoded bytes depends on the
+   * encoder, which spends few bits on an unchanged frame but still has to encode it.
+   */
+  public long getSuppressedBytes() {
+    final ScreenShareFrameFilter filter = frameFilter;
+    return filter == null ? 0 : filter.getSuppressedBytes();
+  }
 }
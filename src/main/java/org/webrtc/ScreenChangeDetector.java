@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Detects which part of a screen frame changed, from a signature of the frame downsampled by
+ * CELL_SIZE in both dimensions. Every pixel contributes to its cell, so small changes like a
+ * typed character are found. Frames are compared to a reference, which is the last frame passed
+ * to {@link #setReference}.
+ *
+ * <p>Texture frames are downsampled on the GPU in two box filter passes of 4x4, so only the
+ * signature is read back. The EGL context of the texture must be current when calling
+ * detectChange() and release(). I420 frames are downsampled on the CPU.
+ */
+class ScreenChangeDetector {
+  private static final int CELL_SIZE = 16;
+  // Each pass averages 4x4 pixels using four bilinear samples, each between four pixels.
+  private static final int PASS_SCALE = 4;
+  // Cells differing by at most this much are unchanged; hides rounding in the GPU passes.
+  private static final int CELL_THRESHOLD = 1;
+
+  private static final String BOX_FILTER_FRAGMENT_SHADER = "uniform vec2 xUnit;\n"
+      + "uniform vec2 yUnit;\n"
+      + "void main() {\n"
+      + "  gl_FragColor = 0.25 * (sample(tc - xUnit - yUnit) + sample(tc + xUnit - yUnit)\n"
+      + "      + sample(tc - xUnit + yUnit) + sample(tc + xUnit + yUnit));\n"
+      + "}\n";
+
+  private static class BoxFilterShaderCallbacks implements GlGenericDrawer.ShaderCallbacks {
+    private int xUnitLoc;
+    private int yUnitLoc;
+
+    @Override
+    public void onNewShader(GlShader shader) {
+      xUnitLoc = shader.getUniformLocation("xUnit");
+      yUnitLoc = shader.getUniformLocation("yUnit");
+    }
+
+    @Override
+    public void onPrepareShader(GlShader shader, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportWidth, int viewportHeight) {
+      // One input pixel along x and y in texture coordinates. Note that OpenGL uses column major
+      // order.
+      GLES20.glUniform2f(xUnitLoc, texMatrix[0] / frameWidth, texMatrix[1] / frameWidth);
+      GLES20.glUniform2f(yUnitLoc, texMatrix[4] / frameHeight, texMatrix[5] / frameHeight);
+    }
+  }
+
+  private static final float[] IDENTITY_MATRIX = new float[] {
+      1, 0, 0, 0,
+      0, 1, 0, 0,
+      0, 0, 1, 0,
+      0, 0, 0, 1};
+
+  // Created on first use of a texture frame.
+  @Nullable private GlGenericDrawer boxFilterDrawer;
+  @Nullable private GlTextureFrameBuffer firstPass;
+  @Nullable private GlTextureFrameBuffer secondPass;
+  @Nullable private ByteBuffer readbackBuffer;
+  private final Matrix identityMatrix = new Matrix();
+
+  // Signature of the last frame and of the reference frame, one luma byte per cell.
+  private byte[] signature = new byte[0];
+  private byte[] reference = new byte[0];
+  private int signatureWidth;
+  private int signatureHeight;
+  private int referenceWidth;
+  private int referenceHeight;
+
+  /**
+   * Computes the signature of |frame| and returns the fraction of cells that changed since the
+   * reference frame, or 1 if there is no reference of the same size.
+   */
+  float detectChange(VideoFrame frame) {
+    final VideoFrame.Buffer buffer = frame.getBuffer();
+    if (buffer instanceof VideoFrame.TextureBuffer) {
+      computeTextureSignature((VideoFrame.TextureBuffer) buffer);
+    } else {
+      final VideoFrame.I420Buffer i420Buffer = buffer.toI420();
+      computeI420Signature(i420Buffer);
+      i420Buffer.release();
+    }
+    if (signatureWidth != referenceWidth || signatureHeight != referenceHeight) {
+      return 1f;
+    }
+    int changedCells = 0;
+    final int cells = signatureWidth * signatureHeight;
+    for (int i = 0; i < cells; ++i) {
+      if (Math.abs((signature[i] & 0xFF) - (reference[i] & 0xFF)) > CELL_THRESHOLD) {
+        ++changedCells;
+      }
+    }
+    return changedCells / (float) cells;
+  }
+
+  /** Makes the frame of the last detectChange() call the reference for the next calls. */
+  void setReference() {
+    final byte[] previousReference = reference;
+    reference = signature;
+    referenceWidth = signatureWidth;
+    referenceHeight = signatureHeight;
+    signature = previousReference;
+  }
+
+  void release() {
+    if (boxFilterDrawer != null) {
+      boxFilterDrawer.release();
+      boxFilterDrawer = null;
+    }
+    if (firstPass != null) {
+      firstPass.release();
+      firstPass = null;
+    }
+    if (secondPass != null) {
+      secondPass.release();
+      secondPass = null;
+    }
+  }
+
+  private void computeTextureSignature(VideoFrame.TextureBuffer buffer) {
+    if (boxFilterDrawer == null) {
+      boxFilterDrawer =
+          new GlGenericDrawer(BOX_FILTER_FRAGMENT_SHADER, new BoxFilterShaderCallbacks());
+      firstPass = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+      secondPass = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+    }
+    final int width = buffer.getWidth();
+    final int height = buffer.getHeight();
+    final int firstWidth = divideRoundUp(width, PASS_SCALE);
+    final int firstHeight = divideRoundUp(height, PASS_SCALE);
+    final int secondWidth = divideRoundUp(firstWidth, PASS_SCALE);
+    final int secondHeight = divideRoundUp(firstHeight, PASS_SCALE);
+
+    firstPass.setSize(firstWidth, firstHeight);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, firstPass.getFrameBufferId());
+    VideoFrameDrawer.drawTexture(boxFilterDrawer, buffer, identityMatrix, width, height,
+        0 /* viewportX */, 0 /* viewportY */, firstWidth, firstHeight);
+
+    secondPass.setSize(secondWidth, secondHeight);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, secondPass.getFrameBufferId());
+    boxFilterDrawer.drawRgb(firstPass.getTextureId(), IDENTITY_MATRIX, firstWidth, firstHeight,
+        0 /* viewportX */, 0 /* viewportY */, secondWidth, secondHeight);
+
+    final int readbackSize = secondWidth * secondHeight * 4;
+    if (readbackBuffer == null || readbackBuffer.capacity() < readbackSize) {
+      readbackBuffer = ByteBuffer.allocateDirect(readbackSize);
+    }
+    readbackBuffer.clear();
+    GLES20.glReadPixels(0, 0, secondWidth, secondHeight, GLES20.GL_RGBA,
+        GLES20.GL_UNSIGNED_BYTE, readbackBuffer);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    GlUtil.checkNoGLES2Error("ScreenChangeDetector.computeTextureSignature");
+
+    prepareSignature(secondWidth, secondHeight);
+    for (int i = 0; i < secondWidth * secondHeight; ++i) {
+      final int red = readbackBuffer.get(4 * i) & 0xFF;
+      final int green = readbackBuffer.get(4 * i + 1) & 0xFF;
+      final int blue = readbackBuffer.get(4 * i + 2) & 0xFF;
+      signature[i] = (byte) ((red + 2 * green + blue) / 4);
+    }
+  }
+
+  private void computeI420Signature(VideoFrame.I420Buffer buffer) {
+    final int width = buffer.getWidth();
+    final int height = buffer.getHeight();
+    final int cellsX = divideRoundUp(width, CELL_SIZE);
+    final int cellsY = divideRoundUp(height, CELL_SIZE);
+    prepareSignature(cellsX, cellsY);
+
+    final ByteBuffer dataY = buffer.getDataY();
+    final int strideY = buffer.getStrideY();
+    final int[] rowSums = new int[cellsX];
+    for (int cellY = 0; cellY < cellsY; ++cellY) {
+      final int y0 = cellY * CELL_SIZE;
+      final int y1 = Math.min(y0 + CELL_SIZE, height);
+      for (int y = y0; y < y1; ++y) {
+        final int row = y * strideY;
+        for (int x = 0; x < width; ++x) {
+          rowSums[x / CELL_SIZE] += dataY.get(row + x) & 0xFF;
+        }
+      }
+      for (int cellX = 0; cellX < cellsX; ++cellX) {
+        final int cellWidth = Math.min(CELL_SIZE, width - cellX * CELL_SIZE);
+        signature[cellY * cellsX + cellX] = (byte) (rowSums[cellX] / (cellWidth * (y1 - y0)));
+        rowSums[cellX] = 0;
+      }
+    }
+  }
+
+  private void prepareSignature(int width, int height) {
+    if (signature.length < width * height) {
+      signature = new byte[width * height];
+    }
+    signatureWidth = width;
+    signatureHeight = height;
+  }
+
+  private static int divideRoundUp(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes screen frames from a SurfaceTextureHelper on to a CapturerObserver as decided by a
+ * {@link ScreenShareRateController}. All methods but the statistics getters must be called on the
+ * SurfaceTextureHelper thread.
+ *
+ * <p>A changed frame that comes too early is held until it is due rather than dropped, so the
+ * last state of the screen is always sent, even if no other frame follows. While a frame is held
+ * the SurfaceTextureHelper delivers no new frames, and the newest content is picked up once it
+ * is released.
+ *
+ * <p>A virtual display produces no frames while the screen is static, so keepalive frames are
+ * copies of the last sent frame, drawn into a texture of our own when it was sent.
+ */
+class ScreenShareFrameFilter implements VideoSink {
+  private static final String TAG = "ScreenShareFrameFilter";
+
+  private final Handler handler;
+  private final CapturerObserver capturerObserver;
+  private final ScreenShareRateController rateController;
+  private final ScreenChangeDetector changeDetector = new ScreenChangeDetector();
+  private final long keepAliveMs;
+  private final Matrix identityMatrix = new Matrix();
+
+  @Nullable private VideoFrame pendingFrame;
+  private boolean isReleased;
+  // Copy of the last sent frame for keepalive frames.
+  @Nullable private GlRectDrawer copyDrawer;
+  @Nullable private GlTextureFrameBuffer lastFrameCopy;
+  @Nullable private YuvConverter yuvConverter;
+  private boolean isLastFrameCopyValid;
+  private boolean isLastFrameCopyInUse;
+  private int lastFrameRotation;
+  private long lastFrameTimestampNs;
+  private long lastForwardNs;
+
+  // Synchronized on |this|.
+  private long framesSent;
+  private long framesSuppressed;
+  private long keepAliveFramesSent;
+  private long suppressedBytes;
+
+  private final Runnable forwardPendingFrameRunnable = new Runnable() {
+    @Override
+    public void run() {
+      final VideoFrame frame = pendingFrame;
+      if (frame == null) {
+        return;
+      }
+      pendingFrame = null;
+      forward(frame, System.nanoTime(), false /* isKeepAlive */);
+      frame.release();
+    }
+  };
+
+  private final Runnable keepAliveRunnable = new Runnable() {
+    @Override
+    public void run() {
+      sendKeepAliveFrame();
+    }
+  };
+
+  /**
+   * @param keepAliveMs interval of keepalive frames while the screen is static, 0 to disable them
+   */
+  ScreenShareFrameFilter(Handler handler, CapturerObserver capturerObserver, int minFps,
+      int maxFps, int keepAliveMs) {
+    this.handler = handler;
+    this.capturerObserver = capturerObserver;
+    this.rateController = new ScreenShareRateController(minFps, maxFps, keepAliveMs);
+    this.keepAliveMs = keepAliveMs;
+  }
+
+  void setMaxFramerate(int maxFps) {
+    rateController.setMaxFramerate(maxFps);
+  }
+
+  @Override
+  public void onFrame(VideoFrame frame) {
+    if (isReleased) {
+      return;
+    }
+    final long nowNs = System.nanoTime();
+    final float changedFraction = changeDetector.detectChange(frame);
+    final long delayNs = rateController.getForwardDelayNs(changedFraction, nowNs);
+    if (delayNs == ScreenShareRateController.SUPPRESS) {
+      synchronized (this) {
+        ++framesSuppressed;
+        suppressedBytes += getI420Size(frame.getBuffer());
+      }
+      return;
+    }
+    if (delayNs == 0) {
+      forward(frame, nowNs, changedFraction == 0 /* isKeepAlive */);
+      return;
+    }
+    frame.retain();
+    pendingFrame = frame;
+    handler.postDelayed(forwardPendingFrameRunnable,
+        TimeUnit.NANOSECONDS.toMillis(delayNs + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+  }
+
+  /** Releases a held frame and the GL resources. The filter passes no more frames. */
+  void release() {
+    isReleased = true;
+    handler.removeCallbacks(forwardPendingFrameRunnable);
+    handler.removeCallbacks(keepAliveRunnable);
+    if (pendingFrame != null) {
+      pendingFrame.release();
+      pendingFrame = null;
+    }
+    changeDetector.release();
+    if (!isLastFrameCopyInUse) {
+      releaseLastFrameCopy();
+    }
+  }
+
+  synchronized long getFramesSent() {
+    return framesSent;
+  }
+
+  synchronized long getFramesSuppressed() {
+    return framesSuppressed;
+  }
+
+  synchronized long getKeepAliveFramesSent() {
+    return keepAliveFramesSent;
+  }
+
+  synchronized long getSuppressedBytes() {
+    return suppressedBytes;
+  }
+
+  private void forward(VideoFrame frame, long nowNs, boolean isKeepAlive) {
+    changeDetector.setReference();
+    rateController.onFrameForwarded(nowNs, isKeepAlive);
+    if (keepAliveMs > 0) {
+      copyLastFrame(frame);
+      lastFrameRotation = frame.getRotation();
+      lastFrameTimestampNs = frame.getTimestampNs();
+      lastForwardNs = nowNs;
+      handler.removeCallbacks(keepAliveRunnable);
+      handler.postDelayed(keepAliveRunnable, keepAliveMs);
+    }
+    synchronized (this) {
+      ++framesSent;
+      if (isKeepAlive) {
+        ++keepAliveFramesSent;
+      }
+    }
+    capturerObserver.onFrameCaptured(frame);
+  }
+
+  private void copyLastFrame(VideoFrame frame) {
+    final VideoFrame.Buffer buffer = frame.getBuffer();
+    if (!(buffer instanceof VideoFrame.TextureBuffer) || isLastFrameCopyInUse) {
+      // The previous keepalive frame is still in use; skip keepalive frames until the next copy.
+      isLastFrameCopyValid = false;
+      return;
+    }
+    if (lastFrameCopy == null) {
+      copyDrawer = new GlRectDrawer();
+      lastFrameCopy = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+    }
+    final int width = buffer.getWidth();
+    final int height = buffer.getHeight();
+    lastFrameCopy.setSize(width, height);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, lastFrameCopy.getFrameBufferId());
+    VideoFrameDrawer.drawTexture(copyDrawer, (VideoFrame.TextureBuffer) buffer, identityMatrix,
+        width, height, 0 /* viewportX */, 0 /* viewportY */, width, height);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    GlUtil.checkNoGLES2Error("ScreenShareFrameFilter.copyLastFrame");
+    isLastFrameCopyValid = true;
+  }
+
+  private void sendKeepAliveFrame() {
+    final long nowNs = System.nanoTime();
+    // Otherwise the next sent frame schedules the keepalive again.
+    if (isReleased || pendingFrame != null || !isLastFrameCopyValid || isLastFrameCopyInUse) {
+      return;
+    }
+    if (!rateController.isKeepAliveDue(nowNs)) {
+      final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(nowNs - lastForwardNs);
+      handler.postDelayed(keepAliveRunnable, Math.max(1, keepAliveMs - elapsedMs));
+      return;
+    }
+    if (yuvConverter == null) {
+      yuvConverter = new YuvConverter();
+    }
+    isLastFrameCopyInUse = true;
+    final VideoFrame.TextureBuffer buffer = new TextureBufferImpl(lastFrameCopy.getWidth(),
+        lastFrameCopy.getHeight(), VideoFrame.TextureBuffer.Type.RGB,
+        lastFrameCopy.getTextureId(), new Matrix(), handler, yuvConverter,
+        () -> handler.post(this::onLastFrameCopyReleased));
+    // Continue the capture clock of the last sent frame.
+    final VideoFrame frame = new VideoFrame(
+        buffer, lastFrameRotation, lastFrameTimestampNs + (nowNs - lastForwardNs));
+    Logging.d(TAG, "Sending keepalive frame.");
+    rateController.onFrameForwarded(nowNs, true /* isKeepAlive */);
+    lastFrameTimestampNs = frame.getTimestampNs();
+    lastForwardNs = nowNs;
+    synchronized (this) {
+      ++framesSent;
+      ++keepAliveFramesSent;
+    }
+    capturerObserver.onFrameCaptured(frame);
+    frame.release();
+    handler.postDelayed(keepAliveRunnable, keepAliveMs);
+  }
+
+  private void onLastFrameCopyReleased() {
+    isLastFrameCopyInUse = false;
+    if (isReleased) {
+      releaseLastFrameCopy();
+    }
+  }
+
+  private void releaseLastFrameCopy() {
+    if (copyDrawer != null) {
+      copyDrawer.release();
+      copyDrawer = null;
+    }
+    if (lastFrameCopy != null) {
+      lastFrameCopy.release();
+      lastFrameCopy = null;
+    }
+    if (yuvConverter != null) {
+      yuvConverter.release();
+      yuvConverter = null;
+    }
+    isLastFrameCopyValid = false;
+  }
+
+  private static long getI420Size(VideoFrame.Buffer buffer) {
+    final int chromaSize = ((buffer.getWidth() + 1) / 2) * ((buffer.getHeight() + 1) / 2);
+    return (long) buffer.getWidth() * buffer.getHeight() + 2 * chromaSize;
+  }
+}
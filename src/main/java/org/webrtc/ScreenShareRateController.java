@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/**
+ * Decides when screen frames are sent, from the fraction of the screen that changed since the
+ * last sent frame. Unchanged frames are suppressed, except for a keepalive frame per keepalive
+ * interval. Changed frames are sent at a framerate between the minimum and the maximum, which
+ * follows the amount of motion: a few typed characters are sent at the minimum and scrolling at
+ * the maximum. The first change after a static period is sent right away. Not thread safe.
+ */
+class ScreenShareRateController {
+  /** Returned by getForwardDelayNs() for frames that are not sent. */
+  static final long SUPPRESS = -1;
+
+  // Smoothed fraction of changed cells at which the maximum framerate is reached.
+  private static final float FULL_MOTION_FRACTION = 0.1f;
+  // Weight of a new frame in the smoothed fraction of changed cells.
+  private static final float MOTION_SMOOTHING = 0.25f;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private final int minFps;
+  private final long keepAliveNs;
+  private int maxFps;
+  private float motion;
+  private long lastForwardNs = -1;
+  // Keepalive frames are not paced, so a change right after one is not held.
+  private long lastChangeForwardNs = -1;
+
+  /**
+   * @param minFps framerate of small changes
+   * @param maxFps framerate of full motion
+   * @param keepAliveMs interval of keepalive frames while the screen is static, 0 to disable them
+   */
+  ScreenShareRateController(int minFps, int maxFps, int keepAliveMs) {
+    if (minFps <= 0 || keepAliveMs < 0) {
+      throw new IllegalArgumentException(
+          "Invalid minFps " + minFps + " or keepAliveMs " + keepAliveMs);
+    }
+    this.minFps = minFps;
+    this.keepAliveNs = keepAliveMs * 1000000L;
+    setMaxFramerate(maxFps);
+  }
+
+  /** Sets the framerate of full motion; raised to the minimum framerate if lower. */
+  void setMaxFramerate(int maxFps) {
+    this.maxFps = Math.max(minFps, maxFps);
+  }
+
+  /**
+   * Returns 0 if a frame with |changedFraction| of its cells changed since the last sent frame
+   * should be sent now, the delay after which it should be sent, or SUPPRESS.
+   */
+  long getForwardDelayNs(float changedFraction, long nowNs) {
+    motion += MOTION_SMOOTHING * (changedFraction - motion);
+    if (changedFraction == 0) {
+      return isKeepAliveDue(nowNs) ? 0 : SUPPRESS;
+    }
+    if (lastChangeForwardNs < 0) {
+      return 0;
+    }
+    final long intervalNs = (long) (NANOS_PER_SECOND / getFramerate());
+    final long elapsedNs = nowNs - lastChangeForwardNs;
+    // Like FrameRateLimiter, tolerate frames up to a quarter interval early.
+    if (elapsedNs >= intervalNs - intervalNs / 4) {
+      return 0;
+    }
+    return intervalNs - elapsedNs;
+  }
+
+  void onFrameForwarded(long nowNs, boolean isKeepAlive) {
+    lastForwardNs = nowNs;
+    if (!isKeepAlive) {
+      lastChangeForwardNs = nowNs;
+    }
+  }
+
+  /** Returns true if a keepalive frame is due because no frame was sent for a while. */
+  boolean isKeepAliveDue(long nowNs) {
+    return keepAliveNs > 0 && lastForwardNs >= 0 && nowNs - lastForwardNs >= keepAliveNs;
+  }
+
+  /** Returns the framerate for the current amount of motion. */
+  float getFramerate() {
+    final float level = Math.min(1f, motion / FULL_MOTION_FRACTION);
+    return minFps + (maxFps - minFps) * level;
+  }
+}
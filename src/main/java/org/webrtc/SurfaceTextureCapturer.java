@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import androidx.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An implementation of VideoCapturer for producers that render into a {@code SurfaceTexture}
+ * themselves, such as the UVC camera preview. The producer is given the {@code SurfaceTexture} of
+ * the {@code SurfaceTextureHelper} passed in {@code VideoCapturer.initialize()}, so every preview
+ * image arrives as an OES texture frame and is forwarded to
+ * {@code CapturerObserver.onFrameCaptured()} without any YUV readback. With a texture capable
+ * hardware encoder the frame is then drawn directly onto the encoder input surface.
+ *
+ * <p>Frames are delivered on the HandlerThread of the {@code SurfaceTextureHelper}. At most one
+ * frame is being processed at any time; images produced meanwhile are dropped by the
+ * SurfaceTexture.
+ *
+ * <p>Frame timestamps are those of the SurfaceTexture, i.e. of the producer. Create the
+ * SurfaceTextureHelper with timestamp alignment enabled to map them onto the rtc clock.
+ */
+public class SurfaceTextureCapturer implements VideoCapturer, VideoSink {
+  private static final String TAG = "SurfaceTextureCapturer";
+
+  private final TextureStageTimings stageTimings = new TextureStageTimings();
+  private final CaptureTimingReport captureTimingReport = new CaptureTimingReport();
+
+  @Nullable private SurfaceTextureHelper surfaceTextureHelper;
+  @Nullable private CapturerObserver capturerObserver;
+  // Counted on the delivering threads, read by stall checks on others.
+  private final AtomicLong numCapturedFrames = new AtomicLong();
+  private boolean isCapturing;
+  private boolean isDisposed;
+
+  private void checkNotDisposed() {
+    if (isDisposed) {
+      throw new RuntimeException("capturer is disposed.");
+    }
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void initialize(final SurfaceTextureHelper surfaceTextureHelper,
+      final Context applicationContext, final CapturerObserver capturerObserver) {
+    checkNotDisposed();
+
+    if (capturerObserver == null) {
+      throw new RuntimeException("capturerObserver not set.");
+    }
+    this.capturerObserver = capturerObserver;
+
+    if (surfaceTextureHelper == null) {
+      throw new RuntimeException("surfaceTextureHelper not set.");
+    }
+    this.surfaceTextureHelper = surfaceTextureHelper;
+    surfaceTextureHelper.setStageTimings(stageTimings);
+  }
+
+  /**
+   * Returns the SurfaceTexture the producer should render into, or null if the capturer has not
+   * been initialized yet. The texture size is set by {@link #startCapture} and
+   * {@link #changeCaptureFormat}; do not call setDefaultBufferSize() on it.
+   */
+  @Nullable
+  public synchronized SurfaceTexture getSurfaceTexture() {
+    return surfaceTextureHelper == null ? null : surfaceTextureHelper.getSurfaceTexture();
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void startCapture(
+      final int width, final int height, final int ignoredFramerate) {
+    checkNotDisposed();
+    if (isCapturing) {
+      return;
+    }
+    Logging.d(TAG, "startCapture: " + width + "x" + height);
+    surfaceTextureHelper.setTextureSize(width, height);
+    captureTimingReport.reset();
+    capturerObserver.onCapturerStarted(true);
+    surfaceTextureHelper.startListening(SurfaceTextureCapturer.this);
+    isCapturing = true;
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void stopCapture() {
+    checkNotDisposed();
+    if (!isCapturing) {
+      return;
+    }
+    ThreadUtils.invokeAtFrontUninterruptibly(surfaceTextureHelper.getHandler(), new Runnable() {
+      @Override
+      public void run() {
+        surfaceTextureHelper.stopListening();
+        capturerObserver.onCapturerStopped();
+      }
+    });
+    isCapturing = false;
+    Logging.d(TAG, "stopCapture done. Stage timings: " + stageTimings);
+    Logging.d(TAG, "Capture timing: " + captureTimingReport);
+  }
+
+  /**
+   * Changes the size of the texture frames. The producer keeps rendering into the same
+   * SurfaceTexture, so this does not interrupt capture.
+   *
+   * @param width new output video width
+   * @param height new output video height
+   * @param ignoredFramerate ignored, the frame rate is decided by the producer
+   */
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void changeCaptureFormat(
+      final int width, final int height, final int ignoredFramerate) {
+    checkNotDisposed();
+    surfaceTextureHelper.setTextureSize(width, height);
+  }
+
+  @Override
+  // TODO(bugs.webrtc.org/8491): Remove NoSynchronizedMethodCheck suppression.
+  @SuppressWarnings("NoSynchronizedMethodCheck")
+  public synchronized void dispose() {
+    if (surfaceTextureHelper != null) {
+      surfaceTextureHelper.setStageTimings(null);
+    }
+    isDisposed = true;
+  }
+
+  // This is called on the internal looper thread of {@Code SurfaceTextureHelper}, or by
+  // producers that decode frames themselves, e.g. on the MJPEG decode threads.
+  @Override
+  public void onFrame(VideoFrame frame) {
+    numCapturedFrames.incrementAndGet();
+    captureTimingReport.addFrame(System.nanoTime(), frame.getTimestampNs());
+    capturerObserver.onFrameCaptured(frame);
+  }
+
+  @Override
+  public boolean isScreencast() {
+    return false;
+  }
+
+  public long getNumCapturedFrames() {
+    return numCapturedFrames.get();
+  }
+
+  /**
+   * Returns the per-stage timings of this capture path. The update stage is reported by the
+   * SurfaceTextureHelper; the draw and encode queue stages are reported by a hardware encoder
+   * that was given the same instance through
+   * {@link HardwareVideoEncoderFactory#setTextureStageTimings}.
+   */
+  public TextureStageTimings getStageTimings() {
+    return stageTimings;
+  }
+
+  /** Returns the frame interval statistics since the last startCapture. */
+  public CaptureTimingReport getCaptureTimingReport() {
+    return captureTimingReport;
+  }
+}
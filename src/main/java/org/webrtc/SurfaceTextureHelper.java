@@ -59,6 +59,14 @@ public class SurfaceTextureHelper {
   public static SurfaceTextureHelper create(final String threadName,
       final Context sharedContext, boolean alignTimestamps, final YuvConverter yuvConverter,
       FrameRefMonitor frameRefMonitor) {
+    return create(threadName, sharedContext, alignTimestamps, yuvConverter, frameRefMonitor,
+        /* i420ReadbackMode= */ null);
+  }
+
+  private static SurfaceTextureHelper create(final String threadName,
+      final Context sharedContext, boolean alignTimestamps, final YuvConverter yuvConverter,
+      FrameRefMonitor frameRefMonitor,
+      @Nullable final YuvConverter.ReadbackMode i420ReadbackMode) {
     final HandlerThread thread = new HandlerThread(threadName);
     thread.start();
     final Handler handler = new Handler(thread.getLooper());
@@ -72,8 +80,8 @@ public class SurfaceTextureHelper {
       @Override
       public SurfaceTextureHelper call() {
         try {
-          return new SurfaceTextureHelper(
-              sharedContext, handler, alignTimestamps, yuvConverter, frameRefMonitor);
+          return new SurfaceTextureHelper(sharedContext, handler, alignTimestamps, yuvConverter,
+              frameRefMonitor, i420ReadbackMode);
         } catch (RuntimeException e) {
           Logging.e(TAG, threadName + " create failure", e);
           return null;
@@ -115,6 +123,23 @@ public class SurfaceTextureHelper {
         threadName, sharedContext, alignTimestamps, yuvConverter, /*frameRefMonitor=*/null);
   }
 
+  /**
+   * Create a SurfaceTextureHelper that delivers I420 frames instead of texture frames. Each frame
+   * is read back with {@link YuvConverter#convertAsync} in |i420ReadbackMode|, so the capture
+   * thread does not wait for the GPU, and reaches the listener as many frames late as the mode
+   * keeps in flight. Frames still in flight are dropped by stopListening(). Use this when all
+   * consumers need I420, for example with software encoders, instead of having each of them call
+   * toI420() and block on a synchronous readback.
+   *
+   * @see #create(String, Context, boolean, YuvConverter, FrameRefMonitor)
+   */
+  public static SurfaceTextureHelper create(final String threadName,
+      final Context sharedContext, boolean alignTimestamps,
+      YuvConverter.ReadbackMode i420ReadbackMode) {
+    return create(threadName, sharedContext, alignTimestamps, new YuvConverter(),
+        /*frameRefMonitor=*/null, i420ReadbackMode);
+  }
+
   private final RefCountMonitor textureRefCountMonitor = new RefCountMonitor() {
     @Override
     public void onRetain(TextureBufferImpl textureBuffer) {
@@ -144,8 +169,12 @@ public class SurfaceTextureHelper {
   private final SurfaceTexture surfaceTexture;
   private final int oesTextureId;
   private final YuvConverter yuvConverter;
+  // Frames are converted with |yuvConverter| before delivery if set.
+  @Nullable private final YuvConverter.ReadbackMode i420ReadbackMode;
   @Nullable private final TimestampAligner timestampAligner;
   private final FrameRefMonitor frameRefMonitor;
+  // Receives the updateTexImage() duration of every delivered frame. May be null.
+  @Nullable private volatile TextureStageTimings stageTimings;
 
   // These variables are only accessed from the |handler| thread.
   @Nullable private VideoSink listener;
@@ -175,7 +204,8 @@ public class SurfaceTextureHelper {
   };
 
   private SurfaceTextureHelper(Context sharedContext, Handler handler, boolean alignTimestamps,
-      YuvConverter yuvConverter, FrameRefMonitor frameRefMonitor) {
+      YuvConverter yuvConverter, FrameRefMonitor frameRefMonitor,
+      @Nullable YuvConverter.ReadbackMode i420ReadbackMode) {
     if (handler.getLooper().getThread() != Thread.currentThread()) {
       throw new IllegalStateException("SurfaceTextureHelper must be created on the handler thread");
     }
@@ -183,8 +213,10 @@ public class SurfaceTextureHelper {
     this.timestampAligner = alignTimestamps ? new TimestampAligner() : null;
     this.yuvConverter = yuvConverter;
     this.frameRefMonitor = frameRefMonitor;
+    this.i420ReadbackMode = i420ReadbackMode;
 
-    eglBase = EglBase.create(sharedContext, EglBase.CONFIG_PIXEL_BUFFER);
+    eglBase = i420ReadbackMode != null ? YuvConverter.createReadbackEglBase(sharedContext)
+                                       : EglBase.create(sharedContext, EglBase.CONFIG_PIXEL_BUFFER);
     try {
       // Both these statements have been observed to fail on rare occasions, see BUG=webrtc:5682.
       eglBase.createDummyPbufferSurface();
@@ -196,6 +228,9 @@ public class SurfaceTextureHelper {
       throw e;
     }
 
+    if (i420ReadbackMode != null) {
+      yuvConverter.setReadbackMode(i420ReadbackMode);
+    }
     oesTextureId = GlUtil.generateTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
     surfaceTexture = new SurfaceTexture(oesTextureId);
     setOnFrameAvailableListener(surfaceTexture, (SurfaceTexture st) -> {
@@ -240,6 +275,7 @@ public class SurfaceTextureHelper {
     ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
       listener = null;
       pendingListener = null;
+      dropI420FramesInFlight();
     });
   }
 
@@ -263,6 +299,14 @@ public class SurfaceTextureHelper {
     });
   }
 
+  /**
+   * Set the timings that the duration of updateTexImage() is reported to for every delivered
+   * frame, or null to stop reporting.
+   */
+  public void setStageTimings(@Nullable TextureStageTimings stageTimings) {
+    this.stageTimings = stageTimings;
+  }
+
   /** Set the rotation of the delivered frames. */
   public void setFrameRotation(int rotation) {
     handler.post(() -> this.frameRotation = rotation);
@@ -350,7 +394,13 @@ public class SurfaceTextureHelper {
     isTextureInUse = true;
     hasPendingTexture = false;
 
+    final TextureStageTimings stageTimings = this.stageTimings;
+    final long updateStartNs = stageTimings != null ? System.nanoTime() : 0;
     updateTexImage();
+    if (stageTimings != null) {
+      stageTimings.report(
+          TextureStageTimings.Stage.UPDATE_TEX_IMAGE, System.nanoTime() - updateStartNs);
+    }
 
     final float[] transformMatrix = new float[16];
     surfaceTexture.getTransformMatrix(transformMatrix);
@@ -366,10 +416,35 @@ public class SurfaceTextureHelper {
       frameRefMonitor.onNewBuffer(buffer);
     }
     final VideoFrame frame = new VideoFrame(buffer, frameRotation, timestampNs);
+    if (i420ReadbackMode != null) {
+      deliverI420Frame(frame);
+      return;
+    }
     listener.onFrame(frame);
     frame.release();
   }
 
+  // Starts the readback of |textureFrame| and passes on the frame that completes, if any.
+  private void deliverI420Frame(VideoFrame textureFrame) {
+    final VideoFrame i420Frame = yuvConverter.convertAsync(textureFrame);
+    // The texture has been drawn, so the next frame can be rendered into it.
+    textureFrame.release();
+    if (i420Frame != null) {
+      listener.onFrame(i420Frame);
+      i420Frame.release();
+    }
+  }
+
+  private void dropI420FramesInFlight() {
+    if (i420ReadbackMode == null) {
+      return;
+    }
+    VideoFrame frame;
+    while ((frame = yuvConverter.flushAsync()) != null) {
+      frame.release();
+    }
+  }
+
   private void release() {
     if (handler.getLooper().getThread() != Thread.currentThread()) {
       throw new IllegalStateException("Wrong thread.");
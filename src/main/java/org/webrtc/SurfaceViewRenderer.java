@@ -33,6 +33,8 @@ import com.serenegiant.usb.encoder.MediaVideoEncoder;
 import com.serenegiant.usb.widget.AspectRatioTextureView;
 import com.serenegiant.usb.widget.CameraViewInterface;
 import com.serenegiant.utils.FpsCounter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.jiangdg.libusbcamera.BuildConfig.DEBUG;
 
@@ -42,6 +44,7 @@ import static com.jiangdg.libusbcamera.BuildConfig.DEBUG;
 public class SurfaceViewRenderer extends AspectRatioTextureView
         implements SurfaceHolder.Callback, VideoSink, RendererCommon.RendererEvents, CameraViewInterface {
     private static final String TAG = "SurfaceViewRenderer";
+    private static final long CAPTURE_STILL_IMAGE_TIMEOUT_MS = 1000;
 
     // Cached resource name.
     private final String resourceName;
@@ -54,11 +57,13 @@ public class SurfaceViewRenderer extends AspectRatioTextureView
     private RenderHandler mRenderHandler;
     private final Object mCaptureSync = new Object();
     private Bitmap mTempBitmap;
-    private boolean mReqesutCaptureStillImage;
     private boolean mHasSurface;
     private Surface mPreviewSurface;
     private boolean mIsActive = true;
     private Callback mCallback;
+    // When set, the camera preview is rendered into the capturer's texture instead of a texture
+    // owned by this view, and reaches this view as local video frames.
+    private SurfaceTextureCapturer surfaceTextureCapturer;
     // Accessed only on the main thread.
     private int rotatedFrameWidth;
     private int rotatedFrameHeight;
@@ -338,8 +343,20 @@ public class SurfaceViewRenderer extends AspectRatioTextureView
         mCallback = callback;
     }
 
+    /**
+     * Routes the camera preview into |capturer| so that preview images are sent to WebRTC as
+     * texture frames without any YUV readback. Must be called before the camera preview starts.
+     */
+    public void setSurfaceTextureCapturer(SurfaceTextureCapturer capturer) {
+        surfaceTextureCapturer = capturer;
+        mPreviewSurface = null;
+    }
+
     @Override
     public SurfaceTexture getSurfaceTexture() {
+        if (surfaceTextureCapturer != null) {
+            return surfaceTextureCapturer.getSurfaceTexture();
+        }
         return mRenderHandler != null ? mRenderHandler.getPreviewTexture() : null;
     }
 
@@ -357,6 +374,9 @@ public class SurfaceViewRenderer extends AspectRatioTextureView
 
     @Override
     public boolean hasSurface() {
+        if (surfaceTextureCapturer != null) {
+            return surfaceTextureCapturer.getSurfaceTexture() != null;
+        }
         return mHasSurface;
     }
 
@@ -366,18 +386,73 @@ public class SurfaceViewRenderer extends AspectRatioTextureView
             mRenderHandler.setVideoEncoder(encoder);
     }
 
+    /**
+     * Captures the next rendered frame at its rotated size through a one-shot frame listener. The
+     * requested size is ignored. Returns null if no frame is rendered within
+     * CAPTURE_STILL_IMAGE_TIMEOUT_MS. Must not be called on the render thread.
+     */
     @Override
     public Bitmap captureStillImage(int width, int height) {
         synchronized (mCaptureSync) {
-            mReqesutCaptureStillImage = true;
+            final StillImageCapture capture = new StillImageCapture();
+            eglRenderer.addFrameListener(capture, 1f /* scale */);
+            final Bitmap bitmap = capture.await(CAPTURE_STILL_IMAGE_TIMEOUT_MS);
+            eglRenderer.removeFrameListener(capture);
+            // The listener got a bitmap of its own, so it is handed over as is.
+            return bitmap;
+        }
+    }
+
+    // Hands the bitmap of one frame from the render thread to the caller of await(). A frame that
+    // arrives after the caller gave up is recycled.
+    private static final class StillImageCapture implements EglRenderer.FrameListener {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        // Guarded by |this|.
+        private Bitmap bitmap;
+        private boolean isAbandoned;
+
+        @Override
+        public void onFrame(Bitmap frame) {
+            synchronized (this) {
+                if (isAbandoned) {
+                    // Null for frames without pixels.
+                    if (frame != null) {
+                        frame.recycle();
+                    }
+                    return;
+                }
+                bitmap = frame;
+            }
+            latch.countDown();
+        }
+
+        // Returns the bitmap, or null if none arrived within |timeoutMs|.
+        Bitmap await(long timeoutMs) {
             try {
-                mCaptureSync.wait();
+                latch.await(timeoutMs, TimeUnit.MILLISECONDS);
             } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                isAbandoned = true;
+                return bitmap;
             }
-            return mTempBitmap;
         }
     }
 
+    /**
+     * Register a listener that receives pooled RGBA frames until it is removed. See
+     * {@link EglRenderer#addRgbaFrameListener}.
+     */
+    public void addRgbaFrameListener(EglRenderer.RgbaFrameListener listener, float scale,
+            float maxFps, int poolSize, boolean createBitmap) {
+        eglRenderer.addRgbaFrameListener(listener, scale, maxFps, poolSize, createBitmap);
+    }
+
+    public void removeRgbaFrameListener(EglRenderer.RgbaFrameListener listener) {
+        eglRenderer.removeRgbaFrameListener(listener);
+    }
+
     @Override
     public void setAspectRatio(double v) {
 
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates the time spent in each stage of the texture capture path, from latching the camera
+ * image into the OES texture to the encoded frame leaving the hardware encoder. Stages are reported
+ * from different threads; this class is thread safe and does not allocate when recording.
+ */
+public class TextureStageTimings {
+  /** Stages of the texture capture path. */
+  public enum Stage {
+    /** SurfaceTexture.updateTexImage() on the SurfaceTextureHelper thread. */
+    UPDATE_TEX_IMAGE,
+    /** Drawing the texture onto the encoder input surface, including swapBuffers(). */
+    DRAW,
+    /** Time from handing the frame to the encoder until its encoded output is dequeued. */
+    ENCODE_QUEUE
+  }
+
+  private final Object lock = new Object();
+  private final long[] counts = new long[Stage.values().length];
+  private final long[] totalNs = new long[Stage.values().length];
+  private final long[] maxNs = new long[Stage.values().length];
+
+  public void report(Stage stage, long durationNs) {
+    final int index = stage.ordinal();
+    synchronized (lock) {
+      ++counts[index];
+      totalNs[index] += durationNs;
+      maxNs[index] = Math.max(maxNs[index], durationNs);
+    }
+  }
+
+  public long getCount(Stage stage) {
+    synchronized (lock) {
+      return counts[stage.ordinal()];
+    }
+  }
+
+  /** Returns the average duration of the stage in nanoseconds, or 0 if it was never reported. */
+  public long getAverageNs(Stage stage) {
+    final int index = stage.ordinal();
+    synchronized (lock) {
+      return counts[index] == 0 ? 0 : totalNs[index] / counts[index];
+    }
+  }
+
+  public long getMaxNs(Stage stage) {
+    synchronized (lock) {
+      return maxNs[stage.ordinal()];
+    }
+  }
+
+  public void reset() {
+    synchronized (lock) {
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = 0;
+        totalNs[i] = 0;
+        maxNs[i] = 0;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Stage stage : Stage.values()) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(stage.name().toLowerCase())
+          .append(": avg ")
+          .append(TimeUnit.NANOSECONDS.toMicros(getAverageNs(stage)))
+          .append(" us, max ")
+          .append(TimeUnit.NANOSECONDS.toMicros(getMaxNs(stage)))
+          .append(" us (")
+          .append(getCount(stage))
+          .append(" frames)");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,475 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws several video streams into one EGL surface on a single render thread, for example the
+ * remote participants of a conference. Each stream gets a VideoSink from {@link #addStream}.
+ * Where the streams are drawn is decided by a {@link CompositorLayout}. Frames of streams whose
+ * tile is hidden or covered are released on arrival without any GL work, and thumbnails are
+ * updated at a lower frame rate than the primary stream.
+ *
+ * <p>Each stream is first drawn into a texture of its tile size when a new frame is accepted, and
+ * the frame is released right away so that decoders are not blocked. Compositing then draws the
+ * latest texture of every visible tile.
+ */
+public class VideoCompositor {
+  private static final String TAG = "VideoCompositor";
+  private static final long LOG_INTERVAL_SEC = 4;
+  // Texture matrix for drawing the tile textures, which already have the right orientation.
+  private static final float[] IDENTITY_MATRIX = new float[] {
+      1, 0, 0, 0,
+      0, 1, 0, 0,
+      0, 0, 1, 0,
+      0, 0, 0, 1};
+
+  /** Stream with its sink, its latest unprocessed frame and its tile texture. */
+  private class Stream implements VideoSink {
+    final String streamId;
+    // Synchronized on |lock|.
+    @Nullable VideoFrame pendingFrame;
+    // Accessed on the render thread only.
+    @Nullable GlTextureFrameBuffer tileTexture;
+
+    Stream(String streamId) {
+      this.streamId = streamId;
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+      onStreamFrame(this, frame);
+    }
+  }
+
+  private final String name;
+  private final float primaryFps;
+  private final float thumbnailFps;
+
+  // Synchronized on |lock|.
+  private final Object lock = new Object();
+  private final List<Stream> streams = new ArrayList<>();
+  private final CompositorFrameScheduler scheduler;
+  private CompositorLayout layout;
+  private List<CompositorLayout.Tile> tiles = Collections.emptyList();
+  @Nullable private String primaryStreamId;
+  @Nullable private Handler renderThreadHandler;
+  private boolean compositeScheduled;
+  private int surfaceWidth;
+  private int surfaceHeight;
+  private int compositedFrames;
+
+  // Accessed on the render thread only.
+  @Nullable private EglBase eglBase;
+  @Nullable private RendererCommon.GlDrawer drawer;
+  private final VideoFrameDrawer frameDrawer = new VideoFrameDrawer();
+  private final Matrix drawMatrix = new Matrix();
+  // Every tile texture not released yet, including those of removed streams whose release has
+  // not run.
+  private final List<GlTextureFrameBuffer> tileTextures = new ArrayList<>();
+
+  private final Runnable compositeRunnable = this::compositeOnRenderThread;
+  private final Runnable logStatisticsRunnable = new Runnable() {
+    @Override
+    public void run() {
+      logStatistics();
+      synchronized (lock) {
+        if (renderThreadHandler != null) {
+          renderThreadHandler.postDelayed(
+              logStatisticsRunnable, TimeUnit.SECONDS.toMillis(LOG_INTERVAL_SEC));
+        }
+      }
+    }
+  };
+
+  /**
+   * @param name used for the render thread name and logging
+   * @param layout initial layout
+   * @param maxCompositeFps maximum rate at which the surface is redrawn
+   * @param primaryFps frame rate limit of the primary tile
+   * @param thumbnailFps frame rate limit of the other visible tiles
+   */
+  public VideoCompositor(String name, CompositorLayout layout, float maxCompositeFps,
+      float primaryFps, float thumbnailFps) {
+    this.name = name;
+    this.layout = layout;
+    this.primaryFps = primaryFps;
+    this.thumbnailFps = thumbnailFps;
+    this.scheduler = new CompositorFrameScheduler(maxCompositeFps);
+  }
+
+  /**
+   * Starts the render thread and creates an EGL context sharing resources with |sharedContext|.
+   * The compositor is responsible for calling release() on |drawer|.
+   */
+  public void init(EglBase.Context sharedContext, int[] configAttributes,
+      RendererCommon.GlDrawer drawer) {
+    synchronized (lock) {
+      if (renderThreadHandler != null) {
+        throw new IllegalStateException(name + ": Already initialized");
+      }
+      final HandlerThread renderThread = new HandlerThread(name + "VideoCompositor");
+      renderThread.start();
+      renderThreadHandler = new Handler(renderThread.getLooper());
+      ThreadUtils.invokeAtFrontUninterruptibly(renderThreadHandler, () -> {
+        eglBase = EglBase.create(sharedContext, configAttributes);
+        this.drawer = drawer;
+      });
+      renderThreadHandler.postDelayed(
+          logStatisticsRunnable, TimeUnit.SECONDS.toMillis(LOG_INTERVAL_SEC));
+    }
+  }
+
+  public void createEglSurface(Surface surface) {
+    createEglSurfaceInternal(surface);
+  }
+
+  public void createEglSurface(SurfaceTexture surfaceTexture) {
+    createEglSurfaceInternal(surfaceTexture);
+  }
+
+  private void createEglSurfaceInternal(Object surface) {
+    postToRenderThread(() -> {
+      if (eglBase == null || eglBase.hasSurface()) {
+        return;
+      }
+      if (surface instanceof Surface) {
+        eglBase.createSurface((Surface) surface);
+      } else {
+        eglBase.createSurface((SurfaceTexture) surface);
+      }
+      eglBase.makeCurrent();
+      // Necessary for YUV frames with odd width.
+      GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+      synchronized (lock) {
+        surfaceWidth = eglBase.surfaceWidth();
+        surfaceHeight = eglBase.surfaceHeight();
+        updateLayoutLocked();
+      }
+    });
+  }
+
+  /** Releases the EGL surface; blocks until done. Frames are dropped until a new surface exists. */
+  public void releaseEglSurface() {
+    final Handler handler;
+    synchronized (lock) {
+      handler = renderThreadHandler;
+      surfaceWidth = 0;
+      surfaceHeight = 0;
+      updateLayoutLocked();
+    }
+    if (handler == null) {
+      return;
+    }
+    ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
+      if (eglBase != null) {
+        eglBase.detachCurrent();
+        eglBase.releaseSurface();
+      }
+    });
+  }
+
+  /** Must be called when the size of the surface changes. */
+  public void setSurfaceSize(int width, int height) {
+    synchronized (lock) {
+      surfaceWidth = width;
+      surfaceHeight = height;
+      updateLayoutLocked();
+    }
+  }
+
+  /** Adds a stream as the last tile and returns the sink its frames should be delivered to. */
+  public VideoSink addStream(String streamId) {
+    final Stream stream = new Stream(streamId);
+    synchronized (lock) {
+      streams.add(stream);
+      scheduler.addStream();
+      updateLayoutLocked();
+    }
+    return stream;
+  }
+
+  /** Removes a stream. Frames delivered to its sink afterwards are dropped. */
+  public void removeStream(String streamId) {
+    synchronized (lock) {
+      final int index = indexOfLocked(streamId);
+      if (index < 0) {
+        return;
+      }
+      final Stream stream = streams.remove(index);
+      scheduler.removeStream(index);
+      if (stream.pendingFrame != null) {
+        stream.pendingFrame.release();
+        stream.pendingFrame = null;
+      }
+      updateLayoutLocked();
+      postToRenderThreadLocked(() -> releaseTileTexture(stream));
+    }
+  }
+
+  /** Sets the stream shown as primary tile in ACTIVE_SPEAKER and PIP layouts. */
+  public void setPrimaryStream(@Nullable String streamId) {
+    synchronized (lock) {
+      primaryStreamId = streamId;
+      updateLayoutLocked();
+    }
+  }
+
+  public void setLayout(CompositorLayout layout) {
+    synchronized (lock) {
+      this.layout = layout;
+      updateLayoutLocked();
+    }
+  }
+
+  /** Returns the number of frames of the stream dropped by frame rate limits or hidden tiles. */
+  public long getDroppedFrames(String streamId) {
+    synchronized (lock) {
+      final int index = indexOfLocked(streamId);
+      return index < 0 ? 0 : scheduler.getDroppedFrames(index);
+    }
+  }
+
+  /** Stops the render thread and releases all GL resources; blocks until done. */
+  public void release() {
+    final Handler handler;
+    synchronized (lock) {
+      handler = renderThreadHandler;
+      if (handler == null) {
+        return;
+      }
+      renderThreadHandler = null;
+      handler.removeCallbacksAndMessages(null);
+      for (Stream stream : streams) {
+        if (stream.pendingFrame != null) {
+          stream.pendingFrame.release();
+          stream.pendingFrame = null;
+        }
+      }
+    }
+    ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
+      // Pending releases of removed streams were cancelled above.
+      for (GlTextureFrameBuffer tileTexture : tileTextures) {
+        tileTexture.release();
+      }
+      tileTextures.clear();
+      synchronized (lock) {
+        for (Stream stream : streams) {
+          stream.tileTexture = null;
+        }
+      }
+      if (drawer != null) {
+        drawer.release();
+        drawer = null;
+      }
+      frameDrawer.release();
+      if (eglBase != null) {
+        eglBase.detachCurrent();
+        eglBase.release();
+        eglBase = null;
+      }
+    });
+    handler.getLooper().quit();
+  }
+
+  private void onStreamFrame(Stream stream, VideoFrame frame) {
+    synchronized (lock) {
+      final int index = streams.indexOf(stream);
+      if (index < 0 || renderThreadHandler == null
+          || !scheduler.onFrame(index, System.nanoTime())) {
+        return;
+      }
+      if (stream.pendingFrame != null) {
+        stream.pendingFrame.release();
+      }
+      frame.retain();
+      stream.pendingFrame = frame;
+      scheduleCompositeLocked();
+    }
+  }
+
+  // Recomputes the tiles and frame rate limits after a change of streams, layout or surface size.
+  private void updateLayoutLocked() {
+    int primaryIndex = primaryStreamId == null ? 0 : indexOfLocked(primaryStreamId);
+    tiles = layout.compute(surfaceWidth, surfaceHeight, streams.size(), primaryIndex);
+    scheduler.applyLayout(tiles, primaryFps, thumbnailFps);
+    scheduler.invalidate();
+    // Frames of hidden tiles would never be drawn.
+    for (CompositorLayout.Tile tile : tiles) {
+      final Stream stream = streams.get(tile.streamIndex);
+      if (!tile.visible && stream.pendingFrame != null) {
+        stream.pendingFrame.release();
+        stream.pendingFrame = null;
+      }
+    }
+    scheduleCompositeLocked();
+  }
+
+  private void scheduleCompositeLocked() {
+    if (compositeScheduled || renderThreadHandler == null) {
+      return;
+    }
+    final long delayNs = scheduler.getCompositeDelayNs(System.nanoTime());
+    if (delayNs == Long.MAX_VALUE) {
+      return;
+    }
+    compositeScheduled = true;
+    renderThreadHandler.postDelayed(compositeRunnable, TimeUnit.NANOSECONDS.toMillis(delayNs));
+  }
+
+  private void compositeOnRenderThread() {
+    final List<CompositorLayout.Tile> currentTiles;
+    final Stream[] tileStreams;
+    final VideoFrame[] frames;
+    synchronized (lock) {
+      compositeScheduled = false;
+      if (eglBase == null || !eglBase.hasSurface() || drawer == null) {
+        return;
+      }
+      currentTiles = tiles;
+      tileStreams = new Stream[currentTiles.size()];
+      frames = new VideoFrame[currentTiles.size()];
+      for (int i = 0; i < currentTiles.size(); ++i) {
+        final Stream stream = streams.get(currentTiles.get(i).streamIndex);
+        tileStreams[i] = stream;
+        frames[i] = stream.pendingFrame;
+        stream.pendingFrame = null;
+      }
+      scheduler.onComposited(System.nanoTime());
+      ++compositedFrames;
+    }
+
+    try {
+      // Draw the new frames into their tile textures.
+      for (int i = 0; i < frames.length; ++i) {
+        final CompositorLayout.Tile tile = currentTiles.get(i);
+        if (frames[i] == null || !tile.visible) {
+          continue;
+        }
+        final Stream stream = tileStreams[i];
+        if (stream.tileTexture == null) {
+          stream.tileTexture = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+          tileTextures.add(stream.tileTexture);
+        }
+        stream.tileTexture.setSize(tile.width, tile.height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, stream.tileTexture.getFrameBufferId());
+        setFillMatrix(frames[i], tile.width, tile.height);
+        frameDrawer.drawFrame(frames[i], drawer, drawMatrix, 0 /* viewportX */, 0 /* viewportY */,
+            tile.width, tile.height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+      }
+
+      // Draw the tile textures onto the surface. GL viewports have their origin bottom left.
+      GLES20.glClearColor(0 /* red */, 0 /* green */, 0 /* blue */, 0 /* alpha */);
+      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      final int height = eglBase.surfaceHeight();
+      for (int i = 0; i < currentTiles.size(); ++i) {
+        final CompositorLayout.Tile tile = currentTiles.get(i);
+        final GlTextureFrameBuffer tileTexture = tileStreams[i].tileTexture;
+        if (!tile.visible || tileTexture == null || tileTexture.getWidth() != tile.width
+            || tileTexture.getHeight() != tile.height) {
+          continue;
+        }
+        drawer.drawRgb(tileTexture.getTextureId(), IDENTITY_MATRIX, tile.width,
+            tile.height, tile.x, height - tile.y - tile.height, tile.width, tile.height);
+      }
+      eglBase.swapBuffers();
+      GlUtil.checkNoGLES2Error("VideoCompositor.composite");
+    } finally {
+      for (VideoFrame frame : frames) {
+        if (frame != null) {
+          frame.release();
+        }
+      }
+    }
+    synchronized (lock) {
+      scheduleCompositeLocked();
+    }
+  }
+
+  // Called on the render thread.
+  private void releaseTileTexture(Stream stream) {
+    if (stream.tileTexture != null) {
+      tileTextures.remove(stream.tileTexture);
+      stream.tileTexture.release();
+      stream.tileTexture = null;
+    }
+  }
+
+  // Sets |drawMatrix| to scale |frame| to fill a tile, cropping it to the tile aspect ratio.
+  private void setFillMatrix(VideoFrame frame, int tileWidth, int tileHeight) {
+    final float frameAspectRatio = frame.getRotatedWidth() / (float) frame.getRotatedHeight();
+    final float tileAspectRatio = tileWidth / (float) tileHeight;
+    final float scaleX;
+    final float scaleY;
+    if (frameAspectRatio > tileAspectRatio) {
+      scaleX = tileAspectRatio / frameAspectRatio;
+      scaleY = 1f;
+    } else {
+      scaleX = 1f;
+      scaleY = frameAspectRatio / tileAspectRatio;
+    }
+    drawMatrix.reset();
+    drawMatrix.preTranslate(0.5f, 0.5f);
+    drawMatrix.preScale(scaleX, scaleY);
+    drawMatrix.preTranslate(-0.5f, -0.5f);
+  }
+
+  private int indexOfLocked(String streamId) {
+    for (int i = 0; i < streams.size(); ++i) {
+      if (streams.get(i).streamId.equals(streamId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void postToRenderThread(Runnable runnable) {
+    synchronized (lock) {
+      postToRenderThreadLocked(runnable);
+    }
+  }
+
+  private void postToRenderThreadLocked(Runnable runnable) {
+    if (renderThreadHandler != null) {
+      renderThreadHandler.post(runnable);
+    }
+  }
+
+  private void logStatistics() {
+    synchronized (lock) {
+      final StringBuilder sb = new StringBuilder();
+      sb.append(name).append(": composited ").append(compositedFrames).append(" frames.");
+      for (int i = 0; i < streams.size(); ++i) {
+        sb.append(' ')
+            .append(streams.get(i).streamId)
+            .append(": ")
+            .append(scheduler.getAcceptedFrames(i))
+            .append(" accepted, ")
+            .append(scheduler.getDroppedFrames(i))
+            .append(" dropped.");
+      }
+      Logging.d(TAG, sb.toString());
+      compositedFrames = 0;
+    }
+  }
+}
@@ -22,7 +22,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
- * Can be used to save the video frames to file.
+ * Can be used to save the video frames to file. Texture frames are read back with
+ * {@link YuvConverter#convertAsync}, so the render thread does not wait for the GPU on every frame.
  */
 public class VideoFileRenderer implements VideoSink {
   private static final String TAG = "VideoFileRenderer";
@@ -70,7 +71,7 @@ public class VideoFileRenderer implements VideoSink {
     ThreadUtils.invokeAtFrontUninterruptibly(renderThreadHandler, new Runnable() {
       @Override
       public void run() {
-        eglBase = EglBase.create(sharedContext, EglBase.CONFIG_PIXEL_BUFFER);
+        eglBase = YuvConverter.createReadbackEglBase(sharedContext);
         eglBase.createDummyPbufferSurface();
         eglBase.makeCurrent();
         yuvConverter = new YuvConverter();
@@ -111,14 +112,40 @@ public class VideoFileRenderer implements VideoSink {
         buffer.cropAndScale(cropX, cropY, cropWidth, cropHeight, targetWidth, targetHeight);
     frame.release();
 
+    if (scaledBuffer instanceof VideoFrame.TextureBuffer) {
+      final VideoFrame scaledFrame =
+          new VideoFrame(scaledBuffer, frame.getRotation(), frame.getTimestampNs());
+      // Returns an earlier frame, or null while the readback pipeline fills up.
+      final VideoFrame i420Frame = yuvConverter.convertAsync(scaledFrame);
+      scaledFrame.release();
+      if (i420Frame != null) {
+        writeFrame(i420Frame);
+      }
+      return;
+    }
+
+    // Keep the frames in order.
+    flushReadback();
     final VideoFrame.I420Buffer i420 = scaledBuffer.toI420();
     scaledBuffer.release();
+    writeFrame(new VideoFrame(i420, frame.getRotation(), frame.getTimestampNs()));
+  }
+
+  private void flushReadback() {
+    VideoFrame i420Frame;
+    while ((i420Frame = yuvConverter.flushAsync()) != null) {
+      writeFrame(i420Frame);
+    }
+  }
 
+  // Writes |i420Frame|, whose buffer is I420, on the file thread and releases it.
+  private void writeFrame(VideoFrame i420Frame) {
     fileThreadHandler.post(() -> {
+      final VideoFrame.I420Buffer i420 = (VideoFrame.I420Buffer) i420Frame.getBuffer();
       YuvHelper.I420Rotate(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
           i420.getDataV(), i420.getStrideV(), outputFrameBuffer, i420.getWidth(), i420.getHeight(),
-          frame.getRotation());
-      i420.release();
+          i420Frame.getRotation());
+      i420Frame.release();
 
       try {
         videoOutFile.write("FRAME\n".getBytes(Charset.forName("US-ASCII")));
@@ -137,6 +164,7 @@ public class VideoFileRenderer implements VideoSink {
   public void release() {
     final CountDownLatch cleanupBarrier = new CountDownLatch(1);
     renderThreadHandler.post(() -> {
+      flushReadback();
       yuvConverter.release();
       eglBase.release();
       renderThread.quit();
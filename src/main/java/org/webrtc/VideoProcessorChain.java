@@ -0,0 +1,578 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VideoProcessor that runs captured frames through a chain of stages before they are passed on
+ * to WebRTC. Attach it with {@link VideoSource#setVideoProcessor}.
+ *
+ * <p>Adjacent crop, scale and rotate operations are fused into a single transform, together with
+ * the cropping and scaling that the video source requests for CPU and bandwidth adaptation. A
+ * texture frame is transformed without touching pixels: the crop and scale go into its transform
+ * matrix and the rotation into the frame rotation. A byte buffer frame is transformed with at
+ * most one crop and scale and one I420Rotate call into buffers of an {@link I420BufferPool}, so
+ * the chain does not allocate pixel memory in steady state. Each stage that changes a frame still
+ * creates a VideoFrame and a buffer object for it; a frame that a transform leaves unchanged is
+ * passed on as it is.
+ *
+ * <p>Custom stages declare the buffer type they work on. Frames are converted to I420 for I420
+ * stages; texture stages are skipped for byte buffer frames. The time spent in each stage is
+ * recorded, see {@link #getStageTimings()}.
+ *
+ * <p>Frames are processed on the thread they are captured on.
+ */
+public class VideoProcessorChain implements VideoProcessor {
+  private static final String TAG = "VideoProcessorChain";
+  private static final int DEFAULT_POOL_SIZE = 4;
+
+  /** The type of buffer a stage works on. */
+  public enum BufferType { ANY, TEXTURE, I420 }
+
+  /** A custom processing stage. */
+  public interface Stage {
+    BufferType getBufferType();
+
+    /**
+     * Processes |frame| and returns the resulting frame, which the caller will release, or null
+     * to drop the frame. |frame| is released by the caller; return it retained to pass it on
+     * unchanged. Output buffers should be acquired from |pool|.
+     */
+    @Nullable
+    VideoFrame process(VideoFrame frame, I420BufferPool pool);
+  }
+
+  /** Time spent in one stage of the chain. */
+  public static class StageTiming {
+    public final String name;
+    private long count;
+    private long totalNs;
+    private long maxNs;
+
+    StageTiming(String name) {
+      this.name = name;
+    }
+
+    StageTiming(StageTiming other) {
+      this.name = other.name;
+      this.count = other.count;
+      this.totalNs = other.totalNs;
+      this.maxNs = other.maxNs;
+    }
+
+    void add(long durationNs) {
+      ++count;
+      totalNs += durationNs;
+      maxNs = Math.max(maxNs, durationNs);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanUs() {
+      return count == 0 ? 0 : totalNs / count / 1000;
+    }
+
+    public long getMaxUs() {
+      return maxNs / 1000;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": n=" + count + " mean=" + getMeanUs() + "us max=" + getMaxUs() + "us";
+    }
+  }
+
+  public static class Builder {
+    private final List<Object> items = new ArrayList<>();
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    /** Crops the frame to the given rectangle, in pixels of the frame at this point. */
+    public Builder crop(int x, int y, int width, int height) {
+      if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+        throw new IllegalArgumentException(
+            "Invalid crop: " + x + "," + y + " " + width + "x" + height);
+      }
+      items.add(new Op(Op.CROP, x, y, width, height));
+      return this;
+    }
+
+    /** Scales the frame to the given size. */
+    public Builder scale(int width, int height) {
+      if (width <= 0 || height <= 0) {
+        throw new IllegalArgumentException("Invalid scale: " + width + "x" + height);
+      }
+      items.add(new Op(Op.SCALE, 0, 0, width, height));
+      return this;
+    }
+
+    /** Rotates the frame clockwise by a multiple of 90 degrees. */
+    public Builder rotate(int degrees) {
+      if (degrees % 90 != 0) {
+        throw new IllegalArgumentException("Rotation must be a multiple of 90: " + degrees);
+      }
+      items.add(new Op(Op.ROTATE, 0, 0, ((degrees % 360) + 360) % 360, 0));
+      return this;
+    }
+
+    public Builder addStage(Stage stage) {
+      if (stage == null) {
+        throw new IllegalArgumentException("stage is null");
+      }
+      items.add(stage);
+      return this;
+    }
+
+    /** Sets the number of pooled output buffers per buffer size. */
+    public Builder setPoolSize(int buffersPerSize) {
+      this.poolSize = buffersPerSize;
+      return this;
+    }
+
+    public VideoProcessorChain build() {
+      return new VideoProcessorChain(items, poolSize);
+    }
+  }
+
+  /** A crop, scale or rotate operation. */
+  static class Op {
+    static final int CROP = 0;
+    static final int SCALE = 1;
+    static final int ROTATE = 2;
+
+    final int type;
+    final int x;
+    final int y;
+    // The rotation in degrees for ROTATE.
+    final int width;
+    final int height;
+
+    Op(int type, int x, int y, int width, int height) {
+      this.type = type;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  /**
+   * Fused operations: crop a rectangle of the input, scale it to scaleWidth x scaleHeight and
+   * rotate the result clockwise by rotation degrees.
+   */
+  static class Transform {
+    final int cropX;
+    final int cropY;
+    final int cropWidth;
+    final int cropHeight;
+    final int scaleWidth;
+    final int scaleHeight;
+    final int rotation;
+
+    Transform(int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth,
+        int scaleHeight, int rotation) {
+      this.cropX = cropX;
+      this.cropY = cropY;
+      this.cropWidth = cropWidth;
+      this.cropHeight = cropHeight;
+      this.scaleWidth = scaleWidth;
+      this.scaleHeight = scaleHeight;
+      this.rotation = rotation;
+    }
+
+    boolean isCropOrScale(int width, int height) {
+      return cropX != 0 || cropY != 0 || cropWidth != width || cropHeight != height
+          || scaleWidth != width || scaleHeight != height;
+    }
+
+    boolean isScale() {
+      return scaleWidth != cropWidth || scaleHeight != cropHeight;
+    }
+
+    @Override
+    public String toString() {
+      return "crop " + cropX + "," + cropY + " " + cropWidth + "x" + cropHeight + " scale "
+          + scaleWidth + "x" + scaleHeight + " rotate " + rotation;
+    }
+  }
+
+  /**
+   * Fuses the adaptation, if any, and |ops| applied to a |width| x |height| frame into one
+   * transform. Crops are clamped to the frame and their offsets rounded to even pixels, so that
+   * they also apply to the chroma planes of I420 frames.
+   */
+  static Transform fold(
+      int width, int height, @Nullable FrameAdaptationParameters adaptation, List<Op> ops) {
+    // Crop rectangle in input pixels.
+    double cropX = 0;
+    double cropY = 0;
+    double cropWidth = width;
+    double cropHeight = height;
+    // Size of the scaled crop, before rotation.
+    int scaledWidth = width;
+    int scaledHeight = height;
+    int rotation = 0;
+
+    if (adaptation != null) {
+      cropX = adaptation.cropX;
+      cropY = adaptation.cropY;
+      cropWidth = adaptation.cropWidth;
+      cropHeight = adaptation.cropHeight;
+      scaledWidth = adaptation.scaleWidth;
+      scaledHeight = adaptation.scaleHeight;
+    }
+
+    for (Op op : ops) {
+      final boolean transposed = rotation % 180 != 0;
+      switch (op.type) {
+        case Op.ROTATE:
+          rotation = (rotation + op.width) % 360;
+          break;
+        case Op.SCALE:
+          scaledWidth = transposed ? op.height : op.width;
+          scaledHeight = transposed ? op.width : op.height;
+          break;
+        case Op.CROP: {
+          final int outputWidth = transposed ? scaledHeight : scaledWidth;
+          final int outputHeight = transposed ? scaledWidth : scaledHeight;
+          final int x = Math.min(op.x, outputWidth - 1);
+          final int y = Math.min(op.y, outputHeight - 1);
+          final int w = Math.min(op.width, outputWidth - x);
+          final int h = Math.min(op.height, outputHeight - y);
+          // The crop rectangle in the scaled, unrotated frame.
+          final int scaledX;
+          final int scaledY;
+          switch (rotation) {
+            case 90:
+              scaledX = y;
+              scaledY = scaledHeight - (x + w);
+              break;
+            case 180:
+              scaledX = scaledWidth - (x + w);
+              scaledY = scaledHeight - (y + h);
+              break;
+            case 270:
+              scaledX = scaledWidth - (y + h);
+              scaledY = x;
+              break;
+            default:
+              scaledX = x;
+              scaledY = y;
+              break;
+          }
+          final int croppedWidth = transposed ? h : w;
+          final int croppedHeight = transposed ? w : h;
+          final double scaleX = cropWidth / scaledWidth;
+          final double scaleY = cropHeight / scaledHeight;
+          cropX += scaledX * scaleX;
+          cropY += scaledY * scaleY;
+          cropWidth = croppedWidth * scaleX;
+          cropHeight = croppedHeight * scaleY;
+          scaledWidth = croppedWidth;
+          scaledHeight = croppedHeight;
+          break;
+        }
+        default:
+          throw new IllegalStateException("Unknown operation " + op.type);
+      }
+    }
+
+    final int x = ((int) Math.round(cropX)) & ~1;
+    final int y = ((int) Math.round(cropY)) & ~1;
+    final int w = Math.max(1, Math.min((int) Math.round(cropWidth), width - x));
+    final int h = Math.max(1, Math.min((int) Math.round(cropHeight), height - y));
+    return new Transform(x, y, w, h, scaledWidth, scaledHeight, rotation);
+  }
+
+  private abstract static class Segment {
+    final StageTiming timing;
+
+    Segment(String name) {
+      this.timing = new StageTiming(name);
+    }
+
+    /** Returns the processed frame, to be released by the caller, or null to drop it. */
+    @Nullable
+    abstract VideoFrame apply(VideoFrame frame, @Nullable FrameAdaptationParameters adaptation);
+  }
+
+  private class TransformSegment extends Segment {
+    private final List<Op> ops;
+    // Cache of the transform for the last input.
+    @Nullable private Transform transform;
+    private int lastWidth;
+    private int lastHeight;
+    @Nullable private FrameAdaptationParameters lastAdaptation;
+
+    TransformSegment(List<Op> ops) {
+      super("transform");
+      this.ops = ops;
+    }
+
+    @Override
+    VideoFrame apply(VideoFrame frame, @Nullable FrameAdaptationParameters adaptation) {
+      final VideoFrame.Buffer buffer = frame.getBuffer();
+      final Transform transform = getTransform(buffer.getWidth(), buffer.getHeight(), adaptation);
+      final long timestampNs = adaptation != null ? adaptation.timestampNs : frame.getTimestampNs();
+      if (!transform.isCropOrScale(buffer.getWidth(), buffer.getHeight())
+          && transform.rotation == 0 && timestampNs == frame.getTimestampNs()) {
+        frame.retain();
+        return frame;
+      }
+
+      if (buffer instanceof VideoFrame.TextureBuffer) {
+        final VideoFrame.Buffer outputBuffer;
+        if (transform.isCropOrScale(buffer.getWidth(), buffer.getHeight())) {
+          outputBuffer = buffer.cropAndScale(transform.cropX, transform.cropY,
+              transform.cropWidth, transform.cropHeight, transform.scaleWidth,
+              transform.scaleHeight);
+        } else {
+          buffer.retain();
+          outputBuffer = buffer;
+        }
+        return new VideoFrame(
+            outputBuffer, (frame.getRotation() + transform.rotation) % 360, timestampNs);
+      }
+
+      VideoFrame.Buffer outputBuffer;
+      if (transform.isCropOrScale(buffer.getWidth(), buffer.getHeight())) {
+        outputBuffer = cropAndScale(buffer, transform);
+      } else if (transform.rotation != 0 && !(buffer instanceof VideoFrame.I420Buffer)) {
+        outputBuffer = toPooledI420(buffer);
+      } else {
+        buffer.retain();
+        outputBuffer = buffer;
+      }
+      if (transform.rotation != 0) {
+        final VideoFrame.Buffer unrotatedBuffer = outputBuffer;
+        outputBuffer = rotate((VideoFrame.I420Buffer) unrotatedBuffer, transform.rotation);
+        unrotatedBuffer.release();
+      }
+      return new VideoFrame(outputBuffer, frame.getRotation(), timestampNs);
+    }
+
+    private Transform getTransform(
+        int width, int height, @Nullable FrameAdaptationParameters adaptation) {
+      if (transform == null || width != lastWidth || height != lastHeight
+          || !isSameAdaptation(adaptation, lastAdaptation)) {
+        transform = fold(width, height, adaptation, ops);
+        lastWidth = width;
+        lastHeight = height;
+        lastAdaptation = adaptation;
+        Logging.d(TAG, width + "x" + height + ": " + transform);
+      }
+      return transform;
+    }
+  }
+
+  private class StageSegment extends Segment {
+    private final Stage stage;
+
+    StageSegment(Stage stage) {
+      super(stage.getClass().getSimpleName());
+      this.stage = stage;
+    }
+
+    @Override
+    @Nullable
+    VideoFrame apply(VideoFrame frame, @Nullable FrameAdaptationParameters adaptation) {
+      final boolean isTexture = frame.getBuffer() instanceof VideoFrame.TextureBuffer;
+      switch (stage.getBufferType()) {
+        case TEXTURE:
+          if (!isTexture) {
+            frame.retain();
+            return frame;
+          }
+          return stage.process(frame, pool);
+        case I420: {
+          if (frame.getBuffer() instanceof VideoFrame.I420Buffer) {
+            return stage.process(frame, pool);
+          }
+          final VideoFrame i420Frame = new VideoFrame(
+              toPooledI420(frame.getBuffer()), frame.getRotation(), frame.getTimestampNs());
+          final VideoFrame result = stage.process(i420Frame, pool);
+          i420Frame.release();
+          return result;
+        }
+        default:
+          return stage.process(frame, pool);
+      }
+    }
+  }
+
+  private final I420BufferPool pool;
+  private final List<Segment> segments = new ArrayList<>();
+  private final Object sinkLock = new Object();
+  @Nullable private VideoSink sink; /* guarded by sinkLock */
+  private long framesDropped;
+
+  private VideoProcessorChain(List<Object> items, int poolSize) {
+    this.pool = new I420BufferPool(poolSize);
+    List<Op> ops = new ArrayList<>();
+    for (Object item : items) {
+      if (item instanceof Op) {
+        ops.add((Op) item);
+        continue;
+      }
+      // The first segment always transforms, so that the adaptation of the video source is fused
+      // with the leading operations.
+      if (!ops.isEmpty() || segments.isEmpty()) {
+        segments.add(new TransformSegment(ops));
+        ops = new ArrayList<>();
+      }
+      segments.add(new StageSegment((Stage) item));
+    }
+    if (!ops.isEmpty() || segments.isEmpty()) {
+      segments.add(new TransformSegment(ops));
+    }
+  }
+
+  @Override
+  public void setSink(@Nullable VideoSink sink) {
+    synchronized (sinkLock) {
+      this.sink = sink;
+    }
+  }
+
+  @Override
+  public void onCapturerStarted(boolean success) {}
+
+  @Override
+  public void onCapturerStopped() {}
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame, FrameAdaptationParameters parameters) {
+    if (parameters.drop) {
+      return;
+    }
+    process(frame, parameters);
+  }
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame) {
+    process(frame, /* adaptation= */ null);
+  }
+
+  /** Returns copies of the timings of the stages, in chain order. */
+  public List<StageTiming> getStageTimings() {
+    final List<StageTiming> timings = new ArrayList<>(segments.size());
+    synchronized (segments) {
+      for (Segment segment : segments) {
+        timings.add(new StageTiming(segment.timing));
+      }
+    }
+    return timings;
+  }
+
+  /** Returns the number of frames dropped by stages. */
+  public long getFramesDropped() {
+    synchronized (segments) {
+      return framesDropped;
+    }
+  }
+
+  /** Returns the number of output buffers that were allocated because the pool was exhausted. */
+  public long getPoolMissCount() {
+    return pool.getMissCount();
+  }
+
+  /** Frees the pooled buffers. Call after the chain has been detached from the video source. */
+  public void dispose() {
+    pool.dispose();
+  }
+
+  private void process(VideoFrame frame, @Nullable FrameAdaptationParameters adaptation) {
+    frame.retain();
+    VideoFrame current = frame;
+    for (int i = 0; i < segments.size(); ++i) {
+      final Segment segment = segments.get(i);
+      final long startNs = System.nanoTime();
+      final VideoFrame next = segment.apply(current, i == 0 ? adaptation : null);
+      final long durationNs = System.nanoTime() - startNs;
+      current.release();
+      synchronized (segments) {
+        segment.timing.add(durationNs);
+        if (next == null) {
+          ++framesDropped;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      current = next;
+    }
+
+    synchronized (sinkLock) {
+      if (sink != null) {
+        sink.onFrame(current);
+      }
+    }
+    current.release();
+  }
+
+  private VideoFrame.Buffer cropAndScale(VideoFrame.Buffer buffer, Transform transform) {
+    if (buffer instanceof NV21Buffer) {
+      final JavaI420Buffer output = pool.acquire(transform.scaleWidth, transform.scaleHeight);
+      ((NV21Buffer) buffer)
+          .cropAndScale(transform.cropX, transform.cropY, transform.cropWidth,
+              transform.cropHeight, output);
+      return output;
+    }
+    final VideoFrame.I420Buffer i420Buffer = buffer.toI420();
+    final VideoFrame.Buffer output;
+    if (transform.isScale()) {
+      output = pool.acquire(transform.scaleWidth, transform.scaleHeight);
+      JavaI420Buffer.cropAndScaleI420(i420Buffer, transform.cropX, transform.cropY,
+          transform.cropWidth, transform.cropHeight, (VideoFrame.I420Buffer) output);
+    } else {
+      // A crop without scaling wraps the planes of the input without copying.
+      output = JavaI420Buffer.cropAndScaleI420(i420Buffer, transform.cropX, transform.cropY,
+          transform.cropWidth, transform.cropHeight, transform.scaleWidth, transform.scaleHeight);
+    }
+    i420Buffer.release();
+    return output;
+  }
+
+  private VideoFrame.I420Buffer toPooledI420(VideoFrame.Buffer buffer) {
+    if (buffer instanceof NV21Buffer) {
+      final JavaI420Buffer output = pool.acquire(buffer.getWidth(), buffer.getHeight());
+      ((NV21Buffer) buffer)
+          .cropAndScale(0, 0, buffer.getWidth(), buffer.getHeight(), output);
+      return output;
+    }
+    return buffer.toI420();
+  }
+
+  private VideoFrame.I420Buffer rotate(VideoFrame.I420Buffer buffer, int rotation) {
+    final boolean transposed = rotation % 180 != 0;
+    final JavaI420Buffer output = pool.acquire(transposed ? buffer.getHeight() : buffer.getWidth(),
+        transposed ? buffer.getWidth() : buffer.getHeight());
+    YuvHelper.I420Rotate(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
+        buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV(), output.getDataY(),
+        output.getStrideY(), output.getDataU(), output.getStrideU(), output.getDataV(),
+        output.getStrideV(), buffer.getWidth(), buffer.getHeight(), rotation);
+    return output;
+  }
+
+  private static boolean isSameAdaptation(
+      @Nullable FrameAdaptationParameters a, @Nullable FrameAdaptationParameters b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.cropX == b.cropX && a.cropY == b.cropY && a.cropWidth == b.cropWidth
+        && a.cropHeight == b.cropHeight && a.scaleWidth == b.scaleWidth
+        && a.scaleHeight == b.scaleHeight;
+  }
+}
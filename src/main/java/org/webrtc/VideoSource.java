@@ -30,6 +30,7 @@ public class VideoSource extends MediaSource {
   }
 
   private final NativeAndroidVideoTrackSource nativeAndroidVideoTrackSource;
+  private final FrameRateLimiter frameRateLimiter = new FrameRateLimiter();
   private final Object videoProcessorLock = new Object();
   @Nullable private VideoProcessor videoProcessor;
   private boolean isCapturerRunning;
@@ -37,6 +38,7 @@ public class VideoSource extends MediaSource {
   private final CapturerObserver capturerObserver = new CapturerObserver() {
     @Override
     public void onCapturerStarted(boolean success) {
+      frameRateLimiter.reset();
       nativeAndroidVideoTrackSource.setState(success);
       synchronized (videoProcessorLock) {
         isCapturerRunning = success;
@@ -59,6 +61,9 @@ public class VideoSource extends MediaSource {
 
     @Override
     public void onFrameCaptured(VideoFrame frame) {
+      if (!frameRateLimiter.shouldPassFrame(frame.getTimestampNs())) {
+        return;
+      }
       final VideoProcessor.FrameAdaptationParameters parameters =
           nativeAndroidVideoTrackSource.adaptFrame(frame);
       synchronized (videoProcessorLock) {
@@ -114,6 +119,22 @@ public class VideoSource extends MediaSource {
         maxLandscapePixelCount, targetPortraitAspectRatio, maxPortraitPixelCount, maxFps);
   }
 
+  /**
+   * Drops captured frames by their timestamps to at most |maxFps| frames per second, before they
+   * are adapted, converted or passed to the video processor; 0 disables the limit. Useful when the
+   * camera only offers higher framerates than wanted. Unlike the fps of adaptOutputFormat(), which
+   * drops frames after adaptation, this limit is kept on a stable cadence and is not changed by
+   * adaptOutputFormat(). This function can be called from any thread.
+   */
+  public void setMaxFramerate(int maxFps) {
+    frameRateLimiter.setMaxFramerate(maxFps);
+  }
+
+  /** Returns the number of frames dropped by the limit of setMaxFramerate(). */
+  public long getFramesDroppedByFramerateLimit() {
+    return frameRateLimiter.getFramesDropped();
+  }
+
   /**
    * Hook for injecting a custom video processor before frames are passed onto WebRTC. The frames
    * will be cropped and scaled depending on CPU and network conditions before they are passed to
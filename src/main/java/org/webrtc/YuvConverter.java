@@ -10,8 +10,15 @@
 
 package org.webrtc;
 
+import android.annotation.TargetApi;
 import android.graphics.Matrix;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import androidx.annotation.Nullable;
 import java.nio.ByteBuffer;
 import org.webrtc.VideoFrame.I420Buffer;
 import org.webrtc.VideoFrame.TextureBuffer;
@@ -19,8 +26,40 @@ import org.webrtc.VideoFrame.TextureBuffer;
 /**
  * Class for converting OES textures to a YUV ByteBuffer. It can be constructed on any thread, but
  * should only be operated from a single thread with an active EGL context.
+ *
+ * <p>{@link #convert} reads the converted frame back synchronously, which stalls the GL pipeline
+ * until the GPU has finished drawing. {@link #convertAsync} instead reads back into pixel buffer
+ * objects and returns each frame a number of calls later, as set by {@link #setReadbackMode}. This
+ * requires an OpenGL ES 3 context, see {@link #createReadbackEglBase}; on ES 2 contexts it falls
+ * back to synchronous readback.
  */
 public class YuvConverter {
+  private static final String TAG = "YuvConverter";
+
+  /** Number of frames that convertAsync() keeps in flight, trading latency for throughput. */
+  public enum ReadbackMode {
+    /** Frames are read back synchronously and returned immediately. */
+    LOW_LATENCY(1),
+    /** Double buffered: returns the previous frame, one frame of latency. */
+    BALANCED(2),
+    /** Triple buffered: returns the frame from two calls ago. */
+    HIGH_THROUGHPUT(3);
+
+    final int depth;
+
+    ReadbackMode(int depth) {
+      this.depth = depth;
+    }
+  }
+
+  // Destination buffers kept for reuse beyond the frames in flight, to cover frames that are still
+  // held downstream.
+  private static final int EXTRA_POOLED_BUFFERS = 2;
+
+  private static final int[] CONFIG_PIXEL_BUFFER_ES3 =
+      EglBase.configBuilder().setOpenGlesVersion(3).setSupportsPixelBuffer(true)
+          .createConfigAttributes();
+
   private static final String FRAGMENT_SHADER =
       // Difference in texture coordinate corresponding to one
       // sub-pixel in the x direction.
@@ -109,6 +148,26 @@ public class YuvConverter {
   private final GlGenericDrawer drawer = new GlGenericDrawer(FRAGMENT_SHADER, shaderCallbacks);
   private final VideoFrameDrawer videoFrameDrawer;
 
+  // State of convertAsync(), created lazily.
+  private ReadbackMode readbackMode = ReadbackMode.BALANCED;
+  @Nullable private ReadbackScheduler readbackScheduler;
+  @Nullable private ReadbackSlot[] readbackSlots;
+  @Nullable private ReadbackBufferPool bufferPool;
+  @Nullable private Boolean pixelBufferObjectsSupported;
+
+  /** Frame rendered into a readback slot, and the pixel buffer object it was read into. */
+  private static class ReadbackSlot {
+    int pixelBufferId;
+    int pixelBufferSize;
+    int frameWidth;
+    int frameHeight;
+    int stride;
+    int rotation;
+    long timestampNs;
+    // Destination of the synchronous fallback; null when a pixel buffer object is used.
+    @Nullable ByteBuffer data;
+  }
+
   /**
    * This class should be constructed on a thread that has an active EGL context.
    */
@@ -121,6 +180,22 @@ public class YuvConverter {
     threadChecker.detachThread();
   }
 
+  /**
+   * Creates an EGL context with a pixel buffer surface for running convertAsync() on. The context
+   * is OpenGL ES 3 where the device supports it, so that frames are read back through pixel buffer
+   * objects, and OpenGL ES 2 otherwise.
+   */
+  public static EglBase createReadbackEglBase(@Nullable EglBase.Context sharedContext) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      try {
+        return EglBase.create(sharedContext, CONFIG_PIXEL_BUFFER_ES3);
+      } catch (RuntimeException e) {
+        Logging.w(TAG, "No OpenGL ES 3 context, falling back to OpenGL ES 2.", e);
+      }
+    }
+    return EglBase.create(sharedContext, EglBase.CONFIG_PIXEL_BUFFER);
+  }
+
   /** Converts the texture buffer to I420. */
   public I420Buffer convert(TextureBuffer inputTextureBuffer) {
     threadChecker.checkIsOnValidThread();
@@ -128,6 +203,213 @@ public class YuvConverter {
     TextureBuffer preparedBuffer = (TextureBuffer) videoFrameDrawer.prepareBufferForViewportSize(
         inputTextureBuffer, inputTextureBuffer.getWidth(), inputTextureBuffer.getHeight());
 
+    final int frameWidth = preparedBuffer.getWidth();
+    final int frameHeight = preparedBuffer.getHeight();
+    final int stride = getStride(frameWidth);
+    final ByteBuffer i420ByteBuffer =
+        JniCommon.nativeAllocateByteBuffer(stride * getTotalHeight(frameHeight));
+
+    drawI420(preparedBuffer);
+
+    GLES20.glReadPixels(0, 0, i420TextureFrameBuffer.getWidth(), i420TextureFrameBuffer.getHeight(),
+        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, i420ByteBuffer);
+
+    GlUtil.checkNoGLES2Error("YuvConverter.convert");
+
+    // Restore normal framebuffer.
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    preparedBuffer.release();
+
+    return wrapI420(frameWidth, frameHeight, stride, i420ByteBuffer,
+        () -> { JniCommon.nativeFreeByteBuffer(i420ByteBuffer); });
+  }
+
+  /**
+   * Sets how many frames convertAsync() keeps in flight. Frames that are still in flight are
+   * dropped, so call flushAsync() first when switching mode in the middle of a stream.
+   */
+  public void setReadbackMode(ReadbackMode readbackMode) {
+    threadChecker.checkIsOnValidThread();
+    if (readbackMode == this.readbackMode) {
+      return;
+    }
+    this.readbackMode = readbackMode;
+    releaseReadbackSlots();
+  }
+
+  /**
+   * Converts the texture frame to I420 without waiting for the GPU. The returned frame is the one
+   * passed in (depth - 1) calls earlier, where the depth is set by the readback mode, or null while
+   * the pipeline is still filling up. Use flushAsync() to retrieve the remaining frames at the end
+   * of a stream. The caller owns the returned frame and must release it; its buffer comes from a
+   * pool and is reused once released.
+   */
+  @Nullable
+  public VideoFrame convertAsync(VideoFrame textureFrame) {
+    threadChecker.checkIsOnValidThread();
+    final TextureBuffer inputTextureBuffer = (TextureBuffer) textureFrame.getBuffer();
+    if (readbackScheduler == null) {
+      initReadbackSlots();
+    }
+
+    TextureBuffer preparedBuffer = (TextureBuffer) videoFrameDrawer.prepareBufferForViewportSize(
+        inputTextureBuffer, inputTextureBuffer.getWidth(), inputTextureBuffer.getHeight());
+
+    final ReadbackSlot slot = readbackSlots[readbackScheduler.submit()];
+    slot.frameWidth = preparedBuffer.getWidth();
+    slot.frameHeight = preparedBuffer.getHeight();
+    slot.stride = getStride(slot.frameWidth);
+    slot.rotation = textureFrame.getRotation();
+    slot.timestampNs = textureFrame.getTimestampNs();
+    final int size = slot.stride * getTotalHeight(slot.frameHeight);
+
+    drawI420(preparedBuffer);
+
+    if (pixelBufferObjectsSupported) {
+      readIntoPixelBuffer(slot, size);
+    } else {
+      slot.data = bufferPool.acquire(size);
+      GLES20.glReadPixels(0, 0, i420TextureFrameBuffer.getWidth(),
+          i420TextureFrameBuffer.getHeight(), GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, slot.data);
+    }
+    GlUtil.checkNoGLES2Error("YuvConverter.convertAsync");
+
+    // Restore normal framebuffer.
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    preparedBuffer.release();
+
+    final int readySlot = readbackScheduler.poll();
+    return readySlot < 0 ? null : finishReadback(readbackSlots[readySlot]);
+  }
+
+  /**
+   * Returns the oldest frame still in flight from convertAsync(), or null if there is none. Call
+   * repeatedly until it returns null to drain the pipeline.
+   */
+  @Nullable
+  public VideoFrame flushAsync() {
+    threadChecker.checkIsOnValidThread();
+    if (readbackScheduler == null) {
+      return null;
+    }
+    final int slot = readbackScheduler.flush();
+    return slot < 0 ? null : finishReadback(readbackSlots[slot]);
+  }
+
+  private void initReadbackSlots() {
+    if (pixelBufferObjectsSupported == null) {
+      pixelBufferObjectsSupported = isOpenGlEs3Context();
+      if (!pixelBufferObjectsSupported) {
+        Logging.w(TAG, "OpenGL ES 3 is not available, falling back to synchronous readback.");
+      }
+    }
+    // Without pixel buffer objects glReadPixels() blocks anyway, so keeping frames in flight would
+    // only add latency.
+    final int depth = pixelBufferObjectsSupported ? readbackMode.depth : 1;
+    readbackScheduler = new ReadbackScheduler(depth);
+    readbackSlots = new ReadbackSlot[depth];
+    for (int i = 0; i < depth; ++i) {
+      readbackSlots[i] = new ReadbackSlot();
+    }
+    if (pixelBufferObjectsSupported) {
+      final int[] pixelBufferIds = new int[depth];
+      GLES20.glGenBuffers(depth, pixelBufferIds, 0);
+      for (int i = 0; i < depth; ++i) {
+        readbackSlots[i].pixelBufferId = pixelBufferIds[i];
+      }
+    }
+    if (bufferPool == null) {
+      bufferPool =
+          new ReadbackBufferPool(ReadbackMode.HIGH_THROUGHPUT.depth + EXTRA_POOLED_BUFFERS);
+    }
+  }
+
+  private void releaseReadbackSlots() {
+    if (readbackSlots == null) {
+      return;
+    }
+    for (ReadbackSlot slot : readbackSlots) {
+      if (slot.pixelBufferId != 0) {
+        GLES20.glDeleteBuffers(1, new int[] {slot.pixelBufferId}, 0);
+      }
+      if (slot.data != null) {
+        bufferPool.release(slot.data);
+      }
+    }
+    readbackSlots = null;
+    readbackScheduler = null;
+  }
+
+  // Asks EGL for the client version the current context was created with. The GL_VERSION string is
+  // not used, since drivers report their highest version for contexts created as ES 2 as well.
+  @TargetApi(18)
+  private static boolean isOpenGlEs3Context() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      return false;
+    }
+    final EGLDisplay display = EGL14.eglGetCurrentDisplay();
+    final EGLContext context = EGL14.eglGetCurrentContext();
+    if (display == EGL14.EGL_NO_DISPLAY || context == EGL14.EGL_NO_CONTEXT) {
+      return false;
+    }
+    final int[] clientVersion = new int[1];
+    return EGL14.eglQueryContext(
+               display, context, EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion, /* offset= */ 0)
+        && clientVersion[0] >= 3;
+  }
+
+  // Starts an asynchronous readback of the bound framebuffer into the pixel buffer of |slot|.
+  @TargetApi(18)
+  private void readIntoPixelBuffer(ReadbackSlot slot, int size) {
+    GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.pixelBufferId);
+    if (slot.pixelBufferSize != size) {
+      GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+      slot.pixelBufferSize = size;
+    }
+    GLES30.glReadPixels(0, 0, i420TextureFrameBuffer.getWidth(),
+        i420TextureFrameBuffer.getHeight(), GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+        /* offset= */ 0);
+    GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+  }
+
+  // Completes the readback of |slot| and wraps the result in a frame backed by a pooled buffer.
+  @TargetApi(18)
+  private VideoFrame finishReadback(ReadbackSlot slot) {
+    final ByteBuffer data;
+    if (slot.data != null) {
+      data = slot.data;
+      slot.data = null;
+    } else {
+      data = bufferPool.acquire(slot.pixelBufferSize);
+      GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.pixelBufferId);
+      final ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+          GLES30.GL_PIXEL_PACK_BUFFER, 0, slot.pixelBufferSize, GLES30.GL_MAP_READ_BIT);
+      GlUtil.checkNoGLES2Error("glMapBufferRange");
+      data.put(mapped);
+      data.rewind();
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+    final ReadbackBufferPool pool = bufferPool;
+    final I420Buffer i420Buffer = wrapI420(
+        slot.frameWidth, slot.frameHeight, slot.stride, data, () -> pool.release(data));
+    return new VideoFrame(i420Buffer, slot.rotation, slot.timestampNs);
+  }
+
+  private static int getStride(int frameWidth) {
+    // See drawI420() for why the stride is a multiple of 8.
+    return ((frameWidth + 7) / 8) * 8;
+  }
+
+  // Total height of the combined memory layout.
+  private static int getTotalHeight(int frameHeight) {
+    return frameHeight + (frameHeight + 1) / 2;
+  }
+
+  // Draws the I420 planes of |preparedBuffer| into i420TextureFrameBuffer and leaves it bound.
+  private void drawI420(TextureBuffer preparedBuffer) {
     // We draw into a buffer laid out like
     //
     //    +---------+
@@ -158,11 +440,9 @@ public class YuvConverter {
     // has to be a multiple of 8 pixels.
     final int frameWidth = preparedBuffer.getWidth();
     final int frameHeight = preparedBuffer.getHeight();
-    final int stride = ((frameWidth + 7) / 8) * 8;
+    final int stride = getStride(frameWidth);
     final int uvHeight = (frameHeight + 1) / 2;
-    // Total height of the combined memory layout.
-    final int totalHeight = frameHeight + uvHeight;
-    final ByteBuffer i420ByteBuffer = JniCommon.nativeAllocateByteBuffer(stride * totalHeight);
+    final int totalHeight = getTotalHeight(frameHeight);
     // Viewport width is divided by four since we are squeezing in four color bytes in each RGBA
     // pixel.
     final int viewportWidth = stride / 4;
@@ -196,14 +476,12 @@ public class YuvConverter {
     VideoFrameDrawer.drawTexture(drawer, preparedBuffer, renderMatrix, frameWidth, frameHeight,
         /* viewportX= */ viewportWidth / 2, /* viewportY= */ frameHeight, viewportWidth / 2,
         /* viewportHeight= */ uvHeight);
+  }
 
-    GLES20.glReadPixels(0, 0, i420TextureFrameBuffer.getWidth(), i420TextureFrameBuffer.getHeight(),
-        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, i420ByteBuffer);
-
-    GlUtil.checkNoGLES2Error("YuvConverter.convert");
-
-    // Restore normal framebuffer.
-    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+  // Wraps Y, U, and V slices of a buffer laid out as drawn by drawI420().
+  private static I420Buffer wrapI420(int frameWidth, int frameHeight, int stride,
+      ByteBuffer i420ByteBuffer, Runnable releaseCallback) {
+    final int uvHeight = (frameHeight + 1) / 2;
 
     // Prepare Y, U, and V ByteBuffer slices.
     final int yPos = 0;
@@ -225,14 +503,16 @@ public class YuvConverter {
     i420ByteBuffer.limit(vPos + uvSize);
     final ByteBuffer dataV = i420ByteBuffer.slice();
 
-    preparedBuffer.release();
-
     return JavaI420Buffer.wrap(frameWidth, frameHeight, dataY, stride, dataU, stride, dataV, stride,
-        () -> { JniCommon.nativeFreeByteBuffer(i420ByteBuffer); });
+        releaseCallback);
   }
 
   public void release() {
     threadChecker.checkIsOnValidThread();
+    releaseReadbackSlots();
+    if (bufferPool != null) {
+      bufferPool.clear();
+    }
     drawer.release();
     i420TextureFrameBuffer.release();
     videoFrameDrawer.release();
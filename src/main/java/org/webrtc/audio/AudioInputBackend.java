@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the recorded audio of a {@link JavaAudioDeviceModule} in place of the AudioRecord,
+ * for example a file, a generator or nothing at all. The backend decides on which thread and at
+ * which pace audio is delivered; it does not need a thread of its own.
+ *
+ * <p>The audio is 16-bit PCM in native byte order, interleaved if there is more than one channel,
+ * delivered in chunks of 10 ms.
+ */
+public interface AudioInputBackend {
+  /** Receives the recorded audio. */
+  interface Callback {
+    /**
+     * Called after the buffer passed to start() has been filled with the next 10 ms of audio.
+     * Calls must not overlap.
+     */
+    void onDataRecorded();
+  }
+
+  /**
+   * Prepares recording in the given format. Called before every start(), also after stop().
+   * Returns false if it is not supported.
+   */
+  boolean init(int sampleRate, int channels);
+
+  /**
+   * Starts delivering audio. |buffer| holds exactly 10 ms; the backend fills it from position 0
+   * and then calls |callback|. Returns false on failure.
+   */
+  boolean start(ByteBuffer buffer, Callback callback);
+
+  /** Stops delivering audio. When this returns, the callback is not running and will not run. */
+  void stop();
+
+  /**
+   * Releases all resources. Called once, when the audio device module is released; the backend
+   * is not used afterwards.
+   */
+  void release();
+}
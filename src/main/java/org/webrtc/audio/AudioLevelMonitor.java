@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import androidx.annotation.Nullable;
+import org.webrtc.Logging;
+
+/**
+ * Runs a {@link VoiceActivityDetector} on the audio of a {@link PcmRingBuffer} on its own thread,
+ * in 10 ms frames, and reports levels and speaking transitions. Since it reads from the ring, it
+ * never delays the audio thread that feeds it.
+ */
+public class AudioLevelMonitor {
+  private static final String TAG = "AudioLevelMonitor";
+
+  private static final int FRAMES_PER_SECOND = 100;
+  private static final long POLL_INTERVAL_MS = 10;
+  private static final long THREAD_JOIN_TIMEOUT_MS = 2000;
+
+  /** Called on the monitor thread. */
+  public interface Callback {
+    /** Called every |levelReportIntervalFrames| frames with the latest levels. */
+    void onAudioLevel(double smoothedDbfs, double peakDbfs);
+
+    void onSpeakingChanged(boolean speaking);
+  }
+
+  private final String name;
+  private final PcmRingBuffer ringBuffer;
+  private final VoiceActivityDetector detector;
+  private final Callback callback;
+  private final int levelReportIntervalFrames;
+
+  @Nullable private volatile Thread thread;
+
+  /**
+   * @param levelReportIntervalFrames number of 10 ms frames between level reports, or 0 to only
+   *                                  report speaking transitions
+   */
+  public AudioLevelMonitor(String name, PcmRingBuffer ringBuffer,
+      VoiceActivityDetector detector, Callback callback, int levelReportIntervalFrames) {
+    this.name = name;
+    this.ringBuffer = ringBuffer;
+    this.detector = detector;
+    this.callback = callback;
+    this.levelReportIntervalFrames = levelReportIntervalFrames;
+  }
+
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    final Thread monitorThread = new Thread(this::run, name + "AudioLevelMonitor");
+    thread = monitorThread;
+    monitorThread.start();
+  }
+
+  public void stop() {
+    final Thread monitorThread;
+    synchronized (this) {
+      monitorThread = thread;
+      thread = null;
+    }
+    if (monitorThread == null) {
+      return;
+    }
+    monitorThread.interrupt();
+    try {
+      monitorThread.join(THREAD_JOIN_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    final PcmRingBuffer.Consumer consumer = ringBuffer.createConsumer();
+    short[] frame = new short[0];
+    int framesSinceReport = 0;
+    detector.reset();
+    while (thread == Thread.currentThread()) {
+      final int frameSize =
+          ringBuffer.getSampleRate() * ringBuffer.getChannelCount() / FRAMES_PER_SECOND;
+      if (frameSize > 0 && frame.length != frameSize) {
+        // The format changed; samples buffered so far do not line up with the new frames.
+        frame = new short[frameSize];
+        consumer.skipToLatest();
+      }
+      while (frameSize > 0 && consumer.available() >= frameSize) {
+        if (consumer.read(frame, 0, frameSize) < frameSize) {
+          break;
+        }
+        if (detector.process(frame, 0, frameSize)) {
+          callback.onSpeakingChanged(detector.isSpeaking());
+        }
+        if (levelReportIntervalFrames > 0 && ++framesSinceReport >= levelReportIntervalFrames) {
+          framesSinceReport = 0;
+          callback.onAudioLevel(detector.getSmoothedDbfs(), detector.getPeakDbfs());
+        }
+      }
+      try {
+        Thread.sleep(POLL_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+    consumer.close();
+    if (consumer.getOverrunSamples() > 0) {
+      Logging.w(TAG, name + ": lost " + consumer.getOverrunSamples() + " samples to overrun");
+    }
+  }
+}
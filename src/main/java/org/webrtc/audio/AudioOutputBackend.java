@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sink of the playout audio of a {@link JavaAudioDeviceModule} in place of the AudioTrack, for
+ * example a file or nothing at all. The backend decides on which thread and at which pace audio
+ * is pulled; it does not need a thread of its own.
+ *
+ * <p>The audio is 16-bit PCM in native byte order, interleaved if there is more than one channel,
+ * pulled in chunks of 10 ms.
+ */
+public interface AudioOutputBackend {
+  /** Provides the playout audio. */
+  interface Callback {
+    /**
+     * Fills the buffer passed to start() with the next 10 ms of audio, from position 0. Calls
+     * must not overlap.
+     */
+    void onPlayoutDataNeeded();
+  }
+
+  /**
+   * Prepares playout in the given format. Called before every start(), also after stop().
+   * Returns false if it is not supported.
+   */
+  boolean init(int sampleRate, int channels);
+
+  /**
+   * Starts pulling audio. |buffer| holds exactly 10 ms; the backend calls |callback| and then
+   * consumes the buffer, leaving its position at 0. Returns false on failure.
+   */
+  boolean start(ByteBuffer buffer, Callback callback);
+
+  /** Stops pulling audio. When this returns, the callback is not running and will not run. */
+  void stop();
+
+  /**
+   * Releases all resources. Called once, when the audio device module is released; the backend
+   * is not used afterwards.
+   */
+  void release();
+}
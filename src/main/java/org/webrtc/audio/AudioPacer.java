@@ -0,0 +1,183 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import androidx.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.webrtc.Logging;
+
+/**
+ * One thread that calls any number of registered tasks every 10 ms, for audio backends that are
+ * not driven by a device. Ticks follow an absolute schedule, so that delays do not accumulate into
+ * drift; if the thread falls more than MAX_LATE_TICKS behind, the missed ticks are dropped and
+ * counted instead of being delivered in a burst. The thread runs only while tasks are registered.
+ *
+ * <p>Tasks run without any lock held, so register() and unregister() of other tasks, and other
+ * pacers, never wait for the audio work of a tick; only unregister() of a task that is running
+ * waits for that tick to finish.
+ */
+public class AudioPacer {
+  private static final String TAG = "AudioPacer";
+
+  public static final long TICK_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final int MAX_LATE_TICKS = 10;
+  private static final long THREAD_JOIN_TIMEOUT_MS = 2000;
+
+  private static final Object defaultLock = new Object();
+  @Nullable private static AudioPacer defaultPacer;
+
+  /** Called on the pacer thread every 10 ms. Must return quickly; it delays all other tasks. */
+  public interface Task {
+    void onTick();
+  }
+
+  private final String name;
+  // Guards the fields below; notified when a tick has finished.
+  private final Object tickLock = new Object();
+  private volatile Task[] tasks = new Task[0];
+  @Nullable private Thread thread;
+  // The tasks of the tick that is running, or null between ticks.
+  @Nullable private Task[] runningTasks;
+  private volatile long droppedTicks;
+
+  /** Returns a pacer shared by all backends that do not need their own. */
+  public static AudioPacer getDefault() {
+    synchronized (defaultLock) {
+      if (defaultPacer == null) {
+        defaultPacer = new AudioPacer("DefaultAudioPacer");
+      }
+      return defaultPacer;
+    }
+  }
+
+  public AudioPacer(String name) {
+    this.name = name;
+  }
+
+  /** Starts calling |task| with the next tick. */
+  public void register(Task task) {
+    synchronized (tickLock) {
+      final Task[] newTasks = Arrays.copyOf(tasks, tasks.length + 1);
+      newTasks[tasks.length] = task;
+      tasks = newTasks;
+      if (thread == null) {
+        thread = new Thread(this::run, name);
+        thread.start();
+      }
+    }
+  }
+
+  /**
+   * Stops calling |task|. When this returns, |task| is not running and will not run again. Must
+   * not be called from a task.
+   */
+  public void unregister(Task task) {
+    Thread stoppedThread = null;
+    boolean wasInterrupted = false;
+    synchronized (tickLock) {
+      int index = -1;
+      for (int i = 0; i < tasks.length; ++i) {
+        if (tasks[i] == task) {
+          index = i;
+          break;
+        }
+      }
+      if (index < 0) {
+        return;
+      }
+      final Task[] newTasks = new Task[tasks.length - 1];
+      System.arraycopy(tasks, 0, newTasks, 0, index);
+      System.arraycopy(tasks, index + 1, newTasks, index, tasks.length - index - 1);
+      tasks = newTasks;
+      if (newTasks.length == 0) {
+        stoppedThread = thread;
+        thread = null;
+      }
+      while (contains(runningTasks, task)) {
+        try {
+          tickLock.wait();
+        } catch (InterruptedException e) {
+          wasInterrupted = true;
+        }
+      }
+    }
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (stoppedThread != null) {
+      stoppedThread.interrupt();
+      try {
+        stoppedThread.join(THREAD_JOIN_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Returns the number of ticks skipped because the thread fell too far behind. */
+  public long getDroppedTicks() {
+    return droppedTicks;
+  }
+
+  private void run() {
+    Logging.d(TAG, name + " started");
+    long nextTickNs = System.nanoTime() + TICK_INTERVAL_NS;
+    while (!Thread.currentThread().isInterrupted()) {
+      final long waitNs = nextTickNs - System.nanoTime();
+      if (waitNs > 0) {
+        try {
+          Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+      final Task[] tickTasks;
+      synchronized (tickLock) {
+        if (thread != Thread.currentThread()) {
+          break;
+        }
+        tickTasks = tasks;
+        runningTasks = tickTasks;
+      }
+      try {
+        for (Task task : tickTasks) {
+          task.onTick();
+        }
+      } finally {
+        synchronized (tickLock) {
+          runningTasks = null;
+          tickLock.notifyAll();
+        }
+      }
+      nextTickNs += TICK_INTERVAL_NS;
+      final long lateNs = System.nanoTime() - nextTickNs;
+      if (lateNs > MAX_LATE_TICKS * TICK_INTERVAL_NS) {
+        final long skipped = lateNs / TICK_INTERVAL_NS;
+        droppedTicks += skipped;
+        nextTickNs += skipped * TICK_INTERVAL_NS;
+        Logging.w(TAG, name + " fell behind, dropped " + skipped + " ticks");
+      }
+    }
+    Logging.d(TAG, name + " stopped");
+  }
+
+  private static boolean contains(@Nullable Task[] array, Task task) {
+    if (array != null) {
+      for (Task element : array) {
+        if (element == task) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -36,6 +36,12 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     private AudioTrackErrorCallback audioTrackErrorCallback;
     private AudioRecordErrorCallback audioRecordErrorCallback;
     private SamplesReadyCallback samplesReadyCallback;
+    private PcmRingBuffer recordedSamplesRingBuffer;
+    private PcmRingBuffer playoutSamplesRingBuffer;
+    private PlayoutMetricsListener playoutMetricsListener;
+    private int playoutBufferMaxLatencyMs;
+    private AudioInputBackend audioInputBackend;
+    private AudioOutputBackend audioOutputBackend;
     private AudioTrackStateCallback audioTrackStateCallback;
     private AudioRecordStateCallback audioRecordStateCallback;
     private boolean useHardwareAcousticEchoCanceler = isBuiltInAcousticEchoCancelerSupported();
@@ -117,13 +123,72 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     }
 
     /**
-     * Set a callback to listen to the raw audio input from the AudioRecord.
+     * Set a callback to listen to the raw audio input from the AudioRecord. The AudioSamples passed
+     * to the callback and their data are reused for the next buffer, so nothing is allocated per
+     * buffer; copy the data if it is needed after the callback returns.
      */
     public Builder setSamplesReadyCallback(SamplesReadyCallback samplesReadyCallback) {
       this.samplesReadyCallback = samplesReadyCallback;
       return this;
     }
 
+    /**
+     * Set a ring buffer that receives the raw 16-bit audio input from the AudioRecord. Unlike the
+     * SamplesReadyCallback, this does not allocate or call out on the audio thread; any number of
+     * consumers can read from the ring on their own threads.
+     */
+    public Builder setRecordedSamplesRingBuffer(PcmRingBuffer recordedSamplesRingBuffer) {
+      this.recordedSamplesRingBuffer = recordedSamplesRingBuffer;
+      return this;
+    }
+
+    /**
+     * Set a ring buffer that receives the 16-bit audio that is written to the AudioTrack, i.e. the
+     * mix of all remote audio streams.
+     */
+    public Builder setPlayoutSamplesRingBuffer(PcmRingBuffer playoutSamplesRingBuffer) {
+      this.playoutSamplesRingBuffer = playoutSamplesRingBuffer;
+      return this;
+    }
+
+    /**
+     * Set a listener that periodically receives counters and histograms of the AudioTrack
+     * writes, underruns and buffer fill. Nothing is measured when no listener is set.
+     */
+    public Builder setPlayoutMetricsListener(PlayoutMetricsListener playoutMetricsListener) {
+      this.playoutMetricsListener = playoutMetricsListener;
+      return this;
+    }
+
+    /**
+     * Call this to record from the given backend instead of an AudioRecord, for example
+     * NullAudioInputBackend for play-only use or StreamAudioInputBackend for load testing. The
+     * hardware effects are disabled, since they only apply to an AudioRecord.
+     */
+    public Builder setAudioInputBackend(AudioInputBackend audioInputBackend) {
+      this.audioInputBackend = audioInputBackend;
+      return this;
+    }
+
+    /**
+     * Call this to play out to the given backend instead of an AudioTrack, for example
+     * StreamAudioOutputBackend for headless use.
+     */
+    public Builder setAudioOutputBackend(AudioOutputBackend audioOutputBackend) {
+      this.audioOutputBackend = audioOutputBackend;
+      return this;
+    }
+
+    /**
+     * Call this to let the AudioTrack buffer start small and grow or shrink with the observed
+     * underruns and write timing, up to |maxLatencyMs|. Only has an effect on API level 24 and
+     * higher. The default, 0, keeps the fixed buffer size.
+     */
+    public Builder setPlayoutBufferMaxLatencyMs(int maxLatencyMs) {
+      this.playoutBufferMaxLatencyMs = maxLatencyMs;
+      return this;
+    }
+
     /**
      * Set a callback to retrieve information from the AudioTrack on when audio starts and stop.
      */
@@ -189,6 +254,11 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
      */
     public AudioDeviceModule createAudioDeviceModule() {
       Logging.d(TAG, "createAudioDeviceModule");
+      if (audioInputBackend != null) {
+        Logging.d(TAG, "Recording from " + audioInputBackend.getClass().getSimpleName());
+        useHardwareNoiseSuppressor = false;
+        useHardwareAcousticEchoCanceler = false;
+      }
       if (useHardwareNoiseSuppressor) {
         Logging.d(TAG, "HW NS will be used.");
       } else {
@@ -208,8 +278,14 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
       final WebRtcAudioRecord audioInput = new WebRtcAudioRecord(context, audioManager, audioSource,
           audioFormat, audioRecordErrorCallback, audioRecordStateCallback, samplesReadyCallback,
           useHardwareAcousticEchoCanceler, useHardwareNoiseSuppressor);
+      audioInput.setSamplesRingBuffer(recordedSamplesRingBuffer);
+      audioInput.setInputBackend(audioInputBackend);
       final WebRtcAudioTrack audioOutput = new WebRtcAudioTrack(
           context, audioManager, audioTrackErrorCallback, audioTrackStateCallback);
+      audioOutput.setSamplesRingBuffer(playoutSamplesRingBuffer);
+      audioOutput.setPlayoutMetricsListener(playoutMetricsListener);
+      audioOutput.setAdaptiveBufferMaxLatencyMs(playoutBufferMaxLatencyMs);
+      audioOutput.setOutputBackend(audioOutputBackend);
       return new JavaAudioDeviceModule(context, audioManager, audioInput, audioOutput,
           inputSampleRate, outputSampleRate, useStereoInput, useStereoOutput);
     }
@@ -271,7 +347,10 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     }
   }
 
-  /** Called when new audio samples are ready. This should only be set for debug purposes */
+  /**
+   * Called when new audio samples are ready. This should only be set for debug purposes. The
+   * samples are only valid during the call.
+   */
   public static interface SamplesReadyCallback {
     void onWebRtcAudioRecordSamplesReady(AudioSamples samples);
   }
@@ -295,6 +374,15 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
     void onWebRtcAudioTrackStop();
   }
 
+  /**
+   * Receives the metrics of the current playout session every few seconds and when playout
+   * stops. Called on the audio thread, so it must return quickly. |metrics| is reused for the next
+   * report and must not be kept.
+   */
+  public static interface PlayoutMetricsListener {
+    void onPlayoutMetrics(PlayoutMetrics metrics);
+  }
+
   /**
    * Returns true if the device supports built-in HW AEC, and the UUID is approved (some UUIDs can
    * be excluded).
@@ -355,6 +443,8 @@ public class JavaAudioDeviceModule implements AudioDeviceModule {
         nativeAudioDeviceModule = 0;
       }
     }
+    audioInput.releaseInputBackend();
+    audioOutput.releaseOutputBackend();
   }
 
   @Override
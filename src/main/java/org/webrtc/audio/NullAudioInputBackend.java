@@ -0,0 +1,35 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Input backend that never delivers audio, for play-only deployments. Neither an AudioRecord nor
+ * a recording thread is created, and the microphone permission is not needed.
+ */
+public class NullAudioInputBackend implements AudioInputBackend {
+  @Override
+  public boolean init(int sampleRate, int channels) {
+    return true;
+  }
+
+  @Override
+  public boolean start(ByteBuffer buffer, Callback callback) {
+    return true;
+  }
+
+  @Override
+  public void stop() {}
+
+  @Override
+  public void release() {}
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable piece of 16-bit PCM held in memory, loaded from a WAV file or generated as a tone. A
+ * clip can be shared by any number of {@link SyntheticAudioInputBackend}s; the conversion to each
+ * format a backend records in is done once and cached.
+ */
+public class PcmClip {
+  private static final short WAVE_FORMAT_PCM = 1;
+  private static final short WAVE_FORMAT_EXTENSIBLE = (short) 0xFFFE;
+  // Size of the fmt chunk of WAVE_FORMAT_EXTENSIBLE, up to the end of the SubFormat GUID.
+  private static final int EXTENSIBLE_FORMAT_SIZE = 40;
+  // KSDATAFORMAT_SUBTYPE_PCM, 00000001-0000-0010-8000-00aa00389b71, as stored in the file.
+  private static final byte[] SUBTYPE_PCM = {0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+      (byte) 0x80, 0x00, 0x00, (byte) 0xaa, 0x00, 0x38, (byte) 0x9b, 0x71};
+  // The anti-aliasing filter passes this fraction of the target Nyquist frequency and spans this
+  // many zero crossings of the sinc on each side.
+  private static final double ANTI_ALIAS_BANDWIDTH = 0.9;
+  private static final int ANTI_ALIAS_ZERO_CROSSINGS = 8;
+
+  private final short[] samples;
+  private final int sampleRate;
+  private final int channels;
+
+  // Conversions made by convert(), by format key.
+  private final Map<Long, PcmClip> conversions = new HashMap<>();
+
+  private PcmClip(short[] samples, int sampleRate, int channels) {
+    this.samples = samples;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  /** Loads a WAV file with 16-bit PCM. */
+  public static PcmClip fromWavFile(File file) throws IOException {
+    final InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+    try {
+      return fromWav(inputStream);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /** Reads a WAV stream with 16-bit PCM; the stream is not closed. */
+  public static PcmClip fromWav(InputStream inputStream) throws IOException {
+    final DataInputStream in = new DataInputStream(inputStream);
+    if (readTag(in) != 0x46464952 /* RIFF */) {
+      throw new IOException("Not a RIFF file");
+    }
+    readLittleEndianInt(in);
+    if (readTag(in) != 0x45564157 /* WAVE */) {
+      throw new IOException("Not a WAVE file");
+    }
+    int sampleRate = 0;
+    int channels = 0;
+    while (true) {
+      final int tag = readTag(in);
+      final int size = readLittleEndianInt(in);
+      if (tag == 0x20746d66 /* fmt */) {
+        final short format = readLittleEndianShort(in);
+        channels = readLittleEndianShort(in);
+        sampleRate = readLittleEndianInt(in);
+        readLittleEndianInt(in); // Byte rate.
+        readLittleEndianShort(in); // Block align.
+        final short bitsPerSample = readLittleEndianShort(in);
+        if ((format != WAVE_FORMAT_PCM && format != WAVE_FORMAT_EXTENSIBLE)
+            || bitsPerSample != 16 || channels <= 0 || sampleRate <= 0) {
+          throw new IOException("Unsupported WAV format " + format + ", " + bitsPerSample
+              + " bits, " + channels + " channels, " + sampleRate + " Hz");
+        }
+        int formatBytesRead = 16;
+        if (format == WAVE_FORMAT_EXTENSIBLE) {
+          if (size < EXTENSIBLE_FORMAT_SIZE) {
+            throw new IOException("Truncated extensible format chunk: " + size + " bytes");
+          }
+          readLittleEndianShort(in); // Extension size.
+          readLittleEndianShort(in); // Valid bits per sample.
+          readLittleEndianInt(in); // Channel mask.
+          final byte[] subFormat = new byte[SUBTYPE_PCM.length];
+          in.readFully(subFormat);
+          if (!Arrays.equals(subFormat, SUBTYPE_PCM)) {
+            throw new IOException("Unsupported extensible WAV sub format");
+          }
+          formatBytesRead = EXTENSIBLE_FORMAT_SIZE;
+        }
+        skipFully(in, size - formatBytesRead + (size & 1));
+      } else if (tag == 0x61746164 /* data */) {
+        if (sampleRate == 0) {
+          throw new IOException("Data chunk before format chunk");
+        }
+        final short[] samples = new short[size / 2 / channels * channels];
+        for (int i = 0; i < samples.length; ++i) {
+          samples[i] = readLittleEndianShort(in);
+        }
+        return new PcmClip(samples, sampleRate, channels);
+      } else {
+        skipFully(in, size + (size & 1));
+      }
+    }
+  }
+
+  /**
+   * Generates one second of a sine tone, which loops without discontinuity for integer
+   * frequencies.
+   */
+  public static PcmClip tone(int sampleRate, int channels, int frequencyHz, double levelDbfs) {
+    final double amplitude = 32767 * Math.pow(10, levelDbfs / 20);
+    final short[] samples = new short[sampleRate * channels];
+    for (int frame = 0; frame < sampleRate; ++frame) {
+      final short sample =
+          (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequencyHz * frame / sampleRate));
+      for (int channel = 0; channel < channels; ++channel) {
+        samples[frame * channels + channel] = sample;
+      }
+    }
+    return new PcmClip(samples, sampleRate, channels);
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public int getFrameCount() {
+    return samples.length / channels;
+  }
+
+  /** Returns the interleaved samples. Must not be modified. */
+  short[] getSamples() {
+    return samples;
+  }
+
+  /**
+   * Returns this clip in the given format, remixing channels and resampling with linear
+   * interpolation if needed. Before downsampling, frequencies above the new Nyquist frequency
+   * are removed with a windowed sinc low-pass filter, so they do not alias.
+   */
+  public synchronized PcmClip convert(int targetSampleRate, int targetChannels) {
+    if (targetSampleRate == sampleRate && targetChannels == channels) {
+      return this;
+    }
+    final long key = ((long) targetSampleRate << 16) | targetChannels;
+    PcmClip converted = conversions.get(key);
+    if (converted != null) {
+      return converted;
+    }
+    final int frames = getFrameCount();
+    double[] source = new double[frames * targetChannels];
+    for (int frame = 0; frame < frames; ++frame) {
+      for (int channel = 0; channel < targetChannels; ++channel) {
+        source[frame * targetChannels + channel] = mixedSample(frame, channel, targetChannels);
+      }
+    }
+    if (targetSampleRate < sampleRate) {
+      source = lowPass(source, targetChannels,
+          ANTI_ALIAS_BANDWIDTH * targetSampleRate / 2 / sampleRate);
+    }
+    final int targetFrames = (int) ((long) frames * targetSampleRate / sampleRate);
+    final short[] result = new short[targetFrames * targetChannels];
+    for (int frame = 0; frame < targetFrames; ++frame) {
+      final double position = (double) frame * sampleRate / targetSampleRate;
+      final int index = (int) position;
+      final double fraction = position - index;
+      final int next = Math.min(index + 1, frames - 1);
+      for (int channel = 0; channel < targetChannels; ++channel) {
+        final double value = (1 - fraction) * source[index * targetChannels + channel]
+            + fraction * source[next * targetChannels + channel];
+        result[frame * targetChannels + channel] =
+            (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+      }
+    }
+    converted = new PcmClip(result, targetSampleRate, targetChannels);
+    conversions.put(key, converted);
+    return converted;
+  }
+
+  // Filters the interleaved |input| with a Blackman windowed sinc low-pass filter. |cutoff| is
+  // relative to the sample rate. Samples outside the clip count as silence.
+  private static double[] lowPass(double[] input, int channels, double cutoff) {
+    final int halfLength = (int) Math.ceil(ANTI_ALIAS_ZERO_CROSSINGS / (2 * cutoff));
+    final double[] taps = new double[2 * halfLength + 1];
+    double sum = 0;
+    for (int i = -halfLength; i <= halfLength; ++i) {
+      final double x = 2 * cutoff * i;
+      final double sinc = i == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+      final double phase = Math.PI * (i + halfLength) / halfLength;
+      final double window = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+      taps[i + halfLength] = sinc * window;
+      sum += taps[i + halfLength];
+    }
+    final int frames = input.length / channels;
+    final double[] output = new double[input.length];
+    for (int frame = 0; frame < frames; ++frame) {
+      final int first = Math.max(0, frame - halfLength);
+      final int last = Math.min(frames - 1, frame + halfLength);
+      for (int channel = 0; channel < channels; ++channel) {
+        double value = 0;
+        for (int i = first; i <= last; ++i) {
+          value += taps[i - frame + halfLength] * input[i * channels + channel];
+        }
+        output[frame * channels + channel] = value / sum;
+      }
+    }
+    return output;
+  }
+
+  // Returns the sample of |frame| for |channel| of a clip with |targetChannels| channels.
+  private double mixedSample(int frame, int channel, int targetChannels) {
+    if (targetChannels == channels) {
+      return samples[frame * channels + channel];
+    }
+    if (targetChannels < channels) {
+      // Downmix by averaging all source channels.
+      double sum = 0;
+      for (int i = 0; i < channels; ++i) {
+        sum += samples[frame * channels + i];
+      }
+      return sum / channels;
+    }
+    // Upmix by repeating the source channels.
+    return samples[frame * channels + channel % channels];
+  }
+
+  private static int readTag(DataInputStream in) throws IOException {
+    return readLittleEndianInt(in);
+  }
+
+  private static int readLittleEndianInt(DataInputStream in) throws IOException {
+    return Integer.reverseBytes(in.readInt());
+  }
+
+  private static short readLittleEndianShort(DataInputStream in) throws IOException {
+    return Short.reverseBytes(in.readShort());
+  }
+
+  private static void skipFully(DataInputStream in, int count) throws IOException {
+    while (count > 0) {
+      final int skipped = in.skipBytes(count);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      count -= skipped;
+    }
+  }
+}
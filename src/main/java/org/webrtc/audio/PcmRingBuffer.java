@@ -0,0 +1,249 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free ring buffer of 16-bit PCM samples with one producer and any number of consumers. The
+ * producer never waits and never allocates: it overwrites the oldest samples regardless of how far
+ * the consumers are behind. Each {@link Consumer} has its own read cursor; a consumer that falls
+ * more than the capacity behind skips ahead and counts the skipped samples as overrun. While no
+ * consumer is open, the producer only advances its position and copies nothing.
+ *
+ * <p>Samples are copied in and out in bulk. A read is validated after copying, like a seqlock: the
+ * producer announces the end of the range it is about to overwrite in a volatile field before
+ * writing it, and a consumer whose copied range may have been overwritten in the meantime
+ * discards the copy and reports an overrun instead of returning torn data.
+ *
+ * <p>Samples are interleaved if there is more than one channel. Positions are counted in samples,
+ * not frames.
+ */
+public class PcmRingBuffer {
+  private final short[] samples;
+  private final int capacity;
+  private final int mask;
+  private final AtomicInteger openConsumers = new AtomicInteger();
+
+  // Total number of samples written. Published after the samples themselves.
+  private volatile long writePosition;
+  // End of the range the producer is currently writing; announced before the samples are written.
+  private volatile long writeLimit;
+  // Samples before this position were skipped because no consumer was open, and are not in the
+  // ring. Updated before |writePosition|.
+  private volatile long validPosition;
+
+  private volatile int sampleRate;
+  private volatile int channelCount;
+
+  /**
+   * Reads samples from the ring at its own pace. Each consumer must be used from one thread, and
+   * closed when it is no longer used.
+   */
+  public class Consumer {
+    private long readPosition;
+    private long overrunSamples;
+    private long maxLagSamples;
+    private boolean isClosed;
+
+    private Consumer(long readPosition) {
+      this.readPosition = readPosition;
+    }
+
+    /** Returns the number of samples that can be read now. */
+    public int available() {
+      final long published = writePosition;
+      final long start = Math.max(readPosition, Math.min(validPosition, published));
+      return (int) Math.min(published - start, capacity);
+    }
+
+    /**
+     * Copies up to |length| samples into |destination| without blocking and returns how many
+     * were copied. Samples that were overwritten before they could be read are skipped and
+     * counted by getOverrunSamples().
+     */
+    public int read(short[] destination, int offset, int length) {
+      for (;;) {
+        final long published = writePosition;
+        final long valid = validPosition;
+        if (readPosition < valid) {
+          // Skipped by the producer before this consumer was counted; never in the ring.
+          readPosition = Math.min(valid, published);
+        }
+        long lag = published - readPosition;
+        maxLagSamples = Math.max(maxLagSamples, lag);
+        if (lag > capacity) {
+          overrunSamples += lag - capacity;
+          readPosition = published - capacity;
+          lag = capacity;
+        }
+        final int count = (int) Math.min(lag, length);
+        if (count == 0) {
+          return 0;
+        }
+        copyOut(readPosition, destination, offset, count);
+        // The copy is valid only if the producer has not started overwriting the start of it.
+        if (writeLimit - readPosition <= capacity) {
+          readPosition += count;
+          return count;
+        }
+        // Lapped while copying; skip to what is still valid and try again.
+        final long oldest = writeLimit - capacity;
+        overrunSamples += oldest - readPosition;
+        readPosition = oldest;
+      }
+    }
+
+    /** Drops all unread samples. */
+    public void skipToLatest() {
+      readPosition = writePosition;
+    }
+
+    /** Returns how far this consumer is behind the producer, in samples. */
+    public long getLagSamples() {
+      return writePosition - readPosition;
+    }
+
+    /** Returns the lag in milliseconds, or 0 if the format is not known yet. */
+    public long getLagMs() {
+      final int samplesPerSecond = sampleRate * channelCount;
+      return samplesPerSecond == 0 ? 0 : getLagSamples() * 1000 / samplesPerSecond;
+    }
+
+    /** Returns the largest lag seen by read(), in samples. */
+    public long getMaxLagSamples() {
+      return maxLagSamples;
+    }
+
+    /** Returns the number of samples this consumer lost because it fell behind. */
+    public long getOverrunSamples() {
+      return overrunSamples;
+    }
+
+    /** Stops reading. Once all consumers are closed, the producer stops copying samples. */
+    public void close() {
+      if (!isClosed) {
+        isClosed = true;
+        openConsumers.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @param minCapacitySamples minimum capacity; rounded up to a power of two
+   */
+  public PcmRingBuffer(int minCapacitySamples) {
+    if (minCapacitySamples <= 0 || minCapacitySamples > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity: " + minCapacitySamples);
+    }
+    int capacity = Integer.highestOneBit(minCapacitySamples);
+    if (capacity < minCapacitySamples) {
+      capacity <<= 1;
+    }
+    this.capacity = capacity;
+    samples = new short[capacity];
+    mask = capacity - 1;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Creates a consumer that starts reading at the current write position. Call
+   * {@link Consumer#close} when it is no longer used.
+   */
+  public Consumer createConsumer() {
+    openConsumers.incrementAndGet();
+    return new Consumer(writePosition);
+  }
+
+  /** Returns the number of consumers that have not been closed. */
+  public int getConsumerCount() {
+    return openConsumers.get();
+  }
+
+  /** Sets the format of the samples that follow. Called by the producer. */
+  public void setFormat(int sampleRate, int channelCount) {
+    this.sampleRate = sampleRate;
+    this.channelCount = channelCount;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannelCount() {
+    return channelCount;
+  }
+
+  /** Returns the total number of samples written so far. */
+  public long getWritePosition() {
+    return writePosition;
+  }
+
+  /**
+   * Appends the remaining samples of |source| without changing its position. Must only be called
+   * from the producer thread.
+   */
+  public void write(ShortBuffer source) {
+    final int count = source.remaining();
+    final long position = writePosition;
+    if (openConsumers.get() == 0) {
+      skip(position, count);
+      return;
+    }
+    writeLimit = position + count;
+    // Only the last |capacity| samples can be kept.
+    final int skipped = Math.max(0, count - capacity);
+    final ShortBuffer input = source.duplicate();
+    input.position(source.position() + skipped);
+    final int start = (int) ((position + skipped) & mask);
+    final int length = count - skipped;
+    final int firstLength = Math.min(length, capacity - start);
+    input.get(samples, start, firstLength);
+    input.get(samples, 0, length - firstLength);
+    writePosition = position + count;
+  }
+
+  /** Appends samples from an array. Must only be called from the producer thread. */
+  public void write(short[] source, int offset, int count) {
+    final long position = writePosition;
+    if (openConsumers.get() == 0) {
+      skip(position, count);
+      return;
+    }
+    writeLimit = position + count;
+    final int skipped = Math.max(0, count - capacity);
+    final int start = (int) ((position + skipped) & mask);
+    final int length = count - skipped;
+    final int firstLength = Math.min(length, capacity - start);
+    System.arraycopy(source, offset + skipped, samples, start, firstLength);
+    System.arraycopy(source, offset + skipped + firstLength, samples, 0, length - firstLength);
+    writePosition = position + count;
+  }
+
+  // Advances past |count| samples without storing them. A consumer created meanwhile may start
+  // inside the skipped range; it moves past it on its first read.
+  private void skip(long position, int count) {
+    validPosition = position + count;
+    writeLimit = position + count;
+    writePosition = position + count;
+  }
+
+  private void copyOut(long position, short[] destination, int offset, int count) {
+    final int start = (int) (position & mask);
+    final int firstCount = Math.min(count, capacity - start);
+    System.arraycopy(samples, start, destination, offset, firstCount);
+    System.arraycopy(samples, 0, destination, offset + firstCount, count - firstCount);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+/**
+ * Decides the AudioTrack buffer size for low playout latency. Starts small, grows by whole 10 ms
+ * chunks on underruns or when the writing thread stalls for longer than the buffer can cover, and
+ * shrinks one chunk at a time after a period without underruns. A shrink that is followed by an
+ * underrun within the stable period doubles that period, so a device that cannot sustain a
+ * smaller buffer stops oscillating.
+ *
+ * <p>Has no Android dependencies; all time stamps are passed in, so that it can be driven by
+ * recorded or simulated scheduling traces. Does not allocate. Not thread safe.
+ */
+public class PlayoutBufferController {
+  private static final long INITIAL_STABLE_PERIOD_US = 5L * 1000 * 1000;
+  private static final long MAX_STABLE_PERIOD_US = 60L * 1000 * 1000;
+  // Request intervals are tracked over two windows of this many chunks, i.e. 2 to 4 seconds.
+  private static final int INTERVAL_WINDOW_CHUNKS = 200;
+
+  private final int sampleRate;
+  private final int framesPerChunk;
+  private final int minFrames;
+  private final int maxFrames;
+  private final long chunkDurationUs;
+
+  private int bufferSizeFrames;
+  private long stablePeriodUs = INITIAL_STABLE_PERIOD_US;
+  private boolean started;
+  private boolean shrunk;
+  private long lastChangeUs;
+  private long lastShrinkUs;
+  private long lastUnderrunUs;
+
+  private long currentWindowMaxIntervalUs;
+  private long previousWindowMaxIntervalUs;
+  private int chunksInWindow;
+
+  private int growCount;
+  private int shrinkCount;
+
+  /**
+   * @param sampleRate sample rate of the track
+   * @param framesPerChunk frames written per AudioTrack.write() call
+   * @param minFrames smallest and initial buffer size; at least two chunks are used
+   * @param maxFrames largest buffer size, given by the latency ceiling and the track capacity
+   */
+  public PlayoutBufferController(int sampleRate, int framesPerChunk, int minFrames, int maxFrames) {
+    if (sampleRate <= 0 || framesPerChunk <= 0) {
+      throw new IllegalArgumentException("Invalid format: " + sampleRate + ", " + framesPerChunk);
+    }
+    this.sampleRate = sampleRate;
+    this.framesPerChunk = framesPerChunk;
+    this.minFrames = Math.max(minFrames, 2 * framesPerChunk);
+    this.maxFrames = Math.max(maxFrames, this.minFrames);
+    this.chunkDurationUs = framesToUs(framesPerChunk);
+    this.bufferSizeFrames = this.minFrames;
+  }
+
+  /** Returns the buffer size the track should have. */
+  public int getBufferSizeFrames() {
+    return bufferSizeFrames;
+  }
+
+  /**
+   * Sets the buffer size that the track actually applied, which can differ from the requested
+   * one.
+   */
+  public void onBufferSizeApplied(int frames) {
+    bufferSizeFrames = frames;
+  }
+
+  /**
+   * Called after each chunk is written.
+   *
+   * @param nowUs current time in microseconds
+   * @param requestIntervalUs time since the previous chunk was requested
+   * @param newUnderruns underruns the track reported since the previous call
+   * @return true if getBufferSizeFrames() changed
+   */
+  public boolean onChunk(long nowUs, long requestIntervalUs, int newUnderruns) {
+    if (!started) {
+      // The initial size has to prove itself like any other before it is reduced.
+      started = true;
+      lastChangeUs = nowUs;
+      lastUnderrunUs = nowUs;
+    }
+    currentWindowMaxIntervalUs = Math.max(currentWindowMaxIntervalUs, requestIntervalUs);
+    if (++chunksInWindow >= INTERVAL_WINDOW_CHUNKS) {
+      previousWindowMaxIntervalUs = currentWindowMaxIntervalUs;
+      currentWindowMaxIntervalUs = 0;
+      chunksInWindow = 0;
+    }
+
+    if (newUnderruns > 0) {
+      lastUnderrunUs = nowUs;
+      if (shrunk && nowUs - lastShrinkUs < stablePeriodUs) {
+        // The last shrink went too far; wait longer before trying again.
+        stablePeriodUs = Math.min(2 * stablePeriodUs, MAX_STABLE_PERIOD_US);
+      }
+      return resize(bufferSizeFrames + newUnderruns * framesPerChunk, nowUs);
+    }
+
+    // The buffer has to hold one chunk plus what plays out while the thread is late.
+    final int requiredFrames = getRequiredFrames();
+    if (requiredFrames > bufferSizeFrames) {
+      return resize(requiredFrames, nowUs);
+    }
+
+    // Only shrink if the smaller buffer still leaves a chunk of headroom.
+    if (bufferSizeFrames - framesPerChunk >= requiredFrames + framesPerChunk
+        && nowUs - lastChangeUs >= stablePeriodUs && nowUs - lastUnderrunUs >= stablePeriodUs) {
+      if (resize(bufferSizeFrames - framesPerChunk, nowUs)) {
+        shrunk = true;
+        lastShrinkUs = nowUs;
+        ++shrinkCount;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the latency of the current buffer size in milliseconds. */
+  public int getBufferSizeMs() {
+    return (int) (framesToUs(bufferSizeFrames) / 1000);
+  }
+
+  public int getGrowCount() {
+    return growCount;
+  }
+
+  public int getShrinkCount() {
+    return shrinkCount;
+  }
+
+  private int getRequiredFrames() {
+    final long stallUs =
+        Math.max(currentWindowMaxIntervalUs, previousWindowMaxIntervalUs) - chunkDurationUs;
+    if (stallUs <= 0) {
+      return framesPerChunk;
+    }
+    final long stallFrames = (stallUs * sampleRate + 999999) / 1000000;
+    // Round up to whole chunks.
+    final long chunks = 1 + (stallFrames + framesPerChunk - 1) / framesPerChunk;
+    return (int) Math.min(chunks * framesPerChunk, maxFrames);
+  }
+
+  private boolean resize(int frames, long nowUs) {
+    final int clamped = Math.max(minFrames, Math.min(maxFrames, frames));
+    if (clamped == bufferSizeFrames) {
+      return false;
+    }
+    if (clamped > bufferSizeFrames) {
+      ++growCount;
+    }
+    bufferSizeFrames = clamped;
+    lastChangeUs = nowUs;
+    return true;
+  }
+
+  private long framesToUs(long frames) {
+    return frames * 1000000 / sampleRate;
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+/**
+ * Counters and histograms of one playout session, from startPlayout() to stopPlayout(). Filled in
+ * by the AudioTrack thread without allocating; listeners receive a copy that is reused for every
+ * report. Not thread safe.
+ */
+public class PlayoutMetrics {
+  /**
+   * Histogram with fixed buckets. Bucket i counts the values up to and including
+   * getBucketBoundUs(i); the last bucket counts the values above all bounds.
+   */
+  public static class Histogram {
+    private final long[] bucketCounts = new long[BUCKET_BOUNDS_US.length + 1];
+    private long count;
+    private long sum;
+    private long max;
+
+    void add(long valueUs) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_US.length && valueUs > BUCKET_BOUNDS_US[bucket]) {
+        ++bucket;
+      }
+      ++bucketCounts[bucket];
+      ++count;
+      sum += valueUs;
+      if (valueUs > max) {
+        max = valueUs;
+      }
+    }
+
+    void reset() {
+      for (int i = 0; i < bucketCounts.length; ++i) {
+        bucketCounts[i] = 0;
+      }
+      count = 0;
+      sum = 0;
+      max = 0;
+    }
+
+    void copyFrom(Histogram other) {
+      System.arraycopy(other.bucketCounts, 0, bucketCounts, 0, bucketCounts.length);
+      count = other.count;
+      sum = other.sum;
+      max = other.max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanUs() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMaxUs() {
+      return max;
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the given percentile, or the maximum
+     * for the overflow bucket.
+     */
+    public long getPercentileUs(int percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = (count * percentile + 99) / 100;
+      long seen = 0;
+      for (int i = 0; i < BUCKET_BOUNDS_US.length; ++i) {
+        seen += bucketCounts[i];
+        if (seen >= rank) {
+          return Math.min(BUCKET_BOUNDS_US[i], max);
+        }
+      }
+      return max;
+    }
+
+    public long getBucketCount(int bucket) {
+      return bucketCounts[bucket];
+    }
+
+    @Override
+    public String toString() {
+      return "n=" + count + " mean=" + getMeanUs() + "us p50=" + getPercentileUs(50)
+          + "us p99=" + getPercentileUs(99) + "us max=" + max + "us";
+    }
+  }
+
+  // Upper bounds of the histogram buckets, in microseconds.
+  private static final long[] BUCKET_BOUNDS_US = {250, 500, 1000, 2000, 5000, 10000, 15000, 20000,
+      30000, 50000, 100000, 200000};
+
+  /** Returns the number of buckets of each histogram, including the overflow bucket. */
+  public static int getNumBuckets() {
+    return BUCKET_BOUNDS_US.length + 1;
+  }
+
+  /** Returns the upper bound of a bucket, or Long.MAX_VALUE for the overflow bucket. */
+  public static long getBucketBoundUs(int bucket) {
+    return bucket < BUCKET_BOUNDS_US.length ? BUCKET_BOUNDS_US[bucket] : Long.MAX_VALUE;
+  }
+
+  // Time spent in AudioTrack.write() per 10 ms chunk.
+  private final Histogram writeDuration = new Histogram();
+  // Time between the starts of two consecutive requests for 10 ms of data from the native layer.
+  private final Histogram requestInterval = new Histogram();
+  // Audio queued in the AudioTrack after each write.
+  private final Histogram bufferFill = new Histogram();
+
+  private long sessionDurationMs;
+  private long chunksWritten;
+  private long shortWrites;
+  private long underrunCount;
+  private long underrunEvents;
+  private int bufferSizeFrames;
+  private long bufferSizeChanges;
+
+  void onRequest(long intervalUs) {
+    requestInterval.add(intervalUs);
+  }
+
+  void onWrite(long durationUs, boolean complete, long bufferFillUs) {
+    writeDuration.add(durationUs);
+    bufferFill.add(bufferFillUs);
+    ++chunksWritten;
+    if (!complete) {
+      ++shortWrites;
+    }
+  }
+
+  /** Records the underruns that happened since the last call. */
+  void onUnderruns(int newUnderruns) {
+    if (newUnderruns > 0) {
+      underrunCount += newUnderruns;
+      ++underrunEvents;
+    }
+  }
+
+  void onBufferSize(int frames) {
+    if (frames != bufferSizeFrames) {
+      if (bufferSizeFrames != 0) {
+        ++bufferSizeChanges;
+      }
+      bufferSizeFrames = frames;
+    }
+  }
+
+  void setSessionDurationMs(long sessionDurationMs) {
+    this.sessionDurationMs = sessionDurationMs;
+  }
+
+  void reset() {
+    writeDuration.reset();
+    requestInterval.reset();
+    bufferFill.reset();
+    sessionDurationMs = 0;
+    chunksWritten = 0;
+    shortWrites = 0;
+    underrunCount = 0;
+    underrunEvents = 0;
+    bufferSizeFrames = 0;
+    bufferSizeChanges = 0;
+  }
+
+  void copyFrom(PlayoutMetrics other) {
+    writeDuration.copyFrom(other.writeDuration);
+    requestInterval.copyFrom(other.requestInterval);
+    bufferFill.copyFrom(other.bufferFill);
+    sessionDurationMs = other.sessionDurationMs;
+    chunksWritten = other.chunksWritten;
+    shortWrites = other.shortWrites;
+    underrunCount = other.underrunCount;
+    underrunEvents = other.underrunEvents;
+    bufferSizeFrames = other.bufferSizeFrames;
+    bufferSizeChanges = other.bufferSizeChanges;
+  }
+
+  public Histogram getWriteDuration() {
+    return writeDuration;
+  }
+
+  public Histogram getRequestInterval() {
+    return requestInterval;
+  }
+
+  public Histogram getBufferFill() {
+    return bufferFill;
+  }
+
+  public long getSessionDurationMs() {
+    return sessionDurationMs;
+  }
+
+  public long getChunksWritten() {
+    return chunksWritten;
+  }
+
+  /** Returns the number of writes that did not accept the whole chunk. */
+  public long getShortWrites() {
+    return shortWrites;
+  }
+
+  /** Returns the number of underruns reported by the AudioTrack; 0 before API level 24. */
+  public long getUnderrunCount() {
+    return underrunCount;
+  }
+
+  /** Returns the number of chunks after which new underruns were reported. */
+  public long getUnderrunEvents() {
+    return underrunEvents;
+  }
+
+  /** Returns the AudioTrack buffer size in frames; 0 before API level 23. */
+  public int getBufferSizeFrames() {
+    return bufferSizeFrames;
+  }
+
+  public long getBufferSizeChanges() {
+    return bufferSizeChanges;
+  }
+
+  @Override
+  public String toString() {
+    return "duration: " + sessionDurationMs + "ms, chunks: " + chunksWritten
+        + ", short writes: " + shortWrites + ", underruns: " + underrunCount + " ("
+        + underrunEvents + " events), buffer size: " + bufferSizeFrames + " frames ("
+        + bufferSizeChanges + " changes), write: [" + writeDuration + "], request interval: ["
+        + requestInterval + "], buffer fill: [" + bufferFill + "]";
+  }
+}
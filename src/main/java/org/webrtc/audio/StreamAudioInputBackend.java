@@ -0,0 +1,228 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.webrtc.Logging;
+
+/**
+ * Input backend that reads raw 16-bit little endian PCM from a stream, such as a file or a pipe,
+ * paced by an {@link AudioPacer}. The stream must already be in the format that recording is
+ * initialized with. A reader thread of its own reads up to 100 ms ahead with blocking reads, so
+ * the pacer never waits for the stream: if the next 10 ms has not been read yet, silence is
+ * delivered instead and counted as an underrun. The reader thread runs from the first start()
+ * until the end of the stream or release(), so a restart continues where it stopped. Only
+ * release() closes the stream.
+ *
+ * <p>When the stream ends or fails, the {@link EndOfStreamListener} is called once, and silence
+ * is delivered from then on until the backend is stopped.
+ */
+public class StreamAudioInputBackend implements AudioInputBackend {
+  private static final String TAG = "StreamAudioInputBackend";
+  private static final int READ_AHEAD_CHUNKS = 10;
+  private static final long READER_THREAD_JOIN_TIMEOUT_MS = 2000;
+
+  /** Notified when all audio of the stream has been delivered. */
+  public interface EndOfStreamListener {
+    /**
+     * Called on the pacer thread after the last chunk of the stream has been delivered. Must not
+     * stop or release the backend directly; post that to another thread.
+     */
+    void onEndOfStream();
+  }
+
+  // Queued by the reader thread after the last chunk.
+  private static final byte[] END_OF_STREAM = new byte[0];
+
+  private final AudioPacer pacer;
+  private final InputStream inputStream;
+  @Nullable private final EndOfStreamListener endOfStreamListener;
+  private final AudioPacer.Task tickTask = this::onTick;
+
+  private byte[] silence = new byte[0];
+  // Chunks read from the stream in order, then END_OF_STREAM. Never blocks the reader: the queue
+  // has room for all chunks and the marker.
+  private BlockingQueue<byte[]> filledChunks;
+  private BlockingQueue<byte[]> freeChunks;
+  private ByteBuffer buffer;
+  private Callback callback;
+  @Nullable private Thread readerThread;
+  private volatile boolean endOfStream;
+  private volatile long underruns;
+
+  public StreamAudioInputBackend(AudioPacer pacer, InputStream inputStream) {
+    this(pacer, inputStream, null);
+  }
+
+  /** @param endOfStreamListener called once when the stream ends or fails; may be null */
+  public StreamAudioInputBackend(AudioPacer pacer, InputStream inputStream,
+      @Nullable EndOfStreamListener endOfStreamListener) {
+    this.pacer = pacer;
+    this.inputStream = inputStream;
+    this.endOfStreamListener = endOfStreamListener;
+  }
+
+  @Override
+  public boolean init(int sampleRate, int channels) {
+    final int chunkSize = sampleRate / 100 * channels * 2;
+    if (filledChunks != null) {
+      // Initialized again for a restart; keep the chunks read ahead.
+      if (chunkSize == silence.length) {
+        return true;
+      }
+      if (readerThread != null) {
+        Logging.e(TAG, "The format cannot change while the stream is read");
+        return false;
+      }
+    }
+    silence = new byte[chunkSize];
+    filledChunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS + 1);
+    freeChunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+    for (int i = 0; i < READ_AHEAD_CHUNKS; ++i) {
+      freeChunks.add(new byte[chunkSize]);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean start(ByteBuffer buffer, Callback callback) {
+    if (buffer.capacity() != silence.length) {
+      Logging.e(TAG, "Unexpected buffer size: " + buffer.capacity());
+      return false;
+    }
+    this.buffer = buffer;
+    this.callback = callback;
+    if (readerThread == null) {
+      readerThread = new Thread(this::runReader, TAG);
+      readerThread.start();
+    }
+    pacer.register(tickTask);
+    return true;
+  }
+
+  @Override
+  public void stop() {
+    pacer.unregister(tickTask);
+  }
+
+  @Override
+  public void release() {
+    // Closing the stream aborts a read in progress; the interrupt ends a wait for a free chunk.
+    try {
+      inputStream.close();
+    } catch (IOException e) {
+      Logging.w(TAG, "Failed to close the input stream: " + e.getMessage());
+    }
+    final Thread thread = readerThread;
+    readerThread = null;
+    if (thread == null) {
+      return;
+    }
+    thread.interrupt();
+    try {
+      thread.join(READER_THREAD_JOIN_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      Logging.w(TAG, "Reader thread did not finish in time");
+    }
+  }
+
+  /** Returns the number of 10 ms chunks that were replaced by silence before the end. */
+  public long getUnderruns() {
+    return underruns;
+  }
+
+  /** Returns true once all audio of the stream has been delivered. */
+  public boolean isEndOfStream() {
+    return endOfStream;
+  }
+
+  private void onTick() {
+    final byte[] chunk = filledChunks.poll();
+    buffer.clear();
+    if (chunk == null || chunk == END_OF_STREAM) {
+      if (chunk == END_OF_STREAM) {
+        endOfStream = true;
+        Logging.d(TAG, "End of stream, " + underruns + " underruns");
+        if (endOfStreamListener != null) {
+          endOfStreamListener.onEndOfStream();
+        }
+      } else if (!endOfStream) {
+        ++underruns;
+      }
+      buffer.put(silence);
+    } else {
+      buffer.put(chunk);
+      freeChunks.add(chunk);
+    }
+    callback.onDataRecorded();
+  }
+
+  private void runReader() {
+    try {
+      while (true) {
+        final byte[] chunk = freeChunks.take();
+        final int length = readChunk(chunk);
+        if (length > 0) {
+          // A partial last chunk is padded with silence.
+          for (int i = length; i < chunk.length; ++i) {
+            chunk[i] = 0;
+          }
+          swapToNativeOrder(chunk);
+          filledChunks.add(chunk);
+        } else {
+          freeChunks.add(chunk);
+        }
+        if (length < chunk.length) {
+          filledChunks.add(END_OF_STREAM);
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stopped.
+    }
+  }
+
+  // Reads a whole chunk unless the stream ends or fails first; returns the bytes read.
+  private int readChunk(byte[] chunk) {
+    int offset = 0;
+    try {
+      while (offset < chunk.length) {
+        final int count = inputStream.read(chunk, offset, chunk.length - offset);
+        if (count < 0) {
+          break;
+        }
+        offset += count;
+      }
+    } catch (IOException e) {
+      Logging.e(TAG, "Reading the input stream failed: " + e.getMessage());
+    }
+    return offset;
+  }
+
+  private static void swapToNativeOrder(byte[] chunk) {
+    if (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) {
+      for (int i = 0; i + 1 < chunk.length; i += 2) {
+        final byte low = chunk[i];
+        chunk[i] = chunk[i + 1];
+        chunk[i + 1] = low;
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.webrtc.Logging;
+
+/**
+ * Output backend that pulls the playout audio every 10 ms on an {@link AudioPacer} and writes it
+ * as raw 16-bit PCM in native byte order to a stream, or discards it if there is no stream. This
+ * keeps the receive side of headless participants running at the real-time rate without an
+ * AudioTrack. Writing must not block for long, since it delays every task of the pacer. A
+ * restart keeps writing to the same stream; only release() closes it.
+ */
+public class StreamAudioOutputBackend implements AudioOutputBackend {
+  private static final String TAG = "StreamAudioOutputBackend";
+
+  private final AudioPacer pacer;
+  @Nullable private final OutputStream outputStream;
+  private final AudioPacer.Task tickTask = this::onTick;
+
+  private byte[] chunk = new byte[0];
+  private ByteBuffer buffer;
+  private Callback callback;
+  private boolean failed;
+
+  /** @param outputStream receives the audio; null to discard it */
+  public StreamAudioOutputBackend(AudioPacer pacer, @Nullable OutputStream outputStream) {
+    this.pacer = pacer;
+    this.outputStream = outputStream;
+  }
+
+  @Override
+  public boolean init(int sampleRate, int channels) {
+    chunk = new byte[sampleRate / 100 * channels * 2];
+    return true;
+  }
+
+  @Override
+  public boolean start(ByteBuffer buffer, Callback callback) {
+    if (buffer.capacity() != chunk.length) {
+      Logging.e(TAG, "Unexpected buffer size: " + buffer.capacity());
+      return false;
+    }
+    this.buffer = buffer;
+    this.callback = callback;
+    pacer.register(tickTask);
+    return true;
+  }
+
+  @Override
+  public void stop() {
+    pacer.unregister(tickTask);
+  }
+
+  @Override
+  public void release() {
+    if (outputStream == null) {
+      return;
+    }
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      Logging.w(TAG, "Failed to close the output stream: " + e.getMessage());
+    }
+  }
+
+  private void onTick() {
+    callback.onPlayoutDataNeeded();
+    if (outputStream == null || failed) {
+      return;
+    }
+    buffer.clear();
+    buffer.get(chunk);
+    buffer.rewind();
+    try {
+      outputStream.write(chunk);
+    } catch (IOException e) {
+      Logging.e(TAG, "Writing the output stream failed: " + e.getMessage());
+      failed = true;
+    }
+  }
+}
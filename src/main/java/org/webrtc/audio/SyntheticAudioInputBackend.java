@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Input backend that plays a {@link PcmClip}, for example a WAV file or a tone, as if it were
+ * recorded, with 10 ms pacing by an {@link AudioPacer}. This is the audio counterpart of
+ * FileVideoCapturer: together they let a headless host run many publishers, which all share the
+ * pacer thread and, if they use the same clip, its samples.
+ *
+ * <p>Delivering a chunk copies samples from the clip into the recording buffer and does not
+ * allocate.
+ */
+public class SyntheticAudioInputBackend implements AudioInputBackend {
+  private final AudioPacer pacer;
+  private final PcmClip clip;
+  private final boolean loop;
+  private final int startOffsetMs;
+  private final AudioPacer.Task tickTask = this::onTick;
+
+  private short[] samples = new short[0];
+  private int position;
+  private ShortBuffer shortBuffer;
+  private Callback callback;
+  private volatile long chunksDelivered;
+
+  /**
+   * @param loop restart the clip when it ends; otherwise silence follows
+   * @param startOffsetMs where to start in the clip, so that publishers sharing a clip are not in
+   *                      lockstep
+   */
+  public SyntheticAudioInputBackend(
+      AudioPacer pacer, PcmClip clip, boolean loop, int startOffsetMs) {
+    this.pacer = pacer;
+    this.clip = clip;
+    this.loop = loop;
+    this.startOffsetMs = startOffsetMs;
+  }
+
+  @Override
+  public boolean init(int sampleRate, int channels) {
+    final PcmClip convertedClip = clip.convert(sampleRate, channels);
+    samples = convertedClip.getSamples();
+    if (samples.length == 0) {
+      return false;
+    }
+    final long offsetFrames = (long) startOffsetMs * sampleRate / 1000;
+    position = (int) (offsetFrames % convertedClip.getFrameCount()) * channels;
+    return true;
+  }
+
+  @Override
+  public boolean start(ByteBuffer buffer, Callback callback) {
+    shortBuffer = buffer.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+    this.callback = callback;
+    pacer.register(tickTask);
+    return true;
+  }
+
+  @Override
+  public void stop() {
+    pacer.unregister(tickTask);
+  }
+
+  @Override
+  public void release() {}
+
+  public long getChunksDelivered() {
+    return chunksDelivered;
+  }
+
+  private void onTick() {
+    shortBuffer.clear();
+    while (shortBuffer.hasRemaining()) {
+      if (position == samples.length) {
+        if (!loop) {
+          while (shortBuffer.hasRemaining()) {
+            shortBuffer.put((short) 0);
+          }
+          break;
+        }
+        position = 0;
+      }
+      final int count = Math.min(shortBuffer.remaining(), samples.length - position);
+      shortBuffer.put(samples, position, count);
+      position += count;
+    }
+    ++chunksDelivered;
+    callback.onDataRecorded();
+  }
+}
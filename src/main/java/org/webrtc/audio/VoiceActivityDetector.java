@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+/**
+ * Energy based level meter and voice activity detector for 10 ms frames of 16-bit PCM. A frame
+ * counts as speech when its level is a given margin above a tracked noise floor and above an
+ * absolute minimum; the speaking state changes only after a number of consecutive speech frames
+ * (onset) or non-speech frames (hangover). Operates on primitive arrays, does not allocate and has
+ * no Android dependencies. Not thread safe.
+ *
+ * <p>The noise floor starts at the level of the first frame. It follows lower levels quickly and
+ * rises slowly, and much more slowly while there is speech, so that a long sentence is not taken
+ * for a louder background. A step up in the background noise is therefore reported as speech until
+ * the floor has caught up, at 2 dB per second.
+ */
+public class VoiceActivityDetector {
+  // Level reported for digital silence.
+  public static final double MIN_LEVEL_DBFS = -100.0;
+
+  private static final double DEFAULT_SNR_THRESHOLD_DB = 12.0;
+  private static final double DEFAULT_MIN_SPEECH_LEVEL_DBFS = -50.0;
+  private static final int DEFAULT_ONSET_FRAMES = 3;
+  private static final int DEFAULT_HANGOVER_FRAMES = 30;
+
+  // Smoothing factors of the displayed level; fast attack, slow release.
+  private static final double ATTACK_FACTOR = 0.5;
+  private static final double RELEASE_FACTOR = 0.1;
+  // The noise floor follows lower levels quickly and rises by this much per frame: 5 dB/s, or
+  // 2 dB/s while speaking or in a speech frame.
+  private static final double NOISE_FLOOR_FALL_FACTOR = 0.2;
+  private static final double NOISE_FLOOR_RISE_DB = 0.05;
+  private static final double NOISE_FLOOR_RISE_DURING_SPEECH_DB = 0.02;
+
+  private final double snrThresholdDb;
+  private final double minSpeechLevelDbfs;
+  private final int onsetFrames;
+  private final int hangoverFrames;
+
+  private double rmsDbfs = MIN_LEVEL_DBFS;
+  private double peakDbfs = MIN_LEVEL_DBFS;
+  private double smoothedDbfs = MIN_LEVEL_DBFS;
+  private double noiseFloorDbfs = MIN_LEVEL_DBFS;
+  private boolean speaking;
+  private int speechFrames;
+  private int silenceFrames;
+  private long frameCount;
+
+  public VoiceActivityDetector() {
+    this(DEFAULT_SNR_THRESHOLD_DB, DEFAULT_MIN_SPEECH_LEVEL_DBFS, DEFAULT_ONSET_FRAMES,
+        DEFAULT_HANGOVER_FRAMES);
+  }
+
+  /**
+   * @param snrThresholdDb margin above the noise floor for a frame to count as speech
+   * @param minSpeechLevelDbfs frames below this level never count as speech
+   * @param onsetFrames consecutive speech frames needed to start speaking
+   * @param hangoverFrames consecutive non-speech frames needed to stop speaking
+   */
+  public VoiceActivityDetector(double snrThresholdDb, double minSpeechLevelDbfs,
+      int onsetFrames, int hangoverFrames) {
+    this.snrThresholdDb = snrThresholdDb;
+    this.minSpeechLevelDbfs = minSpeechLevelDbfs;
+    this.onsetFrames = Math.max(1, onsetFrames);
+    this.hangoverFrames = Math.max(1, hangoverFrames);
+  }
+
+  /**
+   * Analyzes one frame of interleaved samples. Returns true if the speaking state changed with
+   * this frame.
+   */
+  public boolean process(short[] samples, int offset, int length) {
+    long sumOfSquares = 0;
+    int peak = 0;
+    for (int i = offset; i < offset + length; ++i) {
+      final int sample = samples[i];
+      sumOfSquares += sample * sample;
+      final int magnitude = sample < 0 ? -sample : sample;
+      if (magnitude > peak) {
+        peak = magnitude;
+      }
+    }
+    rmsDbfs = length == 0 ? MIN_LEVEL_DBFS : toDbfs(Math.sqrt((double) sumOfSquares / length));
+    peakDbfs = toDbfs(peak);
+    if (frameCount++ == 0) {
+      noiseFloorDbfs = rmsDbfs;
+    }
+
+    final double smoothing = rmsDbfs > smoothedDbfs ? ATTACK_FACTOR : RELEASE_FACTOR;
+    smoothedDbfs += smoothing * (rmsDbfs - smoothedDbfs);
+
+    final boolean speechFrame =
+        rmsDbfs >= minSpeechLevelDbfs && rmsDbfs - noiseFloorDbfs >= snrThresholdDb;
+
+    if (rmsDbfs < noiseFloorDbfs) {
+      noiseFloorDbfs += NOISE_FLOOR_FALL_FACTOR * (rmsDbfs - noiseFloorDbfs);
+    } else {
+      final double rise = speaking || speechFrame ? NOISE_FLOOR_RISE_DURING_SPEECH_DB
+                                                  : NOISE_FLOOR_RISE_DB;
+      noiseFloorDbfs = Math.min(noiseFloorDbfs + rise, rmsDbfs);
+    }
+    if (speechFrame) {
+      ++speechFrames;
+      silenceFrames = 0;
+    } else {
+      ++silenceFrames;
+      speechFrames = 0;
+    }
+    if (!speaking && speechFrames >= onsetFrames) {
+      speaking = true;
+      return true;
+    }
+    if (speaking && silenceFrames >= hangoverFrames) {
+      speaking = false;
+      return true;
+    }
+    return false;
+  }
+
+  public boolean isSpeaking() {
+    return speaking;
+  }
+
+  /** Returns the RMS level of the last frame relative to full scale. */
+  public double getRmsDbfs() {
+    return rmsDbfs;
+  }
+
+  /** Returns the peak level of the last frame relative to full scale. */
+  public double getPeakDbfs() {
+    return peakDbfs;
+  }
+
+  /** Returns the RMS level with fast attack and slow release, suitable for a level meter. */
+  public double getSmoothedDbfs() {
+    return smoothedDbfs;
+  }
+
+  public double getNoiseFloorDbfs() {
+    return noiseFloorDbfs;
+  }
+
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  public void reset() {
+    rmsDbfs = MIN_LEVEL_DBFS;
+    peakDbfs = MIN_LEVEL_DBFS;
+    smoothedDbfs = MIN_LEVEL_DBFS;
+    noiseFloorDbfs = MIN_LEVEL_DBFS;
+    speaking = false;
+    speechFrames = 0;
+    silenceFrames = 0;
+    frameCount = 0;
+  }
+
+  private static double toDbfs(double amplitude) {
+    if (amplitude <= 0) {
+      return MIN_LEVEL_DBFS;
+    }
+    return Math.max(MIN_LEVEL_DBFS, 20.0 * Math.log10(amplitude / 32768.0));
+  }
+}
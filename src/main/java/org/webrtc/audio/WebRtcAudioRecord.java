@@ -23,7 +23,8 @@ import android.os.Process;
 import androidx.annotation.Nullable;
 import java.lang.System;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -84,10 +85,23 @@ class WebRtcAudioRecord {
   private final WebRtcAudioEffects effects = new WebRtcAudioEffects();
 
   private @Nullable ByteBuffer byteBuffer;
+  // 16-bit view of |byteBuffer| used to feed |samplesRingBuffer|; null for other audio formats.
+  private @Nullable ShortBuffer shortBuffer;
+  private @Nullable PcmRingBuffer samplesRingBuffer;
+  // Passed to |audioSamplesReadyCallback| with every buffer; its data is overwritten each time.
+  private @Nullable JavaAudioDeviceModule.AudioSamples reusedAudioSamples;
 
   private @Nullable AudioRecord audioRecord;
   private @Nullable AudioRecordThread audioThread;
 
+  // Replaces |audioRecord| and |audioThread| if set.
+  private @Nullable AudioInputBackend inputBackend;
+  private boolean backendInitialized;
+  private boolean backendRecording;
+  private boolean backendReleased;
+  private int sampleRate;
+  private int channelCount;
+
   private @Nullable ScheduledExecutorService executor;
   private @Nullable ScheduledFuture<String> future;
 
@@ -128,25 +142,10 @@ class WebRtcAudioRecord {
       while (keepAlive) {
         int bytesRead = audioRecord.read(byteBuffer, byteBuffer.capacity());
         if (bytesRead == byteBuffer.capacity()) {
-          if (microphoneMute) {
-            byteBuffer.clear();
-            byteBuffer.put(emptyBytes);
-          }
           // It's possible we've been shut down during the read, and stopRecording() tried and
           // failed to join this thread. To be a bit safer, try to avoid calling any native methods
           // in case they've been unregistered after stopRecording() returned.
-          if (keepAlive) {
-            nativeDataIsRecorded(nativeAudioRecord, bytesRead);
-          }
-          if (audioSamplesReadyCallback != null) {
-            // Copy the entire byte buffer array. The start of the byteBuffer is not necessarily
-            // at index 0.
-            byte[] data = Arrays.copyOfRange(byteBuffer.array(), byteBuffer.arrayOffset(),
-                byteBuffer.capacity() + byteBuffer.arrayOffset());
-            audioSamplesReadyCallback.onWebRtcAudioRecordSamplesReady(
-                new JavaAudioDeviceModule.AudioSamples(audioRecord.getAudioFormat(),
-                    audioRecord.getChannelCount(), audioRecord.getSampleRate(), data));
-          }
+          deliverRecordedData(bytesRead, keepAlive /* callNative */);
         } else {
           String errorMessage = "AudioRecord.read failed: " + bytesRead;
           Logging.e(TAG, errorMessage);
@@ -206,6 +205,22 @@ class WebRtcAudioRecord {
     Logging.d(TAG, "ctor" + WebRtcAudioUtils.getThreadInfo());
   }
 
+  /**
+   * Sets a backend that delivers the recorded audio instead of an AudioRecord. Must be set before
+   * recording is initialized.
+   */
+  void setInputBackend(@Nullable AudioInputBackend inputBackend) {
+    this.inputBackend = inputBackend;
+  }
+
+  /**
+   * Sets a ring buffer that receives a copy of every recorded 10 ms buffer, after muting. Only
+   * 16-bit PCM is written to it. Must be set before recording is initialized.
+   */
+  void setSamplesRingBuffer(@Nullable PcmRingBuffer samplesRingBuffer) {
+    this.samplesRingBuffer = samplesRingBuffer;
+  }
+
   @CalledByNative
   public void setNativeAudioRecord(long nativeAudioRecord) {
     this.nativeAudioRecord = nativeAudioRecord;
@@ -256,10 +271,12 @@ class WebRtcAudioRecord {
   @CalledByNative
   private int initRecording(int sampleRate, int channels) {
     Logging.d(TAG, "initRecording(sampleRate=" + sampleRate + ", channels=" + channels + ")");
-    if (audioRecord != null) {
+    if (audioRecord != null || backendInitialized) {
       reportWebRtcAudioRecordInitError("InitRecording called twice without StopRecording.");
       return -1;
     }
+    this.sampleRate = sampleRate;
+    this.channelCount = channels;
     final int bytesPerFrame = channels * getBytesPerSample(audioFormat);
     final int framesPerBuffer = sampleRate / BUFFERS_PER_SECOND;
     byteBuffer = ByteBuffer.allocateDirect(bytesPerFrame * framesPerBuffer);
@@ -269,10 +286,21 @@ class WebRtcAudioRecord {
     }
     Logging.d(TAG, "byteBuffer.capacity: " + byteBuffer.capacity());
     emptyBytes = new byte[byteBuffer.capacity()];
+    if (audioSamplesReadyCallback != null) {
+      reusedAudioSamples = new JavaAudioDeviceModule.AudioSamples(
+          audioFormat, channels, sampleRate, new byte[byteBuffer.capacity()]);
+    }
+    if (samplesRingBuffer != null && audioFormat == AudioFormat.ENCODING_PCM_16BIT) {
+      shortBuffer = byteBuffer.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+      samplesRingBuffer.setFormat(sampleRate, channels);
+    }
     // Rather than passing the ByteBuffer with every callback (requiring
     // the potentially expensive GetDirectBufferAddress) we simply have the
     // the native class cache the address to the memory once.
     nativeCacheDirectBufferAddress(nativeAudioRecord, byteBuffer);
+    if (inputBackend != null) {
+      return initBackendRecording(inputBackend, sampleRate, channels, framesPerBuffer);
+    }
 
     // Get the minimum buffer size required for the successful creation of
     // an AudioRecord object, in byte units.
@@ -329,9 +357,30 @@ class WebRtcAudioRecord {
     return framesPerBuffer;
   }
 
+  private int initBackendRecording(
+      AudioInputBackend backend, int sampleRate, int channels, int framesPerBuffer) {
+    if (backendReleased) {
+      reportWebRtcAudioRecordInitError("The input backend is released.");
+      return -1;
+    }
+    if (audioFormat != AudioFormat.ENCODING_PCM_16BIT) {
+      reportWebRtcAudioRecordInitError("Input backends only support 16-bit PCM.");
+      return -1;
+    }
+    if (!backend.init(sampleRate, channels)) {
+      reportWebRtcAudioRecordInitError("Initialization of the input backend failed.");
+      return -1;
+    }
+    backendInitialized = true;
+    return framesPerBuffer;
+  }
+
   @CalledByNative
   private boolean startRecording() {
     Logging.d(TAG, "startRecording");
+    if (inputBackend != null) {
+      return startBackendRecording(inputBackend);
+    }
     assertTrue(audioRecord != null);
     assertTrue(audioThread == null);
     try {
@@ -353,9 +402,32 @@ class WebRtcAudioRecord {
     return true;
   }
 
+  private boolean startBackendRecording(AudioInputBackend backend) {
+    assertTrue(backendInitialized);
+    assertTrue(!backendRecording);
+    final int bytes = byteBuffer.capacity();
+    if (!backend.start(byteBuffer, () -> deliverRecordedData(bytes, true /* callNative */))) {
+      reportWebRtcAudioRecordStartError(AudioRecordStartErrorCode.AUDIO_RECORD_START_EXCEPTION,
+          "Input backend failed to start");
+      return false;
+    }
+    backendRecording = true;
+    doAudioRecordStateCallback(AUDIO_RECORD_START);
+    return true;
+  }
+
   @CalledByNative
   private boolean stopRecording() {
     Logging.d(TAG, "stopRecording");
+    if (inputBackend != null) {
+      if (backendRecording) {
+        inputBackend.stop();
+        backendRecording = false;
+        doAudioRecordStateCallback(AUDIO_RECORD_STOP);
+      }
+      releaseAudioResources();
+      return true;
+    }
     assertTrue(audioThread != null);
     if (future != null) {
       if (!future.isDone()) {
@@ -469,6 +541,41 @@ class WebRtcAudioRecord {
     microphoneMute = mute;
   }
 
+  // Hands a recorded 10 ms buffer to the native layer and the other consumers. Native methods
+  // are only called if |callNative| is true.
+  private void deliverRecordedData(int bytes, boolean callNative) {
+    if (microphoneMute) {
+      byteBuffer.clear();
+      byteBuffer.put(emptyBytes);
+    }
+    if (callNative) {
+      nativeDataIsRecorded(nativeAudioRecord, bytes);
+    }
+    if (samplesRingBuffer != null && shortBuffer != null) {
+      samplesRingBuffer.write(shortBuffer);
+    }
+    if (audioSamplesReadyCallback != null && reusedAudioSamples != null) {
+      // Copy the entire byte buffer array. The start of the byteBuffer is not necessarily
+      // at index 0.
+      final byte[] data = reusedAudioSamples.getData();
+      System.arraycopy(byteBuffer.array(), byteBuffer.arrayOffset(), data, 0, data.length);
+      audioSamplesReadyCallback.onWebRtcAudioRecordSamplesReady(reusedAudioSamples);
+    }
+  }
+
+  /** Stops and releases the input backend, if any, when the audio device module is released. */
+  void releaseInputBackend() {
+    if (inputBackend == null || backendReleased) {
+      return;
+    }
+    if (backendRecording) {
+      inputBackend.stop();
+      backendRecording = false;
+    }
+    inputBackend.release();
+    backendReleased = true;
+  }
+
   // Releases the native AudioRecord resources.
   private void releaseAudioResources() {
     Logging.d(TAG, "releaseAudioResources");
@@ -476,6 +583,10 @@ class WebRtcAudioRecord {
       audioRecord.release();
       audioRecord = null;
     }
+    // The backend is only stopped, so a restart continues its audio; see releaseInputBackend().
+    backendInitialized = false;
+    shortBuffer = null;
+    reusedAudioSamples = null;
   }
 
   private void reportWebRtcAudioRecordInitError(String errorMessage) {
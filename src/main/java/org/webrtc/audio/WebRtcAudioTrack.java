@@ -21,12 +21,15 @@ import android.os.Process;
 import androidx.annotation.Nullable;
 import java.lang.Thread;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import org.webrtc.CalledByNative;
 import org.webrtc.Logging;
 import org.webrtc.ThreadUtils;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStartErrorCode;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.PlayoutMetricsListener;
 
 class WebRtcAudioTrack {
   private static final String TAG = "WebRtcAudioTrackExternal";
@@ -45,6 +48,9 @@ class WebRtcAudioTrack {
   // but the wait times out afther this amount of time.
   private static final long AUDIO_TRACK_THREAD_JOIN_TIMEOUT_MS = 2000;
 
+  // Interval between two reports to the PlayoutMetricsListener.
+  private static final long PLAYOUT_METRICS_REPORT_INTERVAL_NS = 10L * 1000 * 1000 * 1000;
+
   // By default, WebRTC creates audio tracks with a usage attribute
   // corresponding to voice communications, such as telephony or VoIP.
   private static final int DEFAULT_USAGE = getDefaultUsageAttribute();
@@ -70,9 +76,25 @@ class WebRtcAudioTrack {
   private final ThreadUtils.ThreadChecker threadChecker = new ThreadUtils.ThreadChecker();
 
   private ByteBuffer byteBuffer;
+  // 16-bit view of |byteBuffer| used to feed |samplesRingBuffer|.
+  private @Nullable ShortBuffer shortBuffer;
+  private @Nullable PcmRingBuffer samplesRingBuffer;
+  private @Nullable PlayoutMetricsListener metricsListener;
+  // Filled in by the AudioTrackThread, and copied to |reportedMetrics| for the listener.
+  private final PlayoutMetrics metrics = new PlayoutMetrics();
+  private final PlayoutMetrics reportedMetrics = new PlayoutMetrics();
+  // Adapts the AudioTrack buffer size if |adaptiveBufferMaxLatencyMs| is set; API level 24+.
+  private int adaptiveBufferMaxLatencyMs;
+  private @Nullable PlayoutBufferController bufferController;
 
   private @Nullable AudioTrack audioTrack;
   private @Nullable AudioTrackThread audioThread;
+
+  // Replaces |audioTrack| and |audioThread| if set.
+  private @Nullable AudioOutputBackend outputBackend;
+  private boolean backendInitialized;
+  private boolean backendPlaying;
+  private boolean backendReleased;
   private final VolumeLogger volumeLogger;
 
   // Samples to be played are replaced by zeros if |speakerMute| is set to true.
@@ -109,21 +131,77 @@ class WebRtcAudioTrack {
       // using callbacks to the native WebRTC client.
       final int sizeInBytes = byteBuffer.capacity();
 
+      final boolean collectMetrics = metricsListener != null;
+      final PlayoutBufferController controller = bufferController;
+      final boolean measureTiming = collectMetrics || controller != null;
+      final int bytesPerFrame = audioTrack.getChannelCount() * (BITS_PER_SAMPLE / 8);
+      final int sampleRate = audioTrack.getSampleRate();
+      final long startTimeNs = System.nanoTime();
+      long lastReportTimeNs = startTimeNs;
+      long lastRequestTimeNs = 0;
+      long framesWritten = 0;
+      int lastUnderrunCount = 0;
+      if (collectMetrics) {
+        metrics.reset();
+      }
+      if (measureTiming && Build.VERSION.SDK_INT >= 24) {
+        lastUnderrunCount = audioTrack.getUnderrunCount();
+      }
+
       while (keepAlive) {
-        // Get 10ms of PCM data from the native WebRTC client. Audio data is
-        // written into the common ByteBuffer using the address that was
-        // cached at construction.
-        nativeGetPlayoutData(nativeAudioTrack, sizeInBytes);
+        long requestIntervalUs = 0;
+        if (measureTiming) {
+          final long requestTimeNs = System.nanoTime();
+          if (lastRequestTimeNs != 0) {
+            requestIntervalUs = (requestTimeNs - lastRequestTimeNs) / 1000;
+            if (collectMetrics) {
+              metrics.onRequest(requestIntervalUs);
+            }
+          }
+          lastRequestTimeNs = requestTimeNs;
+        }
+        readPlayoutData(sizeInBytes);
         // Write data until all data has been written to the audio sink.
         // Upon return, the buffer position will have been advanced to reflect
         // the amount of data that was successfully written to the AudioTrack.
-        assertTrue(sizeInBytes <= byteBuffer.remaining());
-        if (speakerMute) {
-          byteBuffer.clear();
-          byteBuffer.put(emptyBytes);
-          byteBuffer.position(0);
-        }
+        final long writeStartTimeNs = collectMetrics ? System.nanoTime() : 0;
         int bytesWritten = writeBytes(audioTrack, byteBuffer, sizeInBytes);
+        if (measureTiming) {
+          final long writeEndTimeNs = System.nanoTime();
+          int newUnderruns = 0;
+          if (Build.VERSION.SDK_INT >= 24) {
+            final int underrunCount = audioTrack.getUnderrunCount();
+            newUnderruns = underrunCount - lastUnderrunCount;
+            lastUnderrunCount = underrunCount;
+            if (controller != null
+                && controller.onChunk(writeEndTimeNs / 1000, requestIntervalUs, newUnderruns)) {
+              final int appliedFrames =
+                  audioTrack.setBufferSizeInFrames(controller.getBufferSizeFrames());
+              if (appliedFrames > 0) {
+                controller.onBufferSizeApplied(appliedFrames);
+              }
+              Logging.d(TAG, "AudioTrack buffer size: " + controller.getBufferSizeMs() + " ms");
+            }
+          }
+          if (collectMetrics) {
+            if (bytesWritten > 0) {
+              framesWritten += bytesWritten / bytesPerFrame;
+            }
+            // Both counters wrap at 2^32 frames.
+            final long playbackHeadPosition = audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+            final long queuedFrames = (framesWritten - playbackHeadPosition) & 0xFFFFFFFFL;
+            metrics.onWrite((writeEndTimeNs - writeStartTimeNs) / 1000,
+                bytesWritten == sizeInBytes, queuedFrames * 1000 * 1000 / sampleRate);
+            metrics.onUnderruns(newUnderruns);
+            if (Build.VERSION.SDK_INT >= 23) {
+              metrics.onBufferSize(audioTrack.getBufferSizeInFrames());
+            }
+            if (writeEndTimeNs - lastReportTimeNs >= PLAYOUT_METRICS_REPORT_INTERVAL_NS) {
+              lastReportTimeNs = writeEndTimeNs;
+              reportMetrics(writeEndTimeNs - startTimeNs);
+            }
+          }
+        }
         if (bytesWritten != sizeInBytes) {
           Logging.e(TAG, "AudioTrack.write played invalid number of bytes: " + bytesWritten);
           // If a write() returns a negative value, an error has occurred.
@@ -143,6 +221,10 @@ class WebRtcAudioTrack {
         // audioTrack.getPlaybackHeadPosition().
       }
 
+      if (collectMetrics) {
+        reportMetrics(System.nanoTime() - startTimeNs);
+      }
+
       // Stops playing the audio data. Since the instance was created in
       // MODE_STREAM mode, audio will stop playing after the last buffer that
       // was written has been played.
@@ -158,6 +240,12 @@ class WebRtcAudioTrack {
       }
     }
 
+    private void reportMetrics(long sessionDurationNs) {
+      metrics.setSessionDurationMs(sessionDurationNs / (1000 * 1000));
+      reportedMetrics.copyFrom(metrics);
+      metricsListener.onPlayoutMetrics(reportedMetrics);
+    }
+
     private int writeBytes(AudioTrack audioTrack, ByteBuffer byteBuffer, int sizeInBytes) {
       if (Build.VERSION.SDK_INT >= 21) {
         return audioTrack.write(byteBuffer, sizeInBytes, AudioTrack.WRITE_BLOCKING);
@@ -191,6 +279,39 @@ class WebRtcAudioTrack {
     Logging.d(TAG, "ctor" + WebRtcAudioUtils.getThreadInfo());
   }
 
+  /**
+   * Sets a ring buffer that receives a copy of every 10 ms buffer that is played out, after
+   * muting. Must be set before playout is initialized.
+   */
+  void setSamplesRingBuffer(@Nullable PcmRingBuffer samplesRingBuffer) {
+    this.samplesRingBuffer = samplesRingBuffer;
+  }
+
+  /**
+   * Sets a backend that consumes the playout audio instead of an AudioTrack. Must be set before
+   * playout is initialized.
+   */
+  void setOutputBackend(@Nullable AudioOutputBackend outputBackend) {
+    this.outputBackend = outputBackend;
+  }
+
+  /**
+   * Sets a listener for the metrics of each playout session. Must be set before playout is
+   * started.
+   */
+  void setPlayoutMetricsListener(@Nullable PlayoutMetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+  }
+
+  /**
+   * Lets the AudioTrack buffer size adapt between 20 ms and |maxLatencyMs| instead of keeping
+   * the size derived from AudioTrack.getMinBufferSize(). Requires API level 24; 0 disables it.
+   * Must be set before playout is initialized.
+   */
+  void setAdaptiveBufferMaxLatencyMs(int maxLatencyMs) {
+    this.adaptiveBufferMaxLatencyMs = maxLatencyMs;
+  }
+
   @CalledByNative
   public void setNativeAudioTrack(long nativeAudioTrack) {
     this.nativeAudioTrack = nativeAudioTrack;
@@ -206,10 +327,17 @@ class WebRtcAudioTrack {
     byteBuffer = ByteBuffer.allocateDirect(bytesPerFrame * (sampleRate / BUFFERS_PER_SECOND));
     Logging.d(TAG, "byteBuffer.capacity: " + byteBuffer.capacity());
     emptyBytes = new byte[byteBuffer.capacity()];
+    if (samplesRingBuffer != null) {
+      shortBuffer = byteBuffer.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+      samplesRingBuffer.setFormat(sampleRate, channels);
+    }
     // Rather than passing the ByteBuffer with every callback (requiring
     // the potentially expensive GetDirectBufferAddress) we simply have the
     // the native class cache the address to the memory once.
     nativeCacheDirectBufferAddress(nativeAudioTrack, byteBuffer);
+    if (outputBackend != null) {
+      return initBackendPlayout(outputBackend, sampleRate, channels);
+    }
 
     // Get the minimum buffer size required for the successful creation of an
     // AudioTrack object to be created in the MODE_STREAM mode.
@@ -228,6 +356,13 @@ class WebRtcAudioTrack {
       reportWebRtcAudioTrackInitError("AudioTrack.getMinBufferSize returns an invalid value.");
       return false;
     }
+    // An adaptive buffer can only be lowered below the capacity of the track, so the track is
+    // created with room for the latency ceiling.
+    final boolean adaptiveBuffer = adaptiveBufferMaxLatencyMs > 0 && Build.VERSION.SDK_INT >= 24;
+    final int bufferSizeInBytes = adaptiveBuffer
+        ? Math.max(minBufferSizeInBytes,
+            bytesPerFrame * (sampleRate * adaptiveBufferMaxLatencyMs / 1000))
+        : minBufferSizeInBytes;
 
     // Ensure that prevision audio session was stopped correctly before trying
     // to create a new AudioTrack.
@@ -246,11 +381,11 @@ class WebRtcAudioTrack {
         // and to allow certain platforms or routing policies to use this information for more
         // refined volume or routing decisions.
         audioTrack =
-            createAudioTrackOnLollipopOrHigher(sampleRate, channelConfig, minBufferSizeInBytes);
+            createAudioTrackOnLollipopOrHigher(sampleRate, channelConfig, bufferSizeInBytes);
       } else {
         // Use default constructor for API levels below 21.
         audioTrack =
-            createAudioTrackOnLowerThanLollipop(sampleRate, channelConfig, minBufferSizeInBytes);
+            createAudioTrackOnLowerThanLollipop(sampleRate, channelConfig, bufferSizeInBytes);
       }
     } catch (IllegalArgumentException e) {
       reportWebRtcAudioTrackInitError(e.getMessage());
@@ -268,6 +403,44 @@ class WebRtcAudioTrack {
     }
     logMainParameters();
     logMainParametersExtended();
+    if (adaptiveBuffer) {
+      initBufferController(sampleRate);
+    }
+    return true;
+  }
+
+  // Starts with a small buffer that the AudioTrackThread adapts to the observed underruns and
+  // scheduling delays.
+  @TargetApi(24)
+  private void initBufferController(int sampleRate) {
+    final int maxFrames = Math.min(audioTrack.getBufferCapacityInFrames(),
+        sampleRate * adaptiveBufferMaxLatencyMs / 1000);
+    bufferController = new PlayoutBufferController(
+        sampleRate, sampleRate / BUFFERS_PER_SECOND, 0 /* minFrames */, maxFrames);
+    final int appliedFrames =
+        audioTrack.setBufferSizeInFrames(bufferController.getBufferSizeFrames());
+    if (appliedFrames > 0) {
+      bufferController.onBufferSizeApplied(appliedFrames);
+    }
+    Logging.d(TAG,
+        "Adaptive AudioTrack buffer: " + bufferController.getBufferSizeMs() + " ms, max "
+            + adaptiveBufferMaxLatencyMs + " ms");
+  }
+
+  private boolean initBackendPlayout(AudioOutputBackend backend, int sampleRate, int channels) {
+    if (backendInitialized) {
+      reportWebRtcAudioTrackInitError("Conflict with existing output backend.");
+      return false;
+    }
+    if (backendReleased) {
+      reportWebRtcAudioTrackInitError("The output backend is released.");
+      return false;
+    }
+    if (!backend.init(sampleRate, channels)) {
+      reportWebRtcAudioTrackInitError("Initialization of the output backend failed.");
+      return false;
+    }
+    backendInitialized = true;
     return true;
   }
 
@@ -276,6 +449,9 @@ class WebRtcAudioTrack {
     threadChecker.checkIsOnValidThread();
     volumeLogger.start();
     Logging.d(TAG, "startPlayout");
+    if (outputBackend != null) {
+      return startBackendPlayout(outputBackend);
+    }
     assertTrue(audioTrack != null);
     assertTrue(audioThread == null);
 
@@ -303,11 +479,35 @@ class WebRtcAudioTrack {
     return true;
   }
 
+  private boolean startBackendPlayout(AudioOutputBackend backend) {
+    assertTrue(backendInitialized);
+    assertTrue(!backendPlaying);
+    final int sizeInBytes = byteBuffer.capacity();
+    if (!backend.start(byteBuffer, () -> readPlayoutData(sizeInBytes))) {
+      reportWebRtcAudioTrackStartError(AudioTrackStartErrorCode.AUDIO_TRACK_START_EXCEPTION,
+          "Output backend failed to start");
+      releaseAudioResources();
+      return false;
+    }
+    backendPlaying = true;
+    doAudioTrackStateCallback(AUDIO_TRACK_START);
+    return true;
+  }
+
   @CalledByNative
   private boolean stopPlayout() {
     threadChecker.checkIsOnValidThread();
     volumeLogger.stop();
     Logging.d(TAG, "stopPlayout");
+    if (outputBackend != null) {
+      if (backendPlaying) {
+        outputBackend.stop();
+        backendPlaying = false;
+        doAudioTrackStateCallback(AUDIO_TRACK_STOP);
+      }
+      releaseAudioResources();
+      return true;
+    }
     assertTrue(audioThread != null);
     logUnderrunCount();
     audioThread.stopThread();
@@ -475,6 +675,36 @@ class WebRtcAudioTrack {
     speakerMute = mute;
   }
 
+  // Gets 10ms of PCM data from the native WebRTC client and hands it to the ring buffer. Audio
+  // data is written into the common ByteBuffer using the address that was cached at
+  // construction.
+  private void readPlayoutData(int sizeInBytes) {
+    nativeGetPlayoutData(nativeAudioTrack, sizeInBytes);
+    assertTrue(sizeInBytes <= byteBuffer.remaining());
+    if (speakerMute) {
+      byteBuffer.clear();
+      byteBuffer.put(emptyBytes);
+      byteBuffer.position(0);
+    }
+    final ShortBuffer samples = shortBuffer;
+    if (samplesRingBuffer != null && samples != null) {
+      samplesRingBuffer.write(samples);
+    }
+  }
+
+  /** Stops and releases the output backend, if any, when the audio device module is released. */
+  void releaseOutputBackend() {
+    if (outputBackend == null || backendReleased) {
+      return;
+    }
+    if (backendPlaying) {
+      outputBackend.stop();
+      backendPlaying = false;
+    }
+    outputBackend.release();
+    backendReleased = true;
+  }
+
   // Releases the native AudioTrack resources.
   private void releaseAudioResources() {
     Logging.d(TAG, "releaseAudioResources");
@@ -482,6 +712,10 @@ class WebRtcAudioTrack {
       audioTrack.release();
       audioTrack = null;
     }
+    // The backend is only stopped, so a restart continues its stream; see releaseOutputBackend().
+    backendInitialized = false;
+    shortBuffer = null;
+    bufferController = null;
   }
 
   private void reportWebRtcAudioTrackInitError(String errorMessage) {
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.antmedia.webrtcandroidframework.apprtc.BandwidthCaptureController.Rung;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+
+public class BandwidthCaptureControllerTest {
+  private static final List<CaptureFormat> FORMATS = Arrays.asList(
+      new CaptureFormat(1920, 1080, 15000, 30000),
+      new CaptureFormat(1280, 720, 15000, 30000),
+      new CaptureFormat(960, 540, 15000, 30000),
+      new CaptureFormat(640, 480, 15000, 30000),
+      new CaptureFormat(640, 360, 15000, 30000),
+      new CaptureFormat(640, 360, 7000, 15000));
+
+  private BandwidthCaptureController controller;
+  private List<Rung> ladder;
+  // Time of the last measurement fed in.
+  private long nowMs;
+
+  @Before
+  public void setUp() {
+    controller = new BandwidthCaptureController(FORMATS, 1280, 720, 30);
+    ladder = controller.getLadder();
+  }
+
+  // Feeds one local estimate a second for |durationMs| and returns the first change, or null.
+  private Rung feedLocal(long durationMs, int availableBps) {
+    final long endMs = nowMs + durationMs;
+    while (nowMs < endMs) {
+      nowMs += 1000;
+      final Rung rung = controller.onLocalMeasurement(nowMs, availableBps);
+      if (rung != null) {
+        return rung;
+      }
+    }
+    return null;
+  }
+
+  // Like a local estimate that follows the send rate of the current rung.
+  private int sendRateEstimate() {
+    return (int) (controller.getRung().requiredBps * 1.4);
+  }
+
+  @Test
+  public void testLadderKeepsAspectRatioAndSize() {
+    assertEquals(4, ladder.size());
+    assertEquals(1280, ladder.get(0).format.width);
+    assertEquals(30, ladder.get(0).framerate);
+    assertEquals(960, ladder.get(1).format.width);
+    assertEquals(640, ladder.get(2).format.width);
+    assertEquals(30, ladder.get(2).framerate);
+    assertEquals(640, ladder.get(3).format.width);
+    assertEquals(15, ladder.get(3).framerate);
+    assertSame(ladder.get(0), controller.getRung());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoFittingFormat() {
+    new BandwidthCaptureController(Arrays.asList(new CaptureFormat(640, 480, 15000, 30000)),
+        1280, 720, 30);
+  }
+
+  @Test
+  public void testSwitchesDownAfterDelaySkippingRungs() {
+    // Enough for 640x360@30 only.
+    final int availableBps = (int) (ladder.get(2).requiredBps * 1.2);
+    final long startMs = nowMs;
+    assertSame(ladder.get(2), feedLocal(10000, availableBps));
+    // Below since the first measurement, down after the 3 s delay.
+    assertEquals(4000, nowMs - startMs);
+    assertSame(ladder.get(2), controller.getRung());
+  }
+
+  @Test
+  public void testShortDipDoesNotSwitch() {
+    assertNull(feedLocal(2000, ladder.get(2).requiredBps));
+    assertNull(feedLocal(10000, ladder.get(0).requiredBps));
+    assertSame(ladder.get(0), controller.getRung());
+  }
+
+  @Test
+  public void testUsesLowerOfServerAndLocal() {
+    nowMs = 1000;
+    controller.onLocalMeasurement(nowMs, 10000000);
+    controller.onServerMeasurement(nowMs, ladder.get(2).requiredBps + 64000, 64000);
+    assertEquals(ladder.get(2).requiredBps, controller.getAvailableBps(nowMs));
+    // Measurements time out.
+    assertEquals(-1, controller.getAvailableBps(nowMs + 6000));
+  }
+
+  @Test
+  public void testSwitchesUpWhenEstimateFollowsSendRate() {
+    assertSame(ladder.get(2), feedLocal(10000, (int) (ladder.get(2).requiredBps * 1.2)));
+
+    // The estimate never shows what 960x540 needs, only headroom over what is being sent.
+    final int availableBps = sendRateEstimate();
+    assertTrue(availableBps < ladder.get(1).requiredBps);
+    final long downMs = nowMs;
+    assertSame(ladder.get(1), feedLocal(30000, availableBps));
+    assertEquals(11000, nowMs - downMs);
+
+    final long upMs = nowMs;
+    assertSame(ladder.get(0), feedLocal(30000, sendRateEstimate()));
+    assertEquals(11000, nowMs - upMs);
+  }
+
+  @Test
+  public void testFailedTryDoublesUpDelay() {
+    final int lowBps = (int) (ladder.get(2).requiredBps * 1.2);
+    assertSame(ladder.get(2), feedLocal(10000, lowBps));
+    assertSame(ladder.get(1), feedLocal(30000, sendRateEstimate()));
+    assertEquals(10000, controller.getUpDelayMs());
+
+    // 960x540 cannot be carried; back down once the minimum change interval passed.
+    final long upMs = nowMs;
+    assertSame(ladder.get(2), feedLocal(30000, lowBps));
+    assertEquals(5000, nowMs - upMs);
+    assertEquals(20000, controller.getUpDelayMs());
+
+    final long downMs = nowMs;
+    assertSame(ladder.get(1), feedLocal(60000, sendRateEstimate()));
+    assertEquals(21000, nowMs - downMs);
+
+    // This time 960x540 holds, so the delay is back to normal.
+    assertNull(feedLocal(15000, ladder.get(1).requiredBps));
+    assertEquals(10000, controller.getUpDelayMs());
+  }
+
+  @Test
+  public void testUpDelayIsCapped() {
+    final int lowBps = (int) (ladder.get(2).requiredBps * 1.2);
+    assertSame(ladder.get(2), feedLocal(10000, lowBps));
+    for (int i = 0; i < 6; ++i) {
+      assertSame(ladder.get(1), feedLocal(200000, sendRateEstimate()));
+      assertSame(ladder.get(2), feedLocal(30000, lowBps));
+    }
+    assertEquals(80000, controller.getUpDelayMs());
+  }
+}
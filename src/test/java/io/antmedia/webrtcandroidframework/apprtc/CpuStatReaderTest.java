@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs the reader against a fixture copy of the /proc and /sys files it reads. */
+public class CpuStatReaderTest {
+  private static final String PROC_STAT =
+      "cpu  5093818 271838 3512830 165934119 101374 447076 272086 0 0 0\n"
+      + "cpu0 1 2 3 4 5 6 7 0 0 0\n"
+      + "intr 123\n";
+
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = File.createTempFile("CpuStatReaderTest", "");
+    assertTrue(root.delete());
+    assertTrue(root.mkdir());
+  }
+
+  @After
+  public void tearDown() {
+    delete(root);
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  // Writes |content| to |path| below the root, replacing the file contents in place.
+  private void write(String path, String content) throws IOException {
+    final File file = new File(root, path);
+    file.getParentFile().mkdirs();
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes(Charset.forName("US-ASCII")));
+    } finally {
+      out.close();
+    }
+  }
+
+  // A /proc/<pid>/stat line with the given command name and CPU times.
+  private static String stat(int pid, String comm, long utime, long stime) {
+    return pid + " (" + comm + ") S 1 " + pid + " 0 0 -1 4194624 1200 0 3 0 " + utime + " "
+        + stime + " 0 0 20 0 12 0 31337 0 0\n";
+  }
+
+  private void writeThread(int tid, String name, long utime, long stime) throws IOException {
+    write("proc/self/task/" + tid + "/stat", stat(tid, name, utime, stime));
+  }
+
+  private static Map<String, Long> deltasByName(List<CpuStatReader.ThreadTicks> threads) {
+    final Map<String, Long> deltas = new HashMap<>();
+    for (CpuStatReader.ThreadTicks thread : threads) {
+      deltas.put(thread.name, thread.getDeltaTicks());
+    }
+    return deltas;
+  }
+
+  @Test
+  public void testCpusPresent() throws IOException {
+    CpuStatReader reader = new CpuStatReader(root);
+    assertEquals(0, reader.readCpusPresent());
+    write("sys/devices/system/cpu/present", "0-7\n");
+    assertEquals(8, reader.readCpusPresent());
+    write("sys/devices/system/cpu/present", "0\n");
+    assertEquals(1, reader.readCpusPresent());
+  }
+
+  @Test
+  public void testFrequencies() throws IOException {
+    write("sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq", "2016000\n");
+    write("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "300000\n");
+    CpuStatReader reader = new CpuStatReader(root);
+    assertEquals(2016000, reader.readMaxFrequency(0));
+    assertEquals(300000, reader.readCurrentFrequency(0));
+    // The kept open file is read again from the start.
+    write("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "1804800\n");
+    assertEquals(1804800, reader.readCurrentFrequency(0));
+    // CPU 3 is offline.
+    assertEquals(0, reader.readMaxFrequency(3));
+    assertEquals(0, reader.readCurrentFrequency(3));
+    reader.close();
+  }
+
+  @Test
+  public void testSystemTimes() throws IOException {
+    write("proc/stat", PROC_STAT);
+    CpuStatReader reader = new CpuStatReader(root);
+    long[] times = new long[3];
+    assertTrue(reader.readSystemTimes(times));
+    assertArrayEquals(new long[] {5093818L + 271838 + 101374, 3512830L + 447076 + 272086,
+        165934119L}, times);
+    write("proc/stat", "cpu  5093900 271838 3512900 165934200 101374 447076 272086 0 0 0\n");
+    assertTrue(reader.readSystemTimes(times));
+    assertEquals(165934200L, times[2]);
+    reader.close();
+  }
+
+  @Test
+  public void testSystemTimesWithoutIowait() throws IOException {
+    // Kernels before 2.5.41 have four fields.
+    write("proc/stat", "cpu  100 20 30 400\n");
+    CpuStatReader reader = new CpuStatReader(root);
+    long[] times = new long[3];
+    assertTrue(reader.readSystemTimes(times));
+    assertArrayEquals(new long[] {120, 30, 400}, times);
+    reader.close();
+  }
+
+  @Test
+  public void testMalformedSystemTimes() throws IOException {
+    CpuStatReader reader = new CpuStatReader(root);
+    long[] times = new long[3];
+    assertFalse(reader.readSystemTimes(times));
+    write("proc/stat", "intr 123\n");
+    assertFalse(reader.readSystemTimes(times));
+    write("proc/stat", "cpu  100 20\n");
+    assertFalse(reader.readSystemTimes(times));
+    reader.close();
+  }
+
+  @Test
+  public void testProcessTicksWithParenthesesInName() throws IOException {
+    write("proc/self/stat", stat(1234, "my (odd) app", 250, 50));
+    CpuStatReader reader = new CpuStatReader(root);
+    assertEquals(300, reader.readProcessTicks());
+    write("proc/self/stat", stat(1234, "my (odd) app", 260, 55));
+    assertEquals(315, reader.readProcessTicks());
+    reader.close();
+  }
+
+  @Test
+  public void testMissingProcessStat() {
+    CpuStatReader reader = new CpuStatReader(root);
+    assertEquals(-1, reader.readProcessTicks());
+  }
+
+  @Test
+  public void testThreadTicks() throws IOException {
+    writeThread(100, "main", 500, 100);
+    writeThread(101, "EncoderThread", 40, 10);
+    CpuStatReader reader = new CpuStatReader(root);
+
+    // The first sample has no deltas.
+    Map<String, Long> deltas = deltasByName(reader.readThreadTicks());
+    assertEquals(2, deltas.size());
+    assertEquals(0L, (long) deltas.get("main"));
+    assertEquals(0L, (long) deltas.get("EncoderThread"));
+
+    writeThread(100, "main", 510, 105);
+    writeThread(101, "EncoderThread", 70, 20);
+    deltas = deltasByName(reader.readThreadTicks());
+    assertEquals(15L, (long) deltas.get("main"));
+    assertEquals(40L, (long) deltas.get("EncoderThread"));
+
+    // The encoder thread exits and a new thread with a space in its name starts.
+    delete(new File(root, "proc/self/task/101"));
+    writeThread(102, "Audio Thread", 7, 3);
+    deltas = deltasByName(reader.readThreadTicks());
+    assertEquals(2, deltas.size());
+    assertEquals(0L, (long) deltas.get("main"));
+    assertEquals(10L, (long) deltas.get("Audio Thread"));
+    reader.close();
+  }
+
+  @Test
+  public void testThreadTicksAfterClose() throws IOException {
+    writeThread(100, "main", 500, 100);
+    CpuStatReader reader = new CpuStatReader(root);
+    reader.readThreadTicks();
+    reader.close();
+    writeThread(100, "main", 600, 100);
+    // Sampling starts over.
+    List<CpuStatReader.ThreadTicks> threads = reader.readThreadTicks();
+    assertEquals(1, threads.size());
+    assertEquals(0, threads.get(0).getDeltaTicks());
+    reader.close();
+  }
+
+  @Test
+  public void testNoTaskDirectory() {
+    CpuStatReader reader = new CpuStatReader(root);
+    assertTrue(reader.readThreadTicks().isEmpty());
+  }
+}
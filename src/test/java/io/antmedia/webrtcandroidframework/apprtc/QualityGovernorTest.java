@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.antmedia.webrtcandroidframework.apprtc.QualityGovernor.Decision;
+import io.antmedia.webrtcandroidframework.apprtc.QualityGovernor.Level;
+import io.antmedia.webrtcandroidframework.apprtc.QualityGovernor.Reason;
+import io.antmedia.webrtcandroidframework.apprtc.QualityGovernor.Telemetry;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** Replays telemetry traces in the format of Telemetry.toString() through the governor. */
+public class QualityGovernorTest {
+  private static final List<Level> LADDER = QualityGovernor.createLadder(1280, 720, 30, 2000);
+
+  // A sample with headroom on all signals, charging, with the given CPU use.
+  private static Telemetry sample(long timestampMs, int cpuUsagePercent) {
+    return new Telemetry(timestampMs, cpuUsagePercent, 100, 80, true,
+        QualityGovernor.THERMAL_STATUS_NONE, 300, 0);
+  }
+
+  // One sample a second from |startMs| to before |endMs| with the given CPU use.
+  private static List<Telemetry> samples(long startMs, long endMs, int cpuUsagePercent) {
+    final List<Telemetry> trace = new ArrayList<>();
+    for (long timestampMs = startMs; timestampMs < endMs; timestampMs += 1000) {
+      trace.add(sample(timestampMs, cpuUsagePercent));
+    }
+    return trace;
+  }
+
+  // Reads a trace fixture next to this class, one Telemetry.toString() line per sample.
+  private static List<Telemetry> readTrace(String name) throws IOException {
+    final InputStream input = QualityGovernorTest.class.getResourceAsStream(name);
+    assertNotNull("Missing fixture " + name, input);
+    final List<Telemetry> trace = new ArrayList<>();
+    final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(input, Charset.forName("UTF-8")));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          trace.add(Telemetry.parse(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return trace;
+  }
+
+  private static String describe(List<Decision> decisions) {
+    final StringBuilder builder = new StringBuilder();
+    for (Decision decision : decisions) {
+      builder.append(decision.timestampMs).append(':').append(decision.levelIndex).append(' ');
+    }
+    return builder.toString().trim();
+  }
+
+  @Test
+  public void testTelemetryRoundTrip() {
+    Telemetry telemetry =
+        new Telemetry(123456, 87, 45, 12, true, QualityGovernor.THERMAL_STATUS_SEVERE, 300, 31);
+    assertEquals("123456,87,45,12,1,3,300,31", telemetry.toString());
+    Telemetry parsed = Telemetry.parse(telemetry.toString());
+    assertEquals(123456, parsed.timestampMs);
+    assertEquals(87, parsed.cpuUsagePercent);
+    assertEquals(45, parsed.frequencyScalePercent);
+    assertEquals(12, parsed.batteryPercent);
+    assertTrue(parsed.charging);
+    assertEquals(QualityGovernor.THERMAL_STATUS_SEVERE, parsed.thermalStatus);
+    assertEquals(300, parsed.framesCaptured);
+    assertEquals(31, parsed.framesDropped);
+    assertEquals(telemetry.toString(), parsed.toString());
+  }
+
+  @Test
+  public void testParseKeepsUnknownSignals() {
+    Telemetry parsed = Telemetry.parse(" 1000,-1,-1,-1,0,-1,0,0\n");
+    assertEquals(QualityGovernor.UNKNOWN, parsed.cpuUsagePercent);
+    assertEquals(QualityGovernor.UNKNOWN, parsed.frequencyScalePercent);
+    assertEquals(QualityGovernor.UNKNOWN, parsed.batteryPercent);
+    assertFalse(parsed.charging);
+    assertEquals(QualityGovernor.UNKNOWN, parsed.getDropPercent());
+  }
+
+  @Test
+  public void testParseRejectsMalformedLines() {
+    for (String line : new String[] {"", "1000,40,100,80,0,0,300", "1000,40,100,80,0,0,300,0,1",
+             "1000,forty,100,80,0,0,300,0"}) {
+      try {
+        Telemetry.parse(line);
+        fail("Parsed " + line);
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testCreateLadder() {
+    assertEquals(6, LADDER.size());
+    assertEquals("1280x720@30/2000kbps", LADDER.get(0).toString());
+    int previousPixelRate = Integer.MAX_VALUE;
+    for (Level level : LADDER) {
+      assertEquals(0, level.width % 2);
+      assertEquals(0, level.height % 2);
+      assertTrue(level.maxBitrateKbps >= 100);
+      final int pixelRate = level.width * level.height * level.framerate;
+      assertTrue(LADDER.toString(), pixelRate < previousPixelRate);
+      previousPixelRate = pixelRate;
+    }
+    assertEquals(10, LADDER.get(5).framerate);
+  }
+
+  @Test
+  public void testReplayOverloadTrace() throws IOException {
+    // 10 s idle, 20 s of 92% CPU use, 30 s at 30%.
+    List<Telemetry> trace = readTrace("overload_trace.csv");
+    assertEquals(60, trace.size());
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    List<Decision> decisions = governor.replay(trace);
+    // Down on every second overuse sample, 2 s apart, to the lowest level. Up after five samples
+    // with headroom once the level held for 10 s.
+    assertEquals("11000:1 13000:2 15000:3 17000:4 19000:5 34000:4 44000:3 54000:2",
+        describe(decisions));
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(Reason.CPU_OVERUSE, decisions.get(i).reason);
+    }
+    assertEquals(Reason.HEADROOM, decisions.get(5).reason);
+    assertEquals(2, governor.getLevelIndex());
+    assertEquals(10000, governor.getUpHoldMs());
+  }
+
+  @Test
+  public void testReplayIsReproducibleAfterReset() throws IOException {
+    List<Telemetry> trace = readTrace("overload_trace.csv");
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    String first = describe(governor.replay(trace));
+    governor.reset();
+    assertEquals(0, governor.getLevelIndex());
+    assertEquals(first, describe(governor.replay(trace)));
+  }
+
+  @Test
+  public void testSingleOveruseSampleIsIgnored() {
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    List<Telemetry> trace = new ArrayList<>();
+    for (long timestampMs = 0; timestampMs < 20000; timestampMs += 2000) {
+      trace.add(sample(timestampMs, 95));
+      trace.add(sample(timestampMs + 1000, 70));
+    }
+    assertTrue(governor.replay(trace).isEmpty());
+  }
+
+  @Test
+  public void testOscillationDoublesUpHold() {
+    QualityGovernor governor = new QualityGovernor(LADDER, 1);
+    // Nothing changed yet, so five samples with headroom are enough to step up.
+    List<Decision> decisions = governor.replay(samples(0, 5000, 30));
+    assertEquals("4000:0", describe(decisions));
+    // The better level cannot be sustained.
+    decisions = governor.replay(samples(5000, 7000, 90));
+    assertEquals("6000:1", describe(decisions));
+    assertEquals(20000, governor.getUpHoldMs());
+    // So the next try waits for 20 s instead of 10 s.
+    decisions = governor.replay(samples(7000, 30000, 30));
+    assertEquals("26000:0", describe(decisions));
+  }
+
+  @Test
+  public void testCriticalThermalStatusCapsImmediately() {
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    Decision decision = governor.onTelemetry(new Telemetry(
+        0, 10, 100, 80, true, QualityGovernor.THERMAL_STATUS_CRITICAL, 300, 0));
+    assertNotNull(decision);
+    assertEquals(5, decision.levelIndex);
+    assertEquals(Reason.THERMAL, decision.reason);
+  }
+
+  @Test
+  public void testLowBatteryCapsUnlessCharging() {
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    assertNull(governor.onTelemetry(new Telemetry(
+        0, 10, 100, 10, true, QualityGovernor.THERMAL_STATUS_NONE, 300, 0)));
+    Decision decision = governor.onTelemetry(new Telemetry(
+        1000, 10, 100, 10, false, QualityGovernor.THERMAL_STATUS_NONE, 300, 0));
+    assertNotNull(decision);
+    assertEquals(3, decision.levelIndex);
+    assertEquals(Reason.LOW_BATTERY, decision.reason);
+    // Headroom does not lift the cap.
+    List<Telemetry> trace = new ArrayList<>();
+    for (long timestampMs = 2000; timestampMs < 60000; timestampMs += 1000) {
+      trace.add(new Telemetry(
+          timestampMs, 10, 100, 10, false, QualityGovernor.THERMAL_STATUS_NONE, 300, 0));
+    }
+    assertTrue(governor.replay(trace).isEmpty());
+  }
+
+  @Test
+  public void testEncoderDropsStepDown() {
+    QualityGovernor governor = new QualityGovernor(LADDER, 0);
+    List<Telemetry> trace = new ArrayList<>();
+    for (long timestampMs = 0; timestampMs < 2000; timestampMs += 1000) {
+      trace.add(new Telemetry(
+          timestampMs, 40, 100, 80, true, QualityGovernor.THERMAL_STATUS_NONE, 300, 45));
+    }
+    List<Decision> decisions = governor.replay(trace);
+    assertEquals("1000:1", describe(decisions));
+    assertEquals(Reason.ENCODER_DROPS, decisions.get(0).reason);
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ *  Copyright 2019 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package io.antmedia.webrtcandroidframework.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+import io.antmedia.webrtcandroidframework.apprtc.UvcDeviceStateMachine.DeviceId;
+import io.antmedia.webrtcandroidframework.apprtc.UvcDeviceStateMachine.Format;
+import io.antmedia.webrtcandroidframework.apprtc.UvcDeviceStateMachine.State;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Drives the state machine with a simulated camera. */
+public class UvcDeviceStateMachineTest {
+  private static final int VENDOR_ID = 0x046d;
+  private static final int PRODUCT_ID = 0x0825;
+  private static final String SERIAL = "A1B2C3";
+  private static final Format YUYV_640 =
+      new Format(UvcDeviceStateMachine.FRAME_FORMAT_YUYV, 640, 480, 30);
+  private static final Format YUYV_1280 =
+      new Format(UvcDeviceStateMachine.FRAME_FORMAT_YUYV, 1280, 720, 10);
+  private static final Format MJPEG_1280 =
+      new Format(UvcDeviceStateMachine.FRAME_FORMAT_MJPEG, 1280, 720, 0);
+
+  // Records the calls of the state machine; each call is a line of |calls|.
+  private static class FakeBackend implements UvcDeviceStateMachine.Backend {
+    final List<String> calls = new ArrayList<>();
+    List<Format> formats = Arrays.asList(YUYV_640, YUYV_1280, MJPEG_1280);
+    final Set<Format> refusedFormats = new HashSet<>();
+    @Nullable String serialNumber = SERIAL;
+    int openFailures;
+    @Nullable DeviceId openDevice;
+
+    @Override
+    public void requestPermission(DeviceId device) {
+      calls.add("requestPermission " + device.deviceName);
+    }
+
+    @Override
+    public boolean open(DeviceId device) {
+      calls.add("open " + device.deviceName);
+      if (openFailures > 0) {
+        --openFailures;
+        return false;
+      }
+      openDevice = device;
+      return true;
+    }
+
+    @Override
+    @Nullable
+    public String readSerialNumber() {
+      return serialNumber;
+    }
+
+    @Override
+    public List<Format> readFormats() {
+      calls.add("readFormats");
+      return formats;
+    }
+
+    @Override
+    public boolean startStreaming(Format format) {
+      calls.add("startStreaming " + format);
+      return !refusedFormats.contains(format);
+    }
+
+    @Override
+    public void close() {
+      calls.add("close");
+      openDevice = null;
+    }
+
+    @Override
+    public void scheduleRetry(long delayMs) {
+      calls.add("scheduleRetry " + delayMs);
+    }
+
+    @Override
+    public void cancelRetry() {
+      calls.add("cancelRetry");
+    }
+
+    // Returns the calls since the last time and forgets them.
+    String takeCalls() {
+      final String result = calls.toString();
+      calls.clear();
+      return result;
+    }
+  }
+
+  private static class StreamingEvents implements UvcDeviceStateMachine.Events {
+    final List<String> streams = new ArrayList<>();
+
+    @Override
+    public void onStateChanged(State state, @Nullable DeviceId device) {}
+
+    @Override
+    public void onStreaming(DeviceId device, Format format, long openTimeMs,
+        boolean formatsCached) {
+      streams.add(device.deviceName + " " + format + " " + openTimeMs + " ms"
+          + (formatsCached ? " cached" : ""));
+    }
+  }
+
+  private FakeBackend backend;
+  private StreamingEvents events;
+  private UvcDeviceStateMachine stateMachine;
+
+  // Device names count up each time a device is plugged in.
+  private static DeviceId device(int number) {
+    return new DeviceId("/dev/bus/usb/001/00" + number, VENDOR_ID, PRODUCT_ID);
+  }
+
+  @Before
+  public void setUp() {
+    backend = new FakeBackend();
+    events = new StreamingEvents();
+    stateMachine = new UvcDeviceStateMachine(backend, events, 640, 480, 30);
+  }
+
+  @Test
+  public void testAttachOpenDetachReattach() {
+    stateMachine.onDeviceAttached(device(2), 1000);
+    assertEquals(State.WAITING_FOR_PERMISSION, stateMachine.getState());
+    assertEquals("[requestPermission /dev/bus/usb/001/002]", backend.takeCalls());
+
+    stateMachine.onPermissionResult(device(2), true, 1300);
+    assertEquals(State.STREAMING, stateMachine.getState());
+    assertEquals(device(2), stateMachine.getDevice());
+    assertEquals("[open /dev/bus/usb/001/002, readFormats, startStreaming YUYV 640x480@30]",
+        backend.takeCalls());
+    assertTrue(stateMachine.hasCachedFormats(VENDOR_ID, PRODUCT_ID, SERIAL));
+
+    stateMachine.onDeviceDetached(device(2), 5000);
+    assertEquals(State.NO_DEVICE, stateMachine.getState());
+    assertNull(stateMachine.getDevice());
+    assertEquals("[cancelRetry, close]", backend.takeCalls());
+
+    // Plugged in again under another device name: the formats are not read again.
+    stateMachine.onDeviceAttached(device(3), 8000);
+    stateMachine.onPermissionResult(device(3), true, 8200);
+    assertEquals(State.STREAMING, stateMachine.getState());
+    assertEquals("[requestPermission /dev/bus/usb/001/003, open /dev/bus/usb/001/003, "
+            + "startStreaming YUYV 640x480@30]",
+        backend.takeCalls());
+    assertEquals(Arrays.asList("/dev/bus/usb/001/002 YUYV 640x480@30 300 ms",
+                     "/dev/bus/usb/001/003 YUYV 640x480@30 200 ms cached"),
+        events.streams);
+  }
+
+  @Test
+  public void testCameraWithOtherSerialNumberReadsFormats() {
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    stateMachine.onDeviceDetached(device(2), 0);
+    backend.serialNumber = "OTHER";
+    stateMachine.onDeviceAttached(device(3), 0);
+    stateMachine.onPermissionResult(device(3), true, 0);
+    assertTrue(backend.calls.contains("readFormats"));
+    assertTrue(stateMachine.hasCachedFormats(VENDOR_ID, PRODUCT_ID, "OTHER"));
+    assertTrue(stateMachine.hasCachedFormats(VENDOR_ID, PRODUCT_ID, SERIAL));
+  }
+
+  @Test
+  public void testOpenFailureRetriesWithBackoffAndKeepsCache() {
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    stateMachine.onDeviceError(1000);
+    assertEquals(State.WAITING_TO_RETRY, stateMachine.getState());
+    backend.takeCalls();
+
+    backend.openFailures = 3;
+    final List<String> delays = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      final String calls = backend.takeCalls();
+      if (!calls.equals("[]")) {
+        delays.add(calls);
+      }
+      stateMachine.onRetry(2000 + i);
+      stateMachine.onPermissionResult(device(2), true, 2000 + i);
+    }
+    assertEquals(
+        Arrays.asList("[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+                + "scheduleRetry 500]",
+            "[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+                + "scheduleRetry 1000]",
+            "[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+                + "scheduleRetry 2000]"),
+        delays);
+    // The failed opens kept the formats, so the fourth open streams without reading them.
+    assertEquals(State.STREAMING, stateMachine.getState());
+    assertEquals("[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+            + "startStreaming YUYV 640x480@30]",
+        backend.takeCalls());
+    assertEquals("/dev/bus/usb/001/002 YUYV 640x480@30 1003 ms cached", events.streams.get(1));
+  }
+
+  @Test
+  public void testRefusedFormatsDropCache() {
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    stateMachine.onDeviceError(0);
+    backend.takeCalls();
+    backend.refusedFormats.addAll(backend.formats);
+    stateMachine.onRetry(0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    assertEquals(State.WAITING_TO_RETRY, stateMachine.getState());
+    assertFalse(stateMachine.hasCachedFormats(VENDOR_ID, PRODUCT_ID, SERIAL));
+    assertEquals("[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+            + "startStreaming YUYV 640x480@30, startStreaming MJPEG 1280x720, "
+            + "startStreaming YUYV 1280x720@10, close, scheduleRetry 500]",
+        backend.takeCalls());
+  }
+
+  @Test
+  public void testLastFormatIsTriedFirst() {
+    // YUYV 1280x720 is too slow, so MJPEG comes first.
+    backend.refusedFormats.add(YUYV_640);
+    backend.refusedFormats.add(MJPEG_1280);
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    assertEquals("[requestPermission /dev/bus/usb/001/002, open /dev/bus/usb/001/002, "
+            + "readFormats, startStreaming YUYV 640x480@30, startStreaming MJPEG 1280x720, "
+            + "startStreaming YUYV 1280x720@10]",
+        backend.takeCalls());
+    stateMachine.onDeviceError(0);
+    stateMachine.onRetry(0);
+    stateMachine.onPermissionResult(device(2), true, 0);
+    assertEquals("[close, scheduleRetry 250, requestPermission /dev/bus/usb/001/002, "
+            + "open /dev/bus/usb/001/002, startStreaming YUYV 1280x720@10]",
+        backend.takeCalls());
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetriesAndUsesNextCamera() {
+    final DeviceId other = new DeviceId("/dev/bus/usb/002/005", 0x1234, 0x5678);
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onDeviceAttached(other, 0);
+    backend.openFailures = Integer.MAX_VALUE;
+    stateMachine.onPermissionResult(device(2), true, 0);
+    for (int i = 0; i < 8; ++i) {
+      assertEquals(State.WAITING_TO_RETRY, stateMachine.getState());
+      stateMachine.onRetry(0);
+      stateMachine.onPermissionResult(device(2), true, 0);
+    }
+    assertEquals(State.WAITING_FOR_PERMISSION, stateMachine.getState());
+    assertEquals(other, stateMachine.getDevice());
+    assertTrue(backend.calls.contains("scheduleRetry 4000"));
+  }
+
+  @Test
+  public void testPermissionDeniedUsesNextCamera() {
+    final DeviceId other = new DeviceId("/dev/bus/usb/002/005", 0x1234, 0x5678);
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.onDeviceAttached(other, 0);
+    stateMachine.onPermissionResult(device(2), false, 0);
+    assertEquals(other, stateMachine.getDevice());
+    stateMachine.onPermissionResult(other, false, 0);
+    assertEquals(State.NO_DEVICE, stateMachine.getState());
+    assertEquals("[requestPermission /dev/bus/usb/001/002, "
+            + "requestPermission /dev/bus/usb/002/005]",
+        backend.takeCalls());
+  }
+
+  @Test
+  public void testStopIgnoresFurtherEvents() {
+    stateMachine.onDeviceAttached(device(2), 0);
+    stateMachine.stop();
+    stateMachine.onPermissionResult(device(2), true, 0);
+    stateMachine.onDeviceAttached(device(3), 0);
+    assertEquals(State.STOPPED, stateMachine.getState());
+    assertEquals("[requestPermission /dev/bus/usb/001/002, cancelRetry, close]",
+        backend.takeCalls());
+    assertNull(backend.openDevice);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompositorFrameSchedulerTest {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private CompositorFrameScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    // One composite per 50 ms.
+    scheduler = new CompositorFrameScheduler(20);
+    scheduler.addStream();
+    scheduler.addStream();
+    scheduler.setMaxFps(0, Float.POSITIVE_INFINITY);
+    scheduler.setMaxFps(1, Float.POSITIVE_INFINITY);
+  }
+
+  @Test
+  public void testNothingToCompositeWithoutFrames() {
+    assertEquals(Long.MAX_VALUE, scheduler.getCompositeDelayNs(0));
+  }
+
+  @Test
+  public void testCompositeRateIsLimited() {
+    assertTrue(scheduler.onFrame(0, 0));
+    assertEquals(0, scheduler.getCompositeDelayNs(0));
+    scheduler.onComposited(0);
+
+    assertTrue(scheduler.onFrame(0, 10 * MS));
+    assertEquals(40 * MS, scheduler.getCompositeDelayNs(10 * MS));
+    assertEquals(0, scheduler.getCompositeDelayNs(50 * MS));
+    scheduler.onComposited(50 * MS);
+    assertEquals(Long.MAX_VALUE, scheduler.getCompositeDelayNs(60 * MS));
+  }
+
+  @Test
+  public void testInvalidateForcesComposite() {
+    scheduler.invalidate();
+    assertEquals(0, scheduler.getCompositeDelayNs(0));
+  }
+
+  @Test
+  public void testPerStreamFrameRateLimit() {
+    scheduler.setMaxFps(1, 10);
+    int accepted = 0;
+    // 30 fps input for one second.
+    for (int i = 0; i < 30; ++i) {
+      if (scheduler.onFrame(1, i * 1000 * MS / 30)) {
+        ++accepted;
+      }
+    }
+    assertEquals(10, accepted);
+    assertEquals(10, scheduler.getAcceptedFrames(1));
+    assertEquals(20, scheduler.getDroppedFrames(1));
+  }
+
+  @Test
+  public void testLayoutDropsFramesOfHiddenTiles() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.GRID, 0, 1, 16);
+    scheduler.applyLayout(layout.compute(640, 480, 2, 0), 30, 15);
+
+    assertTrue(scheduler.onFrame(0, 0));
+    assertFalse(scheduler.onFrame(1, 0));
+    assertFalse(scheduler.onFrame(1, 1000 * MS));
+    assertEquals(2, scheduler.getDroppedFrames(1));
+  }
+
+  @Test
+  public void testLayoutSetsPrimaryAndThumbnailRates() {
+    CompositorLayout layout =
+        new CompositorLayout(CompositorLayout.Mode.ACTIVE_SPEAKER, 0, 9, 16);
+    scheduler.applyLayout(layout.compute(640, 480, 2, 0), 60, 10);
+
+    int primaryFrames = 0;
+    int thumbnailFrames = 0;
+    for (int i = 0; i < 30; ++i) {
+      final long timeNs = i * 1000 * MS / 30;
+      primaryFrames += scheduler.onFrame(0, timeNs) ? 1 : 0;
+      thumbnailFrames += scheduler.onFrame(1, timeNs) ? 1 : 0;
+    }
+    assertEquals(30, primaryFrames);
+    assertEquals(10, thumbnailFrames);
+  }
+
+  @Test
+  public void testRemoveStreamShiftsIndices() {
+    scheduler.setMaxFps(1, 0);
+    scheduler.removeStream(0);
+    assertEquals(1, scheduler.getStreamCount());
+    assertFalse(scheduler.onFrame(0, 0));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class CompositorLayoutTest {
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int GAP = 4;
+
+  private static void assertTile(
+      CompositorLayout.Tile tile, int x, int y, int width, int height) {
+    assertTrue(tile.toString(), tile.visible);
+    assertEquals(tile.toString(), x, tile.x);
+    assertEquals(tile.toString(), y, tile.y);
+    assertEquals(tile.toString(), width, tile.width);
+    assertEquals(tile.toString(), height, tile.height);
+  }
+
+  @Test
+  public void testGridOfFour() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.GRID, GAP, 9, 16);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 4, 0);
+
+    assertEquals(4, tiles.size());
+    final int tileWidth = (WIDTH - GAP) / 2;
+    final int tileHeight = (HEIGHT - GAP) / 2;
+    assertTile(tiles.get(0), 0, 0, tileWidth, tileHeight);
+    assertTile(tiles.get(1), tileWidth + GAP, 0, tileWidth, tileHeight);
+    assertTile(tiles.get(2), 0, tileHeight + GAP, tileWidth, tileHeight);
+    assertTile(tiles.get(3), tileWidth + GAP, tileHeight + GAP, tileWidth, tileHeight);
+    for (CompositorLayout.Tile tile : tiles) {
+      assertFalse(tile.primary);
+    }
+  }
+
+  @Test
+  public void testGridHidesStreamsBeyondMaximum() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.GRID, GAP, 4, 16);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 6, 0);
+
+    assertEquals(6, tiles.size());
+    for (int i = 0; i < 6; ++i) {
+      assertEquals(i, tiles.get(i).streamIndex);
+      assertEquals(i < 4, tiles.get(i).visible);
+    }
+  }
+
+  @Test
+  public void testActiveSpeakerLayout() {
+    CompositorLayout layout =
+        new CompositorLayout(CompositorLayout.Mode.ACTIVE_SPEAKER, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 3, 1);
+
+    final int primaryHeight = (int) (HEIGHT * 0.75f);
+    assertTile(tiles.get(1), 0, 0, WIDTH, primaryHeight);
+    assertTrue(tiles.get(1).primary);
+    final int thumbnailWidth = (WIDTH - GAP) / 2;
+    final int stripY = primaryHeight + GAP;
+    assertTile(tiles.get(0), 0, stripY, thumbnailWidth, HEIGHT - stripY);
+    assertTile(tiles.get(2), thumbnailWidth + GAP, stripY, thumbnailWidth, HEIGHT - stripY);
+  }
+
+  @Test
+  public void testActiveSpeakerHidesThumbnailsThatDoNotFit() {
+    CompositorLayout layout =
+        new CompositorLayout(CompositorLayout.Mode.ACTIVE_SPEAKER, GAP, 9, 170);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 10, 0);
+
+    int visibleThumbnails = 0;
+    for (CompositorLayout.Tile tile : tiles) {
+      if (tile.visible && !tile.primary) {
+        ++visibleThumbnails;
+        assertTrue(tile.width >= 170);
+      }
+    }
+    // Seven 170 px thumbnails with gaps fit into 1280 px, eight do not.
+    assertEquals(7, visibleThumbnails);
+  }
+
+  @Test
+  public void testSingleStreamFillsSurface() {
+    CompositorLayout layout =
+        new CompositorLayout(CompositorLayout.Mode.ACTIVE_SPEAKER, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 1, 0);
+
+    assertEquals(1, tiles.size());
+    assertTile(tiles.get(0), 0, 0, WIDTH, HEIGHT);
+  }
+
+  @Test
+  public void testPipThumbnailsOnTopOfPrimary() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.PIP, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 3, 2);
+
+    // The primary stream is drawn first.
+    assertEquals(2, tiles.get(0).streamIndex);
+    assertTrue(tiles.get(0).primary);
+    assertTile(tiles.get(0), 0, 0, WIDTH, HEIGHT);
+    final int pipWidth = WIDTH / 4;
+    final int pipHeight = HEIGHT / 4;
+    assertEquals(0, tiles.get(1).streamIndex);
+    assertTile(tiles.get(1), WIDTH - GAP - pipWidth, HEIGHT - GAP - pipHeight, pipWidth,
+        pipHeight);
+    assertEquals(1, tiles.get(2).streamIndex);
+    assertTile(tiles.get(2), WIDTH - GAP - pipWidth, HEIGHT - 2 * (GAP + pipHeight), pipWidth,
+        pipHeight);
+  }
+
+  @Test
+  public void testPipHidesThumbnailsOnSmallSurface() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.PIP, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(320, 240, 3, 0);
+
+    assertTrue(tiles.get(0).visible);
+    assertFalse(tiles.get(1).visible);
+    assertFalse(tiles.get(2).visible);
+  }
+
+  @Test
+  public void testPipStopsWhenThumbnailsReachTheTop() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.PIP, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 6, 0);
+
+    int visibleThumbnails = 0;
+    for (CompositorLayout.Tile tile : tiles) {
+      if (tile.visible && !tile.primary) {
+        ++visibleThumbnails;
+        assertTrue(tile.y >= GAP);
+      }
+    }
+    assertEquals(3, visibleThumbnails);
+  }
+
+  @Test
+  public void testInvalidPrimaryFallsBackToFirstStream() {
+    CompositorLayout layout =
+        new CompositorLayout(CompositorLayout.Mode.ACTIVE_SPEAKER, GAP, 9, 100);
+    List<CompositorLayout.Tile> tiles = layout.compute(WIDTH, HEIGHT, 2, 5);
+
+    assertTrue(tiles.get(0).primary);
+  }
+
+  @Test
+  public void testNoStreams() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.GRID, GAP, 9, 16);
+    assertTrue(layout.compute(WIDTH, HEIGHT, 0, 0).isEmpty());
+  }
+
+  @Test
+  public void testZeroSizedSurfaceHidesAllTiles() {
+    CompositorLayout layout = new CompositorLayout(CompositorLayout.Mode.GRID, 0, 9, 0);
+    for (CompositorLayout.Tile tile : layout.compute(0, 0, 4, 0)) {
+      assertFalse(tile.visible);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaFormat;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EncoderCalibratorTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int FRAMERATE = 30;
+  private static final int BITRATE_BPS = 240000;
+  // Output frame size that hits BITRATE_BPS exactly.
+  private static final int FRAME_SIZE_AT_TARGET = BITRATE_BPS / 8 / FRAMERATE;
+  private static final int FRAME_COUNT = 30;
+  private static final String CODEC_NAME = "OMX.fake.avc.encoder";
+  private static final int COLOR_FORMAT = 21;
+
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock(1000);
+  }
+
+  private EncoderCalibrator createCalibrator(final MediaCodecWrapper codec) {
+    MediaCodecWrapperFactory factory = new MediaCodecWrapperFactory() {
+      @Override
+      public MediaCodecWrapper createByCodecName(String name) {
+        return codec;
+      }
+    };
+    return createCalibrator(factory);
+  }
+
+  private EncoderCalibrator createCalibrator(MediaCodecWrapperFactory factory) {
+    return new EncoderCalibrator(
+        factory, clock, WIDTH, HEIGHT, FRAMERATE, BITRATE_BPS, FRAME_COUNT) {
+      @Override
+      MediaFormat createFormat(VideoCodecType codecType, int yuvColorFormat) {
+        return null;
+      }
+    };
+  }
+
+  private FakeMediaCodecWrapper createCodec(long encodeTimeMs, int outputFrameSize) {
+    return new FakeMediaCodecWrapper(
+        clock, WIDTH * HEIGHT * 3 / 2, encodeTimeMs, outputFrameSize);
+  }
+
+  @Test
+  public void testFastEncoderAtTargetBitrate() {
+    FakeMediaCodecWrapper codec = createCodec(10, FRAME_SIZE_AT_TARGET);
+    EncoderCalibrator.Result result =
+        createCalibrator(codec).calibrate(CODEC_NAME, VideoCodecType.H264, COLOR_FORMAT);
+
+    assertTrue(result.succeeded);
+    assertEquals(CODEC_NAME, result.codecName);
+    assertEquals(VideoCodecType.H264, result.codecType);
+    // 10 ms per frame is three times faster than real time.
+    assertTrue(result.throughputRatio > 2.5);
+    assertEquals(1.0, result.bitrateAccuracy, 1e-3);
+  }
+
+  @Test
+  public void testSlowEncoderHasLowThroughput() {
+    FakeMediaCodecWrapper codec = createCodec(66, FRAME_SIZE_AT_TARGET);
+    EncoderCalibrator.Result result =
+        createCalibrator(codec).calibrate(CODEC_NAME, VideoCodecType.H264, COLOR_FORMAT);
+
+    assertTrue(result.succeeded);
+    assertEquals(0.5, result.throughputRatio, 0.05);
+  }
+
+  @Test
+  public void testBitrateOvershootLowersAccuracy() {
+    FakeMediaCodecWrapper codec = createCodec(10, FRAME_SIZE_AT_TARGET * 3 / 2);
+    EncoderCalibrator.Result result =
+        createCalibrator(codec).calibrate(CODEC_NAME, VideoCodecType.H264, COLOR_FORMAT);
+
+    assertTrue(result.succeeded);
+    assertEquals(0.5, result.bitrateAccuracy, 1e-2);
+  }
+
+  @Test
+  public void testHungEncoderFailsAfterStall() {
+    FakeMediaCodecWrapper codec = createCodec(10, FRAME_SIZE_AT_TARGET);
+    codec.setProducesOutput(false);
+    EncoderCalibrator.Result result =
+        createCalibrator(codec).calibrate(CODEC_NAME, VideoCodecType.H264, COLOR_FORMAT);
+
+    assertFalse(result.succeeded);
+    assertTrue(codec.isReleased());
+  }
+
+  @Test
+  public void testCodecIsStoppedAndReleased() {
+    FakeMediaCodecWrapper codec = createCodec(10, FRAME_SIZE_AT_TARGET);
+    createCalibrator(codec).calibrate(CODEC_NAME, VideoCodecType.H264, COLOR_FORMAT);
+
+    assertFalse(codec.isStarted());
+    assertTrue(codec.isReleased());
+  }
+
+  @Test
+  public void testCreationFailure() {
+    MediaCodecWrapperFactory factory = new MediaCodecWrapperFactory() {
+      @Override
+      public MediaCodecWrapper createByCodecName(String name) throws IOException {
+        throw new IOException("No such codec");
+      }
+    };
+    EncoderCalibrator.Result result =
+        createCalibrator(factory).calibrate(CODEC_NAME, VideoCodecType.VP8, COLOR_FORMAT);
+
+    assertFalse(result.succeeded);
+    assertEquals(0, result.throughputRatio, 0);
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+/** Clock that only moves when told to, for both monotonic and wall clock users. */
+class FakeClock implements EncoderCalibrator.Clock, HardwareEncoderRanking.Clock {
+  private long nowMs;
+
+  FakeClock(long startMs) {
+    nowMs = startMs;
+  }
+
+  void advance(long ms) {
+    nowMs += ms;
+  }
+
+  @Override
+  public long elapsedRealtimeMs() {
+    return nowMs;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return nowMs;
+  }
+}
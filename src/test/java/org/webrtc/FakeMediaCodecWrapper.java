@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.view.Surface;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Fake encoder in byte buffer mode that runs on a {@link FakeClock}. Each queued frame comes out
+ * after |encodeTimeMs|, one frame at a time, with |outputFrameSize| bytes. Waiting in a dequeue
+ * call advances the clock by the timeout.
+ */
+class FakeMediaCodecWrapper implements MediaCodecWrapper {
+  private static final int INPUT_BUFFER_COUNT = 4;
+
+  private final FakeClock clock;
+  private final long encodeTimeMs;
+  private final int outputFrameSize;
+  private final ByteBuffer[] inputBuffers = new ByteBuffer[INPUT_BUFFER_COUNT];
+  private final ArrayDeque<Integer> freeInputBuffers = new ArrayDeque<>();
+  // Input buffer indices and the times their outputs are ready, in queue order.
+  private final ArrayDeque<long[]> pendingFrames = new ArrayDeque<>();
+  private boolean producesOutput = true;
+  private boolean isStarted;
+  private boolean isReleased;
+  private long lastOutputReadyMs;
+
+  FakeMediaCodecWrapper(
+      FakeClock clock, int inputFrameSize, long encodeTimeMs, int outputFrameSize) {
+    this.clock = clock;
+    this.encodeTimeMs = encodeTimeMs;
+    this.outputFrameSize = outputFrameSize;
+    for (int i = 0; i < INPUT_BUFFER_COUNT; ++i) {
+      inputBuffers[i] = ByteBuffer.allocate(inputFrameSize);
+    }
+  }
+
+  /** Makes the codec swallow all frames, like a hung driver. */
+  void setProducesOutput(boolean producesOutput) {
+    this.producesOutput = producesOutput;
+  }
+
+  boolean isStarted() {
+    return isStarted;
+  }
+
+  boolean isReleased() {
+    return isReleased;
+  }
+
+  @Override
+  public void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {}
+
+  @Override
+  public void start() {
+    isStarted = true;
+    for (int i = 0; i < INPUT_BUFFER_COUNT; ++i) {
+      freeInputBuffers.add(i);
+    }
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void stop() {
+    isStarted = false;
+  }
+
+  @Override
+  public void release() {
+    isReleased = true;
+  }
+
+  @Override
+  public int dequeueInputBuffer(long timeoutUs) {
+    if (freeInputBuffers.isEmpty()) {
+      // Input buffers only come back with their output.
+      clock.advance(timeoutUs / 1000);
+    }
+    return freeInputBuffers.isEmpty() ? MediaCodec.INFO_TRY_AGAIN_LATER : freeInputBuffers.poll();
+  }
+
+  @Override
+  public void queueInputBuffer(
+      int index, int offset, int size, long presentationTimeUs, int flags) {
+    if (!producesOutput) {
+      return;
+    }
+    final long readyMs = Math.max(clock.elapsedRealtimeMs(), lastOutputReadyMs) + encodeTimeMs;
+    lastOutputReadyMs = readyMs;
+    pendingFrames.add(new long[] {index, readyMs});
+  }
+
+  @Override
+  public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+    final long[] next = pendingFrames.peek();
+    if (next == null || !waitUntil(next[1], timeoutUs)) {
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+    pendingFrames.poll();
+    freeInputBuffers.add((int) next[0]);
+    // Assigned directly, since BufferInfo.set() is a stub in JVM tests.
+    info.offset = 0;
+    info.size = outputFrameSize;
+    info.presentationTimeUs = 0;
+    info.flags = 0;
+    return 0;
+  }
+
+  @Override
+  public void releaseOutputBuffer(int index, boolean render) {}
+
+  @Override
+  public MediaFormat getOutputFormat() {
+    return null;
+  }
+
+  @Override
+  public ByteBuffer[] getInputBuffers() {
+    return inputBuffers;
+  }
+
+  @Override
+  public ByteBuffer[] getOutputBuffers() {
+    return new ByteBuffer[0];
+  }
+
+  @Override
+  public Surface createInputSurface() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setParameters(Bundle params) {}
+
+  // Waits up to |timeoutUs| for the time |readyMs|; returns whether it was reached.
+  private boolean waitUntil(long readyMs, long timeoutUs) {
+    final long nowMs = clock.elapsedRealtimeMs();
+    if (readyMs <= nowMs) {
+      return true;
+    }
+    if (readyMs - nowMs > timeoutUs / 1000) {
+      clock.advance(timeoutUs / 1000);
+      return false;
+    }
+    clock.advance(readyMs - nowMs);
+    return true;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HardwareEncoderRankingTest {
+  private static final int MAX_ERRORS = 3;
+  private static final int MAX_SLOW_FRAMES = 5;
+  private static final long LATENCY_BUDGET_MS = 100;
+  private static final long EXPIRY_MS = 60000;
+  private static final String QCOM = "OMX.qcom.video.encoder.avc";
+  private static final String EXYNOS = "OMX.Exynos.AVC.Encoder";
+  private static final List<String> CANDIDATES = Arrays.asList(QCOM, EXYNOS);
+
+  private FakeClock clock;
+  private HardwareEncoderRanking.InMemoryStorage storage;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock(1000000);
+    storage = new HardwareEncoderRanking.InMemoryStorage();
+  }
+
+  private HardwareEncoderRanking createRanking() {
+    return new HardwareEncoderRanking(
+        storage, MAX_ERRORS, MAX_SLOW_FRAMES, LATENCY_BUDGET_MS, EXPIRY_MS, clock);
+  }
+
+  private static EncoderCalibrator.Result calibration(
+      String name, double throughputRatio, double bitrateAccuracy) {
+    return new EncoderCalibrator.Result(
+        name, VideoCodecType.H264, true, throughputRatio, bitrateAccuracy);
+  }
+
+  @Test
+  public void testUncalibratedKeepsPlatformOrder() {
+    assertEquals(QCOM, createRanking().selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testSelectsHighestScore() {
+    HardwareEncoderRanking ranking = createRanking();
+    ranking.reportCalibration(calibration(QCOM, 0.5, 0.9));
+    ranking.reportCalibration(calibration(EXYNOS, 1.5, 0.9));
+
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testConsecutiveErrorsDemote() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS - 1; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.H264);
+    }
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+
+    ranking.reportError(QCOM, VideoCodecType.H264);
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testEncodedFrameResetsErrors() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS * 2; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.H264);
+      ranking.reportEncodedFrame(QCOM, VideoCodecType.H264, 10);
+    }
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testSlowFramesDemote() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_SLOW_FRAMES; ++i) {
+      ranking.reportEncodedFrame(QCOM, VideoCodecType.H264, LATENCY_BUDGET_MS + 1);
+    }
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testAllDemotedReturnsNull() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.H264);
+      ranking.reportError(EXYNOS, VideoCodecType.H264);
+    }
+    assertNull(ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testDemotionExpires() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.H264);
+    }
+    clock.advance(EXPIRY_MS - 1);
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+
+    clock.advance(1);
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+    // The expiry is persisted too.
+    assertEquals(QCOM, createRanking().selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testDemotionIsPersistedWithItsTime() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.H264);
+    }
+    clock.advance(EXPIRY_MS / 2);
+    HardwareEncoderRanking restored = createRanking();
+    assertEquals(EXYNOS, restored.selectEncoder(VideoCodecType.H264, CANDIDATES));
+
+    clock.advance(EXPIRY_MS / 2);
+    assertEquals(QCOM, restored.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testScoresArePersisted() {
+    HardwareEncoderRanking ranking = createRanking();
+    ranking.reportCalibration(calibration(EXYNOS, 1.0, 1.0));
+    ranking.reportCalibration(calibration(QCOM, 0.2, 0.2));
+
+    assertEquals(EXYNOS, createRanking().selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testLegacyDemotionExpiresFromLoadTime() {
+    storage.save("H264/" + QCOM + ";0.5;true\n");
+    HardwareEncoderRanking ranking = createRanking();
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+
+    clock.advance(EXPIRY_MS);
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testMalformedEntriesAreIgnored() {
+    storage.save("H264/" + QCOM + ";abc;true;0\nNOPE/" + EXYNOS + ";1;false;0\ngarbage\n");
+    assertEquals(QCOM, createRanking().selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testFailedCalibrationDemotesAndNewCalibrationRestores() {
+    HardwareEncoderRanking ranking = createRanking();
+    ranking.reportCalibration(EncoderCalibrator.Result.failed(QCOM, VideoCodecType.H264));
+    assertEquals(EXYNOS, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+
+    ranking.reportCalibration(calibration(QCOM, 1.0, 1.0));
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+  }
+
+  @Test
+  public void testCodecTypesAreRankedSeparately() {
+    HardwareEncoderRanking ranking = createRanking();
+    for (int i = 0; i < MAX_ERRORS; ++i) {
+      ranking.reportError(QCOM, VideoCodecType.VP8);
+    }
+    assertEquals(QCOM, ranking.selectEncoder(VideoCodecType.H264, CANDIDATES));
+    assertFalse(ranking.selectEncoder(VideoCodecType.VP8, CANDIDATES).equals(QCOM));
+  }
+
+  @Test
+  public void testScoreWeights() {
+    assertEquals(1.0, HardwareEncoderRanking.computeScore(2.0, 1.0), 1e-9);
+    assertEquals(0.0, HardwareEncoderRanking.computeScore(0.0, -1.0), 1e-9);
+    assertTrue(HardwareEncoderRanking.computeScore(1.0, 0.0)
+        > HardwareEncoderRanking.computeScore(0.0, 1.0));
+  }
+}
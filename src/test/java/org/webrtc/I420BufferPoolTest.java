@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class I420BufferPoolTest {
+  @Test
+  public void testPlaneLayout() {
+    I420BufferPool pool = new I420BufferPool(2);
+    JavaI420Buffer buffer = pool.acquire(5, 3);
+    assertEquals(5, buffer.getWidth());
+    assertEquals(3, buffer.getHeight());
+    assertEquals(5, buffer.getStrideY());
+    assertEquals(3, buffer.getStrideU());
+    assertEquals(3, buffer.getStrideV());
+    assertEquals(15, buffer.getDataY().capacity());
+    assertEquals(6, buffer.getDataU().capacity());
+    assertEquals(6, buffer.getDataV().capacity());
+    buffer.release();
+  }
+
+  @Test
+  public void testReusesReleasedMemory() {
+    I420BufferPool pool = new I420BufferPool(2);
+    JavaI420Buffer first = pool.acquire(64, 48);
+    JavaI420Buffer second = pool.acquire(64, 48);
+    first.getDataY().put(0, (byte) 42);
+    first.release();
+    second.release();
+    JavaI420Buffer reused = pool.acquire(64, 48);
+    assertEquals(42, reused.getDataY().get(0));
+    pool.acquire(64, 48).release();
+    reused.release();
+    assertEquals(2, pool.getAllocationCount());
+    assertEquals(0, pool.getMissCount());
+  }
+
+  @Test
+  public void testTransposedSizeReusesMemory() {
+    I420BufferPool pool = new I420BufferPool(1);
+    pool.acquire(64, 48).release();
+    JavaI420Buffer rotated = pool.acquire(48, 64);
+    assertEquals(48, rotated.getStrideY());
+    assertEquals(24, rotated.getStrideU());
+    assertEquals(48 * 64, rotated.getDataY().capacity());
+    assertEquals(24 * 32, rotated.getDataU().capacity());
+    rotated.release();
+    assertEquals(1, pool.getAllocationCount());
+  }
+
+  @Test
+  public void testSamePoolSizeWithOtherPlaneSizes() {
+    // Both 20 bytes in total: 3x4 has planes of 12, 4 and 4 bytes, 1x10 of 10, 5 and 5.
+    I420BufferPool pool = new I420BufferPool(1);
+    pool.acquire(3, 4).release();
+    JavaI420Buffer buffer = pool.acquire(1, 10);
+    assertEquals(10, buffer.getDataY().capacity());
+    assertEquals(5, buffer.getDataU().capacity());
+    assertEquals(5, buffer.getDataV().capacity());
+    buffer.release();
+    JavaI420Buffer other = pool.acquire(3, 4);
+    assertEquals(12, other.getDataY().capacity());
+    assertEquals(4, other.getDataU().capacity());
+    other.release();
+    assertEquals(1, pool.getAllocationCount());
+  }
+
+  @Test
+  public void testMissesBeyondPoolSize() {
+    I420BufferPool pool = new I420BufferPool(1);
+    JavaI420Buffer pooled = pool.acquire(16, 16);
+    JavaI420Buffer unpooled = pool.acquire(16, 16);
+    assertEquals(1, pool.getMissCount());
+    assertEquals(2, pool.getAllocationCount());
+    pooled.release();
+    unpooled.release();
+    pool.acquire(16, 16).release();
+    pool.acquire(16, 16).release();
+    assertEquals(1, pool.getMissCount());
+    assertEquals(2, pool.getAllocationCount());
+  }
+
+  @Test
+  public void testStartsOverAfterTooManySizes() {
+    I420BufferPool pool = new I420BufferPool(2);
+    JavaI420Buffer old = pool.acquire(16, 16);
+    for (int size = 18; size <= 24; size += 2) {
+      pool.acquire(size, size).release();
+    }
+    assertEquals(5, pool.getAllocationCount());
+    // Released after the pool started over, so not pooled again.
+    old.release();
+    pool.acquire(16, 16).release();
+    assertEquals(6, pool.getAllocationCount());
+    assertEquals(0, pool.getMissCount());
+  }
+
+  @Test
+  public void testDisposeStopsPooling() {
+    I420BufferPool pool = new I420BufferPool(2);
+    JavaI420Buffer buffer = pool.acquire(16, 16);
+    pool.dispose();
+    buffer.release();
+    pool.acquire(16, 16).release();
+    pool.acquire(16, 16).release();
+    assertEquals(3, pool.getAllocationCount());
+    assertEquals(0, pool.getMissCount());
+  }
+
+  @Test
+  public void testReleaseOnAnotherThread() throws InterruptedException {
+    I420BufferPool pool = new I420BufferPool(1);
+    final JavaI420Buffer buffer = pool.acquire(16, 16);
+    Thread thread = new Thread(buffer::release);
+    thread.start();
+    thread.join();
+    pool.acquire(16, 16).release();
+    assertEquals(1, pool.getAllocationCount());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** Stamps frames and reads them back with the detector, as the receiver would. */
+public class LumaTimestampStamperTest {
+  // Gray frame of |width| x |height| with |padding| extra bytes at the end of each row.
+  private static JavaI420Buffer createBuffer(int width, int height, int padding) {
+    final int strideY = width + padding;
+    final int chromaWidth = (width + 1) / 2;
+    final int strideUV = chromaWidth + padding;
+    final int chromaHeight = (height + 1) / 2;
+    final ByteBuffer dataY = fill(ByteBuffer.allocateDirect(strideY * height), (byte) 128);
+    final ByteBuffer dataU = fill(ByteBuffer.allocateDirect(strideUV * chromaHeight), (byte) 90);
+    final ByteBuffer dataV = fill(ByteBuffer.allocateDirect(strideUV * chromaHeight), (byte) 200);
+    return JavaI420Buffer.wrap(width, height, dataY, strideY, dataU, strideUV, dataV, strideUV,
+        /* releaseCallback= */ null);
+  }
+
+  private static ByteBuffer fill(ByteBuffer buffer, byte value) {
+    for (int i = 0; i < buffer.capacity(); ++i) {
+      buffer.put(i, value);
+    }
+    return buffer;
+  }
+
+  // Halves the frame by averaging 2x2 pixels, like a scaler would.
+  private static JavaI420Buffer halve(VideoFrame.I420Buffer buffer) {
+    final JavaI420Buffer output = createBuffer(buffer.getWidth() / 2, buffer.getHeight() / 2, 0);
+    final ByteBuffer source = buffer.getDataY();
+    final ByteBuffer destination = output.getDataY();
+    final int stride = buffer.getStrideY();
+    for (int y = 0; y < output.getHeight(); ++y) {
+      for (int x = 0; x < output.getWidth(); ++x) {
+        final int sum = (source.get(2 * y * stride + 2 * x) & 0xFF)
+            + (source.get(2 * y * stride + 2 * x + 1) & 0xFF)
+            + (source.get((2 * y + 1) * stride + 2 * x) & 0xFF)
+            + (source.get((2 * y + 1) * stride + 2 * x + 1) & 0xFF);
+        destination.put(y * output.getStrideY() + x, (byte) (sum / 4));
+      }
+    }
+    return output;
+  }
+
+  @Test
+  public void testCodeRoundTrip() {
+    JavaI420Buffer buffer = createBuffer(640, 360, 0);
+    assertTrue(LumaTimestampCode.write(buffer, 123456, 1570000000123L));
+    long[] code = new long[2];
+    assertTrue(LumaTimestampCode.read(buffer, code));
+    assertEquals(123456, code[0]);
+    assertEquals(1570000000123L, code[1]);
+    buffer.release();
+  }
+
+  @Test
+  public void testCodeSurvivesPaddedRowsAndScaling() {
+    JavaI420Buffer buffer = createBuffer(1280, 720, 64);
+    assertTrue(LumaTimestampCode.write(buffer, 7, 42));
+    JavaI420Buffer scaled = halve(buffer);
+    long[] code = new long[2];
+    assertTrue(LumaTimestampCode.read(scaled, code));
+    assertEquals(7, code[0]);
+    assertEquals(42, code[1]);
+    buffer.release();
+    scaled.release();
+  }
+
+  @Test
+  public void testUnstampedOrCorruptedFrameIsRejected() {
+    JavaI420Buffer buffer = createBuffer(640, 360, 0);
+    long[] code = new long[2];
+    assertFalse(LumaTimestampCode.read(buffer, code));
+    LumaTimestampCode.write(buffer, 1, 2);
+    // Invert a block of the time, so the CRC no longer matches.
+    final double blockSize = LumaTimestampCode.getBlockSize(640, 360);
+    final int x = (int) Math.round(5 * blockSize);
+    final int y = (int) Math.round(4 * blockSize);
+    final ByteBuffer dataY = buffer.getDataY();
+    for (int dy = 0; dy < (int) blockSize; ++dy) {
+      for (int dx = 0; dx < (int) blockSize; ++dx) {
+        final int index = (y + dy) * buffer.getStrideY() + x + dx;
+        dataY.put(index, (byte) (251 - (dataY.get(index) & 0xFF)));
+      }
+    }
+    assertFalse(LumaTimestampCode.read(buffer, code));
+    buffer.release();
+  }
+
+  @Test
+  public void testStamperAndDetector() {
+    final LumaTimestampStamper stamper = new LumaTimestampStamper();
+    final List<VideoFrame> received = new ArrayList<>();
+    final List<Long> lost = new ArrayList<>();
+    LumaTimestampDetector detector = new LumaTimestampDetector(received::add);
+    detector.setListener((frameCounter, captureTimeMs, latencyMs, framesLost) -> {
+      assertTrue(latencyMs >= 0 && latencyMs < 1000);
+      lost.add(framesLost);
+    });
+    for (int i = 0; i < 5; ++i) {
+      JavaI420Buffer buffer = createBuffer(320, 240, 16);
+      stamper.stamp(buffer);
+      VideoFrame frame = new VideoFrame(buffer, 0, i);
+      // Frame 2 is lost on the way.
+      if (i != 2) {
+        detector.onFrame(frame);
+      }
+      frame.release();
+    }
+    assertEquals(5, stamper.getFrameCount());
+    assertEquals(4, received.size());
+    assertEquals(4, detector.getFramesDetected());
+    assertEquals(1, detector.getFramesLost());
+    assertEquals("[0, 0, 1, 0]", lost.toString());
+  }
+
+  @Test
+  public void testDetectorCountsDuplicates() {
+    LumaTimestampStamper stamper = new LumaTimestampStamper();
+    LumaTimestampDetector detector = new LumaTimestampDetector(null);
+    JavaI420Buffer buffer = createBuffer(320, 240, 0);
+    stamper.stamp(buffer);
+    VideoFrame frame = new VideoFrame(buffer, 0, 0);
+    detector.onFrame(frame);
+    detector.onFrame(frame);
+    frame.release();
+    assertEquals(2, detector.getFramesDetected());
+    assertEquals(1, detector.getFramesDuplicated());
+    assertEquals(0, detector.getFramesLost());
+  }
+
+  @Test
+  public void testTooSmallFrameIsNotStamped() {
+    LumaTimestampStamper stamper = new LumaTimestampStamper();
+    JavaI420Buffer buffer = createBuffer(32, 8, 0);
+    stamper.stamp(buffer);
+    assertEquals(0, stamper.getFrameCount());
+    LumaTimestampDetector detector = new LumaTimestampDetector(null);
+    VideoFrame frame = new VideoFrame(buffer, 0, 0);
+    detector.onFrame(frame);
+    frame.release();
+    assertEquals(1, detector.getFramesReceived());
+    assertEquals(0, detector.getFramesDetected());
+  }
+}
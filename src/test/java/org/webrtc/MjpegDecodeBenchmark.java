@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes a recorded MJPEG stream with {@link MjpegDecoder} on one and more threads, the way
+ * {@link MjpegVideoCapturer} does, and prints the framerate each reaches. Runs on a desktop JVM,
+ * since the decoder has no Android dependencies:
+ *
+ * <pre>
+ * ffmpeg -f v4l2 -input_format mjpeg -video_size 1920x1080 -i /dev/video0 -t 10 -c copy \
+ *     -f mjpeg stream.mjpeg
+ * javac -d /tmp/mjpeg src/main/java/org/webrtc/MjpegDecoder.java \
+ *     src/test/java/org/webrtc/MjpegDecodeBenchmark.java
+ * java -cp /tmp/mjpeg org.webrtc.MjpegDecodeBenchmark stream.mjpeg [maxThreads] [passes]
+ * </pre>
+ */
+class MjpegDecodeBenchmark {
+  private static final int DEFAULT_PASSES = 5;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("Usage: MjpegDecodeBenchmark <stream.mjpeg> [maxThreads] [passes]");
+      System.exit(1);
+    }
+    final List<byte[]> frames = splitFrames(readFile(args[0]));
+    final int maxThreads = args.length > 1
+        ? Integer.parseInt(args[1])
+        : Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int passes = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PASSES;
+    if (frames.isEmpty()) {
+      System.err.println("No JPEG frames in " + args[0]);
+      System.exit(1);
+    }
+
+    final MjpegDecoder probe = new MjpegDecoder();
+    int corruptFrames = 0;
+    for (byte[] frame : frames) {
+      if (!probe.decode(frame, frame.length)) {
+        ++corruptFrames;
+      }
+    }
+    System.out.println(frames.size() + " frames of " + probe.getWidth() + "x" + probe.getHeight()
+        + ", " + corruptFrames + " not decodable.");
+
+    // Warm up the JIT.
+    run(frames, 1, 1);
+    for (int threads = 1; threads <= maxThreads; ++threads) {
+      final long elapsedNs = run(frames, threads, passes);
+      final long decodedFrames = (long) frames.size() * passes;
+      System.out.println(String.format("%d thread(s): %.1f fps, %.2f ms per frame", threads,
+          decodedFrames * 1e9 / elapsedNs, elapsedNs / 1e6 / decodedFrames));
+    }
+  }
+
+  // Decodes all frames |passes| times, frame i on thread i % |threads|, and returns the time.
+  private static long run(final List<byte[]> frames, final int threads, final int passes)
+      throws InterruptedException {
+    final Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; ++i) {
+      final int index = i;
+      workers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          final MjpegDecoder decoder = new MjpegDecoder();
+          ByteBuffer output = ByteBuffer.allocateDirect(0);
+          for (int pass = 0; pass < passes; ++pass) {
+            for (int frame = index; frame < frames.size(); frame += threads) {
+              final byte[] data = frames.get(frame);
+              if (!decoder.decode(data, data.length)) {
+                continue;
+              }
+              final int width = decoder.getWidth();
+              final int height = decoder.getHeight();
+              final int chromaWidth = (width + 1) / 2;
+              final int chromaSize = chromaWidth * ((height + 1) / 2);
+              if (output.capacity() < width * height + 2 * chromaSize) {
+                output = ByteBuffer.allocateDirect(width * height + 2 * chromaSize);
+              }
+              decoder.writeI420(slice(output, 0, width * height), width,
+                  slice(output, width * height, chromaSize), chromaWidth,
+                  slice(output, width * height + chromaSize, chromaSize), chromaWidth);
+            }
+          }
+        }
+      });
+    }
+    final long startNs = System.nanoTime();
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return System.nanoTime() - startNs;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  private static byte[] readFile(String path) throws IOException {
+    final InputStream input = new FileInputStream(path);
+    try {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final byte[] chunk = new byte[1 << 16];
+      int read;
+      while ((read = input.read(chunk)) > 0) {
+        output.write(chunk, 0, read);
+      }
+      return output.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  // Splits a stream of concatenated JPEG frames at each start of image after an end of image.
+  private static List<byte[]> splitFrames(byte[] stream) {
+    final List<byte[]> frames = new ArrayList<>();
+    int start = -1;
+    boolean isEnded = true;
+    for (int i = 0; i + 2 < stream.length; ++i) {
+      if ((stream[i] & 0xFF) != 0xFF) {
+        continue;
+      }
+      final int marker = stream[i + 1] & 0xFF;
+      if (marker == 0xD8 && (stream[i + 2] & 0xFF) == 0xFF && isEnded) {
+        if (start >= 0) {
+          frames.add(copy(stream, start, i));
+        }
+        start = i;
+        isEnded = false;
+      } else if (marker == 0xD9) {
+        isEnded = true;
+      }
+    }
+    if (start >= 0) {
+      frames.add(copy(stream, start, stream.length));
+    }
+    return frames;
+  }
+
+  private static byte[] copy(byte[] data, int start, int end) {
+    final byte[] copy = new byte[end - start];
+    System.arraycopy(data, start, copy, 0, end - start);
+    return copy;
+  }
+}
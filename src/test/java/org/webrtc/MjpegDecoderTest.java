@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Decodes fixture frames of 100x60 and compares the planes to reference I420 files. The frames
+ * were encoded with the JPEG writer of javax.imageio. The references were decoded by libjpeg
+ * with the islow IDCT and raw data output, so luma and 4:2:0 chroma are libjpeg's samples as
+ * they are; 4:2:2 and 4:4:4 chroma is averaged over the covered samples like
+ * MjpegDecoder.writeChroma(), rounding half up.
+ */
+public class MjpegDecoderTest {
+  private static final int WIDTH = 100;
+  private static final int HEIGHT = 60;
+  private static final int CHROMA_WIDTH = WIDTH / 2;
+  private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+  private final MjpegDecoder decoder = new MjpegDecoder();
+
+  private static byte[] readFixture(String name) throws IOException {
+    final InputStream input = MjpegDecoderTest.class.getResourceAsStream(name);
+    assertNotNull("Missing fixture " + name, input);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[4096];
+    try {
+      int count;
+      while ((count = input.read(chunk)) > 0) {
+        bytes.write(chunk, 0, count);
+      }
+    } finally {
+      input.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    final byte[] array = new byte[buffer.capacity()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+
+  // Decodes |jpegName| and compares the I420 planes to those in |referenceName|.
+  private void assertDecodesTo(String jpegName, String referenceName) throws IOException {
+    final byte[] jpeg = readFixture(jpegName);
+    assertTrue(decoder.decode(jpeg, jpeg.length));
+    assertEquals(WIDTH, decoder.getWidth());
+    assertEquals(HEIGHT, decoder.getHeight());
+    assertPlanesEqual(referenceName);
+  }
+
+  private void assertPlanesEqual(String referenceName) throws IOException {
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    final ByteBuffer dataU = ByteBuffer.allocateDirect(CHROMA_WIDTH * CHROMA_HEIGHT);
+    final ByteBuffer dataV = ByteBuffer.allocateDirect(CHROMA_WIDTH * CHROMA_HEIGHT);
+    decoder.writeI420(dataY, WIDTH, dataU, CHROMA_WIDTH, dataV, CHROMA_WIDTH);
+
+    final byte[] reference = readFixture(referenceName);
+    final int chromaSize = CHROMA_WIDTH * CHROMA_HEIGHT;
+    assertEquals(WIDTH * HEIGHT + 2 * chromaSize, reference.length);
+    assertArrayEquals("Y", Arrays.copyOfRange(reference, 0, WIDTH * HEIGHT), toArray(dataY));
+    assertArrayEquals("U",
+        Arrays.copyOfRange(reference, WIDTH * HEIGHT, WIDTH * HEIGHT + chromaSize),
+        toArray(dataU));
+    assertArrayEquals("V",
+        Arrays.copyOfRange(reference, WIDTH * HEIGHT + chromaSize, reference.length),
+        toArray(dataV));
+  }
+
+  @Test
+  public void testDecode420() throws IOException {
+    assertDecodesTo("mjpeg_420.jpg", "mjpeg_420.yuv");
+  }
+
+  @Test
+  public void testDecode422() throws IOException {
+    assertDecodesTo("mjpeg_422.jpg", "mjpeg_422.yuv");
+  }
+
+  @Test
+  public void testDecode444() throws IOException {
+    assertDecodesTo("mjpeg_444.jpg", "mjpeg_444.yuv");
+  }
+
+  @Test
+  public void testDecodeWithRestartIntervals() throws IOException {
+    // DRI of 5 MCUs, so the last interval is partial.
+    assertDecodesTo("mjpeg_422_restart.jpg", "mjpeg_422_restart.yuv");
+  }
+
+  @Test
+  public void testDecodeWithoutHuffmanTables() throws IOException {
+    // mjpeg_422.jpg without its DHT segment, which holds the standard tables.
+    assertDecodesTo("mjpeg_422_no_dht.jpg", "mjpeg_422.yuv");
+  }
+
+  @Test
+  public void testTruncatedFrameFails() throws IOException {
+    final byte[] jpeg = readFixture("mjpeg_420_truncated.jpg");
+    assertFalse(decoder.decode(jpeg, jpeg.length));
+  }
+
+  @Test
+  public void testCorruptFramesFail() throws IOException {
+    final byte[] jpeg = readFixture("mjpeg_422_restart.jpg");
+    // Cut in the headers and in the entropy coded data.
+    assertFalse(decoder.decode(jpeg, 200));
+    assertFalse(decoder.decode(jpeg, jpeg.length / 2));
+
+    // No start of image.
+    final byte[] noStart = jpeg.clone();
+    noStart[1] = 0;
+    assertFalse(decoder.decode(noStart, noStart.length));
+
+    // A marker in the entropy coded data where a restart marker is due.
+    final byte[] noRestart = jpeg.clone();
+    final int restartMarker = indexOfMarker(noRestart, 0xD0);
+    noRestart[restartMarker + 1] = (byte) 0xC4;
+    assertFalse(decoder.decode(noRestart, noRestart.length));
+
+    // Progressive frames are not supported.
+    final byte[] progressive = jpeg.clone();
+    progressive[indexOfMarker(progressive, 0xC0) + 1] = (byte) 0xC2;
+    assertFalse(decoder.decode(progressive, progressive.length));
+  }
+
+  @Test
+  public void testDecodesAfterCorruptFrame() throws IOException {
+    final byte[] truncated = readFixture("mjpeg_420_truncated.jpg");
+    assertFalse(decoder.decode(truncated, truncated.length));
+    assertDecodesTo("mjpeg_422.jpg", "mjpeg_422.yuv");
+    assertDecodesTo("mjpeg_420.jpg", "mjpeg_420.yuv");
+  }
+
+  private static int indexOfMarker(byte[] jpeg, int marker) {
+    for (int i = 0; i + 1 < jpeg.length; ++i) {
+      if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+        return i;
+      }
+    }
+    throw new AssertionError("No marker " + Integer.toHexString(marker));
+  }
+}
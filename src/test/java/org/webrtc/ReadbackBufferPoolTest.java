@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ReadbackBufferPoolTest {
+  @Test
+  public void testReusesBuffers() {
+    ReadbackBufferPool pool = new ReadbackBufferPool(2);
+    ByteBuffer first = pool.acquire(100);
+    ByteBuffer second = pool.acquire(100);
+    pool.release(first);
+    pool.release(second);
+    assertSame(first, pool.acquire(100));
+    assertSame(second, pool.acquire(100));
+    assertEquals(2, pool.getAllocationCount());
+  }
+
+  @Test
+  public void testDropsBuffersOfOldSize() {
+    ReadbackBufferPool pool = new ReadbackBufferPool(2);
+    ByteBuffer small = pool.acquire(100);
+    ByteBuffer large = pool.acquire(200);
+    // Released after the size changed; not pooled.
+    pool.release(small);
+    assertEquals(0, pool.getFreeCount());
+    pool.release(large);
+    assertEquals(1, pool.getFreeCount());
+    assertNotSame(small, pool.acquire(100));
+  }
+
+  @Test
+  public void testIsBounded() {
+    ReadbackBufferPool pool = new ReadbackBufferPool(1);
+    ByteBuffer first = pool.acquire(100);
+    ByteBuffer second = pool.acquire(100);
+    pool.release(first);
+    pool.release(second);
+    assertEquals(1, pool.getFreeCount());
+  }
+}
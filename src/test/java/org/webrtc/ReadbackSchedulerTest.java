@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ReadbackSchedulerTest {
+  @Test
+  public void testDepthOneReadsBackImmediately() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(1);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(0, scheduler.submit());
+      assertEquals(0, scheduler.poll());
+      assertEquals(0, scheduler.getPendingCount());
+    }
+    assertEquals(-1, scheduler.flush());
+  }
+
+  @Test
+  public void testDoubleBufferingReturnsPreviousFrame() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(2);
+    assertEquals(0, scheduler.submit());
+    assertEquals(-1, scheduler.poll());
+    assertEquals(1, scheduler.submit());
+    assertEquals(0, scheduler.poll());
+    assertEquals(0, scheduler.submit());
+    assertEquals(1, scheduler.poll());
+    assertEquals(1, scheduler.getPendingCount());
+  }
+
+  @Test
+  public void testTripleBufferingReadsInSubmitOrder() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(3);
+    final int[] submitted = new int[10];
+    int polled = 0;
+    for (int frame = 0; frame < submitted.length; ++frame) {
+      submitted[frame] = scheduler.submit();
+      final int slot = scheduler.poll();
+      if (frame < 2) {
+        assertEquals(-1, slot);
+      } else {
+        assertEquals(submitted[polled++], slot);
+      }
+    }
+    assertEquals(2, scheduler.getPendingCount());
+    assertEquals(submitted[polled++], scheduler.flush());
+    assertEquals(submitted[polled++], scheduler.flush());
+    assertEquals(-1, scheduler.flush());
+    assertEquals(submitted.length, polled);
+  }
+
+  @Test
+  public void testFlushThenContinue() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(3);
+    assertEquals(0, scheduler.submit());
+    assertEquals(-1, scheduler.poll());
+    assertEquals(0, scheduler.flush());
+    // The next frame goes into the next slot and the pipeline fills up again.
+    assertEquals(1, scheduler.submit());
+    assertEquals(-1, scheduler.poll());
+    assertEquals(2, scheduler.submit());
+    assertEquals(-1, scheduler.poll());
+    assertEquals(0, scheduler.submit());
+    assertEquals(1, scheduler.poll());
+  }
+
+  @Test
+  public void testResetDropsPendingSlots() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(2);
+    scheduler.submit();
+    scheduler.poll();
+    scheduler.reset();
+    assertEquals(0, scheduler.getPendingCount());
+    assertEquals(-1, scheduler.flush());
+    assertEquals(0, scheduler.submit());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSubmitWithoutPollThrows() {
+    ReadbackScheduler scheduler = new ReadbackScheduler(2);
+    scheduler.submit();
+    scheduler.submit();
+    scheduler.submit();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroDepthThrows() {
+    new ReadbackScheduler(0);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RgbaFramePoolTest {
+  @Test
+  public void testReleasedFrameIsReused() {
+    RgbaFramePool pool = new RgbaFramePool(2, /* createBitmap= */ false);
+    RgbaFrame frame = pool.acquire(16, 8);
+    assertEquals(16 * 8 * 4, frame.getBuffer().capacity());
+    frame.release();
+    assertSame(frame, pool.acquire(16, 8));
+  }
+
+  @Test
+  public void testExhaustedPoolReturnsNull() {
+    RgbaFramePool pool = new RgbaFramePool(2, /* createBitmap= */ false);
+    RgbaFrame first = pool.acquire(16, 8);
+    RgbaFrame second = pool.acquire(16, 8);
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNotSame(first, second);
+    assertNull(pool.acquire(16, 8));
+
+    second.release();
+    assertSame(second, pool.acquire(16, 8));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDoubleReleaseThrows() {
+    RgbaFramePool pool = new RgbaFramePool(2, /* createBitmap= */ false);
+    RgbaFrame frame = pool.acquire(16, 8);
+    frame.release();
+    frame.release();
+  }
+
+  @Test
+  public void testDoubleReleaseDoesNotShareFrame() {
+    RgbaFramePool pool = new RgbaFramePool(2, /* createBitmap= */ false);
+    RgbaFrame frame = pool.acquire(16, 8);
+    frame.release();
+    try {
+      frame.release();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    RgbaFrame first = pool.acquire(16, 8);
+    RgbaFrame second = pool.acquire(16, 8);
+    assertNotSame(first, second);
+  }
+
+  @Test
+  public void testResolutionChangeDropsOldFrames() {
+    RgbaFramePool pool = new RgbaFramePool(1, /* createBitmap= */ false);
+    RgbaFrame small = pool.acquire(16, 8);
+    RgbaFrame large = pool.acquire(32, 16);
+    assertNotNull(large);
+    small.release();
+    // The small frame is not pooled again.
+    assertNull(pool.acquire(32, 16));
+    large.release();
+    assertSame(large, pool.acquire(32, 16));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyPoolThrows() {
+    new RgbaFramePool(0, /* createBitmap= */ false);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Tests the CPU path of ScreenChangeDetector on I420 frames; textures need a GL context. */
+public class ScreenChangeDetectorTest {
+  private static final int CELL_SIZE = 16;
+  private static final float DELTA = 1e-6f;
+
+  private final ScreenChangeDetector detector = new ScreenChangeDetector();
+
+  // A gray frame whose luma is |changedLuma| in the cell at |cellX|, |cellY|, if not negative.
+  private static VideoFrame createFrame(
+      int width, int height, int cellX, int cellY, int changedLuma) {
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(width * height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final boolean isChanged =
+            changedLuma >= 0 && x / CELL_SIZE == cellX && y / CELL_SIZE == cellY;
+        dataY.put(y * width + x, (byte) (isChanged ? changedLuma : 100));
+      }
+    }
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaSize = chromaWidth * ((height + 1) / 2);
+    final JavaI420Buffer buffer = JavaI420Buffer.wrap(width, height, dataY, width,
+        ByteBuffer.allocateDirect(chromaSize), chromaWidth, ByteBuffer.allocateDirect(chromaSize),
+        chromaWidth, null /* releaseCallback */);
+    return new VideoFrame(buffer, 0, 0);
+  }
+
+  private static VideoFrame createFrame(int width, int height) {
+    return createFrame(width, height, 0, 0, -1);
+  }
+
+  private float detectChange(VideoFrame frame) {
+    final float changedFraction = detector.detectChange(frame);
+    frame.release();
+    return changedFraction;
+  }
+
+  @Test
+  public void testEverythingChangedWithoutReference() {
+    assertEquals(1f, detectChange(createFrame(64, 48)), DELTA);
+  }
+
+  @Test
+  public void testUnchangedFrame() {
+    detectChange(createFrame(64, 48));
+    detector.setReference();
+    assertEquals(0f, detectChange(createFrame(64, 48)), DELTA);
+  }
+
+  @Test
+  public void testOneChangedCell() {
+    detectChange(createFrame(64, 48));
+    detector.setReference();
+    // 4x3 cells.
+    assertEquals(1f / 12, detectChange(createFrame(64, 48, 2, 1, 200)), DELTA);
+    // Without a new reference the next frame is compared to the same one.
+    assertEquals(0f, detectChange(createFrame(64, 48)), DELTA);
+  }
+
+  @Test
+  public void testChangedPartialCellAtEdge() {
+    detectChange(createFrame(72, 40));
+    detector.setReference();
+    // 5x3 cells, the last column and row are partial.
+    assertEquals(1f / 15, detectChange(createFrame(72, 40, 4, 2, 0)), DELTA);
+  }
+
+  @Test
+  public void testSmallLumaDifferenceIsUnchanged() {
+    detectChange(createFrame(64, 48));
+    detector.setReference();
+    assertEquals(0f, detectChange(createFrame(64, 48, 0, 0, 101)), DELTA);
+  }
+
+  @Test
+  public void testSizeChange() {
+    detectChange(createFrame(64, 48));
+    detector.setReference();
+    assertEquals(1f, detectChange(createFrame(48, 64)), DELTA);
+    detector.setReference();
+    assertEquals(0f, detectChange(createFrame(48, 64)), DELTA);
+  }
+}
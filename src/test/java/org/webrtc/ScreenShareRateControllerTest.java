@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScreenShareRateControllerTest {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int MIN_FPS = 5;
+  private static final int MAX_FPS = 30;
+  private static final int KEEP_ALIVE_MS = 1000;
+  // Enough changed cells for the maximum framerate.
+  private static final float FULL_MOTION = 0.5f;
+  private static final float SMALL_CHANGE = 0.005f;
+  private static final float DELTA = 1e-3f;
+
+  private ScreenShareRateController controller;
+  private long nowNs;
+
+  @Before
+  public void setUp() {
+    controller = new ScreenShareRateController(MIN_FPS, MAX_FPS, KEEP_ALIVE_MS);
+  }
+
+  // Passes a frame at the current time and forwards it if it is sent now.
+  private long onFrame(float changedFraction) {
+    final long delayNs = controller.getForwardDelayNs(changedFraction, nowNs);
+    if (delayNs == 0) {
+      controller.onFrameForwarded(nowNs, changedFraction == 0 /* isKeepAlive */);
+    }
+    return delayNs;
+  }
+
+  private static long intervalNs(float framerate) {
+    return (long) (TimeUnit.SECONDS.toNanos(1) / framerate);
+  }
+
+  @Test
+  public void testFirstFrameIsSent() {
+    assertEquals(0, onFrame(SMALL_CHANGE));
+  }
+
+  @Test
+  public void testUnchangedFramesAreSuppressed() {
+    // Nothing to keep alive before the first sent frame.
+    assertEquals(ScreenShareRateController.SUPPRESS, onFrame(0));
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    for (int i = 0; i < 29; ++i) {
+      nowNs += 33 * MS;
+      assertEquals(ScreenShareRateController.SUPPRESS, onFrame(0));
+    }
+  }
+
+  @Test
+  public void testKeepAlive() {
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    nowNs += (KEEP_ALIVE_MS - 1) * MS;
+    assertFalse(controller.isKeepAliveDue(nowNs));
+    assertEquals(ScreenShareRateController.SUPPRESS, onFrame(0));
+    nowNs += MS;
+    assertTrue(controller.isKeepAliveDue(nowNs));
+    assertEquals(0, onFrame(0));
+    // The next keepalive is due one interval after this one.
+    nowNs += (KEEP_ALIVE_MS - 1) * MS;
+    assertEquals(ScreenShareRateController.SUPPRESS, onFrame(0));
+    nowNs += MS;
+    assertEquals(0, onFrame(0));
+  }
+
+  @Test
+  public void testKeepAliveDisabled() {
+    controller = new ScreenShareRateController(MIN_FPS, MAX_FPS, 0 /* keepAliveMs */);
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    nowNs += 60 * KEEP_ALIVE_MS * MS;
+    assertFalse(controller.isKeepAliveDue(nowNs));
+    assertEquals(ScreenShareRateController.SUPPRESS, onFrame(0));
+  }
+
+  @Test
+  public void testFramerateRampsFromMinimumToMaximum() {
+    assertEquals(MIN_FPS, controller.getFramerate(), DELTA);
+    // A few changed cells stay near the minimum framerate.
+    for (int i = 0; i < 20; ++i) {
+      controller.getForwardDelayNs(SMALL_CHANGE, nowNs);
+    }
+    final float smallChangeFramerate = controller.getFramerate();
+    assertTrue(smallChangeFramerate > MIN_FPS);
+    assertTrue(smallChangeFramerate < MIN_FPS + (MAX_FPS - MIN_FPS) / 10f);
+
+    // More motion raises the framerate, up to the maximum.
+    float previousFramerate = smallChangeFramerate;
+    for (int i = 0; i < 5; ++i) {
+      controller.getForwardDelayNs(0.02f, nowNs);
+      assertTrue(controller.getFramerate() > previousFramerate);
+      previousFramerate = controller.getFramerate();
+    }
+    controller.getForwardDelayNs(FULL_MOTION, nowNs);
+    assertEquals(MAX_FPS, controller.getFramerate(), DELTA);
+
+    // And falls back to the minimum on a static screen.
+    for (int i = 0; i < 50; ++i) {
+      controller.getForwardDelayNs(0, nowNs);
+    }
+    assertEquals(MIN_FPS, controller.getFramerate(), 0.1f);
+  }
+
+  @Test
+  public void testMaxFramerateIsAtLeastMinimum() {
+    controller.setMaxFramerate(1);
+    controller.getForwardDelayNs(FULL_MOTION, nowNs);
+    assertEquals(MIN_FPS, controller.getFramerate(), DELTA);
+    controller.setMaxFramerate(15);
+    assertEquals(15, controller.getFramerate(), DELTA);
+  }
+
+  @Test
+  public void testEarlyChangeIsHeld() {
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    nowNs += 50 * MS;
+    final long delayNs = onFrame(SMALL_CHANGE);
+    // Held until one interval of the current framerate after the last sent frame.
+    assertEquals(intervalNs(controller.getFramerate()) - 50 * MS, delayNs);
+    assertTrue(delayNs > 100 * MS);
+    nowNs += delayNs;
+    assertEquals(0, onFrame(SMALL_CHANGE));
+  }
+
+  @Test
+  public void testChangeUpToQuarterIntervalEarlyIsSent() {
+    controller.getForwardDelayNs(FULL_MOTION, nowNs);
+    controller.onFrameForwarded(nowNs, false /* isKeepAlive */);
+    final long intervalNs = intervalNs(MAX_FPS);
+    nowNs += intervalNs - intervalNs / 4;
+    assertEquals(0, onFrame(FULL_MOTION));
+    nowNs += intervalNs / 2;
+    assertEquals(intervalNs / 2, onFrame(FULL_MOTION));
+  }
+
+  @Test
+  public void testFirstChangeAfterStaticPeriodIsSentImmediately() {
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    for (int i = 0; i < 60; ++i) {
+      nowNs += 33 * MS;
+      onFrame(0);
+    }
+    nowNs += 33 * MS;
+    assertEquals(0, onFrame(SMALL_CHANGE));
+  }
+
+  @Test
+  public void testChangeRightAfterKeepAliveIsSentImmediately() {
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    nowNs += KEEP_ALIVE_MS * MS;
+    assertEquals(0, onFrame(0));
+    nowNs += 10 * MS;
+    assertEquals(0, onFrame(SMALL_CHANGE));
+    // The next change is paced again.
+    nowNs += 10 * MS;
+    assertTrue(onFrame(SMALL_CHANGE) > 0);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the per-frame time and heap allocation of {@link VideoProcessorChain#fold},
+ * {@link I420BufferPool} and the parts of the chain that run without native code: pass-through,
+ * a crop without scaling and a pooled I420 stage. Scaling, rotation and NV21 conversion call into
+ * libyuv and are not covered. Runs on a desktop JVM; the android.jar is only needed to compile:
+ *
+ * <pre>
+ * cd src/main/java/org/webrtc
+ * javac -cp $ANDROID_HOME/platforms/android-29/android.jar:androidx-annotation.jar -d /tmp/chain \
+ *     {VideoProcessorChain,I420BufferPool,VideoProcessor,CapturerObserver,VideoFrame}.java \
+ *     {VideoSink,JavaI420Buffer,NV21Buffer,YuvHelper,JniCommon,RefCounted}.java \
+ *     {RefCountDelegate,CalledByNative,Logging,Loggable}.java \
+ *     ../../../../test/java/org/webrtc/VideoProcessorChainBenchmark.java
+ * java -cp /tmp/chain org.webrtc.VideoProcessorChainBenchmark [frames]
+ * </pre>
+ *
+ * Allocation is read from com.sun.management.ThreadMXBean where the JVM has it.
+ */
+class VideoProcessorChainBenchmark {
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int DEFAULT_FRAMES = 20000;
+
+  // A step of the benchmark, run |count| times.
+  private interface Body {
+    void run(int count);
+  }
+
+  // An I420 stage that copies the luma plane into a pooled buffer.
+  private static class CopyingStage implements VideoProcessorChain.Stage {
+    @Override
+    public VideoProcessorChain.BufferType getBufferType() {
+      return VideoProcessorChain.BufferType.I420;
+    }
+
+    @Override
+    public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+      final VideoFrame.I420Buffer input = (VideoFrame.I420Buffer) frame.getBuffer();
+      final JavaI420Buffer output = pool.acquire(input.getWidth(), input.getHeight());
+      final ByteBuffer source = input.getDataY();
+      final ByteBuffer destination = output.getDataY();
+      for (int y = 0; y < input.getHeight(); ++y) {
+        source.limit(y * input.getStrideY() + input.getWidth());
+        source.position(y * input.getStrideY());
+        destination.put(source);
+      }
+      return new VideoFrame(output, frame.getRotation(), frame.getTimestampNs());
+    }
+  }
+
+  public static void main(String[] args) {
+    final int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+    final VideoProcessor.FrameAdaptationParameters adaptation =
+        new VideoProcessor.FrameAdaptationParameters(0, 0, WIDTH, HEIGHT, 960, 540, 0, false);
+    final List<VideoProcessorChain.Op> ops = Arrays.asList(
+        new VideoProcessorChain.Op(VideoProcessorChain.Op.CROP, 10, 10, 900, 500),
+        new VideoProcessorChain.Op(VideoProcessorChain.Op.ROTATE, 0, 0, 90, 0),
+        new VideoProcessorChain.Op(VideoProcessorChain.Op.SCALE, 0, 0, 360, 640));
+    final JavaI420Buffer input = createBuffer();
+
+    measure("fold", frames, count -> {
+      for (int i = 0; i < count; ++i) {
+        VideoProcessorChain.fold(WIDTH, HEIGHT, adaptation, ops);
+      }
+    });
+
+    final I420BufferPool pool = new I420BufferPool(4);
+    measure("pool acquire/release", frames, count -> {
+      for (int i = 0; i < count; ++i) {
+        pool.acquire(WIDTH, HEIGHT).release();
+      }
+    });
+
+    measureChain("pass-through", new VideoProcessorChain.Builder().build(), input, frames);
+    measureChain("crop", new VideoProcessorChain.Builder().crop(160, 90, 960, 540).build(),
+        input, frames);
+    measureChain("crop + pooled stage", new VideoProcessorChain.Builder()
+                                            .crop(160, 90, 960, 540)
+                                            .addStage(new CopyingStage())
+                                            .build(),
+        input, frames);
+    input.release();
+  }
+
+  private static void measureChain(
+      String name, final VideoProcessorChain chain, final JavaI420Buffer input, int frames) {
+    chain.setSink(frame -> {});
+    measure(name, frames, count -> {
+      for (int i = 0; i < count; ++i) {
+        input.retain();
+        final VideoFrame frame = new VideoFrame(input, 0, i);
+        chain.onFrameCaptured(frame);
+        frame.release();
+      }
+    });
+    System.out.println("  " + chain.getStageTimings() + ", pool misses "
+        + chain.getPoolMissCount());
+    chain.dispose();
+  }
+
+  private static void measure(String name, int count, Body body) {
+    // Warm up the JIT.
+    body.run(count);
+    final long startBytes = getAllocatedBytes();
+    final long startNs = System.nanoTime();
+    body.run(count);
+    final long elapsedNs = System.nanoTime() - startNs;
+    final long allocatedBytes = getAllocatedBytes() - startBytes;
+    System.out.println(String.format("%s: %.2f us per frame, %s", name,
+        elapsedNs / 1e3 / count,
+        startBytes < 0 ? "allocation unknown"
+                       : String.format("%.0f bytes allocated per frame",
+                           (double) allocatedBytes / count)));
+  }
+
+  // Returns the bytes allocated by this thread so far, or -1 if the JVM does not tell.
+  private static long getAllocatedBytes() {
+    try {
+      final Object bean = Class.forName("java.lang.management.ManagementFactory")
+                              .getMethod("getThreadMXBean")
+                              .invoke(null);
+      final Method method = Class.forName("com.sun.management.ThreadMXBean")
+                                .getMethod("getThreadAllocatedBytes", long.class);
+      return (Long) method.invoke(bean, Thread.currentThread().getId());
+    } catch (ReflectiveOperationException e) {
+      return -1;
+    }
+  }
+
+  private static JavaI420Buffer createBuffer() {
+    final int chromaSize = (WIDTH / 2) * (HEIGHT / 2);
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      dataY.put(i, (byte) i);
+    }
+    return JavaI420Buffer.wrap(WIDTH, HEIGHT, dataY, WIDTH, ByteBuffer.allocateDirect(chromaSize),
+        WIDTH / 2, ByteBuffer.allocateDirect(chromaSize), WIDTH / 2, null);
+  }
+}
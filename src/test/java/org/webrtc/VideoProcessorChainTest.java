@@ -0,0 +1,279 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.webrtc.VideoProcessor.FrameAdaptationParameters;
+import org.webrtc.VideoProcessorChain.Op;
+import org.webrtc.VideoProcessorChain.Transform;
+
+/**
+ * Tests the folding of operations and the processing of byte buffer frames that does not need
+ * native code: crops without scaling, pass-through and custom stages.
+ */
+public class VideoProcessorChainTest {
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 8;
+
+  private static class Sink implements VideoSink {
+    final List<VideoFrame> frames = new ArrayList<>();
+    final List<Integer> firstLumaValues = new ArrayList<>();
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+      frames.add(frame);
+      firstLumaValues.add(frame.getBuffer().toI420().getDataY().get(0) & 0xFF);
+      frame.getBuffer().release();
+    }
+  }
+
+  private int releasedBuffers;
+
+  // A frame whose luma value at x,y is 16 * y + x.
+  private VideoFrame createFrame(long timestampNs) {
+    final ByteBuffer dataY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      dataY.put(i, (byte) i);
+    }
+    final int chromaSize = WIDTH / 2 * HEIGHT / 2;
+    final JavaI420Buffer buffer = JavaI420Buffer.wrap(WIDTH, HEIGHT, dataY, WIDTH,
+        ByteBuffer.allocateDirect(chromaSize), WIDTH / 2, ByteBuffer.allocateDirect(chromaSize),
+        WIDTH / 2, () -> ++releasedBuffers);
+    return new VideoFrame(buffer, 0, timestampNs);
+  }
+
+  private static String fold(
+      int width, int height, @Nullable FrameAdaptationParameters adaptation, Op... ops) {
+    return VideoProcessorChain.fold(width, height, adaptation, Arrays.asList(ops)).toString();
+  }
+
+  private static Op crop(int x, int y, int width, int height) {
+    return new Op(Op.CROP, x, y, width, height);
+  }
+
+  private static Op scale(int width, int height) {
+    return new Op(Op.SCALE, 0, 0, width, height);
+  }
+
+  private static Op rotate(int degrees) {
+    return new Op(Op.ROTATE, 0, 0, degrees, 0);
+  }
+
+  // A stage that drops every frame.
+  private static class DroppingStage implements VideoProcessorChain.Stage {
+    @Override
+    public VideoProcessorChain.BufferType getBufferType() {
+      return VideoProcessorChain.BufferType.ANY;
+    }
+
+    @Override
+    @Nullable
+    public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+      return null;
+    }
+  }
+
+  // A texture stage that counts its calls.
+  private static class TextureStage implements VideoProcessorChain.Stage {
+    int calls;
+
+    @Override
+    public VideoProcessorChain.BufferType getBufferType() {
+      return VideoProcessorChain.BufferType.TEXTURE;
+    }
+
+    @Override
+    public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+      ++calls;
+      frame.retain();
+      return frame;
+    }
+  }
+
+  // An I420 stage that writes each frame into a pooled buffer.
+  private static class CopyingStage implements VideoProcessorChain.Stage {
+    @Nullable I420BufferPool pool;
+
+    @Override
+    public VideoProcessorChain.BufferType getBufferType() {
+      return VideoProcessorChain.BufferType.I420;
+    }
+
+    @Override
+    public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+      this.pool = pool;
+      final VideoFrame.I420Buffer input = (VideoFrame.I420Buffer) frame.getBuffer();
+      final JavaI420Buffer output = pool.acquire(input.getWidth(), input.getHeight());
+      output.getDataY().put(0, input.getDataY().get(0));
+      return new VideoFrame(output, frame.getRotation(), frame.getTimestampNs());
+    }
+  }
+
+  @Test
+  public void testFoldWithoutOperationsIsIdentity() {
+    Transform transform = VideoProcessorChain.fold(640, 480, null, Collections.<Op>emptyList());
+    assertEquals("crop 0,0 640x480 scale 640x480 rotate 0", transform.toString());
+    assertFalse(transform.isCropOrScale(640, 480));
+  }
+
+  @Test
+  public void testFoldCropRoundsOffsetsToEven() {
+    assertEquals("crop 10,20 100x50 scale 100x50 rotate 0",
+        fold(640, 480, null, crop(11, 21, 100, 50)));
+  }
+
+  @Test
+  public void testFoldCropAfterScaleIsInInputPixels() {
+    assertEquals("crop 40,20 320x240 scale 160x120 rotate 0",
+        fold(640, 480, null, scale(320, 240), crop(20, 10, 160, 120)));
+  }
+
+  @Test
+  public void testFoldCropAfterRotation() {
+    // The top left of the rotated frame is the bottom left of the input.
+    assertEquals("crop 0,380 200x100 scale 200x100 rotate 90",
+        fold(640, 480, null, rotate(90), crop(0, 0, 100, 200)));
+    assertEquals("crop 540,280 100x200 scale 100x200 rotate 180",
+        fold(640, 480, null, rotate(180), crop(0, 0, 100, 200)));
+    assertEquals("crop 440,0 200x100 scale 200x100 rotate 270",
+        fold(640, 480, null, rotate(270), crop(0, 0, 100, 200)));
+  }
+
+  @Test
+  public void testFoldScaleAfterRotationIsTransposed() {
+    assertEquals("crop 0,0 640x480 scale 320x240 rotate 90",
+        fold(640, 480, null, rotate(90), scale(240, 320)));
+  }
+
+  @Test
+  public void testFoldFusesAdaptation() {
+    FrameAdaptationParameters adaptation =
+        new FrameAdaptationParameters(80, 60, 480, 360, 240, 180, 0, false);
+    assertEquals("crop 80,60 240x180 scale 120x90 rotate 0",
+        fold(640, 480, adaptation, crop(0, 0, 120, 90)));
+  }
+
+  @Test
+  public void testFoldClampsCropToFrame() {
+    assertEquals("crop 600,0 40x480 scale 40x480 rotate 0",
+        fold(640, 480, null, crop(600, 0, 100, 1000)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRotationMustBeMultipleOf90() {
+    new VideoProcessorChain.Builder().rotate(45);
+  }
+
+  @Test
+  public void testUnchangedFrameIsPassedOn() {
+    VideoProcessorChain chain = new VideoProcessorChain.Builder().build();
+    final List<VideoFrame> received = new ArrayList<>();
+    chain.setSink(received::add);
+    VideoFrame frame = createFrame(1000);
+    chain.onFrameCaptured(frame);
+    assertEquals(1, received.size());
+    assertSame(frame, received.get(0));
+    frame.release();
+    assertEquals(1, releasedBuffers);
+  }
+
+  @Test
+  public void testCropWithoutScaling() {
+    VideoProcessorChain chain = new VideoProcessorChain.Builder().crop(4, 2, 8, 4).build();
+    Sink sink = new Sink();
+    chain.setSink(sink);
+    VideoFrame frame = createFrame(1000);
+    chain.onFrameCaptured(frame);
+    frame.release();
+    assertEquals(1, sink.frames.size());
+    VideoFrame.Buffer output = sink.frames.get(0).getBuffer();
+    assertEquals(8, output.getWidth());
+    assertEquals(4, output.getHeight());
+    assertEquals(Arrays.asList(16 * 2 + 4), sink.firstLumaValues);
+    assertEquals(1000, sink.frames.get(0).getTimestampNs());
+    // The output wrapped the input planes and has been released by the chain.
+    assertEquals(1, releasedBuffers);
+  }
+
+  @Test
+  public void testAdaptationTimestampAndDrop() {
+    VideoProcessorChain chain = new VideoProcessorChain.Builder().build();
+    Sink sink = new Sink();
+    chain.setSink(sink);
+    VideoFrame frame = createFrame(1000);
+    chain.onFrameCaptured(
+        frame, new FrameAdaptationParameters(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 2000, false));
+    chain.onFrameCaptured(
+        frame, new FrameAdaptationParameters(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 3000, true));
+    frame.release();
+    assertEquals(1, sink.frames.size());
+    assertEquals(2000, sink.frames.get(0).getTimestampNs());
+    assertEquals(1, releasedBuffers);
+  }
+
+  @Test
+  public void testStagesDropAndAreTimed() {
+    VideoProcessorChain chain =
+        new VideoProcessorChain.Builder().addStage(new DroppingStage()).build();
+    Sink sink = new Sink();
+    chain.setSink(sink);
+    VideoFrame frame = createFrame(1000);
+    chain.onFrameCaptured(frame);
+    frame.release();
+    assertEquals(0, sink.frames.size());
+    assertEquals(1, chain.getFramesDropped());
+    List<VideoProcessorChain.StageTiming> timings = chain.getStageTimings();
+    // The leading transform and the stage.
+    assertEquals(2, timings.size());
+    assertEquals(1, timings.get(1).getCount());
+    assertEquals(1, releasedBuffers);
+  }
+
+  @Test
+  public void testTextureStageSkipsByteBuffers() {
+    TextureStage stage = new TextureStage();
+    VideoProcessorChain chain = new VideoProcessorChain.Builder().addStage(stage).build();
+    Sink sink = new Sink();
+    chain.setSink(sink);
+    VideoFrame frame = createFrame(1000);
+    chain.onFrameCaptured(frame);
+    frame.release();
+    assertEquals(0, stage.calls);
+    assertEquals(1, sink.frames.size());
+  }
+
+  @Test
+  public void testPooledStageDoesNotAllocateInSteadyState() {
+    CopyingStage stage = new CopyingStage();
+    VideoProcessorChain chain =
+        new VideoProcessorChain.Builder().crop(0, 0, 8, 8).addStage(stage).build();
+    chain.setSink(frame -> {});
+    for (int i = 0; i < 100; ++i) {
+      VideoFrame frame = createFrame(i);
+      chain.onFrameCaptured(frame);
+      frame.release();
+    }
+    assertEquals(100, releasedBuffers);
+    assertEquals(1, stage.pool.getAllocationCount());
+    assertEquals(0, chain.getPoolMissCount());
+    chain.dispose();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class AudioPacerTest {
+  // A task that takes |durationMs| per tick.
+  private static class SlowTask implements AudioPacer.Task {
+    final CountDownLatch started = new CountDownLatch(1);
+    final long durationMs;
+    volatile boolean isRunning;
+
+    SlowTask(long durationMs) {
+      this.durationMs = durationMs;
+    }
+
+    @Override
+    public void onTick() {
+      isRunning = true;
+      started.countDown();
+      try {
+        Thread.sleep(durationMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      isRunning = false;
+    }
+  }
+
+  @Test
+  public void testTasksAreCalled() throws InterruptedException {
+    AudioPacer pacer = new AudioPacer("TestPacer");
+    final CountDownLatch ticks = new CountDownLatch(5);
+    AudioPacer.Task task = ticks::countDown;
+    pacer.register(task);
+    assertTrue(ticks.await(2, TimeUnit.SECONDS));
+    pacer.unregister(task);
+  }
+
+  @Test
+  public void testRegisterDoesNotWaitForRunningTask() throws InterruptedException {
+    AudioPacer pacer = new AudioPacer("TestPacer");
+    SlowTask slowTask = new SlowTask(300);
+    pacer.register(slowTask);
+    assertTrue(slowTask.started.await(2, TimeUnit.SECONDS));
+    final long startNs = System.nanoTime();
+    final AtomicInteger otherTicks = new AtomicInteger();
+    AudioPacer.Task otherTask = otherTicks::incrementAndGet;
+    pacer.register(otherTask);
+    assertTrue(System.nanoTime() - startNs < TimeUnit.MILLISECONDS.toNanos(150));
+    pacer.unregister(slowTask);
+    pacer.unregister(otherTask);
+  }
+
+  @Test
+  public void testUnregisterWaitsForRunningTask() throws InterruptedException {
+    AudioPacer pacer = new AudioPacer("TestPacer");
+    SlowTask slowTask = new SlowTask(100);
+    pacer.register(slowTask);
+    assertTrue(slowTask.started.await(2, TimeUnit.SECONDS));
+    pacer.unregister(slowTask);
+    assertFalse(slowTask.isRunning);
+  }
+
+  @Test
+  public void testUnregisteredTaskIsNotCalledAgain() throws InterruptedException {
+    AudioPacer pacer = new AudioPacer("TestPacer");
+    final AtomicInteger ticks = new AtomicInteger();
+    AudioPacer.Task task = ticks::incrementAndGet;
+    // Keeps the pacer thread running after |task| is gone.
+    AudioPacer.Task otherTask = () -> {};
+    pacer.register(otherTask);
+    pacer.register(task);
+    Thread.sleep(50);
+    pacer.unregister(task);
+    final int ticksAtUnregister = ticks.get();
+    Thread.sleep(50);
+    pacer.unregister(otherTask);
+    assertTrue(ticksAtUnregister > 0);
+    assertEquals(ticksAtUnregister, ticks.get());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+public class PcmClipTest {
+  private static final byte[] SUBTYPE_PCM = {0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+      (byte) 0x80, 0x00, 0x00, (byte) 0xaa, 0x00, 0x38, (byte) 0x9b, 0x71};
+  private static final byte[] SUBTYPE_IEEE_FLOAT = {0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10,
+      0x00, (byte) 0x80, 0x00, 0x00, (byte) 0xaa, 0x00, 0x38, (byte) 0x9b, 0x71};
+
+  // A mono 16-bit WAV file with the given samples; extensible if |subFormat| is not null.
+  private static byte[] wav(int sampleRate, short[] samples, byte[] subFormat) {
+    final int formatSize = subFormat == null ? 16 : 40;
+    final ByteBuffer wav = ByteBuffer.allocate(12 + 8 + formatSize + 8 + 2 * samples.length)
+                               .order(ByteOrder.LITTLE_ENDIAN);
+    wav.put(new byte[] {'R', 'I', 'F', 'F'});
+    wav.putInt(wav.capacity() - 8);
+    wav.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+    wav.putInt(formatSize);
+    wav.putShort((short) (subFormat == null ? 1 : 0xFFFE));
+    wav.putShort((short) 1);
+    wav.putInt(sampleRate);
+    wav.putInt(sampleRate * 2);
+    wav.putShort((short) 2);
+    wav.putShort((short) 16);
+    if (subFormat != null) {
+      wav.putShort((short) 22);
+      wav.putShort((short) 16);
+      wav.putInt(4 /* SPEAKER_FRONT_CENTER */);
+      wav.put(subFormat);
+    }
+    wav.put(new byte[] {'d', 'a', 't', 'a'});
+    wav.putInt(2 * samples.length);
+    for (short sample : samples) {
+      wav.putShort(sample);
+    }
+    return wav.array();
+  }
+
+  private static double rms(short[] samples, int from, int to) {
+    double sum = 0;
+    for (int i = from; i < to; ++i) {
+      sum += (double) samples[i] * samples[i];
+    }
+    return Math.sqrt(sum / (to - from));
+  }
+
+  @Test
+  public void testReadsPcmWav() throws IOException {
+    PcmClip clip = PcmClip.fromWav(
+        new ByteArrayInputStream(wav(16000, new short[] {1, -2, 3, -4}, null)));
+    assertEquals(16000, clip.getSampleRate());
+    assertEquals(1, clip.getChannels());
+    assertEquals(4, clip.getFrameCount());
+    assertEquals(-4, clip.getSamples()[3]);
+  }
+
+  @Test
+  public void testReadsExtensiblePcmWav() throws IOException {
+    PcmClip clip = PcmClip.fromWav(
+        new ByteArrayInputStream(wav(16000, new short[] {1, -2, 3}, SUBTYPE_PCM)));
+    assertEquals(3, clip.getFrameCount());
+    assertEquals(3, clip.getSamples()[2]);
+  }
+
+  @Test
+  public void testRejectsExtensibleNonPcmWav() {
+    try {
+      PcmClip.fromWav(
+          new ByteArrayInputStream(wav(16000, new short[] {1, 2}, SUBTYPE_IEEE_FLOAT)));
+      fail("Float samples were read as PCM");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testConversionsAreCachedPerFormat() {
+    PcmClip clip = PcmClip.tone(48000, 1, 440, -6);
+    assertSame(clip, clip.convert(48000, 1));
+    PcmClip mono16k = clip.convert(16000, 1);
+    PcmClip stereo48k = clip.convert(48000, 2);
+    assertNotSame(mono16k, stereo48k);
+    assertSame(mono16k, clip.convert(16000, 1));
+    assertSame(stereo48k, clip.convert(48000, 2));
+    assertEquals(16000, mono16k.getFrameCount());
+    assertEquals(2, stereo48k.getChannels());
+  }
+
+  @Test
+  public void testDownsamplingKeepsPassband() {
+    PcmClip converted = PcmClip.tone(48000, 1, 1000, -6).convert(8000, 1);
+    final double expected = 32767 * Math.pow(10, -6 / 20.0) / Math.sqrt(2);
+    // Away from the edges, where the filter sees silence beyond the clip.
+    assertEquals(expected, rms(converted.getSamples(), 800, 7200), expected * 0.05);
+  }
+
+  @Test
+  public void testDownsamplingRemovesFrequenciesAboveNyquist() {
+    // 6 kHz would alias to 2 kHz at 8 kHz.
+    PcmClip converted = PcmClip.tone(48000, 1, 6000, -6).convert(8000, 1);
+    final double level = 32767 * Math.pow(10, -6 / 20.0) / Math.sqrt(2);
+    final double aliased = rms(converted.getSamples(), 800, 7200);
+    assertTrue("Aliased level " + aliased, aliased < level * Math.pow(10, -40 / 20.0));
+  }
+
+  @Test
+  public void testStereoIsDownmixedByAveraging() {
+    PcmClip stereo = PcmClip.tone(8000, 2, 500, -6);
+    PcmClip mono = stereo.convert(8000, 1);
+    for (int i = 0; i < mono.getFrameCount(); ++i) {
+      assertEquals(stereo.getSamples()[2 * i], mono.getSamples()[i]);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ShortBuffer;
+import org.junit.Test;
+
+public class PcmRingBufferTest {
+  // Samples |first|, |first| + 1, ...
+  private static short[] ramp(int first, int count) {
+    final short[] samples = new short[count];
+    for (int i = 0; i < count; ++i) {
+      samples[i] = (short) (first + i);
+    }
+    return samples;
+  }
+
+  private static short[] read(PcmRingBuffer.Consumer consumer, int length) {
+    final short[] destination = new short[length];
+    final int count = consumer.read(destination, 0, length);
+    final short[] result = new short[count];
+    System.arraycopy(destination, 0, result, 0, count);
+    return result;
+  }
+
+  @Test
+  public void testCapacityIsRoundedUpToPowerOfTwo() {
+    assertEquals(8, new PcmRingBuffer(5).getCapacity());
+    assertEquals(8, new PcmRingBuffer(8).getCapacity());
+  }
+
+  @Test
+  public void testReadsWhatWasWritten() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    ring.write(ramp(1, 5), 0, 5);
+    assertEquals(5, consumer.available());
+    assertArrayEquals(ramp(1, 3), read(consumer, 3));
+    assertArrayEquals(ramp(4, 2), read(consumer, 8));
+    assertEquals(0, consumer.read(new short[8], 0, 8));
+  }
+
+  @Test
+  public void testWriteWrapsAroundInBulk() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    ring.write(ramp(1, 6), 0, 6);
+    assertArrayEquals(ramp(1, 6), read(consumer, 6));
+    // Starts at index 6 and continues at index 0.
+    ring.write(ramp(7, 5), 0, 5);
+    assertArrayEquals(ramp(7, 5), read(consumer, 8));
+    assertEquals(0, consumer.getOverrunSamples());
+  }
+
+  @Test
+  public void testSlowConsumerSkipsAheadAndCountsOverrun() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    ring.write(ramp(1, 6), 0, 6);
+    ring.write(ramp(7, 6), 0, 6);
+    assertEquals(12, consumer.getLagSamples());
+    assertArrayEquals(ramp(5, 8), read(consumer, 16));
+    assertEquals(4, consumer.getOverrunSamples());
+    assertEquals(12, consumer.getMaxLagSamples());
+  }
+
+  @Test
+  public void testWriteLargerThanCapacityKeepsTheLastSamples() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    ring.write(ramp(1, 3), 0, 3);
+    assertArrayEquals(ramp(1, 3), read(consumer, 3));
+    ring.write(ramp(4, 20), 2, 18);
+    assertEquals(21, ring.getWritePosition());
+    assertArrayEquals(ramp(16, 8), read(consumer, 16));
+    assertEquals(10, consumer.getOverrunSamples());
+  }
+
+  @Test
+  public void testShortBufferWriteKeepsSourcePosition() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    ring.write(ramp(1, 5), 0, 5);
+    read(consumer, 5);
+    ShortBuffer source = ShortBuffer.wrap(ramp(0, 10));
+    source.position(3);
+    source.limit(9);
+    ring.write(source);
+    assertEquals(3, source.position());
+    assertArrayEquals(ramp(3, 6), read(consumer, 8));
+  }
+
+  @Test
+  public void testNothingIsStoredWithoutConsumers() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    ring.write(ramp(1, 6), 0, 6);
+    assertEquals(0, ring.getConsumerCount());
+    assertEquals(6, ring.getWritePosition());
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    assertEquals(0, consumer.available());
+    ring.write(ramp(7, 4), 0, 4);
+    assertEquals(4, consumer.available());
+    assertArrayEquals(ramp(7, 4), read(consumer, 8));
+    assertEquals(0, consumer.getOverrunSamples());
+  }
+
+  @Test
+  public void testConsumerBehindSkippedSamplesMovesPastThem() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer first = ring.createConsumer();
+    ring.write(ramp(1, 4), 0, 4);
+    first.close();
+    // Skipped, so the samples at the start of the ring are stale.
+    ring.write(ramp(5, 4), 0, 4);
+    PcmRingBuffer.Consumer second = ring.createConsumer();
+    ring.write(ramp(9, 2), 0, 2);
+    assertArrayEquals(ramp(9, 2), read(second, 8));
+  }
+
+  @Test
+  public void testCloseStopsFilling() {
+    PcmRingBuffer ring = new PcmRingBuffer(8);
+    PcmRingBuffer.Consumer first = ring.createConsumer();
+    PcmRingBuffer.Consumer second = ring.createConsumer();
+    assertEquals(2, ring.getConsumerCount());
+    first.close();
+    first.close();
+    assertEquals(1, ring.getConsumerCount());
+    second.close();
+    assertEquals(0, ring.getConsumerCount());
+    ring.write(ramp(1, 4), 0, 4);
+    assertEquals(4, ring.getWritePosition());
+  }
+
+  @Test
+  public void testLagInMilliseconds() {
+    PcmRingBuffer ring = new PcmRingBuffer(1024);
+    ring.setFormat(48000, 2);
+    PcmRingBuffer.Consumer consumer = ring.createConsumer();
+    assertEquals(0, consumer.getLagMs());
+    ring.write(new short[960], 0, 960);
+    assertEquals(10, consumer.getLagMs());
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Drives the controller with simulated write timing traces of a 48 kHz track. */
+public class PlayoutBufferControllerTest {
+  private static final int SAMPLE_RATE = 48000;
+  private static final int CHUNK_FRAMES = 480;
+  private static final long CHUNK_US = 10000;
+  private static final int MAX_FRAMES = 20 * CHUNK_FRAMES;
+
+  private PlayoutBufferController controller;
+  private long nowUs;
+
+  @Before
+  public void setUp() {
+    controller = new PlayoutBufferController(SAMPLE_RATE, CHUNK_FRAMES, 0, MAX_FRAMES);
+    nowUs = 0;
+  }
+
+  // Feeds one chunk written |intervalUs| after the previous one.
+  private boolean chunk(long intervalUs, int underruns) {
+    nowUs += intervalUs;
+    return controller.onChunk(nowUs, intervalUs, underruns);
+  }
+
+  // Feeds chunks on time for |durationMs|.
+  private void steady(long durationMs) {
+    for (long i = 0; i < durationMs / 10; ++i) {
+      chunk(CHUNK_US, 0);
+    }
+  }
+
+  @Test
+  public void testStartsWithTwoChunks() {
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(20, controller.getBufferSizeMs());
+  }
+
+  @Test
+  public void testSteadyTraceKeepsMinimum() {
+    steady(60000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(0, controller.getGrowCount());
+    assertEquals(0, controller.getShrinkCount());
+  }
+
+  @Test
+  public void testBoundedJitterKeepsMinimum() {
+    // Scheduling jitter of up to +-7 ms around the chunk period.
+    Random random = new Random(1);
+    for (int i = 0; i < 6000; ++i) {
+      chunk(CHUNK_US + random.nextInt(14001) - 7000, 0);
+    }
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(0, controller.getGrowCount());
+  }
+
+  @Test
+  public void testUnderrunsGrowByChunks() {
+    steady(1000);
+    assertTrue(chunk(CHUNK_US, 1));
+    assertEquals(3 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertTrue(chunk(CHUNK_US, 2));
+    assertEquals(5 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(2, controller.getGrowCount());
+  }
+
+  @Test
+  public void testGrowthIsCappedAtMaximum() {
+    assertTrue(chunk(CHUNK_US, 100));
+    assertEquals(MAX_FRAMES, controller.getBufferSizeFrames());
+    assertFalse(chunk(CHUNK_US, 1));
+  }
+
+  @Test
+  public void testPeriodicStallGrowsToCoverIt() {
+    // The writing thread is 40 ms late once a second.
+    for (int second = 0; second < 10; ++second) {
+      steady(990);
+      chunk(5 * CHUNK_US, 0);
+    }
+    // One chunk plus 40 ms.
+    assertEquals(5 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(1, controller.getGrowCount());
+    assertEquals(0, controller.getShrinkCount());
+  }
+
+  @Test
+  public void testShrinksOneChunkPerStablePeriodAfterStallsEnd() {
+    chunk(5 * CHUNK_US, 0);
+    assertEquals(5 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    // The stall stays in the interval windows for up to 4 s, then one chunk goes every 5 s.
+    steady(9000);
+    assertEquals(4 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    steady(5000);
+    assertEquals(3 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    steady(5000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    steady(30000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(3, controller.getShrinkCount());
+  }
+
+  @Test
+  public void testUnderrunAfterShrinkDoublesStablePeriod() {
+    steady(1000);
+    chunk(CHUNK_US, 1);
+    steady(5000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(1, controller.getShrinkCount());
+    // The smaller buffer underruns right away, so the next shrink waits 10 s.
+    steady(1000);
+    chunk(CHUNK_US, 1);
+    assertEquals(3 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    steady(9000);
+    assertEquals(3 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    steady(1000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(2, controller.getShrinkCount());
+  }
+
+  @Test
+  public void testUnderrunLongAfterShrinkKeepsStablePeriod() {
+    steady(1000);
+    chunk(CHUNK_US, 1);
+    steady(5000);
+    assertEquals(1, controller.getShrinkCount());
+    steady(6000);
+    chunk(CHUNK_US, 1);
+    steady(5000);
+    assertEquals(2 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertEquals(2, controller.getShrinkCount());
+  }
+
+  @Test
+  public void testAppliedSizeIsUsed() {
+    chunk(CHUNK_US, 1);
+    // The track rounded the request up.
+    controller.onBufferSizeApplied(4 * CHUNK_FRAMES);
+    assertEquals(4 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+    assertTrue(chunk(CHUNK_US, 1));
+    assertEquals(5 * CHUNK_FRAMES, controller.getBufferSizeFrames());
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StreamAudioInputBackendTest {
+  private static final int SAMPLE_RATE = 8000;
+  // 10 ms of mono 16-bit audio.
+  private static final int CHUNK_BYTES = SAMPLE_RATE / 100 * 2;
+
+  // Collects the non-silent chunks, with samples converted back to little endian.
+  private static class Recorder implements AudioInputBackend.Callback {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+    final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+    int chunks;
+
+    @Override
+    public void onDataRecorded() {
+      ++chunks;
+      final byte[] chunk = new byte[CHUNK_BYTES];
+      buffer.position(0);
+      buffer.get(chunk);
+      boolean silent = true;
+      for (byte b : chunk) {
+        silent &= b == 0;
+      }
+      if (silent) {
+        return;
+      }
+      final ByteBuffer littleEndian =
+          ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      final ByteBuffer nativeOrder = ByteBuffer.wrap(chunk).order(ByteOrder.nativeOrder());
+      while (nativeOrder.hasRemaining()) {
+        littleEndian.putShort(nativeOrder.getShort());
+      }
+      audio.write(littleEndian.array(), 0, CHUNK_BYTES);
+    }
+  }
+
+  // |length| bytes of non-zero samples.
+  private static byte[] audio(int length) {
+    final byte[] audio = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      audio[i] = (byte) (1 + i % 100);
+    }
+    return audio;
+  }
+
+  @Test
+  public void testDeliversStreamAndSignalsEnd() throws InterruptedException {
+    final byte[] input = audio(5 * CHUNK_BYTES);
+    final CountDownLatch ended = new CountDownLatch(1);
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(input), ended::countDown);
+    Recorder recorder = new Recorder();
+    assertTrue(backend.init(SAMPLE_RATE, 1));
+    assertTrue(backend.start(recorder.buffer, recorder));
+    assertTrue(ended.await(2, TimeUnit.SECONDS));
+    backend.stop();
+    backend.release();
+    assertTrue(backend.isEndOfStream());
+    assertArrayEquals(input, recorder.audio.toByteArray());
+  }
+
+  @Test
+  public void testPartialLastChunkIsPaddedWithSilence() throws InterruptedException {
+    final byte[] input = audio(CHUNK_BYTES + 10);
+    final CountDownLatch ended = new CountDownLatch(1);
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(input), ended::countDown);
+    Recorder recorder = new Recorder();
+    backend.init(SAMPLE_RATE, 1);
+    backend.start(recorder.buffer, recorder);
+    assertTrue(ended.await(2, TimeUnit.SECONDS));
+    backend.stop();
+    backend.release();
+    final byte[] output = recorder.audio.toByteArray();
+    assertEquals(2 * CHUNK_BYTES, output.length);
+    for (int i = 0; i < input.length; ++i) {
+      assertEquals(input[i], output[i]);
+    }
+    for (int i = input.length; i < output.length; ++i) {
+      assertEquals(0, output[i]);
+    }
+  }
+
+  @Test
+  public void testSilenceAfterEndIsNotAnUnderrun() throws InterruptedException {
+    final CountDownLatch ended = new CountDownLatch(1);
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(audio(CHUNK_BYTES)),
+        ended::countDown);
+    Recorder recorder = new Recorder();
+    backend.init(SAMPLE_RATE, 1);
+    backend.start(recorder.buffer, recorder);
+    assertTrue(ended.await(2, TimeUnit.SECONDS));
+    final long underrunsAtEnd = backend.getUnderruns();
+    Thread.sleep(50);
+    backend.stop();
+    backend.release();
+    assertEquals(underrunsAtEnd, backend.getUnderruns());
+    assertTrue(recorder.chunks > 2);
+  }
+
+  @Test
+  public void testRestartContinuesWhereItStopped() throws InterruptedException {
+    final byte[] input = audio(20 * CHUNK_BYTES);
+    final CountDownLatch ended = new CountDownLatch(1);
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(input), ended::countDown);
+    Recorder recorder = new Recorder();
+    assertTrue(backend.init(SAMPLE_RATE, 1));
+    assertTrue(backend.start(recorder.buffer, recorder));
+    while (recorder.audio.size() < 3 * CHUNK_BYTES) {
+      Thread.sleep(5);
+    }
+    backend.stop();
+    final int deliveredBeforeStop = recorder.audio.size();
+    assertTrue(deliveredBeforeStop < input.length);
+    // Stopped for longer than the read-ahead lasts.
+    Thread.sleep(150);
+    assertEquals(deliveredBeforeStop, recorder.audio.size());
+    assertTrue(backend.init(SAMPLE_RATE, 1));
+    assertTrue(backend.start(recorder.buffer, recorder));
+    assertTrue(ended.await(2, TimeUnit.SECONDS));
+    backend.stop();
+    backend.release();
+    assertArrayEquals(input, recorder.audio.toByteArray());
+  }
+
+  @Test
+  public void testFormatCannotChangeWhileReading() {
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(audio(20 * CHUNK_BYTES)));
+    Recorder recorder = new Recorder();
+    backend.init(SAMPLE_RATE, 1);
+    backend.start(recorder.buffer, recorder);
+    backend.stop();
+    assertFalse(backend.init(SAMPLE_RATE, 2));
+    backend.release();
+  }
+
+  @Test
+  public void testRejectsWrongBufferSize() {
+    StreamAudioInputBackend backend = new StreamAudioInputBackend(
+        new AudioPacer("TestPacer"), new ByteArrayInputStream(new byte[0]));
+    backend.init(SAMPLE_RATE, 1);
+    Recorder recorder = new Recorder();
+    assertFalse(backend.start(ByteBuffer.allocateDirect(CHUNK_BYTES + 2), recorder));
+    backend.release();
+  }
+}
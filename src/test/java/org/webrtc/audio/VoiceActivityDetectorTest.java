@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2019 The WebRTC project authors. All Rights Reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.webrtc.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Runs the detector over the WAV fixtures next to this class. They are synthetic, 8 kHz mono:
+ * harmonic 150 Hz tones at -20 dBFS standing in for voiced speech, over white noise.
+ */
+public class VoiceActivityDetectorTest {
+  private static final int SAMPLE_RATE = 8000;
+  private static final int FRAME_SAMPLES = SAMPLE_RATE / 100;
+
+  // 16-bit mono samples of a fixture.
+  private static short[] readWav(String name) throws IOException {
+    final InputStream input = VoiceActivityDetectorTest.class.getResourceAsStream(name);
+    assertNotNull("Missing fixture " + name, input);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[4096];
+    try {
+      int count;
+      while ((count = input.read(chunk)) > 0) {
+        bytes.write(chunk, 0, count);
+      }
+    } finally {
+      input.close();
+    }
+    final ByteBuffer wav = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    wav.position(12);
+    while (wav.remaining() >= 8) {
+      final int id = wav.getInt();
+      final int size = wav.getInt();
+      if (id == 0x61746164 /* "data" */) {
+        final short[] samples = new short[size / 2];
+        wav.asShortBuffer().get(samples);
+        return samples;
+      }
+      if (id == 0x20746d66 /* "fmt " */) {
+        assertEquals(1, wav.getShort(wav.position()));
+        assertEquals(1, wav.getShort(wav.position() + 2));
+        assertEquals(SAMPLE_RATE, wav.getInt(wav.position() + 4));
+      }
+      wav.position(wav.position() + size);
+    }
+    throw new IOException("No data chunk in " + name);
+  }
+
+  // Times in ms of the frames at which the speaking state changed.
+  private static List<Integer> transitions(VoiceActivityDetector detector, short[] samples) {
+    final List<Integer> times = new ArrayList<>();
+    for (int offset = 0; offset + FRAME_SAMPLES <= samples.length; offset += FRAME_SAMPLES) {
+      if (detector.process(samples, offset, FRAME_SAMPLES)) {
+        times.add(offset * 1000 / SAMPLE_RATE);
+      }
+    }
+    return times;
+  }
+
+  @Test
+  public void testSpeechBurstsAreDetected() throws IOException {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    List<Integer> times = transitions(detector, readWav("speech_bursts.wav"));
+    // Speech from 1.0 s to 3.0 s; the 50 ms gaps between syllables are bridged by the hangover.
+    assertEquals(times.toString(), 2, times.size());
+    assertTrue(times.toString(), times.get(0) >= 1000 && times.get(0) <= 1100);
+    assertTrue(times.toString(), times.get(1) >= 3000 && times.get(1) <= 3400);
+    assertFalse(detector.isSpeaking());
+  }
+
+  @Test
+  public void testSustainedSpeechDoesNotRaiseNoiseFloorIntoIt() throws IOException {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    List<Integer> times = transitions(detector, readWav("sustained_speech.wav"));
+    // Speech starts at 0.5 s and lasts until the end, 7.5 s later, without a pause.
+    assertEquals(times.toString(), 1, times.size());
+    assertTrue(times.toString(), times.get(0) >= 500 && times.get(0) <= 600);
+    assertTrue(detector.isSpeaking());
+    assertTrue(detector.getNoiseFloorDbfs() < -40.0);
+  }
+
+  @Test
+  public void testSteadyNoiseIsNotSpeech() throws IOException {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    List<Integer> times = transitions(detector, readWav("steady_noise.wav"));
+    assertTrue(times.toString(), times.isEmpty());
+    assertEquals(-40.0, detector.getNoiseFloorDbfs(), 2.0);
+    assertEquals(-40.0, detector.getSmoothedDbfs(), 2.0);
+  }
+
+  @Test
+  public void testLevelsOfFullScaleSquareWave() {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    short[] frame = new short[FRAME_SAMPLES];
+    for (int i = 0; i < frame.length; ++i) {
+      frame[i] = (i / 4) % 2 == 0 ? Short.MAX_VALUE : -Short.MAX_VALUE;
+    }
+    detector.process(frame, 0, frame.length);
+    assertEquals(0.0, detector.getRmsDbfs(), 0.01);
+    assertEquals(0.0, detector.getPeakDbfs(), 0.01);
+  }
+
+  @Test
+  public void testDigitalSilence() {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    short[] frame = new short[FRAME_SAMPLES];
+    for (int i = 0; i < 100; ++i) {
+      assertFalse(detector.process(frame, 0, frame.length));
+    }
+    assertEquals(VoiceActivityDetector.MIN_LEVEL_DBFS, detector.getRmsDbfs(), 0.0);
+    assertEquals(100, detector.getFrameCount());
+  }
+
+  @Test
+  public void testResetForgetsState() throws IOException {
+    VoiceActivityDetector detector = new VoiceActivityDetector();
+    transitions(detector, readWav("sustained_speech.wav"));
+    assertTrue(detector.isSpeaking());
+    detector.reset();
+    assertFalse(detector.isSpeaking());
+    assertEquals(0, detector.getFrameCount());
+    assertTrue(transitions(detector, readWav("steady_noise.wav")).isEmpty());
+  }
+}